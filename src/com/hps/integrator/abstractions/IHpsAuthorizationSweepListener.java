@@ -0,0 +1,8 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.entities.credit.HpsAuthorizationSweepResult;
+
+public interface IHpsAuthorizationSweepListener {
+
+	void onSweepCompleted(HpsAuthorizationSweepResult result);
+}
@@ -0,0 +1,8 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.entities.batch.HpsBatchCloseResult;
+
+public interface IHpsBatchCloseListener {
+
+	void onBatchClosed(HpsBatchCloseResult result);
+}
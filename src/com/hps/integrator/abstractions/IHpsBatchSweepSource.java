@@ -0,0 +1,18 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.infrastructure.HpsException;
+
+import java.util.List;
+
+public interface IHpsBatchSweepSource {
+
+	/**
+	 * Removes and returns the work that must reach the gateway before the batch is closed.
+	 */
+	List<IHpsBatchSweepTask> drainSweepTasks();
+
+	/**
+	 * Called for a drained task that failed, so that it can be kept for the next sweep.
+	 */
+	void onSweepFailure(IHpsBatchSweepTask task, HpsException exception);
+}
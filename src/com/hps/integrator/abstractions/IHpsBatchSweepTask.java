@@ -0,0 +1,9 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsCreditService;
+
+public interface IHpsBatchSweepTask {
+
+	void execute(HpsCreditService service) throws HpsException;
+}
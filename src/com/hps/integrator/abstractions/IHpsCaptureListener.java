@@ -0,0 +1,13 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.infrastructure.HpsException;
+
+public interface IHpsCaptureListener {
+
+	void onCaptured(int transactionId);
+
+	/**
+	 * Called when a capture is given up on after its last attempt.
+	 */
+	void onCaptureFailed(int transactionId, HpsException exception);
+}
@@ -0,0 +1,12 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.entities.HpsCardBrand;
+
+public interface IHpsCardBrandResolver {
+
+	/**
+	 * @return The brand of the card number between {@code start} and {@code end} in {@code value}, or
+	 *         {@link HpsCardBrand#Unknown} if it cannot be resolved.
+	 */
+	HpsCardBrand getBrand(String value, int start, int end);
+}
@@ -0,0 +1,8 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.entities.credit.HpsReportTransactionSummary;
+
+public interface IHpsReportTransactionHandler {
+
+	void onTransaction(HpsReportTransactionSummary transaction);
+}
@@ -0,0 +1,13 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.infrastructure.HpsException;
+
+public interface IHpsReversalListener {
+
+	void onReversed(int transactionId);
+
+	/**
+	 * Called when a reversal is given up on after its last attempt.
+	 */
+	void onReversalFailed(int transactionId, HpsException exception);
+}
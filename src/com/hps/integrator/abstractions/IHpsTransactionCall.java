@@ -0,0 +1,8 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.infrastructure.HpsException;
+
+public interface IHpsTransactionCall<T> {
+
+	T call() throws HpsException;
+}
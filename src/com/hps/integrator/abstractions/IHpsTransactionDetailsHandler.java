@@ -0,0 +1,11 @@
+package com.hps.integrator.abstractions;
+
+import com.hps.integrator.entities.credit.HpsReportTransactionDetails;
+import com.hps.integrator.infrastructure.HpsException;
+
+public interface IHpsTransactionDetailsHandler {
+
+	void onDetails(int transactionId, HpsReportTransactionDetails details);
+
+	void onError(int transactionId, HpsException exception);
+}
@@ -0,0 +1,99 @@
+package com.hps.integrator.entities;
+
+/**
+ * A range of card numbers sharing a brand, card type and issuing country.
+ * <p>
+ * The ends of the range are kept as the first {@link #KEY_DIGITS} digits of a card number, so a range given by
+ * BIN prefixes covers every number starting with a prefix between them, e.g. "411111" to "411112" covers
+ * 411111000000 to 411112999999.
+ */
+public class HpsBinRange {
+    public static final int KEY_DIGITS = 12;
+
+    private long low;
+    private long high;
+    private HpsCardBrand brand;
+    private HpsCardType cardType;
+    private String country;
+
+    public HpsBinRange() {
+        this.brand = HpsCardBrand.Unknown;
+        this.cardType = HpsCardType.Unknown;
+    }
+
+    /**
+     * @param lowPrefix  The leading digits of the lowest card number in the range.
+     * @param highPrefix The leading digits of the highest card number in the range.
+     * @param country    The issuing country's two letter ISO 3166 code, or null if unknown.
+     */
+    public HpsBinRange(String lowPrefix, String highPrefix, HpsCardBrand brand, HpsCardType cardType, String country) {
+        this.low = toKey(lowPrefix, '0');
+        this.high = toKey(highPrefix, '9');
+        this.brand = brand == null ? HpsCardBrand.Unknown : brand;
+        this.cardType = cardType == null ? HpsCardType.Unknown : cardType;
+        this.country = country;
+    }
+
+    /**
+     * @return The key of the card number between {@code start} and {@code end} in {@code value}: its first
+     *         {@link #KEY_DIGITS} digits, padded with {@code pad}; or -1 if it has a character other than a digit.
+     */
+    public static long toKey(String value, int start, int end, char pad) {
+        long key = 0;
+        for(int i = 0; i < KEY_DIGITS; i++) {
+            char c = start + i < end ? value.charAt(start + i) : pad;
+            if(c < '0' || c > '9')
+                return -1;
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    private static long toKey(String prefix, char pad) {
+        long key = prefix == null || prefix.length() == 0 || prefix.length() > KEY_DIGITS
+                ? -1 : toKey(prefix, 0, prefix.length(), pad);
+        if(key < 0)
+            throw new IllegalArgumentException("A BIN prefix must have 1 to " + KEY_DIGITS + " digits.");
+        return key;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public void setLow(long low) {
+        this.low = low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public void setHigh(long high) {
+        this.high = high;
+    }
+
+    public HpsCardBrand getBrand() {
+        return brand;
+    }
+
+    public void setBrand(HpsCardBrand brand) {
+        this.brand = brand;
+    }
+
+    public HpsCardType getCardType() {
+        return cardType;
+    }
+
+    public void setCardType(HpsCardType cardType) {
+        this.cardType = cardType;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    public void setCountry(String country) {
+        this.country = country;
+    }
+}
@@ -0,0 +1,53 @@
+package com.hps.integrator.entities;
+
+/**
+ * Card brand as determined from the leading digits of a (possibly masked) card number.
+ */
+public enum HpsCardBrand
+{
+	Visa,
+	MasterCard,
+	Amex,
+	Discover,
+	DinersClub,
+	EnRoute,
+	Jcb,
+	Unknown;
+
+	public static HpsCardBrand fromCardNumber(String cardNumber) {
+		return fromCardNumber(cardNumber, 0);
+	}
+
+	/**
+	 * @param offset Where the card number starts, e.g. within track data.
+	 */
+	public static HpsCardBrand fromCardNumber(String value, int offset) {
+		if(value == null || value.length() < offset + 4)
+			return Unknown;
+
+		int prefix = 0;
+		for(int i = offset; i < offset + 4; i++) {
+			char c = value.charAt(i);
+			if(c < '0' || c > '9')
+				return Unknown;
+			prefix = prefix * 10 + (c - '0');
+		}
+
+		int two = prefix / 100, three = prefix / 10;
+		if(prefix / 1000 == 4)
+			return Visa;
+		if((two >= 51 && two <= 55) || (prefix >= 2221 && prefix <= 2720))
+			return MasterCard;
+		if(two == 34 || two == 37)
+			return Amex;
+		if(prefix == 6011 || two == 65 || (three >= 644 && three <= 649))
+			return Discover;
+		if(prefix == 2014 || prefix == 2149)
+			return EnRoute;
+		if((three >= 300 && three <= 305) || two == 36 || two == 38)
+			return DinersClub;
+		if(two == 35 || prefix == 2131 || prefix == 1800)
+			return Jcb;
+		return Unknown;
+	}
+}
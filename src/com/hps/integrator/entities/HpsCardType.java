@@ -0,0 +1,12 @@
+package com.hps.integrator.entities;
+
+/**
+ * How a card is funded, as published for its BIN range.
+ */
+public enum HpsCardType
+{
+	Unknown,
+	Credit,
+	Debit,
+	Prepaid
+}
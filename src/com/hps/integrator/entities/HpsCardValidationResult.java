@@ -0,0 +1,24 @@
+package com.hps.integrator.entities;
+
+/**
+ * The outcome of checking card data locally, before it is sent.
+ */
+public enum HpsCardValidationResult
+{
+	Valid,
+	/** The card number is not all digits or fails the Luhn check. */
+	InvalidNumber,
+	/** The card number's length does not fit its brand. */
+	InvalidLength,
+	/** The expiration month is not 1 to 12, or the year is missing. */
+	InvalidExpiry,
+	Expired,
+	/** The security code is not 3 digits, or 4 for American Express. */
+	InvalidCvv,
+	/** The track data is neither a track 1 nor a track 2 layout. */
+	InvalidTrackData;
+
+	public boolean isValid() {
+		return this == Valid;
+	}
+}
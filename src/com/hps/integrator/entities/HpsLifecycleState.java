@@ -0,0 +1,33 @@
+package com.hps.integrator.entities;
+
+/**
+ * Where a credit transaction is in its life, as tracked locally. Authorizations start out {@code Authorized};
+ * sales start out {@code Captured}.
+ */
+public enum HpsLifecycleState
+{
+	Authorized,
+	Captured,
+	Settled,
+	Voided,
+	Reversed;
+
+	/**
+	 * @return True if a transaction in this state can move to the given state. Edits and partial reversals
+	 * leave an open transaction in its state.
+	 */
+	public boolean canMoveTo(HpsLifecycleState next) {
+		switch(this) {
+			case Authorized:
+				return next == Authorized || next == Captured || next == Voided || next == Reversed;
+			case Captured:
+				return next == Captured || next == Settled || next == Voided || next == Reversed;
+			default:
+				return false;
+		}
+	}
+
+	public boolean isOpen() {
+		return this == Authorized || this == Captured;
+	}
+}
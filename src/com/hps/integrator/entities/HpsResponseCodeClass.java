@@ -0,0 +1,8 @@
+package com.hps.integrator.entities;
+
+public enum HpsResponseCodeClass
+{
+	Approved,
+	Declined,
+	GatewayError
+}
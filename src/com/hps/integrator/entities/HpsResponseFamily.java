@@ -0,0 +1,11 @@
+package com.hps.integrator.entities;
+
+/**
+ * The kind of service whose issuer response codes are being classified. Debit, EBT and gift responses use the
+ * credit codes.
+ */
+public enum HpsResponseFamily
+{
+	Credit,
+	Check
+}
@@ -129,8 +129,14 @@ public class HpsTransaction {
         }
     }
 
-    public HpsTransaction fromElementTree(ElementTree rsp){
-        Element header = rsp.get("Header");
+    /**
+     * Decodes the response header. Responses carrying many records (e.g. reports) decode this once and
+     * share the result across all records.
+     *
+     * @param header The response header element.
+     * @return The decoded header.
+     */
+    protected static HpsTransactionHeader headerFromElement(Element header) {
         Date date = null;
         if(header.has("RspDt")) {
             try {
@@ -138,19 +144,21 @@ public class HpsTransaction {
             } catch(ParseException e) { date = null; }
         }
 
-        String clientTransactionId = null;
-        if(header.has("ClientTxnId"))
-            clientTransactionId = header.getString("ClientTxnId");
-
-        this.setHeader(new HpsTransactionHeader(
+        return new HpsTransactionHeader(
                 header.getInt("GatewayRspCode"),
                 header.getString("GatewayRspMsg"),
                 date,
-                clientTransactionId
-        ));
+                header.getString("ClientTxnId")
+        );
+    }
+
+    public HpsTransaction fromElementTree(ElementTree rsp){
+        Element header = rsp.get("Header");
+        HpsTransactionHeader transactionHeader = headerFromElement(header);
 
+        this.setHeader(transactionHeader);
         this.setTransactionID(header.getInt("GatewayTxnId"));
-        this.setClientTransactionId(clientTransactionId);
+        this.setClientTransactionId(transactionHeader.getClientTxnId());
 
         Element item = rsp.get("Transaction").firstChild();
         if(item != null) {
@@ -0,0 +1,102 @@
+package com.hps.integrator.entities;
+
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsIssuerExceptionCodes;
+
+/**
+ * The result of a transaction sent through {@code attempt} on a service or {@code tryExecute} on a builder: the
+ * result of an approval, or the classification of a decline or gateway error, which is not thrown.
+ */
+public class HpsTransactionOutcome<T> {
+    private final HpsResponseCodeClass status;
+    private final T result;
+    private final Integer transactionId;
+    private final HpsIssuerExceptionCodes issuerCode;
+    private final HpsExceptionCodes gatewayCode;
+    private final String responseCode;
+    private final String responseText;
+    private final HpsException exception;
+
+    public HpsTransactionOutcome(T result) {
+        this(HpsResponseCodeClass.Approved, result, null, null, null, null, null, null);
+    }
+
+    public HpsTransactionOutcome(HpsResponseCodeClass status, T result, Integer transactionId,
+                                 HpsIssuerExceptionCodes issuerCode, HpsExceptionCodes gatewayCode,
+                                 String responseCode, String responseText, HpsException exception) {
+        this.status = status;
+        this.result = result;
+        this.transactionId = transactionId;
+        this.issuerCode = issuerCode;
+        this.gatewayCode = gatewayCode;
+        this.responseCode = responseCode;
+        this.responseText = responseText;
+        this.exception = exception;
+    }
+
+    public HpsResponseCodeClass getStatus() {
+        return status;
+    }
+
+    public boolean isApproved() {
+        return status == HpsResponseCodeClass.Approved;
+    }
+
+    /**
+     * @return The transaction's result, or null if it was not approved.
+     */
+    public T getResult() {
+        return result;
+    }
+
+    /**
+     * @return The gateway transaction id, or null if the gateway did not assign one.
+     */
+    public Integer getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * @return The kind of decline, or null unless declined.
+     */
+    public HpsIssuerExceptionCodes getIssuerCode() {
+        return issuerCode;
+    }
+
+    /**
+     * @return The kind of gateway error, or null unless the gateway rejected the transaction.
+     */
+    public HpsExceptionCodes getGatewayCode() {
+        return gatewayCode;
+    }
+
+    /**
+     * @return The issuer response code of a decline, or the gateway response code of a gateway error.
+     */
+    public String getResponseCode() {
+        return responseCode;
+    }
+
+    public String getResponseText() {
+        return responseText;
+    }
+
+    /**
+     * @return The exception the transaction would have thrown, or null if approved. It is shared by every outcome
+     * with the same response code and has no stack trace; the transaction's own details are on the outcome.
+     */
+    public HpsException getException() {
+        return exception;
+    }
+
+    /**
+     * @return The result of an approval.
+     * @throws HpsException The shared exception of a decline or gateway error.
+     */
+    public T getResultOrThrow() throws HpsException {
+        if(exception != null)
+            throw exception;
+        return result;
+    }
+}
@@ -0,0 +1,11 @@
+package com.hps.integrator.entities;
+
+/**
+ * What attempts are counted by for a velocity limit.
+ */
+public enum HpsVelocityKey
+{
+	Card,
+	Customer,
+	Ip
+}
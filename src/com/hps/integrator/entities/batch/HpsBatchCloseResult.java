@@ -0,0 +1,75 @@
+package com.hps.integrator.entities.batch;
+
+import com.hps.integrator.infrastructure.HpsException;
+
+/**
+ * The outcome of a scheduled batch close, including the sweep run before it.
+ */
+public class HpsBatchCloseResult {
+	
+	private String mMerchantKey;
+	private String mBusinessDate;
+	private int mSweptCount;
+	private int mSweepFailureCount;
+	private HpsBatch mBatch;
+	private HpsBatchReconciliation mReconciliation;
+	private HpsException mException;
+	
+	public String getMerchantKey() {
+		return mMerchantKey;
+	}
+	public void setMerchantKey(String merchantKey) {
+		this.mMerchantKey = merchantKey;
+	}
+	/**
+	 * @return The day the close belongs to, as yyyy-MM-dd in the schedule's time zone.
+	 */
+	public String getBusinessDate() {
+		return mBusinessDate;
+	}
+	public void setBusinessDate(String businessDate) {
+		this.mBusinessDate = businessDate;
+	}
+	public int getSweptCount() {
+		return mSweptCount;
+	}
+	public void setSweptCount(int sweptCount) {
+		this.mSweptCount = sweptCount;
+	}
+	public int getSweepFailureCount() {
+		return mSweepFailureCount;
+	}
+	public void setSweepFailureCount(int sweepFailureCount) {
+		this.mSweepFailureCount = sweepFailureCount;
+	}
+	/**
+	 * @return The closed batch, or null if the close failed or the gateway had no open batch.
+	 */
+	public HpsBatch getBatch() {
+		return mBatch;
+	}
+	public void setBatch(HpsBatch batch) {
+		this.mBatch = batch;
+	}
+	/**
+	 * @return The ledger comparison, when the schedule has a ledger.
+	 */
+	public HpsBatchReconciliation getReconciliation() {
+		return mReconciliation;
+	}
+	public void setReconciliation(HpsBatchReconciliation reconciliation) {
+		this.mReconciliation = reconciliation;
+	}
+	/**
+	 * @return Why the close failed, or null if it succeeded.
+	 */
+	public HpsException getException() {
+		return mException;
+	}
+	public void setException(HpsException exception) {
+		this.mException = exception;
+	}
+	public boolean isClosed() {
+		return mException == null;
+	}
+}
@@ -0,0 +1,84 @@
+package com.hps.integrator.entities.batch;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * The result of closing a batch against a locally kept ledger. When the gateway's totals match the ledger the
+ * transaction lists are empty; otherwise they hold what the <b>ReportActivity</b> comparison found.
+ */
+public class HpsBatchReconciliation {
+	
+	private HpsBatch mBatch;
+	private BigDecimal mExpectedAmount;
+	private int mExpectedTransactionCount;
+	private int mUntrackedCount;
+	private List<Integer> mUnrecordedTransactionIds;
+	private List<Integer> mUnconfirmedTransactionIds;
+	private List<Integer> mAmountMismatchTransactionIds;
+	
+	public HpsBatch getBatch() {
+		return mBatch;
+	}
+	public void setBatch(HpsBatch batch) {
+		this.mBatch = batch;
+	}
+	public BigDecimal getExpectedAmount() {
+		return mExpectedAmount;
+	}
+	public void setExpectedAmount(BigDecimal expectedAmount) {
+		this.mExpectedAmount = expectedAmount;
+	}
+	public int getExpectedTransactionCount() {
+		return mExpectedTransactionCount;
+	}
+	public void setExpectedTransactionCount(int expectedTransactionCount) {
+		this.mExpectedTransactionCount = expectedTransactionCount;
+	}
+	/**
+	 * @return The number of captures and edits the ledger could not price, which can explain a mismatch.
+	 */
+	public int getUntrackedCount() {
+		return mUntrackedCount;
+	}
+	public void setUntrackedCount(int untrackedCount) {
+		this.mUntrackedCount = untrackedCount;
+	}
+	/**
+	 * @return Transactions the gateway reports in the batch that the ledger never recorded.
+	 */
+	public List<Integer> getUnrecordedTransactionIds() {
+		return mUnrecordedTransactionIds;
+	}
+	public void setUnrecordedTransactionIds(List<Integer> unrecordedTransactionIds) {
+		this.mUnrecordedTransactionIds = unrecordedTransactionIds;
+	}
+	/**
+	 * @return Transactions the ledger recorded that the gateway does not report in the batch.
+	 */
+	public List<Integer> getUnconfirmedTransactionIds() {
+		return mUnconfirmedTransactionIds;
+	}
+	public void setUnconfirmedTransactionIds(List<Integer> unconfirmedTransactionIds) {
+		this.mUnconfirmedTransactionIds = unconfirmedTransactionIds;
+	}
+	/**
+	 * @return Transactions found on both sides with different amounts.
+	 */
+	public List<Integer> getAmountMismatchTransactionIds() {
+		return mAmountMismatchTransactionIds;
+	}
+	public void setAmountMismatchTransactionIds(List<Integer> amountMismatchTransactionIds) {
+		this.mAmountMismatchTransactionIds = amountMismatchTransactionIds;
+	}
+	public BigDecimal getAmountDifference() {
+		BigDecimal actual = mBatch.getTotalAmount() != null ? mBatch.getTotalAmount() : BigDecimal.ZERO;
+		return actual.subtract(mExpectedAmount);
+	}
+	public int getTransactionCountDifference() {
+		return mBatch.getTransactionCount() - mExpectedTransactionCount;
+	}
+	public boolean isBalanced() {
+		return getAmountDifference().signum() == 0 && getTransactionCountDifference() == 0;
+	}
+}
@@ -0,0 +1,71 @@
+package com.hps.integrator.entities.credit;
+
+import com.hps.integrator.infrastructure.HpsException;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of one pass of a stale authorization sweep. See
+ * {@link com.hps.integrator.services.HpsAuthorizationSweeper}.
+ */
+public class HpsAuthorizationSweepResult {
+    private Date sweptAt;
+    private int staleCount;
+    private List<Integer> releasedTransactionIds;
+    private Map<Integer, HpsException> failures;
+    private HpsException exception;
+
+    public Date getSweptAt() {
+        return sweptAt;
+    }
+
+    public void setSweptAt(Date sweptAt) {
+        this.sweptAt = sweptAt;
+    }
+
+    /**
+     * @return The number of stale authorizations found.
+     */
+    public int getStaleCount() {
+        return staleCount;
+    }
+
+    public void setStaleCount(int staleCount) {
+        this.staleCount = staleCount;
+    }
+
+    /**
+     * @return The authorizations voided or reversed, including those the gateway reported as already released.
+     */
+    public List<Integer> getReleasedTransactionIds() {
+        return releasedTransactionIds;
+    }
+
+    public void setReleasedTransactionIds(List<Integer> releasedTransactionIds) {
+        this.releasedTransactionIds = releasedTransactionIds;
+    }
+
+    /**
+     * @return The last error for each authorization still open after its final attempt.
+     */
+    public Map<Integer, HpsException> getFailures() {
+        return failures;
+    }
+
+    public void setFailures(Map<Integer, HpsException> failures) {
+        this.failures = failures;
+    }
+
+    /**
+     * @return Why the stale authorizations could not be listed, or null.
+     */
+    public HpsException getException() {
+        return exception;
+    }
+
+    public void setException(HpsException exception) {
+        this.exception = exception;
+    }
+}
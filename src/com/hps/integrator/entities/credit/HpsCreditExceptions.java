@@ -2,25 +2,79 @@ package com.hps.integrator.entities.credit;
 
 import com.hps.integrator.infrastructure.HpsIssuerException;
 import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
+import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
 
+/**
+ * The gateway and issuer errors attached to a reported transaction. Report decoding only records the
+ * response codes and texts; the exceptions are built (without stack traces) the first time they are read.
+ */
 public class HpsCreditExceptions {
 
     private HpsIssuerException hpsIssuerException;
     private HpsException hpsException;
+    private boolean issuerExceptionResolved;
+    private boolean gatewayExceptionResolved;
+
+    private Integer gatewayResponseCode;
+    private String gatewayResponseMessage;
+    private Integer transactionId;
+    private String issuerResponseCode;
+    private String issuerResponseText;
+
+    public HpsCreditExceptions() {}
+
+    public HpsCreditExceptions(Integer gatewayResponseCode, String gatewayResponseMessage,
+                               Integer transactionId, String issuerResponseCode, String issuerResponseText) {
+        this.gatewayResponseCode = gatewayResponseCode;
+        this.gatewayResponseMessage = gatewayResponseMessage;
+        this.transactionId = transactionId;
+        this.issuerResponseCode = issuerResponseCode;
+        this.issuerResponseText = issuerResponseText;
+    }
+
+    public Integer getGatewayResponseCode() {
+        return gatewayResponseCode;
+    }
+
+    public String getGatewayResponseMessage() {
+        return gatewayResponseMessage;
+    }
+
+    public String getIssuerResponseCode() {
+        return issuerResponseCode;
+    }
+
+    public String getIssuerResponseText() {
+        return issuerResponseText;
+    }
 
     public HpsIssuerException getHpsIssuerException() {
+        if(!issuerExceptionResolved) {
+            if(issuerResponseCode != null)
+                hpsIssuerException = HpsIssuerResponseValidation.getException(
+                        transactionId, issuerResponseCode, issuerResponseText, false);
+            issuerExceptionResolved = true;
+        }
         return hpsIssuerException;
     }
 
     public void setHpsIssuerException(HpsIssuerException hpsIssuerException) {
         this.hpsIssuerException = hpsIssuerException;
+        this.issuerExceptionResolved = true;
     }
 
     public HpsException getHpsException() {
+        if(!gatewayExceptionResolved) {
+            if(gatewayResponseCode != null)
+                hpsException = HpsGatewayResponseValidation.getException(gatewayResponseCode, gatewayResponseMessage, false);
+            gatewayExceptionResolved = true;
+        }
         return hpsException;
     }
 
     public void setHpsException(HpsException hpsException) {
         this.hpsException = hpsException;
+        this.gatewayExceptionResolved = true;
     }
 }
@@ -1,13 +1,14 @@
 package com.hps.integrator.entities.credit;
 
 import com.hps.integrator.abstractions.IHpsReportTransaction;
+import com.hps.integrator.entities.HpsResponseFamily;
 import com.hps.integrator.entities.HpsTokenData;
 import com.hps.integrator.entities.HpsTransaction;
 import com.hps.integrator.entities.HpsTransactionHeader;
 import com.hps.integrator.entities.HpsTransactionType;
 import com.hps.integrator.infrastructure.Element;
 import com.hps.integrator.infrastructure.ElementTree;
-import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
+import com.hps.integrator.infrastructure.validation.HpsResponseClassifier;
 
 import java.math.BigDecimal;
 import java.text.ParseException;
@@ -26,6 +27,7 @@ public class HpsReportTransactionDetails extends HpsAuthorization implements
     private String memo;
     private String invoiceNumber;
     private String customerId;
+    private String transactionStatus;
     private HpsCreditExceptions exceptions;
 
     public BigDecimal getSettlementAmount() {
@@ -108,11 +110,30 @@ public class HpsReportTransactionDetails extends HpsAuthorization implements
         this.customerId = customerId;
     }
 
+    public String getTransactionStatus() {
+        return transactionStatus;
+    }
+
+    public void setTransactionStatus(String transactionStatus) {
+        this.transactionStatus = transactionStatus;
+    }
+
+    /**
+     * @return true once the transaction has been closed in a batch and can no longer change.
+     */
+    public boolean isSettled() {
+        return "C".equals(transactionStatus);
+    }
+
     public HpsReportTransactionDetails fromElementTree(ElementTree rsp) {
         Element reportResponse = rsp.get("Transaction").firstChild();
 
         super.fromElementTree(rsp);
 
+        // the header carries the id of the report request itself, not of the reported transaction
+        Integer transactionId = reportResponse.getInt("GatewayTxnId");
+        if(transactionId != null)
+            this.setTransactionID(transactionId);
         this.setOriginalTransactionId(reportResponse.getInt("OriginalGatewayTxnId"));
         this.setTransactionType(HpsTransaction.serviceNameToTransactionType(reportResponse.getString("ServiceName")));
 
@@ -120,6 +141,7 @@ public class HpsReportTransactionDetails extends HpsAuthorization implements
         if(data.has("SettlementAmt"))
             this.setSettlementAmount(new BigDecimal(data.getString("SettlementAmt")));
         this.setMaskedCardNumber(data.getString("MaskedCardNbr"));
+        this.setTransactionStatus(data.getString("TxnStatus"));
         if(data.has("ReqUtcDT")){
             try {
                 this.setTransactionDate(new SimpleDateFormat("YYmmddTHHMMSSZ").parse(data.getString("ReqUtcDT")));
@@ -149,10 +171,10 @@ public class HpsReportTransactionDetails extends HpsAuthorization implements
         }
 
         if(!data.getString("RspCode").equals("0")) {
-            if(this.exceptions == null)
-                this.setExceptions(new HpsCreditExceptions());
-            this.getExceptions().setHpsIssuerException(HpsIssuerResponseValidation.getException(
-                    rsp.get("Header").getInt("GatewayTxnId"),
+            this.setExceptions(new HpsCreditExceptions(
+                    null,
+                    null,
+                    this.getTransactionID(),
                     data.getString("RspCode"),
                     data.getString("RspText")
             ));
@@ -160,4 +182,39 @@ public class HpsReportTransactionDetails extends HpsAuthorization implements
 
         return this;
     }
+
+    /**
+     * Fills the details from the response to the transaction itself, as kept by a local archive, rather than
+     * from a <b>ReportTxnDetail</b> response. The settlement amount and status are not known locally.
+     *
+     * @param rsp              The transaction's response.
+     * @param serviceName      The request element name, e.g. <b>CreditSale</b>.
+     * @param transactionDate  When the response was received.
+     * @param amount           The requested amount, used when the response carries no authorized amount.
+     * @param maskedCardNumber The masked card number sent, or null.
+     */
+    public HpsReportTransactionDetails fromTransactionResponse(ElementTree rsp, String serviceName,
+            Date transactionDate, BigDecimal amount, String maskedCardNumber) {
+        super.fromElementTree(rsp);
+
+        this.setTransactionType(HpsTransaction.serviceNameToTransactionType(serviceName));
+        this.setTransactionDate(transactionDate);
+        this.setMaskedCardNumber(maskedCardNumber);
+        if(this.getAuthorizedAmount() == null)
+            this.setAuthorizedAmount(amount);
+
+        String responseCode = this.getResponseCode();
+        if(responseCode != null
+                && !HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, responseCode).isApproved()) {
+            this.setExceptions(new HpsCreditExceptions(
+                    null,
+                    null,
+                    this.getTransactionID(),
+                    responseCode,
+                    this.getResponseText()
+            ));
+        }
+
+        return this;
+    }
 }
\ No newline at end of file
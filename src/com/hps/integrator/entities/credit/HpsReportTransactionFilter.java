@@ -0,0 +1,152 @@
+package com.hps.integrator.entities.credit;
+
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsResponseFamily;
+import com.hps.integrator.entities.HpsTransactionType;
+import com.hps.integrator.infrastructure.validation.HpsResponseClassifier;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.EnumSet;
+
+/**
+ * Row filter applied while a <b>ReportActivity</b> response is decoded. Rows that do not match are skipped
+ * before a summary is built for them, and decoding stops once the limit is reached. Unset criteria match
+ * every row.
+ */
+public class HpsReportTransactionFilter {
+    private EnumSet<HpsTransactionType> transactionTypes;
+    private BigDecimal minAmount;
+    private BigDecimal maxAmount;
+    private String maskedCardSuffix;
+    private EnumSet<HpsResponseCodeClass> responseCodeClasses;
+    private Date startDate;
+    private Date endDate;
+    private int limit;
+
+    public HpsReportTransactionFilter() {
+    }
+
+    /**
+     * Copies another filter's criteria, so the copy can be narrowed without changing the original.
+     */
+    public HpsReportTransactionFilter(HpsReportTransactionFilter other) {
+        this.transactionTypes = other.transactionTypes == null ? null : EnumSet.copyOf(other.transactionTypes);
+        this.minAmount = other.minAmount;
+        this.maxAmount = other.maxAmount;
+        this.maskedCardSuffix = other.maskedCardSuffix;
+        this.responseCodeClasses = other.responseCodeClasses == null ? null : EnumSet.copyOf(other.responseCodeClasses);
+        this.startDate = other.startDate;
+        this.endDate = other.endDate;
+        this.limit = other.limit;
+    }
+
+    public HpsReportTransactionFilter withTransactionTypes(HpsTransactionType first, HpsTransactionType... rest) {
+        this.transactionTypes = EnumSet.of(first, rest);
+        return this;
+    }
+
+    /**
+     * Keeps only rows of one transaction type, on top of the types already set: a type already excluded stays
+     * excluded.
+     */
+    public HpsReportTransactionFilter narrowTransactionTypes(HpsTransactionType transactionType) {
+        if(this.transactionTypes == null)
+            this.transactionTypes = EnumSet.of(transactionType);
+        else this.transactionTypes.retainAll(EnumSet.of(transactionType));
+        return this;
+    }
+
+    /**
+     * @param minAmount The smallest amount to include, or null for no lower bound.
+     * @param maxAmount The largest amount to include, or null for no upper bound.
+     */
+    public HpsReportTransactionFilter withAmountRange(BigDecimal minAmount, BigDecimal maxAmount) {
+        this.minAmount = minAmount;
+        this.maxAmount = maxAmount;
+        return this;
+    }
+
+    /**
+     * @param maskedCardSuffix The trailing digits of the card number (e.g. the last four).
+     */
+    public HpsReportTransactionFilter withMaskedCardSuffix(String maskedCardSuffix) {
+        this.maskedCardSuffix = maskedCardSuffix;
+        return this;
+    }
+
+    public HpsReportTransactionFilter withResponseCodeClasses(HpsResponseCodeClass first, HpsResponseCodeClass... rest) {
+        this.responseCodeClasses = EnumSet.of(first, rest);
+        return this;
+    }
+
+    /**
+     * Narrows the rows to a window inside the requested report range.
+     *
+     * @param startDate The earliest transaction time to include (inclusive), or null.
+     * @param endDate   The latest transaction time to include (exclusive), or null.
+     */
+    public HpsReportTransactionFilter withTimeWindow(Date startDate, Date endDate) {
+        this.startDate = startDate;
+        this.endDate = endDate;
+        return this;
+    }
+
+    /**
+     * @param limit The maximum number of rows to return; 0 returns every matching row.
+     */
+    public HpsReportTransactionFilter withLimit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean hasTimeWindow() {
+        return startDate != null || endDate != null;
+    }
+
+    public boolean matchesTransactionType(HpsTransactionType transactionType) {
+        return transactionTypes == null || (transactionType != null && transactionTypes.contains(transactionType));
+    }
+
+    public boolean matchesResponseCodes(String gatewayRspCode, String issuerRspCode) {
+        return responseCodeClasses == null || responseCodeClasses.contains(classify(gatewayRspCode, issuerRspCode));
+    }
+
+    public boolean matchesMaskedCardNumber(String maskedCardNumber) {
+        return maskedCardSuffix == null || (maskedCardNumber != null && maskedCardNumber.endsWith(maskedCardSuffix));
+    }
+
+    public boolean matchesAmount(BigDecimal amount) {
+        if(minAmount == null && maxAmount == null)
+            return true;
+        if(amount == null)
+            return false;
+        return (minAmount == null || amount.compareTo(minAmount) >= 0)
+                && (maxAmount == null || amount.compareTo(maxAmount) <= 0);
+    }
+
+    public boolean matchesTransactionDate(Date transactionDate) {
+        if(!hasTimeWindow())
+            return true;
+        if(transactionDate == null)
+            return false;
+        return (startDate == null || !transactionDate.before(startDate))
+                && (endDate == null || transactionDate.before(endDate));
+    }
+
+    /**
+     * Classifies a report row. A row without an issuer code never reached an issuer, so the gateway code
+     * decides it alone.
+     */
+    public static HpsResponseCodeClass classify(String gatewayRspCode, String issuerRspCode) {
+        if(gatewayRspCode != null && !gatewayRspCode.equals("0") && !gatewayRspCode.equals("00"))
+            return HpsResponseCodeClass.GatewayError;
+        if(issuerRspCode == null || issuerRspCode.length() == 0)
+            return HpsResponseCodeClass.Approved;
+        return HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, issuerRspCode).getResponseCodeClass();
+    }
+}
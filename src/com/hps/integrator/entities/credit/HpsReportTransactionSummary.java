@@ -1,13 +1,12 @@
 package com.hps.integrator.entities.credit;
 
 import com.hps.integrator.abstractions.IHpsReportTransaction;
+import com.hps.integrator.abstractions.IHpsReportTransactionHandler;
 import com.hps.integrator.entities.HpsTransaction;
 import com.hps.integrator.entities.HpsTransactionHeader;
 import com.hps.integrator.entities.HpsTransactionType;
 import com.hps.integrator.infrastructure.Element;
 import com.hps.integrator.infrastructure.ElementTree;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
-import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
 
 import java.math.BigDecimal;
 import java.text.ParseException;
@@ -90,65 +89,113 @@ public class HpsReportTransactionSummary extends HpsTransaction implements
     }
 
     public HpsReportTransactionSummary[] fromElementTree(ElementTree rsp, HpsTransactionType filterBy){
+        HpsReportTransactionFilter filter = null;
+        if(filterBy != null)
+            filter = new HpsReportTransactionFilter().withTransactionTypes(filterBy);
+        return fromElementTree(rsp, filter);
+    }
+
+    public HpsReportTransactionSummary[] fromElementTree(ElementTree rsp, HpsReportTransactionFilter filter){
+        final List<HpsReportTransactionSummary> transactions = new ArrayList<HpsReportTransactionSummary>();
+        fromElementTree(rsp, filter, new IHpsReportTransactionHandler() {
+            public void onTransaction(HpsReportTransactionSummary transaction) {
+                transactions.add(transaction);
+            }
+        });
+        return transactions.toArray(new HpsReportTransactionSummary[transactions.size()]);
+    }
+
+    /**
+     * Decodes the report rows accepted by the filter and hands each one to the handler as it is decoded,
+     * without collecting them.
+     *
+     * @return The number of rows handed to the handler.
+     */
+    public int fromElementTree(ElementTree rsp, HpsReportTransactionFilter filter, IHpsReportTransactionHandler handler){
         Element reportResponse = rsp.get("ReportActivity");
 
-        List<HpsReportTransactionSummary> transactions = new ArrayList<HpsReportTransactionSummary>();
-        String serviceName = "";
-        if(filterBy != null)
-            serviceName = HpsTransaction.transactionTypeToServiceName(filterBy);
+        // the header is the same for every row, so decode it once and share it
+        Element header = rsp.get("Header");
+        HpsTransactionHeader transactionHeader = HpsTransaction.headerFromElement(header);
+        Integer reportTransactionId = header.getInt("GatewayTxnId");
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        SimpleDateFormat fractionalDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
 
+        int count = 0;
         for(Element charge: reportResponse.getAll("Details")){
-            if(filterBy == null || charge.getString("ServiceName").equals(serviceName)){
-                HpsReportTransactionSummary trans = new HpsReportTransactionSummary();
-
-                trans.fromElementTree(rsp);
-
-                if(charge.has("OriginalGatewayTxnId"))
-                    trans.setOriginalTransactionId(charge.getInt("OriginalGatewayTxnId"));
-                if(charge.has("MaskedCardNbr"))
-                    trans.setMaskedCardNumber(charge.getString("MaskedCardNbr"));
-                if(charge.has("IssuerRspCode"))
-                    trans.setResponseCode(charge.getString("IssuerRspCode"));
-                if(charge.has("IssuerRspText"))
-                    trans.setResponseText(charge.getString("IssuerRspText"));
-                if(charge.has("Amt"))
-                    trans.setAmount(new BigDecimal(charge.getString("Amt")));
-                if(charge.has("SettlementAmt"))
-                    trans.setSettlementAmount(new BigDecimal(charge.getString("SettlementAmt")));
-                if(charge.has("TxnUtcDT")) {
-                    try {
-                        String date = charge.getString("TxnUtcDT");
-                        String pattern = "yyyy-MM-dd'T'HH:mm:ss";
-                        if(date.contains("."))
-                            pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS";
-                        trans.setTransactionDate(new SimpleDateFormat(pattern).parse(date));
-                    } catch (ParseException e) {
-                        trans.setTransactionDate(null);
-                    }
+            if(filter != null && filter.getLimit() > 0 && count >= filter.getLimit())
+                break;
+
+            // cheapest checks first; nothing is built for a row until it has passed all of them
+            HpsTransactionType transactionType = HpsTransaction.serviceNameToTransactionType(charge.getString("ServiceName"));
+            if(filter != null && !filter.matchesTransactionType(transactionType))
+                continue;
+
+            String gatewayRspCode = charge.getString("GatewayRspCode");
+            String issuerRspCode = charge.getString("IssuerRspCode");
+            if(filter != null && !filter.matchesResponseCodes(gatewayRspCode, issuerRspCode))
+                continue;
+
+            String maskedCardNumber = charge.getString("MaskedCardNbr");
+            if(filter != null && !filter.matchesMaskedCardNumber(maskedCardNumber))
+                continue;
+
+            String amountText = charge.getString("Amt");
+            BigDecimal amount = amountText != null ? new BigDecimal(amountText) : null;
+            if(filter != null && !filter.matchesAmount(amount))
+                continue;
+
+            String date = charge.getString("TxnUtcDT");
+            Date transactionDate = null;
+            if(date != null) {
+                try {
+                    transactionDate = (date.contains(".") ? fractionalDateFormat : dateFormat).parse(date);
+                } catch (ParseException e) {
+                    transactionDate = null;
                 }
-                trans.setTransactionType(HpsTransaction.serviceNameToTransactionType(charge.getString("ServiceName")));
-                if(filterBy != null)
-                    trans.setTransactionType(filterBy);
-
-                String gatewayRspCode = charge.getString("GatewayRspCode");
-                String issuerRspCode = charge.getString("IssuerRspCode");
-                if(!gatewayRspCode.equals("0") || !issuerRspCode.equals("00")){
-                    trans.setExceptions(new HpsCreditExceptions());
-                    if(!gatewayRspCode.equals("0"))
-                        trans.getExceptions().setHpsException(HpsGatewayResponseValidation.getException(
-                                Integer.parseInt(gatewayRspCode),
-                                charge.getString("GatewayRspMsg")
-                        ));
-                    if(!issuerRspCode.equals("00"))
-                        trans.getExceptions().setHpsIssuerException(HpsIssuerResponseValidation.getException(
-                                charge.getInt("GatewayTxnId"),
-                                issuerRspCode,
-                                charge.getString("IssuerRspText")
-                        ));
-                }
-                transactions.add(trans);
             }
+            if(filter != null && !filter.matchesTransactionDate(transactionDate))
+                continue;
+
+            HpsReportTransactionSummary trans = new HpsReportTransactionSummary(transactionHeader);
+            trans.setClientTransactionId(transactionHeader.getClientTxnId());
+
+            Integer gatewayTxnId = charge.getInt("GatewayTxnId");
+            trans.setTransactionID(gatewayTxnId != null ? gatewayTxnId : reportTransactionId);
+
+            Integer originalGatewayTxnId = charge.getInt("OriginalGatewayTxnId");
+            if(originalGatewayTxnId != null)
+                trans.setOriginalTransactionId(originalGatewayTxnId);
+            trans.setMaskedCardNumber(maskedCardNumber);
+            trans.setReferenceNumber(charge.getString("RefNbr"));
+
+            String issuerRspText = charge.getString("IssuerRspText");
+            trans.setResponseCode(issuerRspCode);
+            trans.setResponseText(issuerRspText);
+
+            trans.setAmount(amount);
+            String settlementAmount = charge.getString("SettlementAmt");
+            if(settlementAmount != null)
+                trans.setSettlementAmount(new BigDecimal(settlementAmount));
+            trans.setTransactionDate(transactionDate);
+            trans.setTransactionType(transactionType);
+
+            // only the codes are kept; the exceptions are built if and when they are read
+            boolean gatewayError = !gatewayRspCode.equals("0");
+            boolean issuerError = !issuerRspCode.equals("00");
+            if(gatewayError || issuerError){
+                trans.setExceptions(new HpsCreditExceptions(
+                        gatewayError ? Integer.valueOf(gatewayRspCode) : null,
+                        gatewayError ? charge.getString("GatewayRspMsg") : null,
+                        trans.getTransactionID(),
+                        issuerError ? issuerRspCode : null,
+                        issuerRspText
+                ));
+            }
+            handler.onTransaction(trans);
+            count++;
         }
-        return transactions.toArray(new HpsReportTransactionSummary[transactions.size()]);
+        return count;
     }
 }
\ No newline at end of file
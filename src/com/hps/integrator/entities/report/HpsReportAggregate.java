@@ -0,0 +1,122 @@
+package com.hps.integrator.entities.report;
+
+/**
+ * Count, sum, min and max of transaction amounts, plus a fixed-size histogram for approximate percentiles.
+ * <p>
+ * Amounts are in cents. The histogram keeps exact counts below 16 cents and 16 buckets per power of two above
+ * that, so a percentile is within about 6% of the true value. Aggregates over separate sets of transactions can
+ * be combined with {@link #merge(HpsReportAggregate)}.
+ */
+public class HpsReportAggregate {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 47;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private int[] histogram;
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSumCents() {
+        return sum;
+    }
+
+    /**
+     * @return The smallest amount in cents, or 0 if nothing has been added.
+     */
+    public long getMinCents() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return The largest amount in cents, or 0 if nothing has been added.
+     */
+    public long getMaxCents() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * @return The average amount in cents, rounded down, or 0 if nothing has been added.
+     */
+    public long getAverageCents() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @param percentile The percentile to estimate, from 0 to 100.
+     * @return The approximate amount in cents at that percentile, or 0 if nothing has been added.
+     */
+    public long getPercentileCents(double percentile) {
+        if(percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        if(count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        if(rank == 1)
+            return min;
+        if(rank >= count)
+            return max;
+
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if(seen >= rank)
+                return Math.max(min, Math.min(max, bucketMidpoint(i)));
+        }
+        return max;
+    }
+
+    public void add(long amountCents) {
+        if(histogram == null)
+            histogram = new int[BUCKETS];
+
+        count++;
+        sum += amountCents;
+        min = Math.min(min, amountCents);
+        max = Math.max(max, amountCents);
+        histogram[bucket(amountCents)]++;
+    }
+
+    public void merge(HpsReportAggregate other) {
+        if(other.count == 0)
+            return;
+        if(histogram == null)
+            histogram = new int[BUCKETS];
+
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        for(int i = 0; i < BUCKETS; i++)
+            histogram[i] += other.histogram[i];
+    }
+
+    private static int bucket(long value) {
+        if(value < SUB_BUCKETS)
+            return value < 0 ? 0 : (int)value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if(exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketMidpoint(int bucket) {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long lower = (long)(SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+}
@@ -0,0 +1,96 @@
+package com.hps.integrator.entities.report;
+
+import com.hps.integrator.abstractions.IHpsReportTransactionHandler;
+import com.hps.integrator.entities.HpsCardBrand;
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsTransactionType;
+import com.hps.integrator.entities.credit.HpsReportTransactionSummary;
+
+import java.util.Calendar;
+
+/**
+ * Single-pass totals over report rows: overall, by transaction type, by hour of day, by response code class and
+ * by card brand. Pass it as the handler to a streaming {@code list} call so rows are counted as they are decoded
+ * and never buffered; its memory use does not depend on the number of rows.
+ * <p>
+ * Aggregators built over separate time slices can be combined with {@link #merge(HpsReportAggregator)}. An
+ * aggregator is not thread-safe; give each thread its own and merge them afterwards.
+ */
+public class HpsReportAggregator implements IHpsReportTransactionHandler {
+    private final HpsReportAggregate total = new HpsReportAggregate();
+    private final HpsReportAggregate[] byTransactionType = create(HpsReportTransactionStore.TRANSACTION_TYPES.length);
+    private final HpsReportAggregate[] byHour = create(24);
+    private final HpsReportAggregate[] byResponseCodeClass = create(HpsReportTransactionStore.RESPONSE_CODE_CLASSES.length);
+    private final HpsReportAggregate[] byCardBrand = create(HpsReportTransactionStore.CARD_BRANDS.length);
+
+    // report dates are decoded in the default time zone, so its hour of day is the reported UTC hour
+    private final Calendar calendar = Calendar.getInstance();
+
+    public void onTransaction(HpsReportTransactionSummary transaction) {
+        long amount = HpsReportTransactionStore.toCents(transaction.getAmount());
+
+        total.add(amount);
+        if(transaction.getTransactionType() != null)
+            byTransactionType[transaction.getTransactionType().ordinal()].add(amount);
+        if(transaction.getTransactionDate() != null) {
+            calendar.setTime(transaction.getTransactionDate());
+            byHour[calendar.get(Calendar.HOUR_OF_DAY)].add(amount);
+        }
+        byResponseCodeClass[HpsReportTransactionStore.responseCodeClass(transaction).ordinal()].add(amount);
+        byCardBrand[HpsCardBrand.fromCardNumber(transaction.getMaskedCardNumber()).ordinal()].add(amount);
+    }
+
+    public void addAll(HpsReportTransactionSummary[] transactions) {
+        for(HpsReportTransactionSummary transaction : transactions)
+            onTransaction(transaction);
+    }
+
+    /**
+     * Adds another aggregator's totals into this one.
+     *
+     * @return This aggregator.
+     */
+    public HpsReportAggregator merge(HpsReportAggregator other) {
+        total.merge(other.total);
+        merge(byTransactionType, other.byTransactionType);
+        merge(byHour, other.byHour);
+        merge(byResponseCodeClass, other.byResponseCodeClass);
+        merge(byCardBrand, other.byCardBrand);
+        return this;
+    }
+
+    public HpsReportAggregate getTotal() {
+        return total;
+    }
+
+    public HpsReportAggregate getByTransactionType(HpsTransactionType transactionType) {
+        return byTransactionType[transactionType.ordinal()];
+    }
+
+    /**
+     * @param hour The hour of day (UTC), from 0 to 23.
+     */
+    public HpsReportAggregate getByHour(int hour) {
+        return byHour[hour];
+    }
+
+    public HpsReportAggregate getByResponseCodeClass(HpsResponseCodeClass responseCodeClass) {
+        return byResponseCodeClass[responseCodeClass.ordinal()];
+    }
+
+    public HpsReportAggregate getByCardBrand(HpsCardBrand cardBrand) {
+        return byCardBrand[cardBrand.ordinal()];
+    }
+
+    private static HpsReportAggregate[] create(int length) {
+        HpsReportAggregate[] aggregates = new HpsReportAggregate[length];
+        for(int i = 0; i < length; i++)
+            aggregates[i] = new HpsReportAggregate();
+        return aggregates;
+    }
+
+    private static void merge(HpsReportAggregate[] into, HpsReportAggregate[] from) {
+        for(int i = 0; i < into.length; i++)
+            into[i].merge(from[i]);
+    }
+}
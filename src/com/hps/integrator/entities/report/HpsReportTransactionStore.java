@@ -0,0 +1,266 @@
+package com.hps.integrator.entities.report;
+
+import com.hps.integrator.abstractions.IHpsReportTransactionHandler;
+import com.hps.integrator.entities.HpsCardBrand;
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsTransactionType;
+import com.hps.integrator.entities.credit.HpsCreditExceptions;
+import com.hps.integrator.entities.credit.HpsReportTransactionFilter;
+import com.hps.integrator.entities.credit.HpsReportTransactionSummary;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Column-oriented, in-memory store of reported transactions, meant for keeping large amounts of report data
+ * around (e.g. several days of activity for dashboards) at a few dozen bytes per transaction.
+ * <p>
+ * Each field is held in a primitive array: amounts as cents, dates as epoch milliseconds, and transaction type,
+ * response code class and card brand as enum ordinals. Issuer response codes are stored as indexes into a small
+ * dictionary. Query the store through {@link #all()}, which returns a filterable {@link HpsReportTransactionView}.
+ * The store can be passed as the handler of a streaming {@code list} call to fill it as the report is decoded.
+ * <p>
+ * The store is not thread-safe; guard it externally if it is written and read from different threads.
+ */
+public class HpsReportTransactionStore implements IHpsReportTransactionHandler {
+    /** Stored for rows without a transaction date. */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    /** Stored for rows whose type, response code or card number is unknown. */
+    public static final byte NONE = -1;
+
+    static final HpsTransactionType[] TRANSACTION_TYPES = HpsTransactionType.values();
+    static final HpsResponseCodeClass[] RESPONSE_CODE_CLASSES = HpsResponseCodeClass.values();
+    static final HpsCardBrand[] CARD_BRANDS = HpsCardBrand.values();
+
+    int size;
+    int generation;
+    int[] transactionIds;
+    int[] originalTransactionIds;
+    long[] amounts;
+    long[] settlementAmounts;
+    long[] timestamps;
+    byte[] transactionTypes;
+    byte[] responseCodeClasses;
+    byte[] issuerResponseCodes;
+    byte[] cardBrands;
+    short[] cardSuffixes;
+
+    private String[] issuerCodeDictionary = new String[16];
+    private int issuerCodeCount;
+
+    public HpsReportTransactionStore() {
+        this(1024);
+    }
+
+    public HpsReportTransactionStore(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        transactionIds = new int[capacity];
+        originalTransactionIds = new int[capacity];
+        amounts = new long[capacity];
+        settlementAmounts = new long[capacity];
+        timestamps = new long[capacity];
+        transactionTypes = new byte[capacity];
+        responseCodeClasses = new byte[capacity];
+        issuerResponseCodes = new byte[capacity];
+        cardBrands = new byte[capacity];
+        cardSuffixes = new short[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void addAll(HpsReportTransactionSummary[] items) {
+        ensureCapacity(size + items.length);
+        for(HpsReportTransactionSummary item : items)
+            add(item);
+    }
+
+    public void onTransaction(HpsReportTransactionSummary transaction) {
+        add(transaction);
+    }
+
+    public void add(HpsReportTransactionSummary item) {
+        ensureCapacity(size + 1);
+        int row = size;
+
+        transactionIds[row] = item.getTransactionID();
+        originalTransactionIds[row] = item.getOriginalTransactionId();
+        amounts[row] = toCents(item.getAmount());
+        settlementAmounts[row] = toCents(item.getSettlementAmount());
+        timestamps[row] = item.getTransactionDate() != null ? item.getTransactionDate().getTime() : NO_TIMESTAMP;
+        transactionTypes[row] = item.getTransactionType() != null ? (byte)item.getTransactionType().ordinal() : NONE;
+        responseCodeClasses[row] = (byte)responseCodeClass(item).ordinal();
+        issuerResponseCodes[row] = issuerCodeIndex(item.getResponseCode());
+
+        String maskedCardNumber = item.getMaskedCardNumber();
+        cardBrands[row] = (byte)HpsCardBrand.fromCardNumber(maskedCardNumber).ordinal();
+        cardSuffixes[row] = cardSuffix(maskedCardNumber);
+
+        size++;
+    }
+
+    /**
+     * Drops every row dated before the given time, e.g. to keep a rolling window of recent activity. Views
+     * taken before this call can no longer be used.
+     *
+     * @param timestamp The cut-off, in epoch milliseconds.
+     * @return The number of rows removed.
+     */
+    public int removeBefore(long timestamp) {
+        int kept = 0;
+        for(int row = 0; row < size; row++) {
+            if(timestamps[row] != NO_TIMESTAMP && timestamps[row] < timestamp)
+                continue;
+            if(kept != row) {
+                transactionIds[kept] = transactionIds[row];
+                originalTransactionIds[kept] = originalTransactionIds[row];
+                amounts[kept] = amounts[row];
+                settlementAmounts[kept] = settlementAmounts[row];
+                timestamps[kept] = timestamps[row];
+                transactionTypes[kept] = transactionTypes[row];
+                responseCodeClasses[kept] = responseCodeClasses[row];
+                issuerResponseCodes[kept] = issuerResponseCodes[row];
+                cardBrands[kept] = cardBrands[row];
+                cardSuffixes[kept] = cardSuffixes[row];
+            }
+            kept++;
+        }
+
+        int removed = size - kept;
+        size = kept;
+        if(removed > 0)
+            generation++;
+        return removed;
+    }
+
+    public HpsReportTransactionView all() {
+        int[] rows = new int[size];
+        for(int i = 0; i < size; i++)
+            rows[i] = i;
+        return new HpsReportTransactionView(this, rows, size);
+    }
+
+    public int getTransactionId(int row) {
+        return transactionIds[checkRow(row)];
+    }
+
+    public int getOriginalTransactionId(int row) {
+        return originalTransactionIds[checkRow(row)];
+    }
+
+    public long getAmountCents(int row) {
+        return amounts[checkRow(row)];
+    }
+
+    public long getSettlementAmountCents(int row) {
+        return settlementAmounts[checkRow(row)];
+    }
+
+    public long getTimestamp(int row) {
+        return timestamps[checkRow(row)];
+    }
+
+    public HpsTransactionType getTransactionType(int row) {
+        byte ordinal = transactionTypes[checkRow(row)];
+        return ordinal == NONE ? null : TRANSACTION_TYPES[ordinal];
+    }
+
+    public HpsResponseCodeClass getResponseCodeClass(int row) {
+        return RESPONSE_CODE_CLASSES[responseCodeClasses[checkRow(row)]];
+    }
+
+    public String getIssuerResponseCode(int row) {
+        byte index = issuerResponseCodes[checkRow(row)];
+        return index == NONE ? null : issuerCodeDictionary[index];
+    }
+
+    public HpsCardBrand getCardBrand(int row) {
+        return CARD_BRANDS[cardBrands[checkRow(row)]];
+    }
+
+    /**
+     * @return The last four digits of the card number, or -1 if unknown.
+     */
+    public int getCardSuffix(int row) {
+        return cardSuffixes[checkRow(row)];
+    }
+
+    /**
+     * @return The dictionary index of an issuer response code, or {@link #NONE} if it has never been stored.
+     */
+    byte findIssuerCode(String code) {
+        for(int i = 0; i < issuerCodeCount; i++) {
+            if(issuerCodeDictionary[i].equals(code))
+                return (byte)i;
+        }
+        return NONE;
+    }
+
+    private int checkRow(int row) {
+        if(row < 0 || row >= size)
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        return row;
+    }
+
+    private byte issuerCodeIndex(String code) {
+        if(code == null)
+            return NONE;
+        byte index = findIssuerCode(code);
+        if(index != NONE)
+            return index;
+
+        // issuer codes are a small fixed set; anything past what a byte can index is left unrecorded
+        if(issuerCodeCount == Byte.MAX_VALUE)
+            return NONE;
+        if(issuerCodeCount == issuerCodeDictionary.length)
+            issuerCodeDictionary = Arrays.copyOf(issuerCodeDictionary, Math.min(Byte.MAX_VALUE, issuerCodeCount * 2));
+        issuerCodeDictionary[issuerCodeCount] = code;
+        return (byte)issuerCodeCount++;
+    }
+
+    private void ensureCapacity(int required) {
+        if(required <= transactionIds.length)
+            return;
+
+        int capacity = Math.max(required, transactionIds.length + (transactionIds.length >> 1));
+        transactionIds = Arrays.copyOf(transactionIds, capacity);
+        originalTransactionIds = Arrays.copyOf(originalTransactionIds, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        settlementAmounts = Arrays.copyOf(settlementAmounts, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        transactionTypes = Arrays.copyOf(transactionTypes, capacity);
+        responseCodeClasses = Arrays.copyOf(responseCodeClasses, capacity);
+        issuerResponseCodes = Arrays.copyOf(issuerResponseCodes, capacity);
+        cardBrands = Arrays.copyOf(cardBrands, capacity);
+        cardSuffixes = Arrays.copyOf(cardSuffixes, capacity);
+    }
+
+    static long toCents(BigDecimal amount) {
+        if(amount == null)
+            return 0;
+        return amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+    }
+
+    static HpsResponseCodeClass responseCodeClass(HpsReportTransactionSummary item) {
+        HpsCreditExceptions exceptions = item.getExceptions();
+        if(exceptions != null && (exceptions.getGatewayResponseCode() != null || exceptions.getHpsException() != null))
+            return HpsResponseCodeClass.GatewayError;
+        return HpsReportTransactionFilter.classify(null, item.getResponseCode());
+    }
+
+    private static short cardSuffix(String maskedCardNumber) {
+        if(maskedCardNumber == null || maskedCardNumber.length() < 4)
+            return NONE;
+
+        int suffix = 0;
+        for(int i = maskedCardNumber.length() - 4; i < maskedCardNumber.length(); i++) {
+            char c = maskedCardNumber.charAt(i);
+            if(c < '0' || c > '9')
+                return NONE;
+            suffix = suffix * 10 + (c - '0');
+        }
+        return (short)suffix;
+    }
+}
@@ -0,0 +1,243 @@
+package com.hps.integrator.entities.report;
+
+import com.hps.integrator.entities.HpsCardBrand;
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsTransactionType;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * A selection of rows from a {@link HpsReportTransactionStore}. Each <b>where</b> method returns a narrower view
+ * and leaves this one untouched; aggregates are computed directly over the store's primitive columns.
+ * <p>
+ * A view is invalidated by {@link HpsReportTransactionStore#removeBefore(long)}. Rows added to the store after
+ * the view was taken are not part of it.
+ */
+public class HpsReportTransactionView {
+    private final HpsReportTransactionStore store;
+    private final int[] rows;
+    private final int size;
+    private final int generation;
+
+    HpsReportTransactionView(HpsReportTransactionStore store, int[] rows, int size) {
+        this.store = store;
+        this.rows = rows;
+        this.size = size;
+        this.generation = store.generation;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The store row of the i-th transaction in this view, for use with the store's column getters.
+     */
+    public int getRow(int i) {
+        checkGeneration();
+        if(i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " of " + size);
+        return rows[i];
+    }
+
+    public int[] getTransactionIds() {
+        checkGeneration();
+        int[] ids = new int[size];
+        for(int i = 0; i < size; i++)
+            ids[i] = store.transactionIds[rows[i]];
+        return ids;
+    }
+
+    public HpsReportTransactionView whereTransactionType(HpsTransactionType transactionType) {
+        final byte ordinal = transactionType != null
+                ? (byte)transactionType.ordinal() : HpsReportTransactionStore.NONE;
+        final byte[] column = store.transactionTypes;
+        return where(new RowPredicate() {
+            boolean matches(int row) {
+                return column[row] == ordinal;
+            }
+        });
+    }
+
+    public HpsReportTransactionView whereResponseCodeClass(HpsResponseCodeClass responseCodeClass) {
+        final byte ordinal = (byte)responseCodeClass.ordinal();
+        final byte[] column = store.responseCodeClasses;
+        return where(new RowPredicate() {
+            boolean matches(int row) {
+                return column[row] == ordinal;
+            }
+        });
+    }
+
+    public HpsReportTransactionView whereCardBrand(HpsCardBrand cardBrand) {
+        final byte ordinal = (byte)cardBrand.ordinal();
+        final byte[] column = store.cardBrands;
+        return where(new RowPredicate() {
+            boolean matches(int row) {
+                return column[row] == ordinal;
+            }
+        });
+    }
+
+    public HpsReportTransactionView whereIssuerResponseCode(String issuerResponseCode) {
+        final byte index = store.findIssuerCode(issuerResponseCode);
+        if(index == HpsReportTransactionStore.NONE)
+            return new HpsReportTransactionView(store, new int[0], 0);
+
+        final byte[] column = store.issuerResponseCodes;
+        return where(new RowPredicate() {
+            boolean matches(int row) {
+                return column[row] == index;
+            }
+        });
+    }
+
+    public HpsReportTransactionView whereCardSuffix(final int cardSuffix) {
+        final short[] column = store.cardSuffixes;
+        return where(new RowPredicate() {
+            boolean matches(int row) {
+                return column[row] == cardSuffix;
+            }
+        });
+    }
+
+    /**
+     * @param fromCents The lowest amount, in cents, inclusive.
+     * @param toCents   The highest amount, in cents, inclusive.
+     */
+    public HpsReportTransactionView whereAmountBetween(final long fromCents, final long toCents) {
+        final long[] column = store.amounts;
+        return where(new RowPredicate() {
+            boolean matches(int row) {
+                return column[row] >= fromCents && column[row] <= toCents;
+            }
+        });
+    }
+
+    /**
+     * @param from The start of the window in epoch milliseconds, inclusive.
+     * @param to   The end of the window in epoch milliseconds, exclusive.
+     */
+    public HpsReportTransactionView whereTimeBetween(final long from, final long to) {
+        final long[] column = store.timestamps;
+        return where(new RowPredicate() {
+            boolean matches(int row) {
+                return column[row] != HpsReportTransactionStore.NO_TIMESTAMP && column[row] >= from && column[row] < to;
+            }
+        });
+    }
+
+    public long sumAmountCents() {
+        return sum(store.amounts);
+    }
+
+    public long sumSettlementAmountCents() {
+        return sum(store.settlementAmounts);
+    }
+
+    /**
+     * @return The smallest amount in cents, or 0 if the view is empty.
+     */
+    public long minAmountCents() {
+        checkGeneration();
+        if(size == 0)
+            return 0;
+
+        long[] column = store.amounts;
+        long min = Long.MAX_VALUE;
+        for(int i = 0; i < size; i++)
+            min = Math.min(min, column[rows[i]]);
+        return min;
+    }
+
+    /**
+     * @return The largest amount in cents, or 0 if the view is empty.
+     */
+    public long maxAmountCents() {
+        checkGeneration();
+        if(size == 0)
+            return 0;
+
+        long[] column = store.amounts;
+        long max = Long.MIN_VALUE;
+        for(int i = 0; i < size; i++)
+            max = Math.max(max, column[rows[i]]);
+        return max;
+    }
+
+    /**
+     * @return Row counts indexed by {@link HpsTransactionType} ordinal; rows of unknown type are not counted.
+     */
+    public long[] countByTransactionType() {
+        return countBy(store.transactionTypes, HpsReportTransactionStore.TRANSACTION_TYPES.length);
+    }
+
+    /**
+     * @return Amount totals in cents indexed by {@link HpsTransactionType} ordinal.
+     */
+    public long[] sumAmountCentsByTransactionType() {
+        checkGeneration();
+        byte[] types = store.transactionTypes;
+        long[] amounts = store.amounts;
+        long[] sums = new long[HpsReportTransactionStore.TRANSACTION_TYPES.length];
+        for(int i = 0; i < size; i++) {
+            int row = rows[i];
+            if(types[row] != HpsReportTransactionStore.NONE)
+                sums[types[row]] += amounts[row];
+        }
+        return sums;
+    }
+
+    /**
+     * @return Row counts indexed by {@link HpsResponseCodeClass} ordinal.
+     */
+    public long[] countByResponseCodeClass() {
+        return countBy(store.responseCodeClasses, HpsReportTransactionStore.RESPONSE_CODE_CLASSES.length);
+    }
+
+    /**
+     * @return Row counts indexed by {@link HpsCardBrand} ordinal.
+     */
+    public long[] countByCardBrand() {
+        return countBy(store.cardBrands, HpsReportTransactionStore.CARD_BRANDS.length);
+    }
+
+    private long sum(long[] column) {
+        checkGeneration();
+        long total = 0;
+        for(int i = 0; i < size; i++)
+            total += column[rows[i]];
+        return total;
+    }
+
+    private long[] countBy(byte[] column, int buckets) {
+        checkGeneration();
+        long[] counts = new long[buckets];
+        for(int i = 0; i < size; i++) {
+            byte ordinal = column[rows[i]];
+            if(ordinal != HpsReportTransactionStore.NONE)
+                counts[ordinal]++;
+        }
+        return counts;
+    }
+
+    private HpsReportTransactionView where(RowPredicate predicate) {
+        checkGeneration();
+        int[] matched = new int[size];
+        int count = 0;
+        for(int i = 0; i < size; i++) {
+            if(predicate.matches(rows[i]))
+                matched[count++] = rows[i];
+        }
+        return new HpsReportTransactionView(store, matched, count);
+    }
+
+    private void checkGeneration() {
+        if(generation != store.generation)
+            throw new ConcurrentModificationException("The store has been compacted since this view was taken.");
+    }
+
+    private static abstract class RowPredicate {
+        abstract boolean matches(int row);
+    }
+}
@@ -12,7 +12,7 @@ import com.hps.integrator.services.fluent.HpsFluentCreditService;
 
 import java.math.BigDecimal;
 
-public class CreditAuthBuilder extends HpsBuilderAbstract<HpsFluentCreditService, HpsAuthorization> {
+public class CreditAuthBuilder extends HpsResettableBuilderAbstract<HpsFluentCreditService, HpsAuthorization> {
     private BigDecimal amount;
     private String currency;
     private HpsCreditCard card;
@@ -114,9 +114,39 @@ public class CreditAuthBuilder extends HpsBuilderAbstract<HpsFluentCreditService
         super(service);
     }
 
+    @Override
+    public CreditAuthBuilder reset() {
+        super.reset();
+        return this;
+    }
+
+    @Override
+    protected void resetRequest() {
+        this.amount = null;
+        this.currency = null;
+        this.card = null;
+        this.token = null;
+        this.trackData = null;
+        this.cardHolder = null;
+        this.requestMultiUseToken = false;
+        this.details = null;
+        this.txnDescriptor = null;
+        this.allowPartialAuth = false;
+        this.cpcReq = false;
+        this.directMarketData = null;
+        this.allowDuplicates = false;
+        this.paymentData = null;
+        this.cardPresent = false;
+        this.readerPresent = false;
+        this.gratuity = null;
+        this.autoSubstantiation = null;
+        this.originalTxnReferenceData = null;
+    }
+
     @Override
     public HpsAuthorization execute() throws HpsException {
         super.execute();
+        service.validateCardData(card, trackData);
 
         Element transaction = Et.element("CreditAuth");
         Element block1 = Et.subElement(transaction, "Block1");
@@ -9,7 +9,7 @@ import com.hps.integrator.services.fluent.HpsFluentCreditService;
 
 import java.math.BigDecimal;
 
-public class CreditCaptureBuilder extends HpsBuilderAbstract<HpsFluentCreditService, HpsTransaction> {
+public class CreditCaptureBuilder extends HpsResettableBuilderAbstract<HpsFluentCreditService, HpsTransaction> {
     Integer transactionId;
     BigDecimal amount;
     BigDecimal gratuity;
@@ -45,6 +45,21 @@ public class CreditCaptureBuilder extends HpsBuilderAbstract<HpsFluentCreditServ
         super(service);
     }
 
+    @Override
+    public CreditCaptureBuilder reset() {
+        super.reset();
+        return this;
+    }
+
+    @Override
+    protected void resetRequest() {
+        this.transactionId = null;
+        this.amount = null;
+        this.gratuity = null;
+        this.clientTransactionId = null;
+        this.directMarketData = null;
+    }
+
     @Override
     public HpsTransaction execute() throws HpsException {
         super.execute();
@@ -7,12 +7,13 @@ import com.hps.integrator.entities.HpsTransactionDetails;
 import com.hps.integrator.entities.credit.*;
 import com.hps.integrator.infrastructure.Element;
 import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsArgumentException;
 import com.hps.integrator.infrastructure.HpsException;
 import com.hps.integrator.services.fluent.HpsFluentCreditService;
 
 import java.math.BigDecimal;
 
-public class CreditChargeBuilder extends HpsBuilderAbstract<HpsFluentCreditService, HpsCharge> {
+public class CreditChargeBuilder extends HpsResettableBuilderAbstract<HpsFluentCreditService, HpsCharge> {
     private BigDecimal amount;
     private String currency;
     private HpsCreditCard card;
@@ -114,10 +115,67 @@ public class CreditChargeBuilder extends HpsBuilderAbstract<HpsFluentCreditServi
         super(service);
     }
 
+    @Override
+    public CreditChargeBuilder reset() {
+        super.reset();
+        return this;
+    }
+
+    @Override
+    protected void resetRequest() {
+        this.amount = null;
+        this.currency = null;
+        this.card = null;
+        this.token = null;
+        this.trackData = null;
+        this.cardHolder = null;
+        this.requestMultiUseToken = false;
+        this.details = null;
+        this.txnDescriptor = null;
+        this.allowPartialAuth = false;
+        this.cpcReq = false;
+        this.directMarketData = null;
+        this.allowDuplicates = false;
+        this.paymentData = null;
+        this.cardPresent = false;
+        this.readerPresent = false;
+        this.gratuity = null;
+        this.autoSubstantiation = null;
+        this.originalTxnReferenceData = null;
+    }
+
     @Override
     public HpsCharge execute() throws HpsException {
         super.execute();
+        service.validateCardData(card, trackData);
 
+        Element transaction = buildTransaction();
+        String clientTransactionId = service.getClientTxnId(details);
+        ElementTree response = service.submitTransaction(transaction, clientTransactionId);
+        return new HpsCharge().fromElementTree(response);
+    }
+
+    /**
+     * Serializes the charge configured so far once, as a template for charges that differ only in amount and
+     * token. The builder's amount and token stand in for those of the rendered charges.
+     *
+     * @throws HpsArgumentException If the charge is not paid by token or carries a client transaction id, which
+     *                              is unique per request.
+     */
+    public CreditChargeTemplate toTemplate() throws HpsException {
+        this.validate();
+        if(token == null)
+            throw new HpsArgumentException("A charge template must be paid by token.");
+        if(service.getClientTxnId(details) != null)
+            throw new HpsArgumentException("A charge template cannot carry a client transaction id.");
+
+        Element transaction = buildTransaction();
+        transaction.get("Amt").getElement().setTextContent(CreditChargeTemplate.AMOUNT_SLOT);
+        transaction.get("TokenValue").getElement().setTextContent(CreditChargeTemplate.TOKEN_SLOT);
+        return new CreditChargeTemplate(service, transaction, service.buildRequest(transaction, null));
+    }
+
+    private Element buildTransaction() {
         Element transaction = Et.element("CreditSale");
         Element block1 = Et.subElement(transaction, "Block1");
         Et.subElement(block1, "AllowDup").text(allowDuplicates ? "Y" : "N");
@@ -168,10 +226,7 @@ public class CreditChargeBuilder extends HpsBuilderAbstract<HpsFluentCreditServi
         }
         if(directMarketData != null)
             block1.append(service.hydrateDirectMarketData(directMarketData));
-
-        String clientTransactionId = service.getClientTxnId(details);
-        ElementTree response = service.submitTransaction(transaction, clientTransactionId);
-        return new HpsCharge().fromElementTree(response);
+        return transaction;
     }
 
     @Override
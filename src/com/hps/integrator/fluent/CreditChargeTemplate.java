@@ -0,0 +1,197 @@
+package com.hps.integrator.fluent;
+
+import com.hps.integrator.abstractions.IHpsTransactionCall;
+import com.hps.integrator.entities.HpsTransactionOutcome;
+import com.hps.integrator.entities.credit.HpsCharge;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsArgumentException;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.fluent.HpsFluentCreditService;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A <b>CreditSale</b> serialized once, from {@link CreditChargeBuilder#toTemplate()}, and sent again with a
+ * different amount and token each time.
+ * <p>
+ * The serialized request is kept as byte segments around the amount and token; rendering a charge copies the
+ * segments and the escaped values into one array, without building or serializing a document. Everything else,
+ * including the header, is fixed when the template is made, so make a new template after changing the services
+ * config. Like its service, a template is not safe to share between threads.
+ */
+public class CreditChargeTemplate {
+    static final String AMOUNT_SLOT = "{hps-template-amount}";
+    static final String TOKEN_SLOT = "{hps-template-token}";
+
+    private final HpsFluentCreditService service;
+    private final Element transaction;
+    private final Element amount;
+    private final Element token;
+    private final byte[][] segments;
+    private final boolean[] amountSlots;
+    private final int amountSlotCount;
+    private final int fixedLength;
+
+    /**
+     * @param transaction The transaction element, with the slot markers as its amount and token.
+     * @param request     The request serialized from it.
+     */
+    CreditChargeTemplate(HpsFluentCreditService service, Element transaction, String request) throws HpsException {
+        this.service = service;
+        this.transaction = transaction;
+        this.amount = transaction.get("Amt");
+        this.token = transaction.get("TokenValue");
+
+        List<byte[]> segments = new ArrayList<byte[]>();
+        List<Boolean> amountSlots = new ArrayList<Boolean>();
+        int length = 0;
+        int start = 0;
+        while(true) {
+            int amountAt = request.indexOf(AMOUNT_SLOT, start);
+            int tokenAt = request.indexOf(TOKEN_SLOT, start);
+            if(amountAt < 0 && tokenAt < 0)
+                break;
+
+            boolean isAmount = tokenAt < 0 || (amountAt >= 0 && amountAt < tokenAt);
+            int at = isAmount ? amountAt : tokenAt;
+            byte[] segment = utf8(request.substring(start, at));
+            segments.add(segment);
+            amountSlots.add(isAmount);
+            length += segment.length;
+            start = at + (isAmount ? AMOUNT_SLOT : TOKEN_SLOT).length();
+        }
+        byte[] last = utf8(request.substring(start));
+        segments.add(last);
+        length += last.length;
+
+        if(!amountSlots.contains(true) || !amountSlots.contains(false))
+            throw new HpsArgumentException("The charge template has no amount or token.");
+
+        this.segments = segments.toArray(new byte[segments.size()][]);
+        this.amountSlots = new boolean[amountSlots.size()];
+        int amountSlotCount = 0;
+        for(int i = 0; i < this.amountSlots.length; i++) {
+            this.amountSlots[i] = amountSlots.get(i);
+            if(this.amountSlots[i])
+                amountSlotCount++;
+        }
+        this.amountSlotCount = amountSlotCount;
+        this.fixedLength = length;
+    }
+
+    public HpsCharge execute(BigDecimal amount, String token) throws HpsException {
+        byte[] request = render(amount, token);
+        // the element stands for the request to the journal, archive and pre-send checks
+        this.amount.getElement().setTextContent(amount.toString());
+        this.token.getElement().setTextContent(token);
+        ElementTree response = service.submitTransaction(request, transaction);
+        return new HpsCharge().fromElementTree(response);
+    }
+
+    /**
+     * Sends a charge, returning a decline or gateway error as the outcome rather than throwing it.
+     */
+    public HpsTransactionOutcome<HpsCharge> tryExecute(final BigDecimal amount, final String token) throws HpsException {
+        return service.attempt(new IHpsTransactionCall<HpsCharge>() {
+            public HpsCharge call() throws HpsException {
+                return execute(amount, token);
+            }
+        });
+    }
+
+    /**
+     * @return The request for a charge of {@code amount} paid with {@code token}, as UTF-8.
+     */
+    public byte[] render(BigDecimal amount, String token) throws HpsException {
+        if(amount == null)
+            throw new HpsArgumentException("Amount is required.");
+        if(token == null || token.equals(""))
+            throw new HpsArgumentException("Token is required.");
+
+        String amountText = amount.toString();
+        byte[] tokenBytes = null;
+        int tokenLength = escapedLength(token);
+        if(tokenLength < 0) {
+            tokenBytes = utf8(escape(token));
+            tokenLength = tokenBytes.length;
+        }
+
+        byte[] request = new byte[fixedLength + amountText.length() * amountSlotCount
+                + tokenLength * (amountSlots.length - amountSlotCount)];
+        int position = 0;
+        for(int i = 0; i < segments.length; i++) {
+            System.arraycopy(segments[i], 0, request, position, segments[i].length);
+            position += segments[i].length;
+            if(i == amountSlots.length)
+                break;
+
+            if(amountSlots[i]) {
+                for(int j = 0; j < amountText.length(); j++)
+                    request[position++] = (byte)amountText.charAt(j);
+            } else if(tokenBytes != null) {
+                System.arraycopy(tokenBytes, 0, request, position, tokenBytes.length);
+                position += tokenBytes.length;
+            } else {
+                position = writeEscaped(token, request, position);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * @return The escaped length of an ASCII value, or -1 if it has other characters.
+     */
+    private static int escapedLength(String value) {
+        int length = 0;
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c >= 0x80)
+                return -1;
+            length += c == '&' ? 5 : c == '<' || c == '>' ? 4 : c == '"' || c == '\'' ? 6 : 1;
+        }
+        return length;
+    }
+
+    private static int writeEscaped(String value, byte[] target, int position) {
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String entity = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;"
+                    : c == '"' ? "&quot;" : c == '\'' ? "&apos;" : null;
+            if(entity == null) {
+                target[position++] = (byte)c;
+                continue;
+            }
+            for(int j = 0; j < entity.length(); j++)
+                target[position++] = (byte)entity.charAt(j);
+        }
+        return position;
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 16);
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '&': escaped.append("&amp;"); break;
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '"': escaped.append("&quot;"); break;
+                case '\'': escaped.append("&apos;"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static byte[] utf8(String value) throws HpsException {
+        try {
+            return value.getBytes("UTF-8");
+        } catch(UnsupportedEncodingException e) {
+            throw new HpsException(e.getMessage(), e);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.hps.integrator.fluent;
 
+import com.hps.integrator.entities.HpsResponseCodeClass;
 import com.hps.integrator.entities.HpsTransactionType;
+import com.hps.integrator.entities.credit.HpsReportTransactionFilter;
 import com.hps.integrator.entities.credit.HpsReportTransactionSummary;
 import com.hps.integrator.infrastructure.Element;
 import com.hps.integrator.infrastructure.ElementTree;
@@ -8,6 +10,7 @@ import com.hps.integrator.infrastructure.HpsException;
 import com.hps.integrator.infrastructure.validation.HpsInputValidation;
 import com.hps.integrator.services.fluent.HpsFluentCreditService;
 
+import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -15,6 +18,7 @@ public class CreditListBuilder extends HpsBuilderAbstract<HpsFluentCreditService
     Date utcStartDate;
     Date utcEndDate;
     HpsTransactionType filterBy;
+    HpsReportTransactionFilter filter;
 
     public CreditListBuilder withUtcStartDate(Date startDate) {
         this.utcStartDate = startDate;
@@ -28,6 +32,41 @@ public class CreditListBuilder extends HpsBuilderAbstract<HpsFluentCreditService
         this.filterBy = filterBy;
         return this;
     }
+    public CreditListBuilder withFilter(HpsReportTransactionFilter filter) {
+        // keep a copy, so the with* methods below never change the caller's filter
+        this.filter = filter == null ? null : new HpsReportTransactionFilter(filter);
+        return this;
+    }
+    public CreditListBuilder withTransactionTypes(HpsTransactionType first, HpsTransactionType... rest) {
+        this.filter().withTransactionTypes(first, rest);
+        return this;
+    }
+    public CreditListBuilder withAmountRange(BigDecimal minAmount, BigDecimal maxAmount) {
+        this.filter().withAmountRange(minAmount, maxAmount);
+        return this;
+    }
+    public CreditListBuilder withMaskedCardSuffix(String maskedCardSuffix) {
+        this.filter().withMaskedCardSuffix(maskedCardSuffix);
+        return this;
+    }
+    public CreditListBuilder withResponseCodeClasses(HpsResponseCodeClass first, HpsResponseCodeClass... rest) {
+        this.filter().withResponseCodeClasses(first, rest);
+        return this;
+    }
+    public CreditListBuilder withTimeWindow(Date startDate, Date endDate) {
+        this.filter().withTimeWindow(startDate, endDate);
+        return this;
+    }
+    public CreditListBuilder withLimit(int limit) {
+        this.filter().withLimit(limit);
+        return this;
+    }
+
+    private HpsReportTransactionFilter filter() {
+        if(this.filter == null)
+            this.filter = new HpsReportTransactionFilter();
+        return this.filter;
+    }
 
     public CreditListBuilder(HpsFluentCreditService service) {
         super(service);
@@ -45,8 +84,15 @@ public class CreditListBuilder extends HpsBuilderAbstract<HpsFluentCreditService
         Et.subElement(transaction, "RptStartUtcDT").text(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(utcStartDate));
         Et.subElement(transaction, "RptEndUtcDT").text(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(utcEndDate));
 
+        // narrow a copy, so the caller's filter is left as it was set
+        HpsReportTransactionFilter rowFilter = this.filter;
+        if(filterBy != null) {
+            rowFilter = rowFilter == null ? new HpsReportTransactionFilter() : new HpsReportTransactionFilter(rowFilter);
+            rowFilter.narrowTransactionTypes(filterBy);
+        }
+
         ElementTree response = service.submitTransaction(transaction);
-        return new HpsReportTransactionSummary().fromElementTree(response, filterBy);
+        return new HpsReportTransactionSummary().fromElementTree(response, rowFilter);
     }
 
     @Override
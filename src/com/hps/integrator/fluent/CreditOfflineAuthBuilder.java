@@ -110,6 +110,7 @@ public class CreditOfflineAuthBuilder extends HpsBuilderAbstract<HpsFluentCredit
     @Override
     public HpsTransaction execute() throws HpsException {
         super.execute();
+        service.validateCardData(card, trackData);
 
         Element transaction = Et.element("CreditOfflineAuth");
         Element block1 = Et.subElement(transaction, "Block1");
@@ -110,6 +110,7 @@ public class CreditOfflineChargeBuilder extends HpsBuilderAbstract<HpsFluentCred
     @Override
     public HpsTransaction execute() throws HpsException {
         super.execute();
+        service.validateCardData(card, trackData);
 
         Element transaction = Et.element("CreditOfflineSale");
         Element block1 = Et.subElement(transaction, "Block1");
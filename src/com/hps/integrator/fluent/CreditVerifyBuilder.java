@@ -62,6 +62,7 @@ public class CreditVerifyBuilder extends HpsBuilderAbstract<HpsFluentCreditServi
     @Override
     public HpsAccountVerify execute() throws HpsException {
         super.execute();
+        service.validateCardData(card, trackData);
 
         Element transaction = Et.element("CreditAccountVerify");
         Element block1 = Et.subElement(transaction, "Block1");
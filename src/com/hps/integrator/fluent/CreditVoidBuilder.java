@@ -6,7 +6,7 @@ import com.hps.integrator.infrastructure.ElementTree;
 import com.hps.integrator.infrastructure.HpsException;
 import com.hps.integrator.services.fluent.HpsFluentCreditService;
 
-public class CreditVoidBuilder extends HpsBuilderAbstract<HpsFluentCreditService, HpsTransaction> {
+public class CreditVoidBuilder extends HpsResettableBuilderAbstract<HpsFluentCreditService, HpsTransaction> {
     Integer transactionId;
     String clientTransactionId;
 
@@ -24,6 +24,18 @@ public class CreditVoidBuilder extends HpsBuilderAbstract<HpsFluentCreditService
         super(service);
     }
 
+    @Override
+    public CreditVoidBuilder reset() {
+        super.reset();
+        return this;
+    }
+
+    @Override
+    protected void resetRequest() {
+        this.transactionId = null;
+        this.clientTransactionId = null;
+    }
+
     @Override
     public HpsTransaction execute() throws HpsException {
         super.execute();
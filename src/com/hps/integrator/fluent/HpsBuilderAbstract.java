@@ -1,30 +1,51 @@
 package com.hps.integrator.fluent;
 
+import com.hps.integrator.abstractions.IHpsTransactionCall;
+import com.hps.integrator.entities.HpsTransactionOutcome;
 import com.hps.integrator.infrastructure.ElementTree;
 import com.hps.integrator.infrastructure.HpsArgumentException;
 import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsSoapGatewayService;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-public abstract class HpsBuilderAbstract<TSoapGatewayService, TExecutionResult> {
-    public List<HpsBuilderValidation> validations;
+/**
+ * Base of the fluent builders.
+ * <p>
+ * A builder shares the validations set up by the first builder of its class until {@link #addValidation} gives
+ * it its own copy, so validations are only added through it. Builders that can be cleared and used again extend {@link HpsResettableBuilderAbstract}.
+ */
+public abstract class HpsBuilderAbstract<TSoapGatewayService extends HpsSoapGatewayService, TExecutionResult> {
+    private static final ConcurrentMap<Class<?>, List<HpsBuilderValidation>> SHARED_VALIDATIONS =
+            new ConcurrentHashMap<Class<?>, List<HpsBuilderValidation>>();
+
+    private List<HpsBuilderValidation> validations;
     public boolean executed = false;
     public TSoapGatewayService service;
 
     protected ElementTree Et;
+    private List<HpsBuilderValidation> sharedValidations;
 
     public HpsBuilderAbstract(TSoapGatewayService service) {
-        this.validations = new ArrayList<HpsBuilderValidation>();
-
         this.service = service;
         this.Et = new ElementTree();
-        try {
-            this.setupValidations();
-        } catch(HpsException e) {
+
+        List<HpsBuilderValidation> shared = SHARED_VALIDATIONS.get(getClass());
+        if(shared == null) {
             this.validations = new ArrayList<HpsBuilderValidation>();
+            try {
+                this.setupValidations();
+            } catch(HpsException e) {
+                this.validations = new ArrayList<HpsBuilderValidation>();
+            }
+            SHARED_VALIDATIONS.putIfAbsent(getClass(), Collections.unmodifiableList(this.validations));
+            shared = SHARED_VALIDATIONS.get(getClass());
         }
+        this.validations = this.sharedValidations = shared;
     }
 
     public TExecutionResult execute() throws HpsException {
@@ -34,31 +55,58 @@ public abstract class HpsBuilderAbstract<TSoapGatewayService, TExecutionResult>
         return null;
     }
 
+    /**
+     * Executes the builder, returning a decline or gateway error as the outcome rather than throwing it.
+     *
+     * @see HpsSoapGatewayService#attempt(IHpsTransactionCall)
+     */
+    public HpsTransactionOutcome<TExecutionResult> tryExecute() throws HpsException {
+        return service.attempt(new IHpsTransactionCall<TExecutionResult>() {
+            public TExecutionResult call() throws HpsException {
+                return execute();
+            }
+        });
+    }
+
+    /**
+     * Runs every validation and reports all the failures together.
+     *
+     * @throws HpsArgumentException Listing the message of each failed validation.
+     */
     public void validate() throws HpsException {
+        StringBuilder errors = null;
         for(HpsBuilderValidation validation : this.validations) {
-            try {
-                Method callback = this.getClass().getDeclaredMethod(validation.getCallback());
-                callback.setAccessible(true);
-                boolean result = (Boolean)callback.invoke(this);
-                if (!result) {
-                    System.out.println(validation.getExceptionMessage());
-                    throw new HpsArgumentException(validation.getExceptionMessage());
-                }
-                callback.setAccessible(false);
-            }
-            catch(HpsArgumentException e){
-                throw e;
-            }
-            catch(Exception e) {
-                throw new HpsException(e.getMessage());
-            }
+            if(validation.test(this))
+                continue;
+            if(errors == null)
+                errors = new StringBuilder(validation.getExceptionMessage());
+            else errors.append(' ').append(validation.getExceptionMessage());
         }
+        if(errors != null)
+            throw new HpsArgumentException(errors.toString());
+    }
+
+    /**
+     * @return The builder's validations, read-only; add to them with {@link #addValidation}.
+     */
+    public List<HpsBuilderValidation> getValidations() {
+        return Collections.unmodifiableList(this.validations);
     }
 
     public HpsBuilderAbstract addValidation(HpsBuilderValidation validation) {
+        if(this.validations == this.sharedValidations)
+            this.validations = new ArrayList<HpsBuilderValidation>(this.sharedValidations);
         this.validations.add(validation);
         return this;
     }
 
+    /**
+     * Marks the builder as not executed and drops the validations added to it.
+     */
+    void resetState() {
+        this.executed = false;
+        this.validations = this.sharedValidations;
+    }
+
     protected void setupValidations() throws HpsException { }
 }
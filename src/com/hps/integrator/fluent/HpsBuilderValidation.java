@@ -1,6 +1,32 @@
 package com.hps.integrator.fluent;
 
+import com.hps.integrator.infrastructure.HpsArgumentException;
+import com.hps.integrator.infrastructure.HpsException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A check run on a builder before it executes. The check is either a no-argument boolean method of the builder,
+ * named by the callback, or the validation's own {@link #test(Object)} when a subclass overrides it.
+ * <p>
+ * Callback methods are looked up once per builder class and kept as method handles, so running a validation
+ * costs a direct call rather than a reflective lookup.
+ */
 public class HpsBuilderValidation {
+    private static final MethodType PREDICATE = MethodType.methodType(boolean.class, Object.class);
+    private static final ClassValue<ConcurrentMap<String, MethodHandle>> CALLBACKS =
+            new ClassValue<ConcurrentMap<String, MethodHandle>>() {
+                @Override
+                protected ConcurrentMap<String, MethodHandle> computeValue(Class<?> type) {
+                    return new ConcurrentHashMap<String, MethodHandle>();
+                }
+            };
+
     private String callback;
     private String exceptionMessage;
 
@@ -12,8 +38,62 @@ public class HpsBuilderValidation {
         return exceptionMessage;
     }
 
-    public HpsBuilderValidation(String callback, String exceptionMessage) {
+    /**
+     * @param callback The name of the builder's no-argument boolean method that runs the check.
+     * @throws HpsArgumentException If no callback is named.
+     */
+    public HpsBuilderValidation(String callback, String exceptionMessage) throws HpsArgumentException {
+        if(callback == null)
+            throw new HpsArgumentException("A validation callback is required.");
         this.callback = callback;
         this.exceptionMessage = exceptionMessage;
     }
+
+    /**
+     * For validations that override {@link #test(Object)} instead of naming a callback.
+     */
+    protected HpsBuilderValidation(String exceptionMessage) {
+        this.exceptionMessage = exceptionMessage;
+    }
+
+    /**
+     * @return True if the builder passes the check.
+     * @throws HpsException If the callback method does not exist or fails.
+     */
+    public boolean test(Object builder) throws HpsException {
+        if(callback == null)
+            throw new HpsException("Validations without a callback must override test.");
+        MethodHandle handle = resolve(builder.getClass(), callback);
+        try {
+            return (boolean)handle.invokeExact(builder);
+        } catch(Error e) {
+            throw e;
+        } catch(Exception e) {
+            throw new HpsException(e.getMessage(), e);
+        } catch(Throwable e) {
+            throw new HpsException(e.getMessage());
+        }
+    }
+
+    private static MethodHandle resolve(Class<?> type, String name) throws HpsException {
+        ConcurrentMap<String, MethodHandle> callbacks = CALLBACKS.get(type);
+        MethodHandle handle = callbacks.get(name);
+        if(handle != null)
+            return handle;
+
+        for(Class<?> declaring = type; declaring != null; declaring = declaring.getSuperclass()) {
+            try {
+                Method method = declaring.getDeclaredMethod(name);
+                method.setAccessible(true);
+                handle = MethodHandles.lookup().unreflect(method).asType(PREDICATE);
+                callbacks.putIfAbsent(name, handle);
+                return handle;
+            } catch(NoSuchMethodException e) {
+                // declared further up, if anywhere
+            } catch(IllegalAccessException e) {
+                throw new HpsException(e.getMessage(), e);
+            }
+        }
+        throw new HpsException("Validation method " + name + " not found on " + type.getName() + ".");
+    }
 }
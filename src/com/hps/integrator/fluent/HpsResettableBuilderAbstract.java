@@ -0,0 +1,30 @@
+package com.hps.integrator.fluent;
+
+import com.hps.integrator.services.HpsSoapGatewayService;
+
+/**
+ * Base of the builders that can be cleared and used again, so a thread sending many transactions of one kind
+ * allocates no builder per transaction. Like its service, a builder must stay on one thread.
+ */
+public abstract class HpsResettableBuilderAbstract<TSoapGatewayService extends HpsSoapGatewayService, TExecutionResult>
+        extends HpsBuilderAbstract<TSoapGatewayService, TExecutionResult> {
+
+    public HpsResettableBuilderAbstract(TSoapGatewayService service) {
+        super(service);
+    }
+
+    /**
+     * Clears the request so the builder can be used for another transaction with the same service. Validations
+     * added to this builder are dropped.
+     */
+    public HpsResettableBuilderAbstract<TSoapGatewayService, TExecutionResult> reset() {
+        this.resetRequest();
+        this.resetState();
+        return this;
+    }
+
+    /**
+     * Sets every request field back to its initial value.
+     */
+    protected abstract void resetRequest();
+}
@@ -6,9 +6,25 @@ public class HpsAuthenticationException extends HpsException {
 	public HpsAuthenticationException(HpsExceptionCodes code, String message)
 	{
         super(message);
-        this.setCode(code);
+        this.code = code;
 	}
 
+    public HpsAuthenticationException(HpsExceptionCodes code, String message, boolean writableStackTrace)
+    {
+        super(message, null, writableStackTrace);
+        this.code = code;
+    }
+
+    /**
+     * For an exception shared between callers: no stack trace, and no suppressed exceptions collected.
+     */
+    protected HpsAuthenticationException(HpsExceptionCodes code, String message, boolean enableSuppression,
+                                         boolean writableStackTrace)
+    {
+        super(message, null, enableSuppression, writableStackTrace);
+        this.code = code;
+    }
+
     public HpsExceptionCodes getCode() {
         return code;
     }
@@ -33,6 +33,12 @@ public class HpsConfiguration implements IHpsServicesConfig {
 			mConfigProperties.load(fileStream);
 			fileStream.close();
 
+			// a process-wide switch, see HpsException.setCaptureStackTraces; the file can only turn it off
+			if(Boolean.parseBoolean(mConfigProperties.getProperty("HpsStacklessExceptions", "false")))
+			{
+				HpsException.setCaptureStackTraces(false);
+			}
+
 		} catch (IOException e) {
 			throw new HpsException("Unable to load configuration.", e);
 		}
@@ -1,12 +1,45 @@
 package com.hps.integrator.infrastructure;
 
 public class HpsException extends Exception {
+    private static volatile boolean captureStackTraces = true;
 
     public HpsException(String message) {
-        super(message);
+        this(message, null, true);
     }
 
     public HpsException(String message, Exception innerException) {
-        super(message, innerException);
+        this(message, innerException, true);
+    }
+
+    /**
+     * Allows subclasses to skip stack trace capture for exceptions that describe a response
+     * rather than a failure in the calling code (e.g. report rows).
+     */
+    protected HpsException(String message, Exception innerException, boolean writableStackTrace) {
+        this(message, innerException, true, writableStackTrace);
+    }
+
+    /**
+     * Allows subclasses to build exceptions that are shared between callers, which must not collect the
+     * exceptions one caller suppresses.
+     */
+    protected HpsException(String message, Exception innerException, boolean enableSuppression,
+                           boolean writableStackTrace) {
+        super(message, innerException, enableSuppression, writableStackTrace && captureStackTraces);
+    }
+
+    public static boolean isCaptureStackTraces() {
+        return captureStackTraces;
+    }
+
+    /**
+     * Turns stack trace capture on or off for every exception the SDK creates from then on, in the whole
+     * process. An application that wants it off calls this once at startup, or loads an {@code HpsConfiguration}
+     * whose file sets <b>HpsStacklessExceptions=true</b>; creating a service never changes it.
+     * With it off, exceptions are cheap enough to throw for every decline and rejected request, and the response
+     * validators share one details object per response code.
+     */
+    public static void setCaptureStackTraces(boolean captureStackTraces) {
+        HpsException.captureStackTraces = captureStackTraces;
     }
 }
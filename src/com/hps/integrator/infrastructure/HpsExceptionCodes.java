@@ -19,5 +19,9 @@ public enum HpsExceptionCodes {
     InvalidNumber,
     GatewayTimeout,
     UnexpectedGatewayResponse,
-    InvalidArgument
+    InvalidArgument,
+    ExpiredCard,
+    InvalidExpiry,
+    DuplicateTransaction,
+    VelocityLimitExceeded
 }
\ No newline at end of file
@@ -6,34 +6,63 @@ public class HpsGatewayException extends HpsException {
 
     public HpsGatewayException(HpsExceptionCodes code, String message) {
         super(message);
-        this.setCode(code);
+        this.code = code;
+    }
+
+    public HpsGatewayException(HpsExceptionCodes code, String message, boolean writableStackTrace) {
+        super(message, null, writableStackTrace);
+        this.code = code;
     }
 
     public HpsGatewayException(HpsExceptionCodes code, String message, Exception innerException) {
         super(message, innerException);
-        this.setCode(code);
+        this.code = code;
     }
 
     public HpsGatewayException(HpsExceptionCodes code, String message, int gatewayResponseCode,
                                String gatewayResponseMessage) {
-        super(message);
-        this.setCode(code);
+        this(code, message, gatewayResponseCode, gatewayResponseMessage, true);
+    }
+
+    public HpsGatewayException(HpsExceptionCodes code, String message, int gatewayResponseCode,
+                               String gatewayResponseMessage, boolean writableStackTrace) {
+        super(message, null, writableStackTrace);
+        this.code = code;
 
         HpsGatewayExceptionDetails details = new HpsGatewayExceptionDetails();
         details.setGatewayResponseCode(gatewayResponseCode);
         details.setGatewayResponseMessage(gatewayResponseMessage);
-        this.setDetails(details);
+        this.details = details;
+    }
+
+    /**
+     * @param details The response's details, which may be shared with other exceptions for the same response.
+     */
+    public HpsGatewayException(HpsExceptionCodes code, String message, HpsGatewayExceptionDetails details) {
+        super(message);
+        this.code = code;
+        this.details = details;
+    }
+
+    /**
+     * For an exception shared between callers: no stack trace, and no suppressed exceptions collected.
+     */
+    protected HpsGatewayException(HpsExceptionCodes code, String message, HpsGatewayExceptionDetails details,
+                                  boolean enableSuppression, boolean writableStackTrace) {
+        super(message, null, enableSuppression, writableStackTrace);
+        this.code = code;
+        this.details = details;
     }
 
     public HpsGatewayException(HpsExceptionCodes code, String message, int gatewayResponseCode,
                                String gatewayResponseMessage, Exception innerException) {
         super(message, innerException);
-        this.setCode(code);
+        this.code = code;
 
         HpsGatewayExceptionDetails details = new HpsGatewayExceptionDetails();
         details.setGatewayResponseCode(gatewayResponseCode);
         details.setGatewayResponseMessage(gatewayResponseMessage);
-        this.setDetails(details);
+        this.details = details;
     }
 
     public HpsExceptionCodes getCode() {
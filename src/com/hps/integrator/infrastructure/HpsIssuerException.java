@@ -9,41 +9,69 @@ public class HpsIssuerException extends HpsException {
 	public HpsIssuerException(int transactionId, HpsIssuerExceptionCodes code, String message)
 	{		
 		super(message);
-		this.setTransactionId(transactionId);
-        this.setCode(code);
+		this.transactionId = transactionId;
+        this.code = code;
 	}
 
     public HpsIssuerException(int transactionId, HpsIssuerExceptionCodes code, String message, Exception e)
     {
         super(message, e);
-        this.setTransactionId(transactionId);
-        this.setCode(code);
+        this.transactionId = transactionId;
+        this.code = code;
     }
 
     public HpsIssuerException(int transactionId, HpsIssuerExceptionCodes code, String message, String issuerCode, String issuerMessage)
     {
-        super(message);
-        this.setTransactionId(transactionId);
-        this.setCode(code);
+        this(transactionId, code, message, issuerCode, issuerMessage, true);
+    }
+
+    public HpsIssuerException(int transactionId, HpsIssuerExceptionCodes code, String message, String issuerCode, String issuerMessage, boolean writableStackTrace)
+    {
+        super(message, null, writableStackTrace);
+        this.transactionId = transactionId;
+        this.code = code;
 
         HpsIssuerExceptionDetails details = new HpsIssuerExceptionDetails();
         details.setIssuerResponseCode(issuerCode);
         details.setIssuerResponseText(issuerMessage);
 
-        this.setDetails(details);
+        this.details = details;
+    }
+
+    /**
+     * @param details The response's details, which may be shared with other exceptions for the same response code.
+     */
+    public HpsIssuerException(int transactionId, HpsIssuerExceptionCodes code, String message, HpsIssuerExceptionDetails details)
+    {
+        super(message);
+        this.transactionId = transactionId;
+        this.code = code;
+        this.details = details;
+    }
+
+    /**
+     * For an exception shared between callers: no stack trace, and no suppressed exceptions collected.
+     */
+    protected HpsIssuerException(int transactionId, HpsIssuerExceptionCodes code, String message, HpsIssuerExceptionDetails details,
+                                 boolean enableSuppression, boolean writableStackTrace)
+    {
+        super(message, null, enableSuppression, writableStackTrace);
+        this.transactionId = transactionId;
+        this.code = code;
+        this.details = details;
     }
 
     public HpsIssuerException(int transactionId, HpsIssuerExceptionCodes code, String message, String issuerCode, String issuerMessage, Exception e)
     {
         super(message, e);
-        this.setTransactionId(transactionId);
-        this.setCode(code);
+        this.transactionId = transactionId;
+        this.code = code;
 
         HpsIssuerExceptionDetails details = new HpsIssuerExceptionDetails();
         details.setIssuerResponseCode(issuerCode);
         details.setIssuerResponseText(issuerMessage);
 
-        this.setDetails(details);
+        this.details = details;
     }
 
     public HpsIssuerExceptionCodes getCode() {
@@ -0,0 +1,51 @@
+package com.hps.integrator.infrastructure;
+
+import com.hps.integrator.entities.HpsResponseCodeClass;
+
+/**
+ * What a response code means. Classifications are shared: every response with the same meaning gets the same
+ * instance, so they are immutable and can be compared by identity.
+ */
+public final class HpsResponseClassification {
+    private final HpsResponseCodeClass responseCodeClass;
+    private final HpsIssuerExceptionCodes issuerCode;
+    private final HpsExceptionCodes gatewayCode;
+    private final String message;
+
+    public HpsResponseClassification(HpsResponseCodeClass responseCodeClass, HpsIssuerExceptionCodes issuerCode,
+                                     HpsExceptionCodes gatewayCode, String message) {
+        this.responseCodeClass = responseCodeClass;
+        this.issuerCode = issuerCode;
+        this.gatewayCode = gatewayCode;
+        this.message = message;
+    }
+
+    public HpsResponseCodeClass getResponseCodeClass() {
+        return responseCodeClass;
+    }
+
+    public boolean isApproved() {
+        return responseCodeClass == HpsResponseCodeClass.Approved;
+    }
+
+    /**
+     * @return The kind of decline, or null unless this is an issuer decline.
+     */
+    public HpsIssuerExceptionCodes getIssuerCode() {
+        return issuerCode;
+    }
+
+    /**
+     * @return The kind of gateway error, or null unless this is a gateway error.
+     */
+    public HpsExceptionCodes getGatewayCode() {
+        return gatewayCode;
+    }
+
+    /**
+     * @return The message to report, or null to report the response's own text.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,226 @@
+package com.hps.integrator.infrastructure.validation;
+
+import com.hps.integrator.abstractions.IHpsCardBrandResolver;
+import com.hps.integrator.entities.HpsCardBrand;
+import com.hps.integrator.entities.HpsCardValidationResult;
+
+import java.util.Calendar;
+
+/**
+ * Checks card data locally, so a card the gateway or issuer would reject for its number, expiry or security code
+ * is caught before the round trip.
+ * <p>
+ * The checks read the strings in place and allocate nothing; the current month is worked out once a month.
+ * They cover the card number's Luhn check digit and its length for the brand, the expiry against the clock, the
+ * security code's length for the brand, and the same for the card in track 1 or track 2 data. The brand comes
+ * from a resolver such as a BIN range index when one is given, and from the number's leading digits otherwise.
+ */
+public final class HpsCardValidation {
+    private static volatile Month month;
+
+    private HpsCardValidation() { }
+
+    /**
+     * @param expYear The expiration year, with two or four digits.
+     * @param cvv     The security code, or null if not collected.
+     */
+    public static HpsCardValidationResult validateCard(String number, Integer expMonth, Integer expYear, String cvv) {
+        return validateCard(number, expMonth, expYear, cvv, null);
+    }
+
+    /**
+     * @param resolver Resolves the card's brand, or null to take it from the number's leading digits.
+     */
+    public static HpsCardValidationResult validateCard(String number, Integer expMonth, Integer expYear, String cvv,
+                                                       IHpsCardBrandResolver resolver) {
+        if(number == null)
+            return HpsCardValidationResult.InvalidNumber;
+        HpsCardValidationResult result = validateNumber(number, 0, number.length(), resolver);
+        if(!result.isValid())
+            return result;
+
+        if(expMonth == null || expYear == null)
+            return HpsCardValidationResult.InvalidExpiry;
+        result = validateExpiry(expMonth, expYear);
+        if(!result.isValid())
+            return result;
+
+        return validateCvv(cvv, brand(number, 0, number.length(), resolver));
+    }
+
+    /**
+     * Checks the card number between {@code start} and {@code end} in {@code value}.
+     */
+    public static HpsCardValidationResult validateNumber(String value, int start, int end) {
+        return validateNumber(value, start, end, null);
+    }
+
+    public static HpsCardValidationResult validateNumber(String value, int start, int end, IHpsCardBrandResolver resolver) {
+        int length = end - start;
+        if(length <= 0)
+            return HpsCardValidationResult.InvalidNumber;
+
+        int sum = 0;
+        boolean doubled = false;
+        for(int i = end - 1; i >= start; i--) {
+            char c = value.charAt(i);
+            if(c < '0' || c > '9')
+                return HpsCardValidationResult.InvalidNumber;
+            int digit = c - '0';
+            if(doubled) {
+                digit *= 2;
+                if(digit > 9)
+                    digit -= 9;
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        if(sum % 10 != 0)
+            return HpsCardValidationResult.InvalidNumber;
+
+        return fitsBrand(brand(value, start, end, resolver), length)
+                ? HpsCardValidationResult.Valid : HpsCardValidationResult.InvalidLength;
+    }
+
+    /**
+     * @param year The expiration year, with two or four digits. A card expires at the end of its month.
+     */
+    public static HpsCardValidationResult validateExpiry(int month, int year) {
+        return validateExpiry(month, year, currentMonth());
+    }
+
+    /**
+     * @param currentMonth The current month, counted as {@code year * 12 + month - 1}.
+     */
+    public static HpsCardValidationResult validateExpiry(int month, int year, int currentMonth) {
+        if(month < 1 || month > 12 || year < 0)
+            return HpsCardValidationResult.InvalidExpiry;
+        if(year < 100)
+            year += 2000;
+        return year * 12 + month - 1 < currentMonth ? HpsCardValidationResult.Expired : HpsCardValidationResult.Valid;
+    }
+
+    /**
+     * @param cvv The security code, or null or empty if not collected.
+     */
+    public static HpsCardValidationResult validateCvv(String cvv, HpsCardBrand brand) {
+        if(cvv == null || cvv.length() == 0)
+            return HpsCardValidationResult.Valid;
+        if(cvv.length() != (brand == HpsCardBrand.Amex ? 4 : 3))
+            return HpsCardValidationResult.InvalidCvv;
+        for(int i = 0; i < cvv.length(); i++) {
+            char c = cvv.charAt(i);
+            if(c < '0' || c > '9')
+                return HpsCardValidationResult.InvalidCvv;
+        }
+        return HpsCardValidationResult.Valid;
+    }
+
+    /**
+     * Checks the card in unencrypted track 1 ({@code %B<number>^<name>^<YYMM>...}) or track 2
+     * ({@code ;<number>=<YYMM>...}) data; the sentinels are optional. Only the first track is checked.
+     */
+    public static HpsCardValidationResult validateTrackData(String track) {
+        return validateTrackData(track, null);
+    }
+
+    public static HpsCardValidationResult validateTrackData(String track, IHpsCardBrandResolver resolver) {
+        if(track == null || track.length() == 0)
+            return HpsCardValidationResult.InvalidTrackData;
+
+        char sentinel = track.charAt(0);
+        int start = sentinel == '%' || sentinel == ';' ? 1 : 0;
+        boolean track1 = start < track.length() && (track.charAt(start) == 'B' || track.charAt(start) == 'b');
+        if(sentinel == '%' && !track1)
+            return HpsCardValidationResult.InvalidTrackData;
+
+        if(track1) {
+            int numberEnd = track.indexOf('^', start + 1);
+            int nameEnd = numberEnd < 0 ? -1 : track.indexOf('^', numberEnd + 1);
+            if(nameEnd < 0)
+                return HpsCardValidationResult.InvalidTrackData;
+            return validateTrack(track, start + 1, numberEnd, nameEnd + 1, resolver);
+        }
+
+        int numberEnd = track.indexOf('=', start);
+        if(numberEnd < 0)
+            return HpsCardValidationResult.InvalidTrackData;
+        return validateTrack(track, start, numberEnd, numberEnd + 1, resolver);
+    }
+
+    private static HpsCardValidationResult validateTrack(String track, int numberStart, int numberEnd, int expiryStart,
+                                                         IHpsCardBrandResolver resolver) {
+        HpsCardValidationResult result = validateNumber(track, numberStart, numberEnd, resolver);
+        if(!result.isValid())
+            return result;
+
+        if(track.length() < expiryStart + 4)
+            return HpsCardValidationResult.InvalidTrackData;
+        int expiry = 0;
+        for(int i = expiryStart; i < expiryStart + 4; i++) {
+            char c = track.charAt(i);
+            if(c < '0' || c > '9')
+                return HpsCardValidationResult.InvalidTrackData;
+            expiry = expiry * 10 + (c - '0');
+        }
+        return validateExpiry(expiry % 100, expiry / 100);
+    }
+
+    private static HpsCardBrand brand(String value, int start, int end, IHpsCardBrandResolver resolver) {
+        HpsCardBrand brand = resolver == null ? HpsCardBrand.Unknown : resolver.getBrand(value, start, end);
+        return brand != HpsCardBrand.Unknown ? brand : HpsCardBrand.fromCardNumber(value, start);
+    }
+
+    private static boolean fitsBrand(HpsCardBrand brand, int length) {
+        switch(brand) {
+            case Visa:
+                return length == 13 || length == 16 || length == 19;
+            case MasterCard:
+                return length == 16;
+            case Amex:
+            case EnRoute:
+                return length == 15;
+            case Discover:
+            case Jcb:
+                return length >= 16 && length <= 19;
+            case DinersClub:
+                return length >= 14 && length <= 19;
+            default:
+                return length >= 12 && length <= 19;
+        }
+    }
+
+    private static int currentMonth() {
+        long now = System.currentTimeMillis();
+        Month current = month;
+        if(current == null || now < current.start || now >= current.end) {
+            current = new Month(now);
+            month = current;
+        }
+        return current.value;
+    }
+
+    /**
+     * The calendar month containing a time, in the default time zone.
+     */
+    private static class Month {
+        final long start;
+        final long end;
+        final int value;
+
+        Month(long time) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            value = calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            start = calendar.getTimeInMillis();
+            calendar.add(Calendar.MONTH, 1);
+            end = calendar.getTimeInMillis();
+        }
+    }
+}
@@ -2,31 +2,58 @@ package com.hps.integrator.infrastructure.validation;
 
 import com.hps.integrator.infrastructure.*;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 public class HpsGatewayResponseValidation {
+    private static final AtomicReferenceArray<HpsException> sharedExceptions = new AtomicReferenceArray<HpsException>(
+            HpsResponseClassifier.MAX_GATEWAY_CODE - HpsResponseClassifier.MIN_GATEWAY_CODE + 1);
+    private static final AtomicReferenceArray<HpsGatewayExceptionDetails> sharedDetails =
+            new AtomicReferenceArray<HpsGatewayExceptionDetails>(
+                    HpsResponseClassifier.MAX_GATEWAY_CODE - HpsResponseClassifier.MIN_GATEWAY_CODE + 1);
+    private static final HpsGatewayException unexpectedResponse = new SharedGatewayException(
+            HpsExceptionCodes.UnexpectedGatewayResponse, "Unexpected response from HPS gateway.", null);
+
     public static HpsException getException(int responseCode, String responseText) {
-        switch (responseCode) {
-            case 0:
-                return null;
-            case -2:
-                return new HpsAuthenticationException(HpsExceptionCodes.AuthenticationError,
-                        "Authentication error. Please double check your service configuration.");
-            case 1:
-                return new HpsGatewayException(HpsExceptionCodes.UnknownGatewayError, responseText, responseCode, responseText);
-            case 3:
-                return new HpsGatewayException(HpsExceptionCodes.InvalidOriginalTransaction, responseText, responseCode, responseText);
-            case 5:
-                return new HpsGatewayException(HpsExceptionCodes.NoOpenBatch, responseText, responseCode, responseText);
-            case 12:
-                return new HpsGatewayException(HpsExceptionCodes.InvalidCpcData, "Invalid CPC data.", responseCode, responseText);
-            case 13:
-                return new HpsGatewayException(HpsExceptionCodes.InvalidCardData, "Invalid card data.", responseCode, responseText);
-            case 14:
-                return new HpsGatewayException(HpsExceptionCodes.InvalidNumber, "The card number is not valid.", responseCode, responseText);
-            case 30:
-                return new HpsGatewayException(HpsExceptionCodes.GatewayTimeout, "Gateway timed out.", responseCode, responseText);
-            default:
-                return new HpsGatewayException(HpsExceptionCodes.UnknownGatewayError, responseText, responseCode, responseText);
+        return getException(responseCode, responseText, true);
+    }
+
+    /**
+     * Maps a gateway response code to its exception.
+     *
+     * @param responseCode       The gateway response code.
+     * @param responseText       The gateway response message.
+     * @param writableStackTrace Whether to capture a stack trace.
+     * @return The exception, or null for a successful response.
+     */
+    public static HpsException getException(int responseCode, String responseText, boolean writableStackTrace) {
+        return create(HpsResponseClassifier.classifyGateway(responseCode), responseCode, responseText, writableStackTrace);
+    }
+
+    /**
+     * Returns the exception for a gateway response code without building one per response: one stackless
+     * exception is kept per code, with a fixed message in place of the gateway's. Shared exceptions and their
+     * details are read-only, and do not collect suppressed exceptions.
+     *
+     * @return The shared exception, or null for a successful response.
+     */
+    public static HpsException getSharedException(int responseCode) {
+        HpsResponseClassification classification = HpsResponseClassifier.classifyGateway(responseCode);
+        int index = HpsResponseClassifier.gatewayIndex(responseCode);
+        if (index < 0) return createShared(classification, responseCode);
+
+        HpsException e = sharedExceptions.get(index);
+        if (e == null && !classification.isApproved()) {
+            sharedExceptions.compareAndSet(index, null, createShared(classification, responseCode));
+            e = sharedExceptions.get(index);
         }
+        return e;
+    }
+
+    /**
+     * @return The shared, stackless exception for a response without the expected transaction.
+     */
+    public static HpsGatewayException getUnexpectedResponseException() {
+        return unexpectedResponse;
     }
 
     public static void checkGatewayResponse(ElementTree response, String tagName) throws HpsException {
@@ -37,4 +64,108 @@ public class HpsGatewayResponseValidation {
         if(!response.get("Transaction").has(tagName))
             throw new HpsGatewayException(HpsExceptionCodes.UnexpectedGatewayResponse, "Unexpected response from HPS gateway.");
     }
+
+    private static HpsException create(HpsResponseClassification classification, int responseCode,
+                                       String responseText, boolean writableStackTrace) {
+        if (classification.isApproved()) return null;
+
+        String message = classification.getMessage() != null ? classification.getMessage() : responseText;
+        if (classification.getGatewayCode() == HpsExceptionCodes.AuthenticationError)
+            return new HpsAuthenticationException(classification.getGatewayCode(), message, writableStackTrace);
+        if (!HpsException.isCaptureStackTraces())
+            return new HpsGatewayException(classification.getGatewayCode(), message, getDetails(responseCode, responseText));
+        return new HpsGatewayException(classification.getGatewayCode(), message, responseCode, responseText, writableStackTrace);
+    }
+
+    private static HpsException createShared(HpsResponseClassification classification, int responseCode) {
+        if (classification.isApproved()) return null;
+
+        String message = classification.getMessage() != null ? classification.getMessage() : sharedMessage(responseCode);
+        if (classification.getGatewayCode() == HpsExceptionCodes.AuthenticationError)
+            return new SharedAuthenticationException(classification.getGatewayCode(), message);
+        return new SharedGatewayException(classification.getGatewayCode(), message,
+                new SharedGatewayDetails(responseCode, sharedMessage(responseCode)));
+    }
+
+    /**
+     * Returns the details for a response, reusing the last ones built for its code while the gateway sends the
+     * same message with it.
+     */
+    private static HpsGatewayExceptionDetails getDetails(int responseCode, String responseText) {
+        int index = HpsResponseClassifier.gatewayIndex(responseCode);
+        HpsGatewayExceptionDetails details = index < 0 ? null : sharedDetails.get(index);
+        if (details != null && (responseText == null ? details.getGatewayResponseMessage() == null
+                : responseText.equals(details.getGatewayResponseMessage())))
+            return details;
+
+        details = new SharedGatewayDetails(responseCode, responseText);
+        if (index >= 0) sharedDetails.set(index, details);
+        return details;
+    }
+
+    private static String sharedMessage(int responseCode) {
+        switch (responseCode) {
+            case 3:
+                return "Invalid original transaction.";
+            case 5:
+                return "No open batch.";
+            default:
+                return "Gateway error " + responseCode + ".";
+        }
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Shared gateway exceptions cannot be changed.");
+    }
+
+    private static class SharedGatewayException extends HpsGatewayException {
+        private static final long serialVersionUID = 1L;
+
+        SharedGatewayException(HpsExceptionCodes code, String message, HpsGatewayExceptionDetails details) {
+            super(code, message, details, false, false);
+        }
+
+        @Override
+        public void setCode(HpsExceptionCodes code) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setDetails(HpsGatewayExceptionDetails details) {
+            throw readOnly();
+        }
+    }
+
+    private static class SharedAuthenticationException extends HpsAuthenticationException {
+        private static final long serialVersionUID = 1L;
+
+        SharedAuthenticationException(HpsExceptionCodes code, String message) {
+            super(code, message, false, false);
+        }
+
+        @Override
+        public void setCode(HpsExceptionCodes code) {
+            throw readOnly();
+        }
+    }
+
+    /**
+     * Details shared by every exception for a response code, and so read-only.
+     */
+    private static class SharedGatewayDetails extends HpsGatewayExceptionDetails {
+        SharedGatewayDetails(int responseCode, String responseText) {
+            super.setGatewayResponseCode(responseCode);
+            super.setGatewayResponseMessage(responseText);
+        }
+
+        @Override
+        public void setGatewayResponseCode(int gatewayResponseCode) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setGatewayResponseMessage(String gatewayResponseMessage) {
+            throw readOnly();
+        }
+    }
 }
@@ -1,5 +1,9 @@
 package com.hps.integrator.infrastructure.validation;
 
+import com.hps.integrator.abstractions.IHpsCardBrandResolver;
+import com.hps.integrator.entities.HpsCardValidationResult;
+import com.hps.integrator.entities.HpsTrackData;
+import com.hps.integrator.entities.credit.HpsCreditCard;
 import com.hps.integrator.infrastructure.HpsException;
 import com.hps.integrator.infrastructure.HpsExceptionCodes;
 import com.hps.integrator.infrastructure.HpsInvalidRequestException;
@@ -41,4 +45,65 @@ public class HpsInputValidation {
             throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidDate, "Date can not be in the future.", paramName);
         }
     }
+
+    /**
+     * Checks a manually entered card locally before it is sent. An encrypted card number is only checked for
+     * expiry.
+     *
+     * @param card The card, or null to skip the check.
+     * @see HpsCardValidation
+     */
+    public static void checkCard(HpsCreditCard card) throws HpsException {
+        checkCard(card, null);
+    }
+
+    /**
+     * @param resolver Resolves the card's brand, or null to take it from the number's leading digits.
+     */
+    public static void checkCard(HpsCreditCard card, IHpsCardBrandResolver resolver) throws HpsException {
+        if (card == null) {
+            return;
+        }
+        if (card.getEncryptionData() == null) {
+            checkCardValidation(HpsCardValidation.validateCard(card.getNumber(), card.getExpMonth(), card.getExpYear(),
+                    card.getCvv(), resolver), "card");
+        } else if (card.getExpMonth() != null && card.getExpYear() != null) {
+            checkCardValidation(HpsCardValidation.validateExpiry(card.getExpMonth(), card.getExpYear()), "card");
+        }
+    }
+
+    /**
+     * Checks the card in track data locally before it is sent. Encrypted track data is not checked.
+     *
+     * @param trackData The track data, or null to skip the check.
+     */
+    public static void checkTrackData(HpsTrackData trackData) throws HpsException {
+        checkTrackData(trackData, null);
+    }
+
+    public static void checkTrackData(HpsTrackData trackData, IHpsCardBrandResolver resolver) throws HpsException {
+        if (trackData == null || trackData.getEncryptionData() != null) {
+            return;
+        }
+        checkCardValidation(HpsCardValidation.validateTrackData(trackData.getValue(), resolver), "trackData");
+    }
+
+    private static void checkCardValidation(HpsCardValidationResult result, String paramName) throws HpsException {
+        switch (result) {
+            case Valid:
+                return;
+            case InvalidNumber:
+                throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidNumber, "The card number is not valid.", paramName);
+            case InvalidLength:
+                throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidNumber, "The card number's length is not valid for its brand.", paramName);
+            case InvalidExpiry:
+                throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidExpiry, "Card expiration date is invalid.", paramName);
+            case Expired:
+                throw new HpsInvalidRequestException(HpsExceptionCodes.ExpiredCard, "The card has expired.", paramName);
+            case InvalidCvv:
+                throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidCardData, "The card's security code is not valid.", paramName);
+            default:
+                throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidCardData, "The track data is not valid.", paramName);
+        }
+    }
 }
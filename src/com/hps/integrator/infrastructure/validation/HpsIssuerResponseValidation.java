@@ -1,69 +1,131 @@
 package com.hps.integrator.infrastructure.validation;
 
+import com.hps.integrator.entities.HpsResponseFamily;
+import com.hps.integrator.infrastructure.HpsException;
 import com.hps.integrator.infrastructure.HpsIssuerException;
 import com.hps.integrator.infrastructure.HpsIssuerExceptionCodes;
+import com.hps.integrator.infrastructure.HpsIssuerExceptionDetails;
+import com.hps.integrator.infrastructure.HpsResponseClassification;
 
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class HpsIssuerResponseValidation {
-    private static final HashMap<String, HpsIssuerExceptionCodes> issuerCodeToCreditExceptionCode;
-    private static final HashMap<HpsIssuerExceptionCodes, String> creditExceptionCodeToMessage;
-    static
-    {
-        String[] declinedCodes = new String[] {"02", "03", "04", "05", "41", "43", "44", "51", "56", "61", "62", "63", "65", "78"},
-                processingErrorCodes = new String[] {"06", "07", "12", "15", "19", "12", "52", "53", "57", "58", "76", "77", "96", "EC"};
-
-        issuerCodeToCreditExceptionCode = new HashMap<String, HpsIssuerExceptionCodes>();
-        for (String code : declinedCodes) {
-            issuerCodeToCreditExceptionCode.put(code, HpsIssuerExceptionCodes.CardDeclined);
-        }
-
-        for (String code : processingErrorCodes) {
-            issuerCodeToCreditExceptionCode.put(code, HpsIssuerExceptionCodes.ProcessingError);
-        }
-
-        issuerCodeToCreditExceptionCode.put("13", HpsIssuerExceptionCodes.InvalidAmount);
-        issuerCodeToCreditExceptionCode.put("14", HpsIssuerExceptionCodes.IncorrectNumber);
-        issuerCodeToCreditExceptionCode.put("54", HpsIssuerExceptionCodes.ExpiredCard);
-        issuerCodeToCreditExceptionCode.put("55", HpsIssuerExceptionCodes.InvalidPin);
-        issuerCodeToCreditExceptionCode.put("75", HpsIssuerExceptionCodes.PinRetriesExceeded);
-        issuerCodeToCreditExceptionCode.put("80", HpsIssuerExceptionCodes.InvalidExpiry);
-        issuerCodeToCreditExceptionCode.put("86", HpsIssuerExceptionCodes.PinVerification);
-        issuerCodeToCreditExceptionCode.put("91", HpsIssuerExceptionCodes.IssuerTimeout);
-        issuerCodeToCreditExceptionCode.put("EB", HpsIssuerExceptionCodes.IncorrectCvc);
-        issuerCodeToCreditExceptionCode.put("N7", HpsIssuerExceptionCodes.IncorrectCvc);
-
-        creditExceptionCodeToMessage = new HashMap<HpsIssuerExceptionCodes, String>();
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.CardDeclined, "The card was declined");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.ProcessingError, "An error occurred while processing the card.");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.InvalidAmount, "Must be greater than or equal 0.");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.ExpiredCard, "The card has expired.");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.InvalidPin, "The 4-digit pin is invalid.");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.PinRetriesExceeded, "Maximum number of pin retries exceeded.");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.InvalidExpiry, "Card expiration date is invalid.");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.PinVerification, "Can't verify card pin number.");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.IncorrectCvc, "The card's security code is incorrect.");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.IssuerTimeout, "The card holder's bank is not replying " +
-                "to the credit card transaction. Try waiting and then rerunning the transaction.");
-        creditExceptionCodeToMessage.put(HpsIssuerExceptionCodes.IncorrectNumber, "Account number entered incorrectly " +
-                "(bad swipe or mistyped). Verify account number and re-enter (or re-swipe if card is on hand).");
-    }
+    private static final AtomicReferenceArray<HpsIssuerException> sharedExceptions =
+            new AtomicReferenceArray<HpsIssuerException>(HpsResponseClassifier.TABLE_SIZE);
+    private static final AtomicReferenceArray<HpsIssuerExceptionDetails> sharedDetails =
+            new AtomicReferenceArray<HpsIssuerExceptionDetails>(HpsResponseClassifier.TABLE_SIZE);
 
     public static void checkIssuerResponse(int transactionId, String responseCode, String responseText) throws HpsIssuerException {
         HpsIssuerException e = getException(transactionId, responseCode, responseText);
         if(e != null) { throw e; }
     }
 
+    /**
+     * Returns the exception for an issuer response code without building one per response: one stackless
+     * exception is kept per code, with no transaction id or response text. Shared exceptions and their details
+     * are read-only, and do not collect suppressed exceptions.
+     *
+     * @return The shared exception, or null for an approval.
+     */
+    public static HpsIssuerException getSharedException(String responseCode) {
+        HpsResponseClassification classification = HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, responseCode);
+        if (classification.isApproved()) return null;
+
+        int index = HpsResponseClassifier.index(responseCode);
+        if (index < 0) return createShared(classification, responseCode);
+
+        HpsIssuerException e = sharedExceptions.get(index);
+        if (e == null) {
+            sharedExceptions.compareAndSet(index, null, createShared(classification, responseCode));
+            e = sharedExceptions.get(index);
+        }
+        return e;
+    }
+
     public static HpsIssuerException getException(Integer transactionId, String responseCode, String responseText) {
-        if (responseCode.equals("85") || responseCode.equals("10") || responseCode.equals("00") || responseCode.equals("0")) return null;
-
-        HpsIssuerExceptionCodes code = issuerCodeToCreditExceptionCode.containsKey(responseCode) ? issuerCodeToCreditExceptionCode.get(responseCode) : null;
-        if(code != null) {
-            String msg = creditExceptionCodeToMessage.containsKey(code) ? creditExceptionCodeToMessage.get(code) : "Unknown issuer error.";
-            return new HpsIssuerException(transactionId, code, msg, responseCode, responseText);
-        } else {
-            return new HpsIssuerException(transactionId, HpsIssuerExceptionCodes.UnknownCreditError,
-                    "An unknown issuer error has occurred.", responseCode, responseText);
+        return getException(transactionId, responseCode, responseText, true);
+    }
+
+    public static HpsIssuerException getException(Integer transactionId, String responseCode, String responseText, boolean writableStackTrace) {
+        HpsResponseClassification classification = HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, responseCode);
+        if (classification.isApproved()) return null;
+        return create(classification, transactionId, responseCode, responseText, writableStackTrace);
+    }
+
+    private static HpsIssuerException create(HpsResponseClassification classification, Integer transactionId,
+                                             String responseCode, String responseText, boolean writableStackTrace) {
+        if (!HpsException.isCaptureStackTraces())
+            return new HpsIssuerException(transactionId, classification.getIssuerCode(), classification.getMessage(),
+                    getDetails(responseCode, responseText));
+        return new HpsIssuerException(transactionId, classification.getIssuerCode(), classification.getMessage(),
+                responseCode, responseText, writableStackTrace);
+    }
+
+    private static HpsIssuerException createShared(HpsResponseClassification classification, String responseCode) {
+        return new SharedIssuerException(classification.getIssuerCode(), classification.getMessage(),
+                new SharedIssuerDetails(responseCode, null));
+    }
+
+    /**
+     * Returns the details for a response, reusing the last ones built for its code while the issuer sends the
+     * same text with it.
+     */
+    private static HpsIssuerExceptionDetails getDetails(String responseCode, String responseText) {
+        int index = HpsResponseClassifier.index(responseCode);
+        HpsIssuerExceptionDetails details = index < 0 ? null : sharedDetails.get(index);
+        if (details != null && (responseText == null ? details.getIssuerResponseText() == null
+                : responseText.equals(details.getIssuerResponseText())))
+            return details;
+
+        details = new SharedIssuerDetails(responseCode, responseText);
+        if (index >= 0) sharedDetails.set(index, details);
+        return details;
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Shared issuer exceptions cannot be changed.");
+    }
+
+    private static class SharedIssuerException extends HpsIssuerException {
+        private static final long serialVersionUID = 1L;
+
+        SharedIssuerException(HpsIssuerExceptionCodes code, String message, HpsIssuerExceptionDetails details) {
+            super(0, code, message, details, false, false);
+        }
+
+        @Override
+        public void setTransactionId(int transactionId) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setCode(HpsIssuerExceptionCodes code) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setDetails(HpsIssuerExceptionDetails details) {
+            throw readOnly();
+        }
+    }
+
+    /**
+     * Details shared by every exception for a response code, and so read-only.
+     */
+    private static class SharedIssuerDetails extends HpsIssuerExceptionDetails {
+        SharedIssuerDetails(String responseCode, String responseText) {
+            super.setIssuerResponseCode(responseCode);
+            super.setIssuerResponseText(responseText);
+        }
+
+        @Override
+        public void setIssuerResponseCode(String issuerResponseCode) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setIssuerResponseText(String issuerResponseText) {
+            throw readOnly();
         }
     }
-}
\ No newline at end of file
+}
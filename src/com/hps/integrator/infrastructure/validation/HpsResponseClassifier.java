@@ -0,0 +1,146 @@
+package com.hps.integrator.infrastructure.validation;
+
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsResponseFamily;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsIssuerExceptionCodes;
+import com.hps.integrator.infrastructure.HpsResponseClassification;
+
+import java.util.Arrays;
+
+/**
+ * Classifies gateway and issuer response codes with one array lookup and no allocation.
+ * <p>
+ * Issuer codes are one or two characters from 0-9 and A-Z, so each family's codes fit an array indexed by
+ * {@link #index(String)}. Check responses approve on "0" only. Gateway codes are indexed directly. Codes are
+ * matched exactly, as the gateway sends them; a missing code, or any other code outside the tables, gets the
+ * family's unknown classification.
+ */
+public final class HpsResponseClassifier {
+    private static final int RADIX = 37;
+    static final int TABLE_SIZE = RADIX * RADIX;
+    static final int MIN_GATEWAY_CODE = -2;
+    static final int MAX_GATEWAY_CODE = 127;
+
+    public static final HpsResponseClassification APPROVED =
+            new HpsResponseClassification(HpsResponseCodeClass.Approved, null, null, null);
+
+    private static final HpsResponseClassification UNKNOWN_ISSUER = declined(HpsIssuerExceptionCodes.UnknownCreditError,
+            "An unknown issuer error has occurred.");
+    private static final HpsResponseClassification CHECK_DECLINED = declined(null, null);
+    private static final HpsResponseClassification UNKNOWN_GATEWAY = gatewayError(HpsExceptionCodes.UnknownGatewayError, null);
+
+    private static final HpsResponseClassification[] creditCodes = new HpsResponseClassification[TABLE_SIZE];
+    private static final HpsResponseClassification[] checkCodes = new HpsResponseClassification[TABLE_SIZE];
+    private static final HpsResponseClassification[] gatewayCodes =
+            new HpsResponseClassification[MAX_GATEWAY_CODE - MIN_GATEWAY_CODE + 1];
+
+    static {
+        Arrays.fill(creditCodes, UNKNOWN_ISSUER);
+        put(creditCodes, APPROVED, "00", "0", "10", "85");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.CardDeclined, "The card was declined"),
+                "02", "03", "04", "05", "41", "43", "44", "51", "56", "61", "62", "63", "65", "78");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.ProcessingError, "An error occurred while processing the card."),
+                "06", "07", "12", "15", "19", "52", "53", "57", "58", "76", "77", "96", "EC");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.InvalidAmount, "Must be greater than or equal 0."), "13");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.IncorrectNumber, "Account number entered incorrectly " +
+                "(bad swipe or mistyped). Verify account number and re-enter (or re-swipe if card is on hand)."), "14");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.ExpiredCard, "The card has expired."), "54");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.InvalidPin, "The 4-digit pin is invalid."), "55");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.PinRetriesExceeded, "Maximum number of pin retries exceeded."), "75");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.InvalidExpiry, "Card expiration date is invalid."), "80");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.PinVerification, "Can't verify card pin number."), "86");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.IssuerTimeout, "The card holder's bank is not replying " +
+                "to the credit card transaction. Try waiting and then rerunning the transaction."), "91");
+        put(creditCodes, declined(HpsIssuerExceptionCodes.IncorrectCvc, "The card's security code is incorrect."), "EB", "N7");
+
+        Arrays.fill(checkCodes, CHECK_DECLINED);
+        put(checkCodes, APPROVED, "0");
+
+        Arrays.fill(gatewayCodes, UNKNOWN_GATEWAY);
+        gatewayCodes[-MIN_GATEWAY_CODE] = APPROVED;
+        gatewayCodes[-2 - MIN_GATEWAY_CODE] = gatewayError(HpsExceptionCodes.AuthenticationError,
+                "Authentication error. Please double check your service configuration.");
+        gatewayCodes[3 - MIN_GATEWAY_CODE] = gatewayError(HpsExceptionCodes.InvalidOriginalTransaction, null);
+        gatewayCodes[5 - MIN_GATEWAY_CODE] = gatewayError(HpsExceptionCodes.NoOpenBatch, null);
+        gatewayCodes[12 - MIN_GATEWAY_CODE] = gatewayError(HpsExceptionCodes.InvalidCpcData, "Invalid CPC data.");
+        gatewayCodes[13 - MIN_GATEWAY_CODE] = gatewayError(HpsExceptionCodes.InvalidCardData, "Invalid card data.");
+        gatewayCodes[14 - MIN_GATEWAY_CODE] = gatewayError(HpsExceptionCodes.InvalidNumber, "The card number is not valid.");
+        gatewayCodes[30 - MIN_GATEWAY_CODE] = gatewayError(HpsExceptionCodes.GatewayTimeout, "Gateway timed out.");
+    }
+
+    private HpsResponseClassifier() { }
+
+    /**
+     * @param responseCode The issuer's RspCode.
+     */
+    public static HpsResponseClassification classifyIssuer(HpsResponseFamily family, String responseCode) {
+        boolean check = family == HpsResponseFamily.Check;
+        int index = index(responseCode);
+        if(index < 0)
+            return check ? CHECK_DECLINED : UNKNOWN_ISSUER;
+        return check ? checkCodes[index] : creditCodes[index];
+    }
+
+    public static HpsResponseClassification classifyGateway(int responseCode) {
+        int index = gatewayIndex(responseCode);
+        return index >= 0 ? gatewayCodes[index] : UNKNOWN_GATEWAY;
+    }
+
+    /**
+     * Classifies a response from both its codes; the gateway code decides unless it is a success.
+     *
+     * @param gatewayRspCode The gateway's GatewayRspCode, or null if unknown.
+     */
+    public static HpsResponseClassification classify(HpsResponseFamily family, Integer gatewayRspCode, String issuerRspCode) {
+        if(gatewayRspCode != null && gatewayRspCode != 0)
+            return classifyGateway(gatewayRspCode);
+        return classifyIssuer(family, issuerRspCode);
+    }
+
+    /**
+     * @return The table index of a one or two character code, or -1 if it has any other form.
+     */
+    static int index(String code) {
+        if(code == null)
+            return -1;
+        int length = code.length();
+        if(length == 0 || length > 2)
+            return -1;
+        int first = digit(code.charAt(0));
+        int second = length == 2 ? digit(code.charAt(1)) : RADIX - 1;
+        if(first < 0 || second < 0)
+            return -1;
+        return first * RADIX + second;
+    }
+
+    /**
+     * @return The table index of a gateway code, or -1 if it is outside the table.
+     */
+    static int gatewayIndex(int responseCode) {
+        if(responseCode < MIN_GATEWAY_CODE || responseCode > MAX_GATEWAY_CODE)
+            return -1;
+        return responseCode - MIN_GATEWAY_CODE;
+    }
+
+    private static int digit(char c) {
+        if(c >= '0' && c <= '9')
+            return c - '0';
+        if(c >= 'A' && c <= 'Z')
+            return c - 'A' + 10;
+        return -1;
+    }
+
+    private static void put(HpsResponseClassification[] table, HpsResponseClassification classification, String... codes) {
+        for(String code : codes)
+            table[index(code)] = classification;
+    }
+
+    private static HpsResponseClassification declined(HpsIssuerExceptionCodes code, String message) {
+        return new HpsResponseClassification(HpsResponseCodeClass.Declined, code, null, message);
+    }
+
+    private static HpsResponseClassification gatewayError(HpsExceptionCodes code, String message) {
+        return new HpsResponseClassification(HpsResponseCodeClass.GatewayError, null, code, message);
+    }
+}
@@ -5,9 +5,7 @@ import com.hps.integrator.entities.HpsAddress;
 import com.hps.integrator.entities.HpsTransactionStatus;
 import com.hps.integrator.entities.altpayment.*;
 import com.hps.integrator.infrastructure.*;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
 import com.hps.integrator.infrastructure.validation.HpsInputValidation;
-import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
 
 import java.math.BigDecimal;
 import java.util.List;
@@ -273,7 +271,7 @@ public class HpsAltPaymentService extends HpsSoapGatewayService {
             if(responseCode == null && transaction.has("TransactionStatus"))
                 responseText = transaction.get("TransactionStatus").getString("RspMessage");
 
-            HpsIssuerResponseValidation.checkIssuerResponse(transactionId, responseCode, responseText);
+            this.checkIssuerResponse(transactionId, responseCode, responseText);
         }
     }
 
@@ -292,6 +290,6 @@ public class HpsAltPaymentService extends HpsSoapGatewayService {
 //            }
             throw new HpsGatewayException(HpsExceptionCodes.GatewayTimeout, "Error occurred while processing due to a gateway timeout, please reverse the transaction.");
         }
-        HpsGatewayResponseValidation.checkGatewayResponse(response, expectedType);
+        this.checkGatewayResponse(response, expectedType);
     }
 }
@@ -0,0 +1,303 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.abstractions.IHpsAuthorizationSweepListener;
+import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.entities.HpsLifecycleState;
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsTransactionType;
+import com.hps.integrator.entities.credit.HpsAuthorizationSweepResult;
+import com.hps.integrator.entities.credit.HpsReportTransactionFilter;
+import com.hps.integrator.entities.credit.HpsReportTransactionSummary;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsGatewayException;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Releases authorizations left uncaptured for longer than a maximum age, by voiding them or, optionally,
+ * reversing them.
+ * <p>
+ * Stale authorizations are taken from a {@link HpsLifecycleTracker} when the sweeper has one. Otherwise they are
+ * found in <b>ReportActivity</b> over a lookback window: approved authorizations older than the maximum age that
+ * no capture, void or reversal in the window refers to.
+ * <p>
+ * Authorizations are released concurrently, each worker thread using its own credit service, and no faster than
+ * the rate limit allows across all workers. A failed attempt is retried with backoff; an authorization the
+ * gateway reports as having nothing to release (code 3) counts as released, and is marked closed in the tracker.
+ * Whatever is still open after the last attempt is listed in the result and picked up again by the next sweep.
+ */
+public class HpsAuthorizationSweeper {
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final double DEFAULT_RATE_PER_SECOND = 10;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_REPORT_WINDOW_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    public static final long DEFAULT_RETRY_DELAY = 500;
+
+    private final IHpsServicesConfig config;
+    private final long maxAgeMillis;
+    private final Object sweepLock = new Object();
+    private boolean enableLogging;
+    private HpsLifecycleTracker tracker;
+    private boolean reverse;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private long permitIntervalNanos = (long)(1000000000L / DEFAULT_RATE_PER_SECOND);
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long reportWindowMillis = DEFAULT_REPORT_WINDOW_MILLIS;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY;
+    private long nextPermitNanos;
+    private ScheduledExecutorService timer;
+    private volatile IHpsAuthorizationSweepListener listener;
+
+    /**
+     * @param config The merchant's services config.
+     * @param maxAge How long an authorization may stay uncaptured.
+     * @param unit   The unit of {@code maxAge}.
+     */
+    public HpsAuthorizationSweeper(IHpsServicesConfig config, long maxAge, TimeUnit unit) {
+        this.config = config;
+        this.maxAgeMillis = unit.toMillis(maxAge);
+    }
+
+    public HpsAuthorizationSweeper withLogging(boolean enableLogging) {
+        this.enableLogging = enableLogging;
+        return this;
+    }
+
+    /**
+     * @param tracker The tracker the merchant's credit services record into; stale authorizations are taken from
+     *                it instead of the activity report, and released ones are recorded in it.
+     */
+    public HpsAuthorizationSweeper withTracker(HpsLifecycleTracker tracker) {
+        this.tracker = tracker;
+        return this;
+    }
+
+    /**
+     * @param reverse True to reverse stale authorizations instead of voiding them.
+     */
+    public HpsAuthorizationSweeper withReversal(boolean reverse) {
+        this.reverse = reverse;
+        return this;
+    }
+
+    public HpsAuthorizationSweeper withConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    /**
+     * @param perSecond The most voids or reversals to send per second, across all workers.
+     */
+    public HpsAuthorizationSweeper withRateLimit(double perSecond) {
+        this.permitIntervalNanos = (long)(1000000000L / Math.max(perSecond, 0.001));
+        return this;
+    }
+
+    public HpsAuthorizationSweeper withMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        return this;
+    }
+
+    /**
+     * @param reportWindowMillis How far back the activity report is searched when there is no tracker.
+     */
+    public HpsAuthorizationSweeper withReportWindow(long reportWindowMillis) {
+        this.reportWindowMillis = reportWindowMillis;
+        return this;
+    }
+
+    /**
+     * @param retryDelay How long to wait before the first retry of a failed release; each later retry waits
+     *                   twice as long as the one before.
+     */
+    public HpsAuthorizationSweeper withRetryDelay(long retryDelay, TimeUnit unit) {
+        this.retryDelayMillis = unit.toMillis(retryDelay);
+        return this;
+    }
+
+    public void setListener(IHpsAuthorizationSweepListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts sweeping in the background at a fixed delay; each result is handed to the listener.
+     */
+    public synchronized void start(long interval, TimeUnit unit) {
+        if(timer != null)
+            return;
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HpsAuthorizationSweeper timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                sweep();
+            }
+        }, 0, interval, unit);
+    }
+
+    /**
+     * Stops background sweeping. A sweep in progress is interrupted.
+     */
+    public synchronized void shutdown() {
+        if(timer != null)
+            timer.shutdownNow();
+        timer = null;
+    }
+
+    /**
+     * Finds and releases the stale authorizations now.
+     */
+    public HpsAuthorizationSweepResult sweep() {
+        synchronized(sweepLock) {
+            HpsAuthorizationSweepResult result = new HpsAuthorizationSweepResult();
+            result.setSweptAt(new Date());
+            result.setReleasedTransactionIds(new ArrayList<Integer>());
+            result.setFailures(new LinkedHashMap<Integer, HpsException>());
+
+            try {
+                Map<Integer, BigDecimal> stale = tracker != null ? trackedStale() : reportedStale();
+                result.setStaleCount(stale.size());
+                if(!stale.isEmpty())
+                    release(stale, result);
+            } catch(HpsException e) {
+                result.setException(e);
+            }
+
+            IHpsAuthorizationSweepListener listener = this.listener;
+            if(listener != null) {
+                try {
+                    listener.onSweepCompleted(result);
+                } catch(RuntimeException e) {
+                    // a failing listener must not stop the background sweeps
+                }
+            }
+            return result;
+        }
+    }
+
+    private Map<Integer, BigDecimal> trackedStale() {
+        Map<Integer, BigDecimal> stale = new LinkedHashMap<Integer, BigDecimal>();
+        for(HpsLifecycleTracker.Entry entry : tracker.getUncapturedAuthorizations(maxAgeMillis, TimeUnit.MILLISECONDS))
+            stale.put(entry.getTransactionId(), entry.getAmount());
+        return stale;
+    }
+
+    private Map<Integer, BigDecimal> reportedStale() throws HpsException {
+        long now = System.currentTimeMillis();
+        HpsReportTransactionFilter filter = new HpsReportTransactionFilter()
+                .withTransactionTypes(HpsTransactionType.Authorize, HpsTransactionType.Capture,
+                        HpsTransactionType.Void, HpsTransactionType.Reverse)
+                .withResponseCodeClasses(HpsResponseCodeClass.Approved);
+        HpsReportTransactionSummary[] items = createCreditService()
+                .listFiltered(new Date(now - reportWindowMillis), new Date(now), filter);
+
+        Map<Integer, BigDecimal> stale = new LinkedHashMap<Integer, BigDecimal>();
+        Set<Integer> released = new HashSet<Integer>();
+        for(HpsReportTransactionSummary item : items) {
+            if(item.getTransactionType() != HpsTransactionType.Authorize)
+                released.add(item.getOriginalTransactionId());
+            else if(item.getTransactionDate() != null && item.getTransactionDate().getTime() < now - maxAgeMillis)
+                stale.put(item.getTransactionID(), item.getAmount());
+        }
+        stale.keySet().removeAll(released);
+        return stale;
+    }
+
+    private void release(Map<Integer, BigDecimal> stale, HpsAuthorizationSweepResult result) {
+        final ThreadLocal<HpsCreditService> services = new ThreadLocal<HpsCreditService>();
+        List<Integer> ids = new ArrayList<Integer>(stale.keySet());
+        List<Callable<HpsException>> calls = new ArrayList<Callable<HpsException>>();
+        for(Map.Entry<Integer, BigDecimal> entry : stale.entrySet()) {
+            final int transactionId = entry.getKey();
+            final BigDecimal amount = entry.getValue();
+            calls.add(new Callable<HpsException>() {
+                public HpsException call() throws Exception {
+                    HpsCreditService service = services.get();
+                    if(service == null) {
+                        service = createCreditService();
+                        service.setLifecycleTracker(tracker);
+                        services.set(service);
+                    }
+                    return releaseWithRetry(service, transactionId, amount);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(calls.size(), concurrency));
+        try {
+            List<Future<HpsException>> futures = executor.invokeAll(calls);
+            for(int i = 0; i < futures.size(); i++) {
+                HpsException error;
+                try {
+                    error = futures.get(i).get();
+                } catch(ExecutionException e) {
+                    error = new HpsException(e.getCause().getMessage(), e);
+                }
+                if(error == null)
+                    result.getReleasedTransactionIds().add(ids.get(i));
+                else result.getFailures().put(ids.get(i), error);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.setException(new HpsException("Interrupted while releasing stale authorizations.", e));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return A service for the activity report or one release worker thread.
+     */
+    protected HpsCreditService createCreditService() throws HpsException {
+        return new HpsCreditService(config, enableLogging);
+    }
+
+    private HpsException releaseWithRetry(HpsCreditService service, int transactionId, BigDecimal amount)
+            throws InterruptedException {
+        HpsException last = null;
+        for(int attempt = 0; attempt < maxAttempts; attempt++) {
+            if(attempt > 0)
+                Thread.sleep(retryDelayMillis << Math.min(attempt - 1, 10));
+            acquirePermit();
+            try {
+                if(reverse && amount != null)
+                    service.reverse(transactionId, amount, "usd");
+                else service.voidTxn(transactionId);
+                return null;
+            } catch(HpsGatewayException e) {
+                if(e.getDetails() != null && e.getDetails().getGatewayResponseCode() == 3) {
+                    // no response is recorded for it, so the tracker would offer it to every later sweep
+                    if(tracker != null)
+                        tracker.markClosed(transactionId, reverse && amount != null
+                                ? HpsLifecycleState.Reversed : HpsLifecycleState.Voided);
+                    return null;
+                }
+                last = e;
+            } catch(HpsException e) {
+                last = e;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Waits for the next send slot; slots are spaced evenly so the rate holds across all workers.
+     */
+    private void acquirePermit() throws InterruptedException {
+        long slot;
+        synchronized(this) {
+            long now = System.nanoTime();
+            slot = Math.max(now, nextPermitNanos);
+            nextPermitNanos = slot + permitIntervalNanos;
+        }
+        long wait = slot - System.nanoTime();
+        if(wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+    }
+}
@@ -0,0 +1,106 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.abstractions.IHpsBatchSweepSource;
+import com.hps.integrator.abstractions.IHpsServicesConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * When and how to close one merchant's batch. See {@link HpsBatchCloseScheduler}.
+ */
+public class HpsBatchCloseSchedule {
+    private final String merchantKey;
+    private final IHpsServicesConfig config;
+    private final int hourOfDay;
+    private final int minute;
+    private TimeZone timeZone = TimeZone.getDefault();
+    private boolean enableLogging;
+    private HpsBatchLedger ledger;
+    private HpsLifecycleTracker lifecycleTracker;
+    private final List<IHpsBatchSweepSource> sweepSources = new ArrayList<IHpsBatchSweepSource>();
+
+    /**
+     * @param merchantKey A stable name for the merchant, made of letters, digits, '-' and '_'. It names the
+     *                    file that records the last close.
+     * @param config      The merchant's services config.
+     * @param hourOfDay   The hour to close at, from 0 to 23.
+     * @param minute      The minute to close at, from 0 to 59.
+     */
+    public HpsBatchCloseSchedule(String merchantKey, IHpsServicesConfig config, int hourOfDay, int minute) {
+        this.merchantKey = merchantKey;
+        this.config = config;
+        this.hourOfDay = hourOfDay;
+        this.minute = minute;
+    }
+
+    public HpsBatchCloseSchedule withTimeZone(TimeZone timeZone) {
+        this.timeZone = timeZone;
+        return this;
+    }
+
+    public HpsBatchCloseSchedule withLogging(boolean enableLogging) {
+        this.enableLogging = enableLogging;
+        return this;
+    }
+
+    /**
+     * @param ledger The ledger the merchant's credit services record into; the close is reconciled against it.
+     */
+    public HpsBatchCloseSchedule withLedger(HpsBatchLedger ledger) {
+        this.ledger = ledger;
+        return this;
+    }
+
+    /**
+     * @param lifecycleTracker The tracker the merchant's credit services record into; captured transactions are
+     *                         settled in it when the batch closes.
+     */
+    public HpsBatchCloseSchedule withLifecycleTracker(HpsLifecycleTracker lifecycleTracker) {
+        this.lifecycleTracker = lifecycleTracker;
+        return this;
+    }
+
+    public HpsBatchCloseSchedule withSweepSource(IHpsBatchSweepSource sweepSource) {
+        this.sweepSources.add(sweepSource);
+        return this;
+    }
+
+    public String getMerchantKey() {
+        return merchantKey;
+    }
+
+    public IHpsServicesConfig getConfig() {
+        return config;
+    }
+
+    public int getHourOfDay() {
+        return hourOfDay;
+    }
+
+    public int getMinute() {
+        return minute;
+    }
+
+    public TimeZone getTimeZone() {
+        return timeZone;
+    }
+
+    public boolean isLoggingEnabled() {
+        return enableLogging;
+    }
+
+    public HpsBatchLedger getLedger() {
+        return ledger;
+    }
+
+    public HpsLifecycleTracker getLifecycleTracker() {
+        return lifecycleTracker;
+    }
+
+    public List<IHpsBatchSweepSource> getSweepSources() {
+        return Collections.unmodifiableList(sweepSources);
+    }
+}
@@ -0,0 +1,387 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.abstractions.IHpsBatchCloseListener;
+import com.hps.integrator.abstractions.IHpsBatchSweepSource;
+import com.hps.integrator.abstractions.IHpsBatchSweepTask;
+import com.hps.integrator.entities.batch.HpsBatchCloseResult;
+import com.hps.integrator.entities.batch.HpsBatchReconciliation;
+import com.hps.integrator.infrastructure.HpsArgumentException;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsGatewayException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Closes merchants' batches at a configured time of day.
+ * <p>
+ * Before each close, the work drained from the schedule's sweep sources (pending captures, gratuity edits,
+ * failed reversals) is sent concurrently, each worker thread using its own credit service. Failed tasks are
+ * handed back to their source. The batch is then closed, and reconciled if the schedule has a ledger.
+ * <p>
+ * A batch is closed at most once per business day: the day is recorded in the state directory once the gateway
+ * confirms the close, so a restart never closes twice. If the gateway rejects the close, it is tried again after
+ * the retry delay, still for the business day of the scheduled close even if that is after midnight. If the
+ * outcome is unknown (no response, or a gateway timeout), the close is sent again at once: the gateway answers
+ * that no batch is open if the first one went through. If the scheduler starts after the day's close time and
+ * that day has not been closed, it closes right away. Merchants are closed one after another on the scheduler's
+ * thread.
+ */
+public class HpsBatchCloseScheduler {
+    public static final int DEFAULT_SWEEP_CONCURRENCY = 4;
+    public static final long DEFAULT_RETRY_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File stateDirectory;
+    private final int sweepConcurrency;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "HpsBatchCloseScheduler timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final ConcurrentMap<String, HpsBatchCloseSchedule> schedules = new ConcurrentHashMap<String, HpsBatchCloseSchedule>();
+    private final ConcurrentMap<String, Boolean> pendingRetries = new ConcurrentHashMap<String, Boolean>();
+    private volatile IHpsBatchCloseListener listener;
+    private volatile long retryDelay = DEFAULT_RETRY_DELAY;
+
+    public HpsBatchCloseScheduler(File stateDirectory) {
+        this(stateDirectory, DEFAULT_SWEEP_CONCURRENCY);
+    }
+
+    public HpsBatchCloseScheduler(File stateDirectory, int sweepConcurrency) {
+        this.stateDirectory = stateDirectory;
+        this.sweepConcurrency = Math.max(1, sweepConcurrency);
+    }
+
+    public void setListener(IHpsBatchCloseListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param retryDelay How long to wait before trying a failed close again.
+     */
+    public void setRetryDelay(long retryDelay, TimeUnit unit) {
+        this.retryDelay = unit.toMillis(retryDelay);
+    }
+
+    /**
+     * Starts closing the merchant's batch daily at the schedule's time.
+     *
+     * @throws HpsException If the merchant key is invalid or already scheduled, or the state directory is unusable.
+     */
+    public void schedule(final HpsBatchCloseSchedule schedule) throws HpsException {
+        String merchantKey = schedule.getMerchantKey();
+        if(merchantKey == null || !merchantKey.matches("[A-Za-z0-9_-]+"))
+            throw new HpsArgumentException("Merchant key must be made of letters, digits, '-' and '_'.");
+        if(!stateDirectory.isDirectory() && !stateDirectory.mkdirs())
+            throw new HpsArgumentException("Cannot create state directory " + stateDirectory + ".");
+        if(schedules.putIfAbsent(merchantKey, schedule) != null)
+            throw new HpsArgumentException("Merchant " + merchantKey + " is already scheduled.");
+
+        long now = System.currentTimeMillis();
+        long todaysClose = closeTime(schedule, now, false);
+        final String businessDate = businessDate(schedule, todaysClose);
+        if(now >= todaysClose && !isClosed(schedule, businessDate)) {
+            timer.execute(new Runnable() {
+                public void run() {
+                    closeIfDue(schedule, businessDate);
+                }
+            });
+        }
+        scheduleNext(schedule);
+    }
+
+    /**
+     * Runs the sweep and closes the merchant's batch now, unless it has already been closed today.
+     *
+     * @return The result, or null if the batch was already closed today. If the close fails, it is tried again
+     *         after the retry delay.
+     * @throws HpsException If the merchant is not scheduled.
+     */
+    public HpsBatchCloseResult closeNow(String merchantKey) throws HpsException {
+        HpsBatchCloseSchedule schedule = schedules.get(merchantKey);
+        if(schedule == null)
+            throw new HpsArgumentException("Merchant " + merchantKey + " is not scheduled.");
+        return closeIfDue(schedule, businessDate(schedule, System.currentTimeMillis()));
+    }
+
+    /**
+     * Stops all schedules. A close already in progress is interrupted.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private void scheduleNext(final HpsBatchCloseSchedule schedule) {
+        long now = System.currentTimeMillis();
+        long closeAt = closeTime(schedule, now, true);
+        // the day is fixed by the close time, so a close retried after midnight still closes the day it was for
+        final String businessDate = businessDate(schedule, closeAt);
+        try {
+            timer.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        closeIfDue(schedule, businessDate);
+                    } finally {
+                        scheduleNext(schedule);
+                    }
+                }
+            }, closeAt - now, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException e) {
+            // shut down
+        }
+    }
+
+    /**
+     * @return The service the batch is closed with.
+     */
+    protected HpsBatchService createBatchService(HpsBatchCloseSchedule schedule) throws HpsException {
+        HpsBatchService batchService = new HpsBatchService(schedule.getConfig());
+        batchService.setLifecycleTracker(schedule.getLifecycleTracker());
+        return batchService;
+    }
+
+    /**
+     * @return A service for one sweep worker thread.
+     */
+    protected HpsCreditService createCreditService(HpsBatchCloseSchedule schedule) throws HpsException {
+        HpsCreditService service = new HpsCreditService(schedule.getConfig(), schedule.isLoggingEnabled());
+        // swept captures and reversals change the batch the ledger is about to be checked against
+        service.setBatchLedger(schedule.getLedger());
+        service.setLifecycleTracker(schedule.getLifecycleTracker());
+        return service;
+    }
+
+    private void scheduleRetry(final HpsBatchCloseSchedule schedule, final String businessDate) {
+        if(pendingRetries.putIfAbsent(schedule.getMerchantKey(), Boolean.TRUE) != null)
+            return;
+        try {
+            timer.schedule(new Runnable() {
+                public void run() {
+                    pendingRetries.remove(schedule.getMerchantKey());
+                    closeIfDue(schedule, businessDate);
+                }
+            }, retryDelay, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException e) {
+            // shut down
+            pendingRetries.remove(schedule.getMerchantKey());
+        }
+    }
+
+    private HpsBatchCloseResult closeIfDue(HpsBatchCloseSchedule schedule, String businessDate) {
+        synchronized(schedule) {
+            if(isClosed(schedule, businessDate))
+                return null;
+
+            HpsBatchCloseResult result = new HpsBatchCloseResult();
+            result.setMerchantKey(schedule.getMerchantKey());
+            result.setBusinessDate(businessDate);
+
+            sweep(schedule, result);
+            try {
+                close(schedule, result);
+                writeLastClose(schedule, businessDate);
+            } catch(HpsException e) {
+                result.setException(e);
+                scheduleRetry(schedule, businessDate);
+            }
+
+            IHpsBatchCloseListener listener = this.listener;
+            if(listener != null) {
+                try {
+                    listener.onBatchClosed(result);
+                } catch(RuntimeException e) {
+                    // a failing listener must not stop the merchant's schedule
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Closes the batch, returning once the gateway has confirmed it is closed.
+     *
+     * @throws HpsException If the batch may still be open.
+     */
+    private void close(HpsBatchCloseSchedule schedule, HpsBatchCloseResult result) throws HpsException {
+        HpsBatchService batchService = createBatchService(schedule);
+        try {
+            closeOnce(schedule, batchService, result);
+        } catch(HpsGatewayException e) {
+            if(isNoOpenBatch(e)) {
+                resetLedger(schedule);
+                return;
+            }
+            if(!isUnknownOutcome(e))
+                throw e;
+
+            // the close may have gone through; if it did, the gateway has no open batch left to close and the
+            // batch the failed attempt put back into the ledger is gone
+            try {
+                closeOnce(schedule, batchService, result);
+            } catch(HpsGatewayException retry) {
+                if(!isNoOpenBatch(retry))
+                    throw retry;
+                resetLedger(schedule);
+            }
+        }
+    }
+
+    private static void closeOnce(HpsBatchCloseSchedule schedule, HpsBatchService batchService,
+                                  HpsBatchCloseResult result) throws HpsException {
+        if(schedule.getLedger() != null) {
+            HpsBatchReconciliation reconciliation = batchService.closeBatch(schedule.getLedger());
+            result.setReconciliation(reconciliation);
+            result.setBatch(reconciliation.getBatch());
+        } else {
+            result.setBatch(batchService.closeBatch());
+        }
+    }
+
+    private static void resetLedger(HpsBatchCloseSchedule schedule) {
+        if(schedule.getLedger() != null)
+            schedule.getLedger().reset();
+    }
+
+    private static boolean isNoOpenBatch(HpsGatewayException e) {
+        return e.getCode() == HpsExceptionCodes.NoOpenBatch;
+    }
+
+    /**
+     * @return True if the request may have reached the gateway without an answer: it timed out, or no response
+     *         arrived, in which case the exception carries no gateway details.
+     */
+    private static boolean isUnknownOutcome(HpsGatewayException e) {
+        return e.getCode() == HpsExceptionCodes.GatewayTimeout
+                || (e.getCode() == HpsExceptionCodes.UnknownGatewayError && e.getDetails() == null);
+    }
+
+    private void sweep(final HpsBatchCloseSchedule schedule, HpsBatchCloseResult result) {
+        final Map<IHpsBatchSweepTask, IHpsBatchSweepSource> owners = new LinkedHashMap<IHpsBatchSweepTask, IHpsBatchSweepSource>();
+        for(IHpsBatchSweepSource source : schedule.getSweepSources()) {
+            for(IHpsBatchSweepTask task : source.drainSweepTasks())
+                owners.put(task, source);
+        }
+        if(owners.isEmpty())
+            return;
+
+        final ThreadLocal<HpsCreditService> services = new ThreadLocal<HpsCreditService>();
+        List<Callable<HpsException>> calls = new ArrayList<Callable<HpsException>>();
+        for(final IHpsBatchSweepTask task : owners.keySet()) {
+            calls.add(new Callable<HpsException>() {
+                public HpsException call() {
+                    try {
+                        HpsCreditService service = services.get();
+                        if(service == null) {
+                            service = createCreditService(schedule);
+                            services.set(service);
+                        }
+                        task.execute(service);
+                        return null;
+                    } catch(HpsException e) {
+                        return e;
+                    }
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(calls.size(), sweepConcurrency));
+        int failures = 0;
+        try {
+            List<Future<HpsException>> futures = executor.invokeAll(calls);
+            Iterator<IHpsBatchSweepTask> tasks = owners.keySet().iterator();
+            for(Future<HpsException> future : futures) {
+                IHpsBatchSweepTask task = tasks.next();
+                HpsException error;
+                try {
+                    error = future.get();
+                } catch(ExecutionException e) {
+                    error = new HpsException(e.getCause().getMessage(), e);
+                }
+                if(error != null) {
+                    failures++;
+                    owners.get(task).onSweepFailure(task, error);
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // which tasks ran is unknown, so hand them all back; the gateway rejects a repeated capture or reversal
+            HpsException error = new HpsException("Interrupted while sweeping the batch.", e);
+            for(Map.Entry<IHpsBatchSweepTask, IHpsBatchSweepSource> owner : owners.entrySet())
+                owner.getValue().onSweepFailure(owner.getKey(), error);
+            failures = owners.size();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        result.setSweptCount(owners.size() - failures);
+        result.setSweepFailureCount(failures);
+    }
+
+    private File stateFile(HpsBatchCloseSchedule schedule) {
+        return new File(stateDirectory, schedule.getMerchantKey() + ".lastclose");
+    }
+
+    /**
+     * @return True if the business day, or a later one, has been recorded as closed. A retry still pending for a
+     *         day whose successor has already closed finds nothing left to close.
+     */
+    private boolean isClosed(HpsBatchCloseSchedule schedule, String businessDate) {
+        String lastClose = readLastClose(schedule);
+        return lastClose != null && lastClose.compareTo(businessDate) >= 0;
+    }
+
+    private String readLastClose(HpsBatchCloseSchedule schedule) {
+        File file = stateFile(schedule);
+        if(!file.exists())
+            return null;
+        try {
+            return new String(Files.readAllBytes(file.toPath()), UTF8).trim();
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    private void writeLastClose(HpsBatchCloseSchedule schedule, String businessDate) throws HpsException {
+        Path target = stateFile(schedule).toPath();
+        Path temp = new File(stateDirectory, schedule.getMerchantKey() + ".lastclose.tmp").toPath();
+        try {
+            Files.write(temp, businessDate.getBytes(UTF8));
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            throw new HpsException("Unable to record the batch close for " + schedule.getMerchantKey() + ".", e);
+        }
+    }
+
+    private static String businessDate(HpsBatchCloseSchedule schedule, long time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+        format.setTimeZone(schedule.getTimeZone());
+        return format.format(new Date(time));
+    }
+
+    /**
+     * @return Today's close time, or with {@code next} the first close time after now.
+     */
+    private static long closeTime(HpsBatchCloseSchedule schedule, long now, boolean next) {
+        Calendar calendar = Calendar.getInstance(schedule.getTimeZone());
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, schedule.getHourOfDay());
+        calendar.set(Calendar.MINUTE, schedule.getMinute());
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if(next && calendar.getTimeInMillis() <= now)
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+}
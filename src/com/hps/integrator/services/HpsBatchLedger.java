@@ -0,0 +1,239 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Running totals of the open batch, kept locally as credit transactions succeed so that a batch close can be
+ * checked without replaying the day through <b>ReportActivity</b>. See {@link HpsBatchService#closeBatch(HpsBatchLedger)}.
+ * <p>
+ * Attach one ledger to every credit service sending transactions for the merchant. Sales, captures and offline
+ * sales add to the batch, returns subtract from it (and count as a transaction), voids and reversals take a
+ * transaction back out, and edits replace its amount. Authorizations are remembered until they are captured.
+ * <p>
+ * The ledger is lock-free and safe to share between threads. A transaction completing while the batch is being
+ * closed may be counted in either batch.
+ */
+public class HpsBatchLedger {
+    private final AtomicReference<Batch> open = new AtomicReference<Batch>(new Batch());
+    private final ConcurrentMap<Integer, Long> authorizations = new ConcurrentHashMap<Integer, Long>();
+
+    /**
+     * Records a successful credit transaction. Called by the credit services once the response has passed
+     * validation; requests that do not affect the batch are ignored.
+     *
+     * @param transaction The request element.
+     * @param response    The gateway response.
+     */
+    public void record(Element transaction, ElementTree response) {
+        String type = transaction.tag();
+        Integer transactionId = response.get("Header").getInt("GatewayTxnId");
+        Batch batch = open.get();
+
+        if(type.equals("CreditSale") || type.equals("CreditOfflineSale")) {
+            batch.add(transactionId, authorizedCents(transaction, response));
+        } else if(type.equals("CreditAuth") || type.equals("CreditOfflineAuth")) {
+            authorizations.put(transactionId, authorizedCents(transaction, response));
+        } else if(type.equals("CreditReturn")) {
+            batch.add(transactionId, -cents(transaction.getString("Amt")));
+        } else if(type.equals("CreditAddToBatch")) {
+            int authorizationId = transaction.getInt("GatewayTxnId");
+            Long authorized = authorizations.remove(authorizationId);
+            Long amount = transaction.has("Amt") ? cents(transaction.getString("Amt")) : authorized;
+            if(amount == null) {
+                batch.untracked.incrementAndGet();
+                return;
+            }
+            // capturing an authorization already in the batch changes its amount
+            long cents = amount + gratuityCents(transaction);
+            if(!batch.replace(authorizationId, cents))
+                batch.add(authorizationId, cents);
+        } else if(type.equals("CreditTxnEdit")) {
+            int editedId = transaction.getInt("GatewayTxnId");
+            if(!transaction.has("Amt")) {
+                batch.untracked.incrementAndGet();
+                return;
+            }
+            long amount = cents(transaction.getString("Amt"));
+            if(!batch.replace(editedId, amount + gratuityCents(transaction)))
+                authorizations.replace(editedId, amount);
+        } else if(type.equals("CreditVoid") || type.equals("CreditReversal")) {
+            // a reversal without a transaction id (by card) cannot be matched to anything recorded
+            if(!transaction.has("GatewayTxnId"))
+                return;
+            int reversedId = transaction.getInt("GatewayTxnId");
+            authorizations.remove(reversedId);
+            batch.remove(reversedId);
+        }
+    }
+
+    /**
+     * @return The open batch's net amount (returns subtracted).
+     */
+    public BigDecimal getTotalAmount() {
+        return BigDecimal.valueOf(open.get().total.get(), 2);
+    }
+
+    public int getTransactionCount() {
+        return open.get().count.get();
+    }
+
+    /**
+     * @return The number of captures and edits whose amount could not be determined locally.
+     */
+    public int getUntrackedCount() {
+        return open.get().untracked.get();
+    }
+
+    /**
+     * @return When the first transaction of the open batch was recorded, or when the ledger was last reset.
+     */
+    public Date getOpenedAt() {
+        return new Date(open.get().openedAt());
+    }
+
+    /**
+     * Starts a new, empty batch. Recorded authorizations are kept, as they can still be captured later.
+     *
+     * @return The totals of the batch that was open.
+     */
+    public Snapshot reset() {
+        return new Snapshot(open.getAndSet(new Batch()));
+    }
+
+    /**
+     * Puts a batch taken by {@link #reset()} back into the open batch, for when the close it was taken for did not
+     * go through. Transactions recorded since the reset are kept.
+     *
+     * @param snapshot The totals returned by the reset.
+     */
+    public void restore(Snapshot snapshot) {
+        Batch batch = open.get();
+        for(Map.Entry<Integer, Long> entry : snapshot.entries.entrySet())
+            batch.add(entry.getKey(), entry.getValue());
+        batch.untracked.addAndGet(snapshot.untrackedCount);
+        batch.openedAtLeast(snapshot.openedAt.getTime());
+    }
+
+    /**
+     * The totals of a batch as recorded locally.
+     */
+    public static class Snapshot {
+        private final BigDecimal totalAmount;
+        private final int transactionCount;
+        private final int untrackedCount;
+        private final Date openedAt;
+        private final Map<Integer, Long> entries;
+
+        private Snapshot(Batch batch) {
+            this.totalAmount = BigDecimal.valueOf(batch.total.get(), 2);
+            this.transactionCount = batch.count.get();
+            this.untrackedCount = batch.untracked.get();
+            this.openedAt = new Date(batch.openedAt());
+            this.entries = Collections.unmodifiableMap(batch.entries);
+        }
+
+        public BigDecimal getTotalAmount() {
+            return totalAmount;
+        }
+
+        public int getTransactionCount() {
+            return transactionCount;
+        }
+
+        public int getUntrackedCount() {
+            return untrackedCount;
+        }
+
+        public Date getOpenedAt() {
+            return openedAt;
+        }
+
+        /**
+         * @return The amount in cents of each transaction in the batch, keyed by gateway transaction id.
+         */
+        public Map<Integer, Long> getEntries() {
+            return entries;
+        }
+    }
+
+    private static long authorizedCents(Element transaction, ElementTree response) {
+        // partial approvals put less than the requested amount in the batch
+        Element item = response.get(transaction.tag());
+        if(item != null && item.has("AuthAmt")) {
+            String authorized = item.getString("AuthAmt");
+            if(!authorized.equals(""))
+                return cents(authorized);
+        }
+        return cents(transaction.getString("Amt"));
+    }
+
+    private static long gratuityCents(Element transaction) {
+        return transaction.has("GratuityAmtInfo") ? cents(transaction.getString("GratuityAmtInfo")) : 0;
+    }
+
+    private static long cents(String amount) {
+        return new BigDecimal(amount).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+    }
+
+    private static class Batch {
+        final ConcurrentMap<Integer, Long> entries = new ConcurrentHashMap<Integer, Long>();
+        final AtomicLong total = new AtomicLong();
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger untracked = new AtomicInteger();
+        final long createdAt = System.currentTimeMillis();
+        final AtomicLong firstRecordedAt = new AtomicLong();
+
+        long openedAt() {
+            long first = firstRecordedAt.get();
+            return first != 0 ? first : createdAt;
+        }
+
+        void openedAtLeast(long time) {
+            while(true) {
+                long first = firstRecordedAt.get();
+                if((first != 0 && first <= time) || firstRecordedAt.compareAndSet(first, time))
+                    return;
+            }
+        }
+
+        void add(int transactionId, long cents) {
+            firstRecordedAt.compareAndSet(0, System.currentTimeMillis());
+            if(entries.putIfAbsent(transactionId, cents) == null) {
+                total.addAndGet(cents);
+                count.incrementAndGet();
+            }
+        }
+
+        boolean replace(int transactionId, long cents) {
+            while(true) {
+                Long current = entries.get(transactionId);
+                if(current == null)
+                    return false;
+                if(entries.replace(transactionId, current, cents)) {
+                    total.addAndGet(cents - current);
+                    return true;
+                }
+            }
+        }
+
+        void remove(int transactionId) {
+            Long removed = entries.remove(transactionId);
+            if(removed != null) {
+                total.addAndGet(-removed);
+                count.decrementAndGet();
+            }
+        }
+    }
+}
@@ -1,25 +1,43 @@
 package com.hps.integrator.services;
 
 import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsTransactionType;
 import com.hps.integrator.entities.batch.HpsBatch;
+import com.hps.integrator.entities.batch.HpsBatchReconciliation;
+import com.hps.integrator.entities.credit.HpsReportTransactionFilter;
+import com.hps.integrator.entities.credit.HpsReportTransactionSummary;
 import com.hps.integrator.infrastructure.Element;
 import com.hps.integrator.infrastructure.ElementTree;
 import com.hps.integrator.infrastructure.HpsException;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
 
 public class HpsBatchService extends HpsSoapGatewayService {
+    private HpsLifecycleTracker lifecycleTracker;
 
     public HpsBatchService(IHpsServicesConfig config) throws HpsException {
         super(config);
     }
 
+    public HpsLifecycleTracker getLifecycleTracker() {
+        return lifecycleTracker;
+    }
+
+    /**
+     * @param lifecycleTracker The tracker to settle captured transactions in when a batch closes, or null.
+     */
+    public void setLifecycleTracker(HpsLifecycleTracker lifecycleTracker) {
+        this.lifecycleTracker = lifecycleTracker;
+    }
+
     public HpsBatch closeBatch() throws HpsException {
         Element transaction = Et.element("BatchClose");
 
         ElementTree rsp = this.doTransaction(transaction);
-        HpsGatewayResponseValidation.checkGatewayResponse(rsp, transaction.tag());
+        this.checkGatewayResponse(rsp, transaction.tag());
 
         // Process the response
         Element batchClose = rsp.get("BatchClose");
@@ -34,6 +52,92 @@ public class HpsBatchService extends HpsSoapGatewayService {
         if(batchClose.has("TxnCnt"))
             batch.setTransactionCount(batchClose.getInt("TxnCnt"));
 
+        if(lifecycleTracker != null)
+            lifecycleTracker.onBatchClosed();
+        return batch;
+    }
+
+    /**
+     * Closes the batch and checks the gateway's totals against the ledger, which is reset for the next batch.
+     * If the close fails, the batch is put back into the ledger before the exception is thrown. Only when the
+     * totals disagree is the batch's activity listed and compared transaction by transaction.
+     *
+     * @param ledger The ledger the credit services recorded the batch in.
+     * @return The closed batch and the outcome of the comparison.
+     * @throws HpsException
+     */
+    public HpsBatchReconciliation closeBatch(HpsBatchLedger ledger) throws HpsException {
+        HpsBatchLedger.Snapshot expected = ledger.reset();
+        Date closedAt = new Date();
+
+        HpsBatchReconciliation reconciliation = new HpsBatchReconciliation();
+        try {
+            reconciliation.setBatch(this.closeBatch());
+        } catch(HpsException e) {
+            // the batch is still open at the gateway, so it stays open in the ledger too
+            ledger.restore(expected);
+            throw e;
+        } catch(RuntimeException e) {
+            ledger.restore(expected);
+            throw e;
+        }
+        reconciliation.setExpectedAmount(expected.getTotalAmount());
+        reconciliation.setExpectedTransactionCount(expected.getTransactionCount());
+        reconciliation.setUntrackedCount(expected.getUntrackedCount());
+        reconciliation.setUnrecordedTransactionIds(new ArrayList<Integer>());
+        reconciliation.setUnconfirmedTransactionIds(new ArrayList<Integer>());
+        reconciliation.setAmountMismatchTransactionIds(new ArrayList<Integer>());
+        if(reconciliation.isBalanced())
+            return reconciliation;
+
+        Map<Integer, Long> reported = reportedBatch(expected.getOpenedAt(), closedAt);
+        for(Map.Entry<Integer, Long> entry : reported.entrySet()) {
+            Long recorded = expected.getEntries().get(entry.getKey());
+            if(recorded == null)
+                reconciliation.getUnrecordedTransactionIds().add(entry.getKey());
+            else if(!recorded.equals(entry.getValue()))
+                reconciliation.getAmountMismatchTransactionIds().add(entry.getKey());
+        }
+        for(Integer transactionId : expected.getEntries().keySet()) {
+            if(!reported.containsKey(transactionId))
+                reconciliation.getUnconfirmedTransactionIds().add(transactionId);
+        }
+        return reconciliation;
+    }
+
+    /**
+     * Rebuilds the batch from the activity report the same way the ledger records it: approved sales and
+     * captures add, returns subtract, voids and reversals remove the original transaction.
+     */
+    private Map<Integer, Long> reportedBatch(Date start, Date end) throws HpsException {
+        HpsReportTransactionFilter filter = new HpsReportTransactionFilter()
+                .withTransactionTypes(HpsTransactionType.Charge, HpsTransactionType.Capture, HpsTransactionType.Refund,
+                        HpsTransactionType.Void, HpsTransactionType.Reverse)
+                .withResponseCodeClasses(HpsResponseCodeClass.Approved);
+        HpsReportTransactionSummary[] items = new HpsCreditService(this.servicesConfig, this.isLoggingEnabled())
+                .list(start, end, filter, 1, 1);
+
+        Map<Integer, Long> batch = new LinkedHashMap<Integer, Long>();
+        for(HpsReportTransactionSummary item : items) {
+            long cents = item.getAmount() != null
+                    ? item.getAmount().movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue() : 0;
+            int originalId = item.getOriginalTransactionId();
+
+            switch(item.getTransactionType()) {
+                case Charge:
+                    batch.put(item.getTransactionID(), cents);
+                    break;
+                case Capture:
+                    batch.put(originalId > 0 ? originalId : item.getTransactionID(), cents);
+                    break;
+                case Refund:
+                    batch.put(item.getTransactionID(), -cents);
+                    break;
+                default:
+                    batch.remove(originalId);
+                    break;
+            }
+        }
         return batch;
     }
-}
\ No newline at end of file
+}
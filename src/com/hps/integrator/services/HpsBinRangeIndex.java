@@ -0,0 +1,371 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.abstractions.IHpsCardBrandResolver;
+import com.hps.integrator.entities.HpsBinRange;
+import com.hps.integrator.entities.HpsCardBrand;
+import com.hps.integrator.entities.HpsCardType;
+import com.hps.integrator.infrastructure.HpsArgumentException;
+import com.hps.integrator.infrastructure.HpsException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Looks up the brand, card type and issuing country of a card number in a BIN range table, before the number is
+ * sent for routing or surcharging decisions.
+ * <p>
+ * The table is a file written by {@link #write(File, Collection)}: a header followed by fixed size records sorted
+ * by the low end of their range. Records hold brands and card types as indexes into name tables in the header,
+ * so a file stays readable when the enums gain or reorder constants. The file is memory-mapped and binary searched in place, so a lookup reads a few
+ * pages of the mapping and allocates nothing, and the table takes no heap however many ranges it holds.
+ * <p>
+ * A new table is published by writing it to the same path, which replaces the file atomically, then calling
+ * {@link #reload()} or {@link #reloadIfModified()}. Lookups in progress finish against the old mapping, which
+ * stays valid after the file is replaced. The index is thread-safe and can be shared by every service in the
+ * process; see {@link com.hps.integrator.services.fluent.HpsFluentCreditService#withBinRangeIndex(HpsBinRangeIndex)}.
+ */
+public class HpsBinRangeIndex implements IHpsCardBrandResolver {
+    private static final int MAGIC = 0x4842494E;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 20;
+    private static final int RECORD_SIZE = 24;
+    private static final int MIN_DIGITS = 6;
+
+    private static final String[] COUNTRIES = new String[26 * 26];
+
+    private final File file;
+    private volatile Table table;
+
+    /**
+     * Maps the table in a file written by {@link #write(File, Collection)}.
+     */
+    public HpsBinRangeIndex(File file) throws HpsException {
+        this.file = file;
+        this.table = Table.map(file);
+    }
+
+    /**
+     * Maps the file again, replacing the table used by later lookups.
+     */
+    public synchronized void reload() throws HpsException {
+        table = Table.map(file);
+    }
+
+    /**
+     * Maps the file again if its modification time or size changed since it was last mapped.
+     *
+     * @return True if the table was replaced.
+     */
+    public synchronized boolean reloadIfModified() throws HpsException {
+        Table current = table;
+        if(file.lastModified() == current.modified && file.length() == current.length)
+            return false;
+        table = Table.map(file);
+        return true;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRangeCount() {
+        return table.count;
+    }
+
+    /**
+     * Finds the range holding a card number, copying it into {@code into} so a caller can reuse one range
+     * across lookups.
+     *
+     * @return False if no range holds the number; {@code into} is then unchanged.
+     */
+    public boolean find(String cardNumber, HpsBinRange into) {
+        return cardNumber != null && find(cardNumber, 0, cardNumber.length(), into);
+    }
+
+    /**
+     * Finds the range holding the card number between {@code start} and {@code end} in {@code value}, e.g.
+     * within track data.
+     */
+    public boolean find(String value, int start, int end, HpsBinRange into) {
+        Table current = table;
+        int offset = current.find(value, start, end);
+        if(offset < 0)
+            return false;
+
+        ByteBuffer buffer = current.buffer;
+        into.setLow(buffer.getLong(offset));
+        into.setHigh(buffer.getLong(offset + 8));
+        into.setBrand(current.brand(offset));
+        into.setCardType(current.cardType(offset));
+        into.setCountry(country(buffer, offset));
+        return true;
+    }
+
+    /**
+     * @return The range holding a card number, or null if none does.
+     */
+    public HpsBinRange lookup(String cardNumber) {
+        HpsBinRange range = new HpsBinRange();
+        return find(cardNumber, range) ? range : null;
+    }
+
+    public HpsCardBrand getBrand(String cardNumber) {
+        return cardNumber == null ? HpsCardBrand.Unknown : getBrand(cardNumber, 0, cardNumber.length());
+    }
+
+    public HpsCardBrand getBrand(String value, int start, int end) {
+        Table current = table;
+        int offset = current.find(value, start, end);
+        return offset < 0 ? HpsCardBrand.Unknown : current.brand(offset);
+    }
+
+    public HpsCardType getCardType(String cardNumber) {
+        if(cardNumber == null)
+            return HpsCardType.Unknown;
+        Table current = table;
+        int offset = current.find(cardNumber, 0, cardNumber.length());
+        return offset < 0 ? HpsCardType.Unknown : current.cardType(offset);
+    }
+
+    /**
+     * @return The issuing country's two letter code, or null if unknown.
+     */
+    public String getCountry(String cardNumber) {
+        if(cardNumber == null)
+            return null;
+        Table current = table;
+        int offset = current.find(cardNumber, 0, cardNumber.length());
+        return offset < 0 ? null : country(current.buffer, offset);
+    }
+
+    /**
+     * Writes a table of ranges to a file, replacing any table already there in one atomic rename.
+     *
+     * @throws HpsArgumentException If two ranges overlap, a range is empty or a country is not two letters.
+     */
+    public static void write(File file, Collection<HpsBinRange> ranges) throws HpsException {
+        List<HpsBinRange> sorted = new ArrayList<HpsBinRange>(ranges);
+        Collections.sort(sorted, new Comparator<HpsBinRange>() {
+            @Override
+            public int compare(HpsBinRange a, HpsBinRange b) {
+                return a.getLow() < b.getLow() ? -1 : a.getLow() == b.getLow() ? 0 : 1;
+            }
+        });
+
+        byte[] brandNames = names(HpsCardBrand.values());
+        byte[] cardTypeNames = names(HpsCardType.values());
+        int records = HEADER_SIZE + brandNames.length + cardTypeNames.length;
+        ByteBuffer buffer = ByteBuffer.allocate(records + sorted.size() * RECORD_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(sorted.size()).putInt(RECORD_SIZE).putInt(records);
+        buffer.put(brandNames).put(cardTypeNames);
+        long previousHigh = -1;
+        for(HpsBinRange range : sorted) {
+            if(range.getLow() > range.getHigh())
+                throw new HpsArgumentException("A BIN range cannot end before it starts.");
+            if(range.getLow() <= previousHigh)
+                throw new HpsArgumentException("BIN ranges cannot overlap.");
+            previousHigh = range.getHigh();
+
+            // indexes into the name tables above, which follow the enums' order in this build
+            buffer.putLong(range.getLow());
+            buffer.putLong(range.getHigh());
+            buffer.put((byte)(range.getBrand() == null ? HpsCardBrand.Unknown : range.getBrand()).ordinal());
+            buffer.put((byte)(range.getCardType() == null ? HpsCardType.Unknown : range.getCardType()).ordinal());
+            putCountry(buffer, range.getCountry());
+            buffer.putInt(0);
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(buffer.array());
+                out.getChannel().force(false);
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            throw new HpsException("Unable to write the BIN range file.", e);
+        } finally {
+            // only still there if the write or the rename failed
+            temp.delete();
+        }
+    }
+
+    /**
+     * Encodes an enum's constant names in ordinal order, as a count followed by length-prefixed names.
+     */
+    private static byte[] names(Enum<?>[] values) {
+        byte[][] encoded = new byte[values.length][];
+        int size = 1;
+        for(int i = 0; i < values.length; i++) {
+            encoded[i] = values[i].name().getBytes(StandardCharsets.UTF_8);
+            size += 1 + encoded[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put((byte)values.length);
+        for(byte[] name : encoded)
+            buffer.put((byte)name.length).put(name);
+        return buffer.array();
+    }
+
+    /**
+     * Reads a name table written by {@link #names(Enum[])}, resolving each name to this build's constant.
+     * Names this build does not know resolve to {@code unknown}.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Enum<E>> E[] readNames(ByteBuffer header, Class<E> type, E unknown) {
+        E[] values = (E[])Array.newInstance(type, header.get() & 0xFF);
+        for(int i = 0; i < values.length; i++) {
+            byte[] name = new byte[header.get() & 0xFF];
+            header.get(name);
+            try {
+                values[i] = Enum.valueOf(type, new String(name, StandardCharsets.UTF_8));
+            } catch(IllegalArgumentException e) {
+                values[i] = unknown;
+            }
+        }
+        return values;
+    }
+
+    private static void putCountry(ByteBuffer buffer, String country) throws HpsArgumentException {
+        if(country == null || country.length() == 0) {
+            buffer.putShort((short)0);
+            return;
+        }
+        if(country.length() != 2 || letter(country.charAt(0)) < 0 || letter(country.charAt(1)) < 0)
+            throw new HpsArgumentException("A BIN range country must be a two letter code.");
+        buffer.put((byte)('A' + letter(country.charAt(0))));
+        buffer.put((byte)('A' + letter(country.charAt(1))));
+    }
+
+    private static int letter(char c) {
+        if(c >= 'A' && c <= 'Z')
+            return c - 'A';
+        if(c >= 'a' && c <= 'z')
+            return c - 'a';
+        return -1;
+    }
+
+    /**
+     * Returns the country code, keeping one string per code so lookups don't allocate.
+     */
+    private static String country(ByteBuffer buffer, int offset) {
+        int first = buffer.get(offset + 18) - 'A', second = buffer.get(offset + 19) - 'A';
+        if(first < 0 || first >= 26 || second < 0 || second >= 26)
+            return null;
+        int index = first * 26 + second;
+        String country = COUNTRIES[index];
+        if(country == null) {
+            country = new String(new char[] { (char)('A' + first), (char)('A' + second) });
+            COUNTRIES[index] = country;
+        }
+        return country;
+    }
+
+    /**
+     * One mapping of the table file.
+     */
+    private static class Table {
+        final ByteBuffer buffer;
+        final int count;
+        final int records;
+        final HpsCardBrand[] brands;
+        final HpsCardType[] cardTypes;
+        final long modified;
+        final long length;
+
+        private Table(ByteBuffer buffer, int count, int records, HpsCardBrand[] brands, HpsCardType[] cardTypes,
+                      long modified, long length) {
+            this.buffer = buffer;
+            this.count = count;
+            this.records = records;
+            this.brands = brands;
+            this.cardTypes = cardTypes;
+            this.modified = modified;
+            this.length = length;
+        }
+
+        static Table map(File file) throws HpsException {
+            try {
+                long modified = file.lastModified();
+                RandomAccessFile in = new RandomAccessFile(file, "r");
+                try {
+                    long length = in.length();
+                    if(length < HEADER_SIZE || length > Integer.MAX_VALUE)
+                        throw invalid(file);
+                    ByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                    int count = buffer.getInt(8), records = buffer.getInt(16);
+                    if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(12) != RECORD_SIZE
+                            || count < 0 || records < HEADER_SIZE || length != records + (long)count * RECORD_SIZE)
+                        throw invalid(file);
+
+                    ByteBuffer header = buffer.duplicate();
+                    header.position(HEADER_SIZE).limit(records);
+                    HpsCardBrand[] brands = readNames(header, HpsCardBrand.class, HpsCardBrand.Unknown);
+                    HpsCardType[] cardTypes = readNames(header, HpsCardType.class, HpsCardType.Unknown);
+                    if(header.hasRemaining())
+                        throw invalid(file);
+                    return new Table(buffer, count, records, brands, cardTypes, modified, length);
+                } finally {
+                    in.close();
+                }
+            } catch(BufferUnderflowException e) {
+                throw invalid(file);
+            } catch(IOException e) {
+                throw new HpsException("Unable to map the BIN range file " + file + ".", e);
+            }
+        }
+
+        private static HpsException invalid(File file) {
+            return new HpsException("The BIN range file " + file + " is not valid.");
+        }
+
+        HpsCardBrand brand(int offset) {
+            int code = buffer.get(offset + 16) & 0xFF;
+            return code < brands.length ? brands[code] : HpsCardBrand.Unknown;
+        }
+
+        HpsCardType cardType(int offset) {
+            int code = buffer.get(offset + 17) & 0xFF;
+            return code < cardTypes.length ? cardTypes[code] : HpsCardType.Unknown;
+        }
+
+        /**
+         * @return The offset of the record whose range holds the card number, or -1 if none does.
+         */
+        int find(String value, int start, int end) {
+            if(value == null || end - start < MIN_DIGITS)
+                return -1;
+            long key = HpsBinRange.toKey(value, start, Math.min(end, start + HpsBinRange.KEY_DIGITS), '0');
+            if(key < 0)
+                return -1;
+
+            // the last range starting at or before the key
+            int low = 0, high = count - 1, match = -1;
+            while(low <= high) {
+                int mid = (low + high) >>> 1;
+                if(buffer.getLong(records + mid * RECORD_SIZE) <= key) {
+                    match = mid;
+                    low = mid + 1;
+                } else high = mid - 1;
+            }
+            if(match < 0)
+                return -1;
+
+            int offset = records + match * RECORD_SIZE;
+            return key <= buffer.getLong(offset + 8) ? offset : -1;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.abstractions.IHpsBatchSweepSource;
+import com.hps.integrator.abstractions.IHpsBatchSweepTask;
+import com.hps.integrator.abstractions.IHpsCaptureListener;
+import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.infrastructure.HpsException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Captures authorizations in the background, combining the partial captures of one authorization (e.g. one per
+ * shipment) into a single <b>CreditAddToBatch</b>.
+ * <p>
+ * A capture added for an authorization waits for the coalescing window, counted from the first capture added
+ * for it; captures added for the same authorization meanwhile are summed into it, and a capture of the full
+ * authorized amount takes over any partial ones. Due captures are sent together on a bounded pool of worker
+ * threads, each using its own credit service. A failed capture is merged back and retried on the next flush,
+ * up to the maximum attempts.
+ * <p>
+ * The gateway treats another <b>CreditAddToBatch</b> for an authorization already in the batch as a change of its
+ * amount, not as an extra capture. The queue therefore keeps the amount captured so far for each authorization, and
+ * a capture added after an earlier one was sent sends the running total. Captures of one authorization are sent one
+ * at a time.
+ * <p>
+ * The queue is also a batch sweep source: a scheduled batch close drains every pending capture, due or not,
+ * so nothing waits past the close. The running totals are forgotten once drained, as a closed batch can no longer
+ * be added to. The queue is thread-safe.
+ */
+public class HpsCaptureQueue implements IHpsBatchSweepSource {
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    private final IHpsServicesConfig config;
+    private final boolean enableLogging;
+    private final long windowMillis;
+    private final int maxAttempts;
+    private final ConcurrentMap<Integer, Capture> pending = new ConcurrentHashMap<Integer, Capture>();
+    private volatile ConcurrentMap<Integer, Captured> captured = new ConcurrentHashMap<Integer, Captured>();
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemon("timer"));
+    private final ThreadLocal<HpsCreditService> services = new ThreadLocal<HpsCreditService>();
+    private volatile HpsBatchLedger batchLedger;
+    private volatile HpsLifecycleTracker lifecycleTracker;
+    private volatile IHpsCaptureListener listener;
+
+    public HpsCaptureQueue(IHpsServicesConfig config, long window, TimeUnit unit) {
+        this(config, window, unit, false, DEFAULT_CONCURRENCY, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Starts flushing due captures in the background.
+     *
+     * @param window      How long the first capture for an authorization waits for more to combine with.
+     * @param concurrency The most captures sent at once.
+     */
+    public HpsCaptureQueue(IHpsServicesConfig config, long window, TimeUnit unit, boolean enableLogging,
+                           int concurrency, int maxAttempts) {
+        this.config = config;
+        this.enableLogging = enableLogging;
+        this.windowMillis = unit.toMillis(window);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, concurrency), daemon("worker"));
+
+        long tick = Math.max(10, windowMillis / 2);
+        timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                flush(false);
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param batchLedger The ledger to record sent captures in, or null.
+     */
+    public void setBatchLedger(HpsBatchLedger batchLedger) {
+        this.batchLedger = batchLedger;
+    }
+
+    /**
+     * @param lifecycleTracker The tracker to record sent captures in, or null.
+     */
+    public void setLifecycleTracker(HpsLifecycleTracker lifecycleTracker) {
+        this.lifecycleTracker = lifecycleTracker;
+    }
+
+    public void setListener(IHpsCaptureListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues the capture of the full authorized amount.
+     */
+    public void add(int transactionId) {
+        add(transactionId, null, null);
+    }
+
+    /**
+     * Queues a partial capture, added to any pending for the same authorization.
+     *
+     * @param amount   The amount to capture, or null for the full authorized amount.
+     * @param gratuity The gratuity to add, or null for none.
+     */
+    public void add(int transactionId, BigDecimal amount, BigDecimal gratuity) {
+        merge(new Capture(transactionId, amount, gratuity, System.currentTimeMillis() + windowMillis, 0));
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Sends every pending capture now, due or not, and waits for them.
+     *
+     * @return The number of captures sent successfully.
+     */
+    public int flush() {
+        return flush(true);
+    }
+
+    /**
+     * Stops the background flush. Pending captures are not sent; flush or drain them first.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    public List<IHpsBatchSweepTask> drainSweepTasks() {
+        List<IHpsBatchSweepTask> tasks = new ArrayList<IHpsBatchSweepTask>(take(true));
+        // the drained captures keep the totals they were taken with; later ones start the next batch
+        captured = new ConcurrentHashMap<Integer, Captured>();
+        return tasks;
+    }
+
+    public void onSweepFailure(IHpsBatchSweepTask task, HpsException exception) {
+        if(task instanceof Capture)
+            retry((Capture)task, exception);
+    }
+
+    private void merge(Capture capture) {
+        while(true) {
+            Capture existing = pending.putIfAbsent(capture.transactionId, capture);
+            if(existing == null)
+                return;
+            synchronized(existing) {
+                // taken for sending meanwhile; start a new capture
+                if(existing.taken)
+                    continue;
+                existing.combine(capture);
+                return;
+            }
+        }
+    }
+
+    private List<Capture> take(boolean all) {
+        long now = System.currentTimeMillis();
+        ConcurrentMap<Integer, Captured> totals = captured;
+        List<Capture> due = new ArrayList<Capture>();
+        for(Capture capture : pending.values()) {
+            synchronized(capture) {
+                if(capture.taken || (!all && capture.dueAt > now))
+                    continue;
+                capture.taken = true;
+                capture.totals = totals;
+            }
+            pending.remove(capture.transactionId, capture);
+            due.add(capture);
+        }
+        return due;
+    }
+
+    private int flush(boolean all) {
+        List<Capture> due = take(all);
+        if(due.isEmpty())
+            return 0;
+
+        List<Callable<HpsException>> calls = new ArrayList<Callable<HpsException>>();
+        for(final Capture capture : due) {
+            calls.add(new Callable<HpsException>() {
+                public HpsException call() {
+                    try {
+                        HpsCreditService service = services.get();
+                        if(service == null) {
+                            service = createCreditService();
+                            services.set(service);
+                        }
+                        service.setBatchLedger(batchLedger);
+                        service.setLifecycleTracker(lifecycleTracker);
+                        capture.execute(service);
+                        return null;
+                    } catch(HpsException e) {
+                        return e;
+                    }
+                }
+            });
+        }
+
+        int sent = 0;
+        try {
+            List<Future<HpsException>> futures = workers.invokeAll(calls);
+            for(int i = 0; i < futures.size(); i++) {
+                Capture capture = due.get(i);
+                HpsException error;
+                try {
+                    error = futures.get(i).get();
+                } catch(ExecutionException e) {
+                    error = new HpsException(e.getCause().getMessage(), e);
+                } catch(CancellationException e) {
+                    error = new HpsException("The capture was cancelled.", e);
+                }
+
+                if(error == null) {
+                    sent++;
+                    IHpsCaptureListener listener = this.listener;
+                    if(listener != null)
+                        listener.onCaptured(capture.transactionId);
+                } else {
+                    retry(capture, error);
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // which captures were sent is unknown; the gateway rejects a repeated capture
+            for(Capture capture : due)
+                retry(capture, new HpsException("Interrupted while sending captures.", e));
+        } catch(RejectedExecutionException e) {
+            for(Capture capture : due)
+                retry(capture, new HpsException("The capture queue is shut down.", e));
+        }
+        return sent;
+    }
+
+    private static ThreadFactory daemon(final String role) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HpsCaptureQueue " + role);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @return A service for one worker thread.
+     */
+    protected HpsCreditService createCreditService() throws HpsException {
+        return new HpsCreditService(config, enableLogging);
+    }
+
+    private void retry(Capture capture, HpsException exception) {
+        if(capture.attempts + 1 >= maxAttempts) {
+            IHpsCaptureListener listener = this.listener;
+            if(listener != null)
+                listener.onCaptureFailed(capture.transactionId, exception);
+            return;
+        }
+        merge(new Capture(capture.transactionId, capture.amount, capture.gratuity, System.currentTimeMillis(),
+                capture.attempts + 1));
+    }
+
+    /**
+     * What has been captured of an authorization so far.
+     */
+    private static class Captured {
+        BigDecimal amount = BigDecimal.ZERO;
+        BigDecimal gratuity;
+        boolean fullAmount;
+    }
+
+    private static class Capture implements IHpsBatchSweepTask {
+        final int transactionId;
+        final long dueAt;
+        final int attempts;
+        BigDecimal amount;
+        BigDecimal gratuity;
+        boolean fullAmount;
+        boolean taken;
+        ConcurrentMap<Integer, Captured> totals;
+
+        Capture(int transactionId, BigDecimal amount, BigDecimal gratuity, long dueAt, int attempts) {
+            this.transactionId = transactionId;
+            this.amount = amount;
+            this.gratuity = gratuity;
+            this.fullAmount = amount == null;
+            this.dueAt = dueAt;
+            this.attempts = attempts;
+        }
+
+        void combine(Capture other) {
+            fullAmount |= other.fullAmount;
+            amount = fullAmount ? null : amount.add(other.amount);
+            if(other.gratuity != null)
+                gratuity = gratuity != null ? gratuity.add(other.gratuity) : other.gratuity;
+        }
+
+        public void execute(HpsCreditService service) throws HpsException {
+            Captured total = totals.get(transactionId);
+            if(total == null) {
+                Captured created = new Captured();
+                total = totals.putIfAbsent(transactionId, created);
+                if(total == null)
+                    total = created;
+            }
+
+            synchronized(total) {
+                boolean full = fullAmount || total.fullAmount;
+                BigDecimal sendAmount = full ? null : total.amount.add(amount);
+                BigDecimal sendGratuity = total.gratuity == null ? gratuity
+                        : gratuity == null ? total.gratuity : total.gratuity.add(gratuity);
+                service.captureTxn(transactionId, sendAmount, sendGratuity, null);
+
+                total.fullAmount = full;
+                total.amount = full ? BigDecimal.ZERO : sendAmount;
+                total.gratuity = sendGratuity;
+            }
+        }
+    }
+}
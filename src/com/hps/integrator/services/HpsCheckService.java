@@ -1,13 +1,14 @@
 package com.hps.integrator.services;
 
 import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.entities.HpsResponseFamily;
 import com.hps.integrator.entities.check.HpsCheck;
 import com.hps.integrator.entities.check.HpsCheckResponse;
 import com.hps.integrator.entities.check.HpsCheckResponseDetails;
 import com.hps.integrator.infrastructure.*;
 import com.hps.integrator.infrastructure.emums.CheckActionType;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
 import com.hps.integrator.infrastructure.validation.HpsInputValidation;
+import com.hps.integrator.infrastructure.validation.HpsResponseClassifier;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
@@ -128,11 +129,12 @@ public class HpsCheckService extends HpsSoapGatewayService {
 
     private HpsCheckResponse submitTransaction(Element transaction, String clientTransactionId) throws HpsException {
         ElementTree rsp = this.doTransaction(transaction, clientTransactionId);
-        HpsGatewayResponseValidation.checkGatewayResponse(rsp, transaction.tag());
+        this.checkGatewayResponse(rsp, transaction.tag());
 
         HpsCheckResponse response = new HpsCheckResponse().fromElementTree(rsp);
         Element item = rsp.get(transaction.tag());
-        if(item.getString("RspCode") == null || !item.getString("RspCode").equals("0"))
+        if(item.getString("RspCode") == null
+                || !HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Check, item.getString("RspCode")).isApproved())
             throw new HpsCheckException(
                     rsp.get("Header").getInt("GatewayTxnId"),
                     response.getDetails(),
@@ -1,23 +1,28 @@
 package com.hps.integrator.services;
 
+import com.hps.integrator.abstractions.IHpsReportTransactionHandler;
 import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.abstractions.IHpsTransactionDetailsHandler;
 import com.hps.integrator.applepay.ecv1.PaymentData;
 import com.hps.integrator.applepay.ecv1.PaymentData3DS;
 import com.hps.integrator.entities.*;
 import com.hps.integrator.entities.credit.*;
+import com.hps.integrator.entities.report.HpsReportAggregator;
+import com.hps.integrator.entities.report.HpsReportTransactionStore;
 import com.hps.integrator.infrastructure.*;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
 import com.hps.integrator.infrastructure.validation.HpsInputValidation;
-import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
 
 import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class HpsCreditService extends HpsSoapGatewayService {
     HpsTransactionType filterBy;
+    private HpsTransactionDetailsLoader detailsLoader;
+    private HpsBatchLedger batchLedger;
+    private HpsReversalQueue reversalQueue;
+    private HpsLifecycleTracker lifecycleTracker;
 
     public HpsCreditService() throws HpsException {
         super();
@@ -31,11 +36,34 @@ public class HpsCreditService extends HpsSoapGatewayService {
         super(servicesConfig, enableLogging);
     }
 
+    /**
+     * Gets the details of a transaction. With a transaction archive, a credit transaction archived since the last
+     * batch close it holds, and not changed since, is answered from the archive without a round trip. Such details
+     * have no transaction status, so the batch service should share the archive for closed batches to be seen.
+     */
     public HpsReportTransactionDetails get(Integer transactionId) throws HpsException {
         if(transactionId <= 0) {
             throw new HpsInvalidRequestException("Invalid transaction ID.");
         }
 
+        // a transaction changed since it was archived, or that may have been closed in a batch since, is reported
+        // by the gateway as it now stands
+        HpsTransactionArchive archive = getTransactionArchive();
+        if(archive != null && !archive.isModified(transactionId)) {
+            HpsTransactionArchive.Record record = archive.get(transactionId);
+            Date lastBatchClose = archive.getLastBatchClose();
+            if(record != null && record.getTransactionType().startsWith("Credit")
+                    && (lastBatchClose == null || record.getArchivedAt().after(lastBatchClose))) {
+                HpsReportTransactionDetails details = new HpsReportTransactionDetails().fromTransactionResponse(
+                        record.getResponse(), record.getTransactionType(), record.getArchivedAt(),
+                        record.getAmount(), record.getMaskedCardNumber());
+                details.setInvoiceNumber(record.getInvoiceNumber());
+                details.setMemo(record.getMemo());
+                details.setCustomerId(record.getCustomerId());
+                return details;
+            }
+        }
+
         Element transaction = Et.element("ReportTxnDetail");
         Et.subElement(transaction, "TxnId").text(transactionId.toString());
 
@@ -43,21 +71,350 @@ public class HpsCreditService extends HpsSoapGatewayService {
         return new HpsReportTransactionDetails().fromElementTree(response);
     }
 
+    /**
+     * Fetches the details of many transactions concurrently. See {@link HpsTransactionDetailsLoader}.
+     *
+     * @param transactionIds The gateway transaction ids.
+     * @return The details keyed by transaction id, in the order the ids were given.
+     * @throws HpsException
+     */
+    public Map<Integer, HpsReportTransactionDetails> getAll(Collection<Integer> transactionIds) throws HpsException {
+        return getDetailsLoader().getAll(transactionIds);
+    }
+
+    /**
+     * Fetches the details of many transactions concurrently, handing each one to the handler as it completes.
+     *
+     * @param transactionIds The gateway transaction ids.
+     * @param handler        Receives each result or failure on the calling thread.
+     * @throws HpsException
+     */
+    public void getAll(Collection<Integer> transactionIds, IHpsTransactionDetailsHandler handler) throws HpsException {
+        getDetailsLoader().getAll(transactionIds, handler);
+    }
+
+    public HpsTransactionDetailsLoader getDetailsLoader() {
+        if(detailsLoader == null)
+            detailsLoader = new HpsTransactionDetailsLoader(this.servicesConfig, this.isLoggingEnabled(),
+                    HpsTransactionDetailsLoader.DEFAULT_MAX_CONCURRENCY, HpsTransactionDetailsLoader.DEFAULT_CACHE_SIZE);
+        return detailsLoader;
+    }
+
+    public void setDetailsLoader(HpsTransactionDetailsLoader detailsLoader) {
+        this.detailsLoader = detailsLoader;
+    }
+
+    public HpsBatchLedger getBatchLedger() {
+        return batchLedger;
+    }
+
+    /**
+     * @param batchLedger The ledger to record successful transactions in, or null to stop recording.
+     */
+    public void setBatchLedger(HpsBatchLedger batchLedger) {
+        this.batchLedger = batchLedger;
+    }
+
+    public HpsReversalQueue getReversalQueue() {
+        return reversalQueue;
+    }
+
+    /**
+     * @param reversalQueue The queue to hand timeout reversals to instead of sending them before returning,
+     *                      or null to reverse synchronously.
+     */
+    public void setReversalQueue(HpsReversalQueue reversalQueue) {
+        this.reversalQueue = reversalQueue;
+    }
+
+    public HpsLifecycleTracker getLifecycleTracker() {
+        return lifecycleTracker;
+    }
+
+    /**
+     * @param lifecycleTracker The tracker to record successful transactions in, or null to stop tracking.
+     */
+    public void setLifecycleTracker(HpsLifecycleTracker lifecycleTracker) {
+        this.lifecycleTracker = lifecycleTracker;
+    }
+
     public HpsReportTransactionSummary[] list(Date start, Date end) throws HpsException {
         return this.list(start, end, null);
     }
 
     public HpsReportTransactionSummary[] list(Date start, Date end, HpsTransactionType filterBy) throws HpsException {
+        this.filterBy = filterBy;
+
+        HpsReportTransactionFilter filter = null;
+        if(filterBy != null)
+            filter = new HpsReportTransactionFilter().withTransactionTypes(filterBy);
+        return this.listFiltered(start, end, filter);
+    }
+
+    /**
+     * Lists the transactions in a date range, keeping only the rows accepted by the filter. The filter is
+     * applied while the response is decoded, so rejected rows cost no allocations.
+     *
+     * @param start  The report start date.
+     * @param end    The report end date.
+     * @param filter The row filter, or null for every row.
+     * @return The matching transactions.
+     * @throws HpsException
+     */
+    public HpsReportTransactionSummary[] listFiltered(Date start, Date end, HpsReportTransactionFilter filter) throws HpsException {
+        return new HpsReportTransactionSummary().fromElementTree(reportActivity(start, end), filter);
+    }
+
+    /**
+     * Lists the transactions in a date range, handing each row accepted by the filter to the handler as it is
+     * decoded instead of collecting them, e.g. to feed a {@link HpsReportAggregator} or a
+     * {@link HpsReportTransactionStore}.
+     *
+     * @param start   The report start date.
+     * @param end     The report end date.
+     * @param filter  The row filter, or null for every row.
+     * @param handler Receives each matching row.
+     * @return The number of rows handed to the handler.
+     * @throws HpsException
+     */
+    public int list(Date start, Date end, HpsReportTransactionFilter filter, IHpsReportTransactionHandler handler) throws HpsException {
+        return new HpsReportTransactionSummary().fromElementTree(reportActivity(start, end), filter, handler);
+    }
+
+    private ElementTree reportActivity(Date start, Date end) throws HpsException {
         HpsInputValidation.checkDateNotFuture(start, "Start Date");
         HpsInputValidation.checkDateNotFuture(end, "End Date");
-        this.filterBy = filterBy;
 
         Element transaction = Et.element("ReportActivity");
         Et.subElement(transaction, "RptStartUtcDT").text(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(start));
         Et.subElement(transaction, "RptEndUtcDT").text(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(end));
 
-        ElementTree response = submitTransaction(transaction);
-        return new HpsReportTransactionSummary().fromElementTree(response, filterBy);
+        return submitTransaction(transaction);
+    }
+
+    /**
+     * Lists the transactions in a date range by splitting it into equal sub-ranges and requesting them
+     * concurrently. Each sub-range runs on its own service instance from {@link #createSliceService()}, since
+     * a service is not safe to share between threads. Rows are de-duplicated by transaction id (sub-ranges share their boundaries) and
+     * returned in transaction date order. When the filter has a limit, each sub-range is requested without it and
+     * the limit is applied once to the merged result, so it keeps the oldest rows of the whole range.
+     *
+     * @param start          The report start date.
+     * @param end            The report end date.
+     * @param filter         The row filter, or null for every row.
+     * @param slices         The number of sub-ranges to request.
+     * @param maxConcurrency The maximum number of sub-ranges requested at once.
+     * @return The matching transactions, oldest first.
+     * @throws HpsException
+     */
+    public HpsReportTransactionSummary[] list(Date start, Date end, HpsReportTransactionFilter filter, int slices, int maxConcurrency) throws HpsException {
+        HpsInputValidation.checkDateNotFuture(start, "Start Date");
+        HpsInputValidation.checkDateNotFuture(end, "End Date");
+        if(slices < 1 || maxConcurrency < 1)
+            throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidArgument, "Slices and concurrency must be at least 1.");
+
+        // the gateway's row order is not date order, so the limit waits until the rows are sorted
+        HpsReportTransactionFilter sliceFilter = withoutLimit(filter);
+        Date[] bounds = sliceBounds(start, end, slices);
+        if(bounds.length == 2)
+            return sortByTransactionDate(this.listFiltered(start, end, sliceFilter), filter);
+
+        List<Callable<HpsReportTransactionSummary[]>> tasks = new ArrayList<Callable<HpsReportTransactionSummary[]>>();
+        for(int i = 0; i < bounds.length - 1; i++)
+            tasks.add(new ListSliceTask(this.createSliceService(), bounds[i], bounds[i + 1], sliceFilter));
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), maxConcurrency));
+        try {
+            Set<Integer> seen = new HashSet<Integer>();
+            List<HpsReportTransactionSummary> merged = new ArrayList<HpsReportTransactionSummary>();
+            for(Future<HpsReportTransactionSummary[]> future : executor.invokeAll(tasks)) {
+                for(HpsReportTransactionSummary item : future.get()) {
+                    if(seen.add(item.getTransactionID()))
+                        merged.add(item);
+                }
+            }
+            return sortByTransactionDate(merged.toArray(new HpsReportTransactionSummary[merged.size()]), filter);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HpsException("Interrupted while listing transactions.", e);
+        } catch(ExecutionException e) {
+            throw sliceFailure(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Totals the transactions in a date range in a single pass, without keeping the rows.
+     *
+     * @param start  The report start date.
+     * @param end    The report end date.
+     * @param filter The row filter, or null for every row.
+     * @return The totals of the matching transactions.
+     * @throws HpsException
+     */
+    public HpsReportAggregator aggregate(Date start, Date end, HpsReportTransactionFilter filter) throws HpsException {
+        HpsReportAggregator aggregator = new HpsReportAggregator();
+        this.list(start, end, filter, aggregator);
+        return aggregator;
+    }
+
+    /**
+     * Totals the transactions in a date range by splitting it into equal sub-ranges, aggregating them
+     * concurrently and merging the results. A row on a shared boundary is counted only by the sub-range it
+     * starts, so no row ids need to be remembered. The sub-ranges are not totalled in date order, so a filter
+     * with a limit is rejected.
+     *
+     * @param start          The report start date.
+     * @param end            The report end date.
+     * @param filter         The row filter, or null for every row.
+     * @param slices         The number of sub-ranges to request.
+     * @param maxConcurrency The maximum number of sub-ranges requested at once.
+     * @return The totals of the matching transactions.
+     * @throws HpsException
+     */
+    public HpsReportAggregator aggregate(Date start, Date end, HpsReportTransactionFilter filter, int slices, int maxConcurrency) throws HpsException {
+        HpsInputValidation.checkDateNotFuture(start, "Start Date");
+        HpsInputValidation.checkDateNotFuture(end, "End Date");
+        if(slices < 1 || maxConcurrency < 1)
+            throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidArgument, "Slices and concurrency must be at least 1.");
+        if(filter != null && filter.getLimit() > 0)
+            throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidArgument, "A sliced aggregate cannot apply a row limit.");
+
+        Date[] bounds = sliceBounds(start, end, slices);
+        if(bounds.length == 2)
+            return this.aggregate(start, end, filter);
+
+        List<Callable<HpsReportAggregator>> tasks = new ArrayList<Callable<HpsReportAggregator>>();
+        for(int i = 0; i < bounds.length - 1; i++) {
+            tasks.add(new AggregateSliceTask(this.createSliceService(), bounds[i], bounds[i + 1], i == 0,
+                    i == bounds.length - 2, filter));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), maxConcurrency));
+        try {
+            HpsReportAggregator merged = new HpsReportAggregator();
+            for(Future<HpsReportAggregator> future : executor.invokeAll(tasks))
+                merged.merge(future.get());
+            return merged;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HpsException("Interrupted while aggregating transactions.", e);
+        } catch(ExecutionException e) {
+            throw sliceFailure(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return A service to request one sub-range with.
+     */
+    protected HpsCreditService createSliceService() throws HpsException {
+        return new HpsCreditService(this.servicesConfig, this.isLoggingEnabled());
+    }
+
+    /**
+     * @return The boundaries of the sub-ranges, from start to end; just the two ends if the range is not split.
+     */
+    private static Date[] sliceBounds(Date start, Date end, int slices) {
+        long startTime = start.getTime();
+        long length = end.getTime() - startTime;
+        if(slices == 1 || length < slices)
+            return new Date[] { start, end };
+
+        Date[] bounds = new Date[slices + 1];
+        for(int i = 0; i < slices; i++)
+            bounds[i] = new Date(startTime + length * i / slices);
+        bounds[slices] = end;
+        return bounds;
+    }
+
+    private static HpsException sliceFailure(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if(cause instanceof HpsException)
+            return (HpsException)cause;
+        if(cause instanceof Error)
+            throw (Error)cause;
+        return new HpsException(cause.getMessage(), (Exception)cause);
+    }
+
+    /**
+     * @return The filter, or a copy of it without its limit.
+     */
+    private static HpsReportTransactionFilter withoutLimit(HpsReportTransactionFilter filter) {
+        if(filter == null || filter.getLimit() == 0)
+            return filter;
+        return new HpsReportTransactionFilter(filter).withLimit(0);
+    }
+
+    private static HpsReportTransactionSummary[] sortByTransactionDate(HpsReportTransactionSummary[] items, HpsReportTransactionFilter filter) {
+        Arrays.sort(items, new Comparator<HpsReportTransactionSummary>() {
+            public int compare(HpsReportTransactionSummary a, HpsReportTransactionSummary b) {
+                long aTime = a.getTransactionDate() != null ? a.getTransactionDate().getTime() : Long.MIN_VALUE;
+                long bTime = b.getTransactionDate() != null ? b.getTransactionDate().getTime() : Long.MIN_VALUE;
+                if(aTime != bTime)
+                    return aTime < bTime ? -1 : 1;
+                return Integer.compare(a.getTransactionID(), b.getTransactionID());
+            }
+        });
+        if(filter != null && filter.getLimit() > 0 && items.length > filter.getLimit())
+            return Arrays.copyOf(items, filter.getLimit());
+        return items;
+    }
+
+    private static class ListSliceTask implements Callable<HpsReportTransactionSummary[]> {
+        private final HpsCreditService service;
+        private final Date start;
+        private final Date end;
+        private final HpsReportTransactionFilter filter;
+
+        ListSliceTask(HpsCreditService service, Date start, Date end, HpsReportTransactionFilter filter) {
+            this.service = service;
+            this.start = start;
+            this.end = end;
+            this.filter = filter;
+        }
+
+        public HpsReportTransactionSummary[] call() throws HpsException {
+            return service.listFiltered(start, end, filter);
+        }
+    }
+
+    private static class AggregateSliceTask implements Callable<HpsReportAggregator> {
+        private final HpsCreditService service;
+        private final Date start;
+        private final Date end;
+        private final boolean first;
+        private final boolean last;
+        private final HpsReportTransactionFilter filter;
+
+        AggregateSliceTask(HpsCreditService service, Date start, Date end, boolean first, boolean last,
+                           HpsReportTransactionFilter filter) {
+            this.service = service;
+            this.start = start;
+            this.end = end;
+            this.first = first;
+            this.last = last;
+            this.filter = filter;
+        }
+
+        public HpsReportAggregator call() throws HpsException {
+            final HpsReportAggregator aggregator = new HpsReportAggregator();
+            final long from = start.getTime();
+            final long to = end.getTime();
+
+            service.list(start, end, filter, new IHpsReportTransactionHandler() {
+                public void onTransaction(HpsReportTransactionSummary transaction) {
+                    // rows outside [from, to) belong to a neighbouring sub-range, except at the ends of the full range
+                    Date date = transaction.getTransactionDate();
+                    if(date == null ? !first : (date.getTime() < from && !first) || (date.getTime() >= to && !last))
+                        return;
+                    aggregator.onTransaction(transaction);
+                }
+            });
+            return aggregator;
+        }
     }
 
     public HpsCharge charge(BigDecimal amount, String currency, HpsCreditCard card, HpsCardHolder cardHolder, boolean allowDuplicates) throws HpsException {
@@ -617,6 +974,10 @@ public class HpsCreditService extends HpsSoapGatewayService {
         this.processGatewayResponse(rsp, transaction.tag(), amount);
         this.processIssuerResponse(rsp, transaction.tag(), amount);
 
+        if(batchLedger != null)
+            batchLedger.record(transaction, rsp);
+        if(lifecycleTracker != null)
+            lifecycleTracker.record(transaction, rsp);
         return rsp;
     }
 
@@ -631,18 +992,20 @@ public class HpsCreditService extends HpsSoapGatewayService {
             if(responseCode != null && !responseCode.equals("")) {
                 if(responseCode.equals("91")){
                     try{
-                        this.reverse(transactionId, amount, "usd");
+                        if(reversalQueue != null && amount != null)
+                            reversalQueue.reverseCredit(transactionId, amount, "usd");
+                        else this.reverse(transactionId, amount, "usd");
                     }
                     catch(HpsGatewayException e) {
                         if(e.getDetails().getGatewayResponseCode() == 3)
-                            HpsIssuerResponseValidation.checkIssuerResponse(transactionId, responseCode, responseText);
+                            this.checkIssuerResponse(transactionId, responseCode, responseText);
                         throw new HpsCreditException(transactionId, HpsExceptionCodes.IssuerTimeoutReversal, "Error occurred while reversing a charge due to an issuer timeout.", e);
                     }
                     catch(HpsException e) {
                         throw new HpsCreditException(transactionId, HpsExceptionCodes.IssuerTimeoutReversal, "Error occurred while reversing a charge due to an issuer timeout.", e);
                     }
                 }
-                HpsIssuerResponseValidation.checkIssuerResponse(transactionId, responseCode, responseText);
+                this.checkIssuerResponse(transactionId, responseCode, responseText);
             }
         }
     }
@@ -655,12 +1018,14 @@ public class HpsCreditService extends HpsSoapGatewayService {
 
         if(responseCode.equals("30")){
             try{
-                this.reverse(transactionId, amount, "usd");
+                if(reversalQueue != null && amount != null)
+                    reversalQueue.reverseCredit(transactionId, amount, "usd");
+                else this.reverse(transactionId, amount, "usd");
             }
             catch(HpsException e) {
                 throw new HpsGatewayException(HpsExceptionCodes.GatewayTimeoutReversalError, "Error occurred while reversing a charge due to a gateway timeout.", e);
             }
         }
-        HpsGatewayResponseValidation.checkGatewayResponse(response, expectedType);
+        this.checkGatewayResponse(response, expectedType);
     }
 }
\ No newline at end of file
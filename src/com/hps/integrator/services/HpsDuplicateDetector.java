@@ -0,0 +1,237 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.entities.HpsResponseFamily;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsInvalidRequestException;
+import com.hps.integrator.infrastructure.validation.HpsResponseClassifier;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Catches likely duplicate charges before they are sent, instead of relying on the gateway to reject them with
+ * a round trip and a gateway error.
+ * <p>
+ * A service with a detector fingerprints every request sent with <b>AllowDup</b> N from its merchant
+ * credentials, card number, token or track data, amount and invoice number. Once the issuer approves one, its
+ * fingerprint is remembered for the window; a later request with the same fingerprint is rejected with an
+ * {@link HpsInvalidRequestException} before it leaves the process, or only counted if rejection is turned off.
+ * Requests in flight at the same time are not caught, and are still left to the gateway.
+ * <p>
+ * Fingerprints are kept in a rotating Bloom filter: the window is split into slices, each with its own bit set,
+ * and the oldest set is cleared as a new slice starts. Memory is fixed by the expected number of approvals per
+ * window, so a fingerprint is remembered for between one window and one window plus a slice, and a small share
+ * of new requests (the false positive rate) is taken for a duplicate. Bits are set with compare-and-swap and only
+ * the start of a slice takes a lock, so the detector can be shared by every service in the process.
+ */
+public class HpsDuplicateDetector {
+    public static final long NONE = 0;
+
+    private static final int SLICES = 4;
+    private static final int MAX_HASHES = 16;
+
+    private final long sliceMillis;
+    private final int mask;
+    private final int hashes;
+    private final AtomicLongArray[] generations = new AtomicLongArray[SLICES + 1];
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private volatile long currentSlice;
+    private volatile boolean rejectDuplicates = true;
+
+    /**
+     * @param window            How long an approved request's fingerprint is remembered.
+     * @param expectedApprovals The number of approvals expected in a window.
+     * @param falsePositiveRate The share of new requests that may be taken for duplicates, e.g. 0.0001.
+     */
+    public HpsDuplicateDetector(long window, TimeUnit unit, int expectedApprovals, double falsePositiveRate) {
+        if(window <= 0 || expectedApprovals <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("The window, expected approvals and false positive rate must be positive.");
+
+        this.sliceMillis = Math.max(1, unit.toMillis(window) / SLICES);
+
+        // each slice's set holds its share of the window, and a lookup can match in any of them
+        double perSlice = Math.max(1.0, (double)expectedApprovals / SLICES);
+        double rate = falsePositiveRate / generations.length;
+        long bits = (long)Math.ceil(-perSlice * Math.log(rate) / (Math.log(2) * Math.log(2)));
+        int size = 64;
+        while(size < bits && size < (1 << 30))
+            size <<= 1;
+        this.mask = size - 1;
+        this.hashes = (int)Math.max(1, Math.min(MAX_HASHES, Math.round(size / perSlice * Math.log(2))));
+
+        for(int i = 0; i < generations.length; i++)
+            generations[i] = new AtomicLongArray(size / 64);
+        this.currentSlice = System.currentTimeMillis() / sliceMillis;
+    }
+
+    public boolean isRejectDuplicates() {
+        return rejectDuplicates;
+    }
+
+    /**
+     * @param rejectDuplicates False to only count likely duplicates and send them to the gateway anyway.
+     */
+    public void setRejectDuplicates(boolean rejectDuplicates) {
+        this.rejectDuplicates = rejectDuplicates;
+    }
+
+    /**
+     * @return The number of requests taken for duplicates, whether rejected or not.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * Checks a request before it is sent. Called by the services.
+     *
+     * @return The request's fingerprint, to pass to {@link #record(long, ElementTree)} with the response, or
+     *         {@link #NONE} if the request allows duplicates or has no card number, token or track data.
+     * @throws HpsInvalidRequestException If the request is a likely duplicate and duplicates are rejected.
+     */
+    public long check(IHpsServicesConfig config, Element transaction) throws HpsException {
+        if(transaction == null || !"N".equals(transaction.getString("AllowDup")))
+            return NONE;
+
+        String card = transaction.getString("CardNbr");
+        if(card == null)
+            card = transaction.getString("TokenValue");
+        if(card == null)
+            card = transaction.getString("TrackData");
+        // without a card there is nothing to tell one charge from another
+        if(card == null || card.length() == 0)
+            return NONE;
+        String amount = transaction.getString("Amt");
+        long fingerprint = fingerprint(merchant(config), card, amount == null ? null : new BigDecimal(amount),
+                transaction.getString("InvoiceNbr"));
+
+        if(mightContain(fingerprint)) {
+            duplicateCount.incrementAndGet();
+            if(rejectDuplicates)
+                throw new HpsInvalidRequestException(HpsExceptionCodes.DuplicateTransaction,
+                        "The transaction looks like a duplicate of one approved recently.", "amount");
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Remembers a request's fingerprint if the response approves it. Called by the services.
+     */
+    public void record(long fingerprint, ElementTree response) {
+        if(fingerprint == NONE)
+            return;
+        Element header = response.get("Header");
+        Element transaction = response.get("Transaction");
+        if(header == null || transaction == null)
+            return;
+        if(HpsResponseClassifier.classify(HpsResponseFamily.Credit, header.getInt("GatewayRspCode"),
+                transaction.getString("RspCode")).isApproved())
+            add(fingerprint);
+    }
+
+    /**
+     * @return True if the fingerprint was added in the window, or is a false positive.
+     */
+    public boolean mightContain(long fingerprint) {
+        long slice = rotate();
+        int h1 = (int)fingerprint, h2 = (int)(fingerprint >>> 32) | 1;
+        for(int age = 0; age <= SLICES; age++) {
+            AtomicLongArray bits = generations[(int)((slice - age) % generations.length)];
+            if(contains(bits, h1, h2))
+                return true;
+        }
+        return false;
+    }
+
+    public void add(long fingerprint) {
+        AtomicLongArray bits = generations[(int)(rotate() % generations.length)];
+        int h1 = (int)fingerprint, h2 = (int)(fingerprint >>> 32) | 1;
+        for(int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & mask;
+            long flag = 1L << bit;
+            long word;
+            while(((word = bits.get(bit >>> 6)) & flag) == 0 && !bits.compareAndSet(bit >>> 6, word, word | flag)) { }
+        }
+    }
+
+    /**
+     * Fingerprints a request; any field may be null. Amounts that differ only in scale, e.g. 10.0 and 10.00,
+     * have the same fingerprint.
+     *
+     * @param merchant A value identifying the merchant, e.g. a hash of its credentials.
+     * @param card     The card number, token or track data.
+     */
+    public static long fingerprint(long merchant, String card, BigDecimal amount, String invoice) {
+        long hash = mix(0xcbf29ce484222325L, merchant);
+        hash = mix(hash, card);
+        hash = mix(hash, amount == null ? -1 : amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue());
+        hash = mix(hash, invoice);
+
+        // finalize so every bit of the result depends on every input bit
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == NONE ? 1 : hash;
+    }
+
+    private static long merchant(IHpsServicesConfig config) {
+        String secretApiKey = config.getSecretAPIKey();
+        if(secretApiKey != null && !secretApiKey.equals(""))
+            return mix(1, secretApiKey);
+        return mix(mix(2, config.getSiteId()), config.getDeviceId());
+    }
+
+    private static long mix(long hash, String value) {
+        if(value == null)
+            return mix(hash, -1);
+        for(int i = 0; i < value.length(); i++)
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        return mix(hash, value.length());
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    private boolean contains(AtomicLongArray bits, int h1, int h2) {
+        for(int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if((bits.get(bit >>> 6) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Clears the sets of the slices that have left the window.
+     *
+     * @return The current slice.
+     */
+    private long rotate() {
+        long slice = System.currentTimeMillis() / sliceMillis;
+        if(slice <= currentSlice)
+            return currentSlice;
+
+        synchronized(this) {
+            long previous = currentSlice;
+            if(slice > previous) {
+                for(long next = Math.max(previous + 1, slice - SLICES); next <= slice; next++) {
+                    AtomicLongArray bits = generations[(int)(next % generations.length)];
+                    for(int i = 0; i < bits.length(); i++)
+                        bits.set(i, 0);
+                }
+                currentSlice = slice;
+            }
+        }
+        return slice;
+    }
+}
@@ -6,9 +6,7 @@ import com.hps.integrator.infrastructure.Element;
 import com.hps.integrator.infrastructure.ElementTree;
 import com.hps.integrator.infrastructure.HpsException;
 import com.hps.integrator.infrastructure.emums.GiftCardAliasAction;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
 import com.hps.integrator.infrastructure.validation.HpsInputValidation;
-import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
 
 import java.math.BigDecimal;
 
@@ -317,8 +315,8 @@ public class HpsGiftCardService extends HpsSoapGatewayService {
     }
     public ElementTree submitTransaction(Element transaction, String clientTransactionId) throws HpsException {
         ElementTree rsp = doTransaction(transaction, clientTransactionId);
-        HpsGatewayResponseValidation.checkGatewayResponse(rsp, transaction.tag());
-        HpsIssuerResponseValidation.checkIssuerResponse(
+        this.checkGatewayResponse(rsp, transaction.tag());
+        this.checkIssuerResponse(
                 rsp.get("Header").getInt("GatewayTxnId"),
                 rsp.get(transaction.tag()).getString("RspCode"),
                 rsp.get(transaction.tag()).getString("RspText")
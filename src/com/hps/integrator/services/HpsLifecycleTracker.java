@@ -0,0 +1,300 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.entities.HpsLifecycleState;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Follows each credit authorization and sale through capture, edits, reversal, void and settlement as the credit
+ * services send them, so questions such as "which authorizations are older than a day and still uncaptured" are
+ * answered locally.
+ * <p>
+ * Attach one tracker to the credit services and the batch service of a merchant. Only moves allowed by
+ * {@link HpsLifecycleState#canMoveTo(HpsLifecycleState)} are applied; any other (e.g. capturing a voided
+ * authorization, which the gateway accepted because another process tracked it differently) is counted and
+ * ignored. Transactions sent by other processes are not known to the tracker.
+ * <p>
+ * Open authorizations are indexed by age and by amount. Closing a batch settles every captured transaction and
+ * forgets those closed before it; open authorizations are kept, as they can still be captured into a later batch.
+ * The tracker is safe to share between threads.
+ */
+public class HpsLifecycleTracker {
+    private final ConcurrentMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+    private final ConcurrentSkipListSet<Entry> authorizationsByAge = new ConcurrentSkipListSet<Entry>(new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            int byTime = a.createdAt < b.createdAt ? -1 : a.createdAt > b.createdAt ? 1 : 0;
+            return byTime != 0 ? byTime : compareIds(a.transactionId, b.transactionId);
+        }
+    });
+    private final ConcurrentSkipListSet<AmountKey> authorizationsByAmount = new ConcurrentSkipListSet<AmountKey>();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+
+    /**
+     * Records a successful credit transaction. Called by the credit services once the response has passed
+     * validation; requests that do not change a tracked transaction are ignored.
+     *
+     * @param transaction The request element.
+     * @param response    The gateway response.
+     */
+    public void record(Element transaction, ElementTree response) {
+        String type = transaction.tag();
+        Integer transactionId = response.get("Header").getInt("GatewayTxnId");
+
+        if(type.equals("CreditAuth") || type.equals("CreditOfflineAuth")) {
+            add(new Entry(transactionId, HpsLifecycleState.Authorized, authorizedCents(transaction, response)));
+        } else if(type.equals("CreditSale") || type.equals("CreditOfflineSale")) {
+            add(new Entry(transactionId, HpsLifecycleState.Captured, authorizedCents(transaction, response)));
+        } else if(type.equals("CreditAddToBatch")) {
+            Long amount = transaction.has("Amt")
+                    ? cents(transaction.getString("Amt")) + gratuityCents(transaction) : null;
+            move(transaction.getInt("GatewayTxnId"), HpsLifecycleState.Captured, amount);
+        } else if(type.equals("CreditTxnEdit")) {
+            Long amount = transaction.has("Amt")
+                    ? cents(transaction.getString("Amt")) + gratuityCents(transaction) : null;
+            move(transaction.getInt("GatewayTxnId"), null, amount);
+        } else if(type.equals("CreditReversal") && transaction.has("GatewayTxnId")) {
+            // a partial reversal leaves the rest of the amount authorized
+            Element item = response.get(type);
+            String remaining = item != null ? item.getString("AuthAmt") : null;
+            if(remaining != null && !remaining.equals("") && cents(remaining) > 0)
+                move(transaction.getInt("GatewayTxnId"), null, cents(remaining));
+            else move(transaction.getInt("GatewayTxnId"), HpsLifecycleState.Reversed, null);
+        } else if(type.equals("CreditVoid")) {
+            move(transaction.getInt("GatewayTxnId"), HpsLifecycleState.Voided, null);
+        }
+    }
+
+    /**
+     * Forgets the transactions already closed and settles the captured ones, which are then forgotten at the
+     * following close. Called by the batch service once a batch close succeeds.
+     */
+    public void onBatchClosed() {
+        for(Entry entry : entries.values()) {
+            synchronized(entry) {
+                if(!entry.state.isOpen())
+                    entries.remove(entry.transactionId, entry);
+                else if(entry.state == HpsLifecycleState.Captured)
+                    entry.state = HpsLifecycleState.Settled;
+            }
+        }
+    }
+
+    /**
+     * Moves a transaction closed without a recorded response, e.g. one the gateway reports as already voided or
+     * reversed (code 3) when asked to release it again.
+     *
+     * @return True if the transaction is tracked and could move to the state.
+     */
+    public boolean markClosed(int transactionId, HpsLifecycleState state) {
+        if(!canMoveTo(transactionId, state))
+            return false;
+        move(transactionId, state, null);
+        return getState(transactionId) == state;
+    }
+
+    /**
+     * @return The transaction's state, or null if it is not tracked.
+     */
+    public HpsLifecycleState getState(int transactionId) {
+        Entry entry = entries.get(transactionId);
+        return entry != null ? entry.state : null;
+    }
+
+    /**
+     * @return The tracked transaction, or null if it is not tracked.
+     */
+    public Entry get(int transactionId) {
+        return entries.get(transactionId);
+    }
+
+    /**
+     * Checks a move before the request is sent, e.g. that an authorization about to be captured is still open.
+     *
+     * @return True if the transaction is tracked and can move to the state.
+     */
+    public boolean canMoveTo(int transactionId, HpsLifecycleState state) {
+        Entry entry = entries.get(transactionId);
+        return entry != null && entry.state.canMoveTo(state);
+    }
+
+    /**
+     * @return The open authorizations created more than {@code age} ago, oldest first.
+     */
+    public List<Entry> getUncapturedAuthorizations(long age, TimeUnit unit) {
+        long cutoff = System.currentTimeMillis() - unit.toMillis(age);
+        List<Entry> result = new ArrayList<Entry>();
+        for(Entry entry : authorizationsByAge) {
+            if(entry.createdAt >= cutoff)
+                break;
+            result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * @return The open authorizations for amounts from {@code min} to {@code max} inclusive, smallest first.
+     */
+    public List<Entry> getUncapturedAuthorizations(BigDecimal min, BigDecimal max) {
+        AmountKey from = new AmountKey(cents(min.toPlainString()), Integer.MIN_VALUE, null);
+        AmountKey to = new AmountKey(cents(max.toPlainString()), Integer.MAX_VALUE, null);
+        List<Entry> result = new ArrayList<Entry>();
+        for(AmountKey key : authorizationsByAmount.subSet(from, true, to, true))
+            result.add(key.entry);
+        return result;
+    }
+
+    public int getUncapturedCount() {
+        return authorizationsByAge.size();
+    }
+
+    /**
+     * @return The number of recorded moves that were not allowed from the transaction's tracked state.
+     */
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private void add(Entry entry) {
+        synchronized(entry) {
+            if(entries.putIfAbsent(entry.transactionId, entry) != null) {
+                rejectedCount.incrementAndGet();
+                return;
+            }
+            if(entry.state == HpsLifecycleState.Authorized)
+                index(entry);
+        }
+    }
+
+    /**
+     * @param state  The new state, or null to keep the current one.
+     * @param amount The new amount in cents, or null to keep the current one.
+     */
+    private void move(Integer transactionId, HpsLifecycleState state, Long amount) {
+        Entry entry = transactionId != null ? entries.get(transactionId) : null;
+        if(entry == null)
+            return;
+
+        synchronized(entry) {
+            HpsLifecycleState next = state != null ? state : entry.state;
+            if(!entry.state.canMoveTo(next)) {
+                rejectedCount.incrementAndGet();
+                return;
+            }
+
+            boolean wasIndexed = entry.state == HpsLifecycleState.Authorized;
+            if(wasIndexed)
+                unindex(entry);
+            entry.state = next;
+            if(amount != null)
+                entry.amountCents = amount;
+            entry.updatedAt = System.currentTimeMillis();
+            if(next == HpsLifecycleState.Authorized)
+                index(entry);
+        }
+    }
+
+    private void index(Entry entry) {
+        entry.amountKey = new AmountKey(entry.amountCents, entry.transactionId, entry);
+        authorizationsByAmount.add(entry.amountKey);
+        authorizationsByAge.add(entry);
+    }
+
+    private void unindex(Entry entry) {
+        authorizationsByAge.remove(entry);
+        authorizationsByAmount.remove(entry.amountKey);
+    }
+
+    private static int compareIds(int a, int b) {
+        return a < b ? -1 : a > b ? 1 : 0;
+    }
+
+    private static long authorizedCents(Element transaction, ElementTree response) {
+        // partial approvals authorize less than the requested amount
+        Element item = response.get(transaction.tag());
+        if(item != null && item.has("AuthAmt")) {
+            String authorized = item.getString("AuthAmt");
+            if(!authorized.equals(""))
+                return cents(authorized);
+        }
+        return cents(transaction.getString("Amt"));
+    }
+
+    private static long gratuityCents(Element transaction) {
+        return transaction.has("GratuityAmtInfo") ? cents(transaction.getString("GratuityAmtInfo")) : 0;
+    }
+
+    private static long cents(String amount) {
+        return new BigDecimal(amount).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+    }
+
+    /**
+     * A tracked transaction.
+     */
+    public static class Entry {
+        private final int transactionId;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile HpsLifecycleState state;
+        private volatile long amountCents;
+        private volatile long updatedAt = createdAt;
+        private AmountKey amountKey;
+
+        Entry(int transactionId, HpsLifecycleState state, long amountCents) {
+            this.transactionId = transactionId;
+            this.state = state;
+            this.amountCents = amountCents;
+        }
+
+        public int getTransactionId() {
+            return transactionId;
+        }
+
+        public HpsLifecycleState getState() {
+            return state;
+        }
+
+        /**
+         * @return The amount currently authorized or captured.
+         */
+        public BigDecimal getAmount() {
+            return BigDecimal.valueOf(amountCents, 2);
+        }
+
+        public Date getCreatedAt() {
+            return new Date(createdAt);
+        }
+
+        public Date getUpdatedAt() {
+            return new Date(updatedAt);
+        }
+    }
+
+    /**
+     * An authorization's position in the amount index; replaced whenever the amount changes.
+     */
+    private static class AmountKey implements Comparable<AmountKey> {
+        final long amountCents;
+        final int transactionId;
+        final Entry entry;
+
+        AmountKey(long amountCents, int transactionId, Entry entry) {
+            this.amountCents = amountCents;
+            this.transactionId = transactionId;
+            this.entry = entry;
+        }
+
+        public int compareTo(AmountKey other) {
+            if(amountCents != other.amountCents)
+                return amountCents < other.amountCents ? -1 : 1;
+            return compareIds(transactionId, other.transactionId);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.abstractions.IHpsBatchSweepSource;
+import com.hps.integrator.abstractions.IHpsBatchSweepTask;
+import com.hps.integrator.infrastructure.HpsException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Work to be sent before the next batch close: captures of pending authorizations, gratuity edits and
+ * reversals that failed earlier. Tasks that fail during a sweep are kept for the next one. Safe to share
+ * between threads.
+ */
+public class HpsPendingBatchWork implements IHpsBatchSweepSource {
+    private final Queue<IHpsBatchSweepTask> tasks = new ConcurrentLinkedQueue<IHpsBatchSweepTask>();
+
+    /**
+     * @param amount   The amount to capture, or null for the authorized amount.
+     * @param gratuity The gratuity to add, or null for none.
+     */
+    public void addCapture(final int transactionId, final BigDecimal amount, final BigDecimal gratuity) {
+        tasks.add(new IHpsBatchSweepTask() {
+            public void execute(HpsCreditService service) throws HpsException {
+                service.captureTxn(transactionId, amount, gratuity, null);
+            }
+        });
+    }
+
+    public void addGratuityEdit(final int transactionId, final BigDecimal amount, final BigDecimal gratuity) {
+        tasks.add(new IHpsBatchSweepTask() {
+            public void execute(HpsCreditService service) throws HpsException {
+                service.edit(transactionId, amount, gratuity);
+            }
+        });
+    }
+
+    public void addFailedReversal(final int transactionId, final BigDecimal amount, final String currency) {
+        tasks.add(new IHpsBatchSweepTask() {
+            public void execute(HpsCreditService service) throws HpsException {
+                service.reverse(transactionId, amount, currency);
+            }
+        });
+    }
+
+    public void addTask(IHpsBatchSweepTask task) {
+        tasks.add(task);
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+
+    public List<IHpsBatchSweepTask> drainSweepTasks() {
+        List<IHpsBatchSweepTask> drained = new ArrayList<IHpsBatchSweepTask>();
+        IHpsBatchSweepTask task;
+        while((task = tasks.poll()) != null)
+            drained.add(task);
+        return drained;
+    }
+
+    public void onSweepFailure(IHpsBatchSweepTask task, HpsException exception) {
+        tasks.add(task);
+    }
+}
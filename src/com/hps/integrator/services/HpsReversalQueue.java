@@ -0,0 +1,344 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.abstractions.IHpsReversalListener;
+import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsGatewayException;
+import com.hps.integrator.services.fluent.HpsFluentDebitService;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends the reversals required after a gateway timeout (code 30) or issuer timeout (code 91) in the background,
+ * so the caller gets the timeout error without waiting for the reversal.
+ * <p>
+ * Each reversal is written to a journal file, and synced, before it is queued, so reversals still pending when
+ * the process stops are sent after the next start. The journal is rewritten with only the pending reversals when
+ * the queue opens, and again after every thousand completed ones. Reversals are keyed by gateway transaction id: queueing one
+ * that is already pending, or that has completed since the queue was started, does nothing. Failed attempts are
+ * retried with exponential backoff; a reversal the gateway reports as having nothing to reverse (code 3) is
+ * treated as done.
+ */
+public class HpsReversalQueue {
+    public static final int DEFAULT_WORKERS = 2;
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+    private static final int COMPLETED_HISTORY = 10000;
+    private static final int COMPACT_AFTER = 1000;
+
+    private final IHpsServicesConfig config;
+    private final boolean enableLogging;
+    private final int maxAttempts;
+    private final File journal;
+    private final ScheduledExecutorService workers;
+    private final ConcurrentMap<Integer, Reversal> pending = new ConcurrentHashMap<Integer, Reversal>();
+    private final Set<Integer> completed = Collections.newSetFromMap(Collections.synchronizedMap(new History()));
+    private final ThreadLocal<HpsCreditService> creditServices = new ThreadLocal<HpsCreditService>();
+    private final ThreadLocal<HpsFluentDebitService> debitServices = new ThreadLocal<HpsFluentDebitService>();
+    private FileOutputStream journalOut;
+    private int completedSinceCompaction;
+    private volatile IHpsReversalListener listener;
+    private volatile long retryDelay = DEFAULT_RETRY_DELAY;
+
+    public HpsReversalQueue(IHpsServicesConfig config, File journal) throws HpsException {
+        this(config, journal, false, DEFAULT_WORKERS, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Opens the queue, compacts the journal and starts sending any reversals left pending by a previous run.
+     */
+    public HpsReversalQueue(IHpsServicesConfig config, File journal, boolean enableLogging, int workers, int maxAttempts) throws HpsException {
+        this.config = config;
+        this.enableLogging = enableLogging;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.journal = journal;
+        this.workers = Executors.newScheduledThreadPool(Math.max(1, workers), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HpsReversalQueue worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            recover();
+        } catch(IOException e) {
+            this.workers.shutdownNow();
+            throw new HpsException("Unable to open the reversal journal " + journal + ".", e);
+        }
+        for(Reversal reversal : pending.values())
+            schedule(reversal, 0);
+    }
+
+    public void setListener(IHpsReversalListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param retryDelay How long to wait before the first retry of a failed reversal; each later retry waits
+     *                   twice as long as the one before, up to five minutes.
+     */
+    public void setRetryDelay(long retryDelay, TimeUnit unit) {
+        this.retryDelay = unit.toMillis(retryDelay);
+    }
+
+    /**
+     * Queues a credit reversal.
+     *
+     * @return False if a reversal for the transaction is already pending or done.
+     * @throws HpsException If the reversal could not be written to the journal.
+     */
+    public boolean reverseCredit(int transactionId, BigDecimal amount, String currency) throws HpsException {
+        return enqueue(new Reversal(transactionId, false, amount, currency));
+    }
+
+    /**
+     * Queues a debit reversal.
+     *
+     * @return False if a reversal for the transaction is already pending or done.
+     * @throws HpsException If the reversal could not be written to the journal.
+     */
+    public boolean reverseDebit(int transactionId, BigDecimal amount) throws HpsException {
+        return enqueue(new Reversal(transactionId, true, amount, null));
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public boolean isPending(int transactionId) {
+        return pending.containsKey(transactionId);
+    }
+
+    /**
+     * Stops sending. Pending reversals stay in the journal and are sent after the queue is next opened.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        synchronized(this) {
+            try {
+                journalOut.close();
+            } catch(IOException e) {
+                // nothing left to flush
+            }
+        }
+    }
+
+    private boolean enqueue(Reversal reversal) throws HpsException {
+        if(completed.contains(reversal.transactionId) || pending.putIfAbsent(reversal.transactionId, reversal) != null)
+            return false;
+        // complete() marks a reversal done before dropping it from pending, so one finishing since the first
+        // check is seen here
+        if(completed.contains(reversal.transactionId)) {
+            pending.remove(reversal.transactionId, reversal);
+            return false;
+        }
+
+        try {
+            append(reversal.toLine(), true);
+        } catch(IOException e) {
+            pending.remove(reversal.transactionId, reversal);
+            throw new HpsException("Unable to write to the reversal journal " + journal + ".", e);
+        }
+        schedule(reversal, 0);
+        return true;
+    }
+
+    private void schedule(final Reversal reversal, long delayMillis) {
+        try {
+            workers.schedule(new Runnable() {
+                public void run() {
+                    send(reversal);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch(RejectedExecutionException e) {
+            // shut down; the reversal is still in the journal
+        }
+    }
+
+    private void send(Reversal reversal) {
+        reversal.attempts++;
+        try {
+            reverse(reversal.transactionId, reversal.debit, reversal.amount, reversal.currency);
+            complete(reversal, null);
+        } catch(HpsGatewayException e) {
+            if(e.getDetails() != null && e.getDetails().getGatewayResponseCode() == 3)
+                complete(reversal, null);
+            else retry(reversal, e);
+        } catch(HpsException e) {
+            retry(reversal, e);
+        }
+    }
+
+    /**
+     * Sends one attempt at a reversal with the calling worker's service.
+     *
+     * @param currency The credit reversal's currency, or null.
+     */
+    protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency) throws HpsException {
+        if(debit) {
+            HpsFluentDebitService service = debitServices.get();
+            if(service == null) {
+                service = new HpsFluentDebitService(config, enableLogging);
+                debitServices.set(service);
+            }
+            service.reverse(amount).withTransactionId(transactionId).execute();
+        } else {
+            HpsCreditService service = creditServices.get();
+            if(service == null) {
+                service = new HpsCreditService(config, enableLogging);
+                creditServices.set(service);
+            }
+            service.reverse(transactionId, amount, currency);
+        }
+    }
+
+    private void retry(Reversal reversal, HpsException exception) {
+        if(reversal.attempts >= maxAttempts) {
+            complete(reversal, exception);
+            return;
+        }
+        long delay = Math.min(MAX_RETRY_DELAY_MILLIS, retryDelay << Math.min(reversal.attempts - 1, 20));
+        schedule(reversal, delay);
+    }
+
+    private void complete(Reversal reversal, HpsException failure) {
+        // marked done first, so a compaction from here on leaves the reversal out; one before has it followed by
+        // this line
+        completed.add(reversal.transactionId);
+        try {
+            append("D " + reversal.transactionId, false);
+        } catch(IOException e) {
+            // the reversal is sent again after a restart, and the gateway then reports nothing to reverse
+        }
+        pending.remove(reversal.transactionId, reversal);
+        try {
+            compactIfDue();
+        } catch(IOException e) {
+            // the journal keeps growing until a later compaction succeeds
+        }
+
+        IHpsReversalListener listener = this.listener;
+        if(listener == null)
+            return;
+        if(failure == null)
+            listener.onReversed(reversal.transactionId);
+        else listener.onReversalFailed(reversal.transactionId, failure);
+    }
+
+    private synchronized void append(String line, boolean sync) throws IOException {
+        journalOut.write((line + "\n").getBytes(UTF8));
+        if(sync)
+            journalOut.getChannel().force(false);
+    }
+
+    private synchronized void compactIfDue() throws IOException {
+        if(++completedSinceCompaction < COMPACT_AFTER || workers.isShutdown())
+            return;
+        compact();
+    }
+
+    /**
+     * Rewrites the journal with only the pending reversals not yet done and reopens it for appending. If the new journal cannot
+     * be swapped in, the old one is kept.
+     */
+    private synchronized void compact() throws IOException {
+        File compacted = new File(journal.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(compacted);
+        try {
+            for(Reversal reversal : pending.values()) {
+                if(!completed.contains(reversal.transactionId))
+                    out.write((reversal.toLine() + "\n").getBytes(UTF8));
+            }
+            out.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+
+        if(journalOut != null)
+            journalOut.close();
+        try {
+            Files.move(compacted.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            completedSinceCompaction = 0;
+        } finally {
+            compacted.delete();
+            journalOut = new FileOutputStream(journal, true);
+        }
+    }
+
+    /**
+     * Reads the pending reversals back from the journal and rewrites it with only those.
+     */
+    private void recover() throws IOException {
+        if(journal.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), UTF8));
+            try {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    String[] fields = line.split(" ");
+                    try {
+                        if(fields[0].equals("A") && fields.length == 5) {
+                            Reversal reversal = Reversal.fromFields(fields);
+                            pending.put(reversal.transactionId, reversal);
+                        } else if(fields[0].equals("D") && fields.length == 2) {
+                            pending.remove(Integer.parseInt(fields[1]));
+                        }
+                    } catch(NumberFormatException e) {
+                        // a line torn by a crash mid-write
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        compact();
+    }
+
+    /**
+     * The ids of the most recently completed reversals.
+     */
+    private static class History extends LinkedHashMap<Integer, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+            return size() > COMPLETED_HISTORY;
+        }
+    }
+
+    private static class Reversal {
+        final int transactionId;
+        final boolean debit;
+        final BigDecimal amount;
+        final String currency;
+        volatile int attempts;
+
+        Reversal(int transactionId, boolean debit, BigDecimal amount, String currency) {
+            this.transactionId = transactionId;
+            this.debit = debit;
+            this.amount = amount;
+            this.currency = currency;
+        }
+
+        String toLine() {
+            return "A " + transactionId + " " + (debit ? "debit" : "credit") + " " + amount.toPlainString() + " "
+                    + (currency != null ? currency : "-");
+        }
+
+        static Reversal fromFields(String[] fields) {
+            return new Reversal(Integer.parseInt(fields[1]), fields[2].equals("debit"), new BigDecimal(fields[3]),
+                    fields[4].equals("-") ? null : fields[4]);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.hps.integrator.services;
 
 import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.abstractions.IHpsTransactionCall;
 import com.hps.integrator.applepay.ecv1.PaymentData3DS;
 import com.hps.integrator.entities.*;
 import com.hps.integrator.entities.check.HpsCheck;
@@ -12,6 +13,8 @@ import com.hps.integrator.infrastructure.Element;
 import com.hps.integrator.infrastructure.emums.EncodingType;
 import com.hps.integrator.infrastructure.emums.TokenMappingType;
 import com.hps.integrator.infrastructure.emums.TypeOfPaymentDataType;
+import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
+import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
 import sun.misc.IOUtils;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -26,6 +29,16 @@ public abstract class HpsSoapGatewayService {
     protected IHpsServicesConfig servicesConfig;
     protected ElementTree Et;
     protected String url;
+    private HpsTransactionJournal transactionJournal;
+    private HpsTransactionArchive transactionArchive;
+    private HpsDuplicateDetector duplicateDetector;
+    private HpsVelocityLimiter velocityLimiter;
+    private boolean resultMode;
+    private HpsResponseCodeClass outcomeStatus;
+    private Integer outcomeTransactionId;
+    private String outcomeResponseCode;
+    private String outcomeResponseText;
+    private HpsException outcomeException;
 
     protected HpsSoapGatewayService() throws HpsException {
         this(null, false);
@@ -50,10 +63,145 @@ public abstract class HpsSoapGatewayService {
         }
     }
 
+    protected boolean isLoggingEnabled() {
+        return this.enableLogging;
+    }
+
+    public HpsTransactionJournal getTransactionJournal() {
+        return this.transactionJournal;
+    }
+
+    /**
+     * @param transactionJournal The journal to record each request in before it is sent, or null for none.
+     */
+    public void setTransactionJournal(HpsTransactionJournal transactionJournal) {
+        this.transactionJournal = transactionJournal;
+    }
+
+    public HpsTransactionArchive getTransactionArchive() {
+        return this.transactionArchive;
+    }
+
+    /**
+     * @param transactionArchive The archive to keep each accepted response in, or null for none.
+     */
+    public void setTransactionArchive(HpsTransactionArchive transactionArchive) {
+        this.transactionArchive = transactionArchive;
+    }
+
+    public HpsDuplicateDetector getDuplicateDetector() {
+        return this.duplicateDetector;
+    }
+
+    /**
+     * @param duplicateDetector The detector to check requests that do not allow duplicates against before they
+     *                          are sent, or null for none.
+     */
+    public void setDuplicateDetector(HpsDuplicateDetector duplicateDetector) {
+        this.duplicateDetector = duplicateDetector;
+    }
+
+    public HpsVelocityLimiter getVelocityLimiter() {
+        return this.velocityLimiter;
+    }
+
+    /**
+     * @param velocityLimiter The limiter to count card and customer attempts against before they are sent, or
+     *                        null for none.
+     */
+    public void setVelocityLimiter(HpsVelocityLimiter velocityLimiter) {
+        this.velocityLimiter = velocityLimiter;
+    }
+
+    /**
+     * Runs a call to this service, returning declines and gateway errors as an outcome rather than throwing them.
+     * While the call runs, the service throws the shared, stackless exception of each decline or error instead of
+     * building one, and this method returns the outcome it stands for. Other failures, such as an error reaching
+     * the gateway or a failed reversal, are still thrown.
+     */
+    public <T> HpsTransactionOutcome<T> attempt(IHpsTransactionCall<T> call) throws HpsException {
+        boolean previousMode = this.resultMode;
+        this.resultMode = true;
+        this.outcomeException = null;
+        try {
+            return new HpsTransactionOutcome<T>(call.call());
+        } catch(HpsException e) {
+            if(e != this.outcomeException)
+                throw e;
+
+            HpsIssuerExceptionCodes issuerCode = e instanceof HpsIssuerException ? ((HpsIssuerException)e).getCode() : null;
+            HpsExceptionCodes gatewayCode = e instanceof HpsGatewayException ? ((HpsGatewayException)e).getCode()
+                    : e instanceof HpsAuthenticationException ? ((HpsAuthenticationException)e).getCode() : null;
+            return new HpsTransactionOutcome<T>(outcomeStatus, null, outcomeTransactionId, issuerCode, gatewayCode,
+                    outcomeResponseCode, outcomeResponseText, e);
+        } finally {
+            this.resultMode = previousMode;
+            this.outcomeException = null;
+        }
+    }
+
+    /**
+     * Checks the gateway's response code and that the response holds the expected transaction.
+     */
+    protected void checkGatewayResponse(ElementTree response, String tagName) throws HpsException {
+        if(!this.resultMode) {
+            HpsGatewayResponseValidation.checkGatewayResponse(response, tagName);
+            return;
+        }
+
+        Element header = response.get("Header");
+        Integer responseCode = header.getInt("GatewayRspCode");
+        HpsException e = HpsGatewayResponseValidation.getSharedException(responseCode);
+        if(e == null && !response.get("Transaction").has(tagName))
+            e = HpsGatewayResponseValidation.getUnexpectedResponseException();
+        if(e != null) {
+            recordOutcome(HpsResponseCodeClass.GatewayError, header.getInt("GatewayTxnId"), responseCode.toString(),
+                    header.getString("GatewayRspMsg"), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the issuer's response code.
+     */
+    protected void checkIssuerResponse(int transactionId, String responseCode, String responseText) throws HpsException {
+        if(!this.resultMode) {
+            HpsIssuerResponseValidation.checkIssuerResponse(transactionId, responseCode, responseText);
+            return;
+        }
+
+        HpsIssuerException e = HpsIssuerResponseValidation.getSharedException(responseCode);
+        if(e != null) {
+            recordOutcome(HpsResponseCodeClass.Declined, transactionId, responseCode, responseText, e);
+            throw e;
+        }
+    }
+
+    private void recordOutcome(HpsResponseCodeClass status, Integer transactionId, String responseCode,
+                               String responseText, HpsException exception) {
+        this.outcomeStatus = status;
+        this.outcomeTransactionId = transactionId;
+        this.outcomeResponseCode = responseCode;
+        this.outcomeResponseText = responseText;
+        this.outcomeException = exception;
+    }
+
     protected ElementTree doTransaction(Element transaction) throws HpsException {
         return this.doTransaction(transaction, null);
     }
     protected ElementTree doTransaction(Element transaction, String clientTransactionId) throws HpsException {
+        String xml = buildRequest(transaction, clientTransactionId);
+        if(this.enableLogging)
+            System.out.println("Request: " + xml);
+        return doTransaction(xml.getBytes(), transaction, clientTransactionId);
+    }
+
+    /**
+     * Wraps a transaction in the SOAP envelope and header for this service's configuration.
+     *
+     * @return The serialized request.
+     */
+    public String buildRequest(Element transaction, String clientTransactionId) throws HpsException {
         if (isConfigInvalid()) {
             throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidConfiguration, "Invalid SDK configuration.");
         }
@@ -103,10 +251,44 @@ public abstract class HpsSoapGatewayService {
         Element trans = Et.subElement(version1, "Transaction");
         trans.append(transaction);
 
-        String xml = Et.toString(envelope);
-        if(this.enableLogging)
-            System.out.println("Request: " + xml);
+        return Et.toString(envelope);
+    }
+
+    /**
+     * Sends a request already serialized by {@link #buildRequest(Element, String)} or rendered from one.
+     *
+     * @param transaction The transaction element the request was serialized from, recorded by the journal and
+     *                    archive; it may be null when neither is set.
+     */
+    protected ElementTree doTransaction(byte[] data, Element transaction, String clientTransactionId) throws HpsException {
+        // a request rejected as a duplicate is never sent, so it must not use up a velocity attempt
+        HpsDuplicateDetector detector = this.duplicateDetector;
+        long fingerprint = detector != null ? detector.check(this.servicesConfig, transaction) : HpsDuplicateDetector.NONE;
+        HpsVelocityLimiter limiter = this.velocityLimiter;
+        if(limiter != null)
+            limiter.check(transaction);
+
+        HpsTransactionJournal journal = this.transactionJournal;
+        long journalSequence = journal != null ? journal.begin(transaction, clientTransactionId) : 0;
+
+        String rawResponse = send(data);
+        ElementTree response = ElementTree.parse(rawResponse);
+        if(journal != null)
+            journal.complete(journalSequence, response);
+        HpsTransactionArchive archive = this.transactionArchive;
+        if(archive != null)
+            archive.record(transaction, clientTransactionId, response, rawResponse);
+        if(detector != null)
+            detector.record(fingerprint, response);
+        return response;
+    }
 
+    /**
+     * Posts a serialized request to the gateway.
+     *
+     * @return The raw response.
+     */
+    protected String send(byte[] data) throws HpsException {
         HttpsURLConnection conn;
         try {
             String mUrl = this.servicesConfig.getServiceUri();
@@ -119,8 +301,6 @@ public abstract class HpsSoapGatewayService {
 
         String rawResponse = "";
         try {
-            byte[] data = xml.getBytes();
-
             conn.setDoOutput(true);
             conn.setDoInput(true);
             conn.setRequestMethod("POST");
@@ -138,8 +318,7 @@ public abstract class HpsSoapGatewayService {
             responseStream.close();
             if(this.enableLogging)
                 System.out.println("Response: " + rawResponse);
-
-            return ElementTree.parse(rawResponse);
+            return rawResponse;
         } catch (IOException e) {
             throw new HpsGatewayException(HpsExceptionCodes.UnknownGatewayError, e.getMessage());
         }
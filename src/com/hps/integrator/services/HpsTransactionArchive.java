@@ -0,0 +1,561 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Local archive of the responses to transactions sent by this process, so their outcome can be looked up without
+ * a <b>ReportTxnDetail</b> round trip. See {@link HpsCreditService#get(Integer)}.
+ * <p>
+ * A service with an archive appends every response the gateway accepted (gateway response code 0), including
+ * issuer declines, along with the request type, client transaction id, amount, masked card number and invoice
+ * fields. Reports are not archived. The raw response is kept, so an archived record decodes into the same entity
+ * the service returned, e.g. {@code new HpsCharge().fromElementTree(record.getResponse())}.
+ * <p>
+ * Records are appended to segment files in a directory; a new segment is started once the current one reaches
+ * its size limit. Every record is indexed in memory by gateway transaction id, client transaction id and time,
+ * and read back from disk on lookup. Old records are removed with {@link #compact(Date)}. Records are not synced
+ * as they are written; call {@link #flush()} to force them to disk. A record torn by a crash is dropped when the
+ * archive is next opened. The archive is thread-safe and can be shared by every service in the process.
+ */
+public class HpsTransactionArchive {
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long NO_AMOUNT = Long.MIN_VALUE;
+    private static final int NONE = -1;
+
+    private final File directory;
+    private final long segmentSize;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    private final Map<Integer, Long> byTransactionId = new HashMap<Integer, Long>();
+    private final Map<String, Long> byClientTransactionId = new HashMap<String, Long>();
+    private final Set<Integer> modified = new HashSet<Integer>();
+    private final CRC32 crc = new CRC32();
+    private long[] timestamps = new long[1024];
+    private long[] locations = new long[1024];
+    private int count;
+    private long lastTimestamp;
+    private long lastBatchClose;
+
+    public HpsTransactionArchive(File directory) throws HpsException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the archive, indexing the records already in the directory.
+     *
+     * @param directory   The directory holding the segment files; created if missing.
+     * @param segmentSize The size in bytes at which a new segment is started.
+     */
+    public HpsTransactionArchive(File directory, long segmentSize) throws HpsException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        try {
+            if(!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Cannot create " + directory + ".");
+            load();
+        } catch(IOException e) {
+            close();
+            throw new HpsException("Unable to open the transaction archive " + directory + ".", e);
+        }
+    }
+
+    /**
+     * Archives a response. Called by the services as each response is received; responses the gateway rejected,
+     * and reports, are ignored.
+     *
+     * @param transaction         The request element.
+     * @param clientTransactionId The client transaction id sent with the request, or null.
+     * @param response            The parsed gateway response.
+     * @param rawResponse         The response as received.
+     * @return False if the response was ignored, or could not be written.
+     */
+    public synchronized boolean record(Element transaction, String clientTransactionId, ElementTree response,
+                                       String rawResponse) {
+        String type = transaction.tag();
+        Element header = response.get("Header");
+        if(header == null || type.startsWith("Report"))
+            return false;
+        Integer transactionId = header.getInt("GatewayTxnId");
+        Integer gatewayRspCode = header.getInt("GatewayRspCode");
+        if(transactionId == null || gatewayRspCode == null || gatewayRspCode != 0)
+            return false;
+
+        // keep the time index sorted even if the clock steps back
+        long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+        String amount = transaction.getString("Amt");
+        Integer referencedId = transaction.getInt("GatewayTxnId");
+
+        Record record = new Record(transactionId, timestamp, referencedId != null ? referencedId : NONE,
+                amount != null && !amount.equals("") ? toCents(amount) : NO_AMOUNT, type, clientTransactionId,
+                HpsTransactionJournal.mask(transaction.getString("CardNbr")), transaction.getString("InvoiceNbr"),
+                transaction.getString("Description"), transaction.getString("CustomerID"), rawResponse);
+
+        try {
+            long location = append(record.encode());
+            index(record, location);
+            return true;
+        } catch(IOException e) {
+            // the gateway still has the transaction; a lookup falls back to it
+            return false;
+        }
+    }
+
+    /**
+     * @return The archived response for the gateway transaction id, or null if there is none.
+     */
+    public synchronized Record get(int transactionId) throws HpsException {
+        Long location = byTransactionId.get(transactionId);
+        return location != null ? read(location) : null;
+    }
+
+    /**
+     * @return The latest archived response sent with the client transaction id, or null if there is none.
+     */
+    public synchronized Record getByClientTransactionId(String clientTransactionId) throws HpsException {
+        Long location = byClientTransactionId.get(clientTransactionId);
+        return location != null ? read(location) : null;
+    }
+
+    /**
+     * @return The responses archived from {@code start} (inclusive) to {@code end} (exclusive), oldest first.
+     */
+    public synchronized List<Record> list(Date start, Date end) throws HpsException {
+        List<Record> records = new ArrayList<Record>();
+        for(int i = lowerBound(start.getTime()); i < count && timestamps[i] < end.getTime(); i++)
+            records.add(read(locations[i]));
+        return records;
+    }
+
+    /**
+     * @return True if a later archived request (an edit, capture, void, reversal or return) referred to the
+     * transaction, so its archived response may no longer describe it.
+     */
+    public synchronized boolean isModified(int transactionId) {
+        return modified.contains(transactionId);
+    }
+
+    /**
+     * @return When the latest batch close sent through a service with this archive was archived, or null if none
+     * was. Transactions archived before it may have settled since.
+     */
+    public synchronized Date getLastBatchClose() {
+        return lastBatchClose != 0 ? new Date(lastBatchClose) : null;
+    }
+
+    public synchronized int getRecordCount() {
+        return count;
+    }
+
+    /**
+     * Removes the records archived before the cutoff. Segments holding only older records are deleted; a segment
+     * holding both is rewritten without them and swapped in. The segment being appended to is left as it is.
+     */
+    public synchronized void compact(Date before) throws HpsException {
+        long cutoff = before.getTime();
+        try {
+            for(Segment segment : new ArrayList<Segment>(segments.values())) {
+                if(segment.number == segments.lastKey() || segment.firstTimestamp >= cutoff)
+                    continue;
+                if(segment.lastTimestamp < cutoff) {
+                    segment.close();
+                    if(!segment.file.delete())
+                        throw new IOException("Unable to delete " + segment.file + ".");
+                    segments.remove(segment.number);
+                } else {
+                    rewrite(segment, cutoff);
+                }
+            }
+            reindex();
+        } catch(IOException e) {
+            throw new HpsException("Unable to compact the transaction archive " + directory + ".", e);
+        }
+    }
+
+    /**
+     * Forces archived records to disk.
+     */
+    public synchronized void flush() throws HpsException {
+        if(segments.isEmpty())
+            return;
+        try {
+            segments.lastEntry().getValue().channel.force(false);
+        } catch(IOException e) {
+            throw new HpsException("Unable to flush the transaction archive " + directory + ".", e);
+        }
+    }
+
+    public synchronized void close() {
+        for(Segment segment : segments.values())
+            segment.close();
+        segments.clear();
+    }
+
+    /**
+     * Appends an encoded record as [length][payload][crc32] to the last segment, starting a new one if it is full.
+     *
+     * @return The record's location: the segment number in the high 32 bits and the offset in the low.
+     */
+    private long append(byte[] payload) throws IOException {
+        int length = payload.length + 8;
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if(segment == null || (segment.size > 0 && segment.size + length > segmentSize)) {
+            int number = segment == null ? 1 : segment.number + 1;
+            segment = new Segment(number, new File(directory, String.format("%08d", number) + SEGMENT_SUFFIX));
+            segments.put(number, segment);
+        }
+
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(payload.length).put(payload).putInt((int)crc.getValue());
+        buffer.flip();
+
+        long offset = segment.size;
+        while(buffer.hasRemaining())
+            segment.channel.write(buffer, offset + buffer.position());
+        segment.size += length;
+        return ((long)segment.number << 32) | offset;
+    }
+
+    private Record read(long location) throws HpsException {
+        Segment segment = segments.get((int)(location >>> 32));
+        try {
+            ByteBuffer payload = segment.read(location & 0xFFFFFFFFL);
+            return Record.decode(payload);
+        } catch(IOException e) {
+            throw new HpsException("Unable to read from the transaction archive " + directory + ".", e);
+        }
+    }
+
+    private void load() throws IOException {
+        File[] files = directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                String name = file.getName();
+                if(!name.endsWith(SEGMENT_SUFFIX))
+                    continue;
+                try {
+                    int number = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(number, new Segment(number, file));
+                } catch(NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        reindex();
+    }
+
+    /**
+     * Rebuilds the indexes from the segments, truncating each one after its last intact record.
+     */
+    private void reindex() throws IOException {
+        byTransactionId.clear();
+        byClientTransactionId.clear();
+        modified.clear();
+        count = 0;
+
+        for(Segment segment : segments.values()) {
+            segment.firstTimestamp = Long.MAX_VALUE;
+            segment.lastTimestamp = Long.MIN_VALUE;
+            long offset = 0;
+            ByteBuffer payload;
+            while((payload = segment.readIntact(offset, crc)) != null) {
+                Record record = Record.decode(payload);
+                index(record, ((long)segment.number << 32) | offset);
+                offset += payload.limit() + 8;
+            }
+            if(offset < segment.size) {
+                segment.channel.truncate(offset);
+                segment.size = offset;
+            }
+        }
+    }
+
+    private void index(Record record, long location) {
+        Segment segment = segments.get((int)(location >>> 32));
+        segment.firstTimestamp = Math.min(segment.firstTimestamp, record.timestamp);
+        segment.lastTimestamp = Math.max(segment.lastTimestamp, record.timestamp);
+
+        byTransactionId.put(record.transactionId, location);
+        if(record.clientTransactionId != null)
+            byClientTransactionId.put(record.clientTransactionId, location);
+        if(record.referencedTransactionId != NONE)
+            modified.add(record.referencedTransactionId);
+        if(record.transactionType.equals("BatchClose"))
+            lastBatchClose = Math.max(lastBatchClose, record.timestamp);
+
+        if(count == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, count * 2);
+            locations = Arrays.copyOf(locations, count * 2);
+        }
+        timestamps[count] = record.timestamp;
+        locations[count] = location;
+        count++;
+        lastTimestamp = Math.max(lastTimestamp, record.timestamp);
+    }
+
+    private int lowerBound(long timestamp) {
+        int low = 0;
+        int high = count;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(timestamps[mid] < timestamp)
+                low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private void rewrite(Segment segment, long cutoff) throws IOException {
+        File temp = new File(segment.file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            long offset = 0;
+            ByteBuffer payload;
+            while((payload = segment.readIntact(offset, crc)) != null) {
+                int length = payload.limit();
+                if(Record.decode(payload).timestamp >= cutoff) {
+                    out.writeInt(length);
+                    out.write(payload.array(), 0, length);
+                    crc.reset();
+                    crc.update(payload.array(), 0, length);
+                    out.writeInt((int)crc.getValue());
+                }
+                offset += length + 8;
+            }
+            out.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+
+        segment.close();
+        Files.move(temp.toPath(), segment.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        segments.put(segment.number, new Segment(segment.number, segment.file));
+    }
+
+    private static long toCents(String amount) {
+        try {
+            return new BigDecimal(amount).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+        } catch(NumberFormatException e) {
+            return NO_AMOUNT;
+        }
+    }
+
+    private static class Segment {
+        final int number;
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        long size;
+        long firstTimestamp = Long.MAX_VALUE;
+        long lastTimestamp = Long.MIN_VALUE;
+
+        Segment(int number, File file) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            this.size = channel.size();
+        }
+
+        ByteBuffer read(long offset) throws IOException {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, offset);
+            ByteBuffer payload = ByteBuffer.allocate(length.getInt(0));
+            readFully(payload, offset + 4);
+            payload.flip();
+            return payload;
+        }
+
+        /**
+         * @return The payload of the record at the offset, or null if there is no intact record there.
+         */
+        ByteBuffer readIntact(long offset, CRC32 crc) throws IOException {
+            if(offset + 8 > size)
+                return null;
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, offset);
+            int payloadLength = length.getInt(0);
+            if(payloadLength <= 0 || offset + payloadLength + 8 > size)
+                return null;
+
+            ByteBuffer record = ByteBuffer.allocate(payloadLength + 4);
+            readFully(record, offset + 4);
+            crc.reset();
+            crc.update(record.array(), 0, payloadLength);
+            if(record.getInt(payloadLength) != (int)crc.getValue())
+                return null;
+
+            record.position(0);
+            record.limit(payloadLength);
+            return record;
+        }
+
+        void readFully(ByteBuffer buffer, long offset) throws IOException {
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer, offset + buffer.position()) < 0)
+                    throw new IOException("Unexpected end of " + file + ".");
+            }
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch(IOException e) {
+                // nothing left to write
+            }
+        }
+    }
+
+    /**
+     * A response held in the archive.
+     */
+    public static class Record {
+        private final int transactionId;
+        private final long timestamp;
+        private final int referencedTransactionId;
+        private final long amountCents;
+        private final String transactionType;
+        private final String clientTransactionId;
+        private final String maskedCardNumber;
+        private final String invoiceNumber;
+        private final String memo;
+        private final String customerId;
+        private final String rawResponse;
+
+        Record(int transactionId, long timestamp, int referencedTransactionId, long amountCents,
+               String transactionType, String clientTransactionId, String maskedCardNumber, String invoiceNumber,
+               String memo, String customerId, String rawResponse) {
+            this.transactionId = transactionId;
+            this.timestamp = timestamp;
+            this.referencedTransactionId = referencedTransactionId;
+            this.amountCents = amountCents;
+            this.transactionType = transactionType;
+            this.clientTransactionId = clientTransactionId;
+            this.maskedCardNumber = maskedCardNumber;
+            this.invoiceNumber = invoiceNumber;
+            this.memo = memo;
+            this.customerId = customerId;
+            this.rawResponse = rawResponse;
+        }
+
+        public int getTransactionId() {
+            return transactionId;
+        }
+
+        public Date getArchivedAt() {
+            return new Date(timestamp);
+        }
+
+        /**
+         * @return The id of the earlier transaction the request referred to (e.g. the one voided), or null.
+         */
+        public Integer getReferencedTransactionId() {
+            return referencedTransactionId == NONE ? null : referencedTransactionId;
+        }
+
+        /**
+         * @return The request amount, or null if it had none.
+         */
+        public BigDecimal getAmount() {
+            return amountCents == NO_AMOUNT ? null : BigDecimal.valueOf(amountCents, 2);
+        }
+
+        /**
+         * @return The request element name, e.g. <b>CreditSale</b>.
+         */
+        public String getTransactionType() {
+            return transactionType;
+        }
+
+        public String getClientTransactionId() {
+            return clientTransactionId;
+        }
+
+        public String getMaskedCardNumber() {
+            return maskedCardNumber;
+        }
+
+        public String getInvoiceNumber() {
+            return invoiceNumber;
+        }
+
+        public String getMemo() {
+            return memo;
+        }
+
+        public String getCustomerId() {
+            return customerId;
+        }
+
+        public String getRawResponse() {
+            return rawResponse;
+        }
+
+        /**
+         * @return The response parsed as the service parsed it when it was received.
+         */
+        public ElementTree getResponse() throws HpsException {
+            return ElementTree.parse(rawResponse);
+        }
+
+        byte[] encode() {
+            byte[] response = rawResponse.getBytes(UTF8);
+            String[] strings = {transactionType, clientTransactionId, maskedCardNumber, invoiceNumber, memo, customerId};
+            byte[][] encoded = new byte[strings.length][];
+            int length = 4 + 8 + 4 + 8 + 4 + response.length;
+            for(int i = 0; i < strings.length; i++) {
+                encoded[i] = strings[i] != null ? strings[i].getBytes(UTF8) : null;
+                length += 4 + (encoded[i] != null ? encoded[i].length : 0);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.putInt(transactionId).putLong(timestamp).putInt(referencedTransactionId).putLong(amountCents);
+            for(byte[] bytes : encoded) {
+                buffer.putInt(bytes != null ? bytes.length : -1);
+                if(bytes != null)
+                    buffer.put(bytes);
+            }
+            buffer.putInt(response.length).put(response);
+            return buffer.array();
+        }
+
+        static Record decode(ByteBuffer buffer) {
+            int transactionId = buffer.getInt();
+            long timestamp = buffer.getLong();
+            int referencedTransactionId = buffer.getInt();
+            long amountCents = buffer.getLong();
+            return new Record(transactionId, timestamp, referencedTransactionId, amountCents, getString(buffer),
+                    getString(buffer), getString(buffer), getString(buffer), getString(buffer), getString(buffer),
+                    getString(buffer));
+        }
+
+        private static String getString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if(length < 0)
+                return null;
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+    }
+}
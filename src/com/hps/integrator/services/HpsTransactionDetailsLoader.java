@@ -0,0 +1,266 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.abstractions.IHpsTransactionDetailsHandler;
+import com.hps.integrator.entities.credit.HpsReportTransactionDetails;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsInvalidRequestException;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fetches <b>ReportTxnDetail</b> results for many transactions at once.
+ * <p>
+ * Requests run concurrently on the loader's worker threads, up to a fixed limit across all calls. Each worker
+ * keeps its own credit service for as long as it lives; workers stop after a minute without work. A transaction
+ * that is already being fetched (by this or another concurrent call) is not requested twice. Settled transactions
+ * can no longer change, so their responses are kept in a bounded LRU cache. The cache and concurrent calls share
+ * only the response text: every caller gets details of its own, which it is free to change.
+ */
+public class HpsTransactionDetailsLoader {
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private final IHpsServicesConfig config;
+    private final boolean enableLogging;
+    private final int maxConcurrency;
+    private final Map<Integer, String> cache;
+    private final ConcurrentMap<Integer, FutureTask<Fetched>> inFlight = new ConcurrentHashMap<Integer, FutureTask<Fetched>>();
+    private final ThreadLocal<DetailsService> services = new ThreadLocal<DetailsService>();
+    private final ThreadPoolExecutor executor;
+
+    public HpsTransactionDetailsLoader(IHpsServicesConfig config) {
+        this(config, false, DEFAULT_MAX_CONCURRENCY, DEFAULT_CACHE_SIZE);
+    }
+
+    public HpsTransactionDetailsLoader(IHpsServicesConfig config, boolean enableLogging, int maxConcurrency, int cacheSize) {
+        this.config = config;
+        this.enableLogging = enableLogging;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.cache = Collections.synchronizedMap(new LruCache(cacheSize));
+        this.executor = new ThreadPoolExecutor(this.maxConcurrency, this.maxConcurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "HpsTransactionDetailsLoader worker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Fetches the details of every transaction and waits for all of them.
+     *
+     * @param transactionIds The gateway transaction ids; duplicates are fetched once.
+     * @return The details keyed by transaction id, in the order the ids were given.
+     * @throws HpsException The first failure, once every request has finished.
+     */
+    public Map<Integer, HpsReportTransactionDetails> getAll(Collection<Integer> transactionIds) throws HpsException {
+        final Map<Integer, HpsReportTransactionDetails> results = new HashMap<Integer, HpsReportTransactionDetails>();
+        final HpsException[] firstError = new HpsException[1];
+
+        getAll(transactionIds, new IHpsTransactionDetailsHandler() {
+            public void onDetails(int transactionId, HpsReportTransactionDetails details) {
+                results.put(transactionId, details);
+            }
+
+            public void onError(int transactionId, HpsException exception) {
+                if(firstError[0] == null)
+                    firstError[0] = exception;
+            }
+        });
+        if(firstError[0] != null)
+            throw firstError[0];
+
+        Map<Integer, HpsReportTransactionDetails> ordered = new LinkedHashMap<Integer, HpsReportTransactionDetails>();
+        for(Integer transactionId : transactionIds) {
+            if(results.containsKey(transactionId))
+                ordered.put(transactionId, results.get(transactionId));
+        }
+        return ordered;
+    }
+
+    /**
+     * Fetches the details of every transaction, handing each result to the handler as soon as it is available.
+     * Cached results are delivered first. The handler is always called on the calling thread.
+     *
+     * @param transactionIds The gateway transaction ids; duplicates are fetched once.
+     * @param handler        Receives each result or failure.
+     * @throws HpsException If an id is invalid or the calling thread is interrupted.
+     */
+    public void getAll(Collection<Integer> transactionIds, IHpsTransactionDetailsHandler handler) throws HpsException {
+        Set<Integer> pending = new LinkedHashSet<Integer>();
+        for(Integer transactionId : transactionIds) {
+            if(transactionId == null || transactionId <= 0)
+                throw new HpsInvalidRequestException(HpsExceptionCodes.InvalidArgument, "Invalid transaction ID.");
+
+            String cached = cache.get(transactionId);
+            if(cached != null)
+                handler.onDetails(transactionId, decode(cached));
+            else pending.add(transactionId);
+        }
+        if(pending.isEmpty())
+            return;
+
+        CompletionService<FetchResult> completion = new ExecutorCompletionService<FetchResult>(executor);
+        List<Future<FetchResult>> futures = new ArrayList<Future<FetchResult>>();
+        try {
+            for(Integer transactionId : pending)
+                futures.add(completion.submit(new FetchTask(transactionId)));
+
+            for(int i = 0; i < pending.size(); i++) {
+                FetchResult result = completion.take().get();
+                if(result.error != null)
+                    handler.onError(result.transactionId, result.error);
+                else handler.onDetails(result.transactionId, result.details);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HpsException("Interrupted while fetching transaction details.", e);
+        } catch(ExecutionException e) {
+            // FetchTask reports failures through its result, so this only happens for unexpected errors
+            throw new HpsException(e.getCause().getMessage(), e);
+        } finally {
+            // the workers are shared, so stop only this call's requests
+            for(Future<FetchResult> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * @return The <b>ReportTxnDetail</b> response and the details decoded from it.
+     */
+    private Fetched fetch(int transactionId) throws HpsException {
+        DetailsService service = services.get();
+        if(service == null) {
+            service = new DetailsService(config, enableLogging);
+            services.set(service);
+        }
+
+        HpsReportTransactionDetails details = service.get(transactionId);
+        String response = service.lastResponse;
+        if(details.isSettled())
+            cache.put(transactionId, response);
+        return new Fetched(response, details);
+    }
+
+    /**
+     * Sends a request with the calling worker's credit service.
+     *
+     * @return The raw response.
+     */
+    protected String send(byte[] data) throws HpsException {
+        return services.get().sendToGateway(data);
+    }
+
+    private static HpsReportTransactionDetails decode(String response) throws HpsException {
+        return new HpsReportTransactionDetails().fromElementTree(ElementTree.parse(response));
+    }
+
+    /**
+     * A credit service that sends through the loader and keeps the last response it received.
+     */
+    private class DetailsService extends HpsCreditService {
+        String lastResponse;
+
+        DetailsService(IHpsServicesConfig config, boolean enableLogging) throws HpsException {
+            super(config, enableLogging);
+        }
+
+        @Override
+        protected String send(byte[] data) throws HpsException {
+            lastResponse = HpsTransactionDetailsLoader.this.send(data);
+            return lastResponse;
+        }
+
+        String sendToGateway(byte[] data) throws HpsException {
+            return super.send(data);
+        }
+    }
+
+    private static class LruCache extends LinkedHashMap<Integer, String> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        LruCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    private static class Fetched {
+        final String response;
+        final HpsReportTransactionDetails details;
+
+        Fetched(String response, HpsReportTransactionDetails details) {
+            this.response = response;
+            this.details = details;
+        }
+    }
+
+    private static class FetchResult {
+        final int transactionId;
+        final HpsReportTransactionDetails details;
+        final HpsException error;
+
+        FetchResult(int transactionId, HpsReportTransactionDetails details, HpsException error) {
+            this.transactionId = transactionId;
+            this.details = details;
+            this.error = error;
+        }
+    }
+
+    private class FetchTask implements Callable<FetchResult> {
+        private final int transactionId;
+
+        FetchTask(int transactionId) {
+            this.transactionId = transactionId;
+        }
+
+        public FetchResult call() throws Exception {
+            FutureTask<Fetched> task = new FutureTask<Fetched>(new Callable<Fetched>() {
+                public Fetched call() throws HpsException {
+                    return fetch(transactionId);
+                }
+            });
+
+            // join a request already in flight for the same id rather than sending another
+            FutureTask<Fetched> existing = inFlight.putIfAbsent(transactionId, task);
+            try {
+                if(existing == null) {
+                    try {
+                        task.run();
+                    } finally {
+                        inFlight.remove(transactionId, task);
+                    }
+                    // the details decoded by the request are this call's own
+                    return new FetchResult(transactionId, task.get().details, null);
+                }
+                // a joined call decodes details of its own from the shared response
+                return new FetchResult(transactionId, decode(existing.get().response), null);
+            } catch(HpsException e) {
+                return new FetchResult(transactionId, null, e);
+            } catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof HpsException)
+                    return new FetchResult(transactionId, null, (HpsException)cause);
+                if(cause instanceof Error)
+                    throw (Error)cause;
+                return new FetchResult(transactionId, null, new HpsException(cause.getMessage(), (Exception)cause));
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of in-flight gateway requests, so that a request whose outcome was lost (because the
+ * process died between sending it and receiving the response) can be found and reversed or reconciled.
+ * <p>
+ * A service with a journal writes a record just before sending each request and another once the response has
+ * been received. Records are compact binary entries in a memory-mapped file: the transaction type, client
+ * transaction id, amount and masked card number of the request, then the gateway transaction id and response
+ * code. A record is safe from a JVM crash as soon as it is written; the file is forced to disk by a background
+ * thread every few milliseconds, so many records share each disk sync.
+ * <p>
+ * On opening, the journal keeps only the requests that never got a response; list them with
+ * {@link #getUnresolved()} and mark them handled with {@link #resolve(String)} or {@link #resolve(long)}.
+ * The journal is thread-safe and can be shared by every service in the process.
+ */
+public class HpsTransactionJournal {
+    public static final int DEFAULT_CAPACITY = 8 * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte BEGIN = 1;
+    private static final byte COMPLETE = 2;
+    private static final byte RESOLVE = 3;
+    private static final long NO_AMOUNT = Long.MIN_VALUE;
+
+    private final File file;
+    private final int capacity;
+    private final Map<Long, Entry> unresolved = new LinkedHashMap<Long, Entry>();
+    private final ByteBuffer scratch = ByteBuffer.allocate(1024);
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService flusher;
+    private MappedByteBuffer buffer;
+    private int position;
+    private long nextSequence = 1;
+    private volatile boolean dirty;
+    private boolean rewriting;
+
+    public HpsTransactionJournal(File file) throws HpsException {
+        this(file, DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens the journal, keeping only the requests left unresolved by previous runs.
+     *
+     * @param file                The journal file.
+     * @param capacity            The size of the file in bytes; it is compacted when full.
+     * @param flushIntervalMillis How often written records are forced to disk.
+     */
+    public HpsTransactionJournal(File file, int capacity, long flushIntervalMillis) throws HpsException {
+        this.file = file;
+        this.capacity = capacity;
+
+        try {
+            if(file.exists())
+                recover();
+            rewrite();
+        } catch(IOException e) {
+            throw new HpsException("Unable to open the transaction journal " + file + ".", e);
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HpsTransactionJournal flusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a request about to be sent.
+     *
+     * @return The journal sequence number of the request.
+     * @throws HpsException If the journal is full of unresolved requests.
+     */
+    public synchronized long begin(Element transaction, String clientTransactionId) throws HpsException {
+        String amount = transaction.getString("Amt");
+        Entry entry = new Entry(nextSequence++, System.currentTimeMillis(), transaction.tag(), clientTransactionId,
+                amount != null && !amount.equals("") ? toCents(amount) : NO_AMOUNT,
+                mask(transaction.getString("CardNbr")));
+
+        encodeBegin(entry);
+        append();
+        unresolved.put(entry.sequence, entry);
+        return entry.sequence;
+    }
+
+    /**
+     * Records the response to a request.
+     */
+    public synchronized void complete(long sequence, ElementTree response) throws HpsException {
+        Element header = response.get("Header");
+        Integer gatewayTxnId = header != null ? header.getInt("GatewayTxnId") : null;
+        String gatewayRspCode = header != null ? header.getString("GatewayRspCode") : null;
+
+        scratch.clear();
+        scratch.put(COMPLETE).putLong(sequence).putLong(System.currentTimeMillis());
+        scratch.putInt(gatewayTxnId != null ? gatewayTxnId : -1);
+        putString(gatewayRspCode);
+        append();
+        unresolved.remove(sequence);
+    }
+
+    /**
+     * @return The requests sent without a recorded response, oldest first.
+     */
+    public synchronized List<Entry> getUnresolved() {
+        return new ArrayList<Entry>(unresolved.values());
+    }
+
+    /**
+     * Marks a request as handled.
+     *
+     * @return False if the request was not unresolved.
+     */
+    public synchronized boolean resolve(long sequence) throws HpsException {
+        if(!unresolved.containsKey(sequence))
+            return false;
+
+        scratch.clear();
+        scratch.put(RESOLVE).putLong(sequence).putLong(System.currentTimeMillis());
+        append();
+        unresolved.remove(sequence);
+        return true;
+    }
+
+    /**
+     * Marks every unresolved request with the client transaction id as handled.
+     *
+     * @return The number of requests resolved.
+     */
+    public synchronized int resolve(String clientTransactionId) throws HpsException {
+        int resolved = 0;
+        for(Entry entry : getUnresolved()) {
+            if(clientTransactionId.equals(entry.clientTransactionId) && resolve(entry.sequence))
+                resolved++;
+        }
+        return resolved;
+    }
+
+    /**
+     * Forces written records to disk. Called periodically by the journal itself.
+     */
+    public void flush() {
+        if(!dirty)
+            return;
+        dirty = false;
+
+        MappedByteBuffer current;
+        synchronized(this) {
+            current = buffer;
+        }
+        current.force();
+    }
+
+    public void close() {
+        flusher.shutdownNow();
+        dirty = true;
+        flush();
+    }
+
+    /**
+     * Appends the record in the scratch buffer. The length is written last, so a record torn by a crash is never
+     * read back.
+     */
+    private void append() throws HpsException {
+        scratch.flip();
+        int length = scratch.remaining();
+        if(position + length + 12 > capacity && !rewriting) {
+            // compaction re-encodes the unresolved requests through the scratch buffer, so set this record aside
+            byte[] record = new byte[length];
+            scratch.get(record);
+            try {
+                rewrite();
+            } catch(IOException e) {
+                throw new HpsException("Unable to compact the transaction journal " + file + ".", e);
+            }
+            scratch.clear();
+            scratch.put(record);
+            scratch.flip();
+        }
+        if(position + length + 12 > capacity)
+            throw new HpsException("The transaction journal " + file + " is full.");
+
+        crc.reset();
+        crc.update(scratch.array(), 0, length);
+        buffer.position(position + 4);
+        buffer.put(scratch);
+        buffer.putInt((int)crc.getValue());
+        buffer.putInt(0);
+        buffer.putInt(position, length);
+        position += length + 8;
+        dirty = true;
+    }
+
+    /**
+     * Writes the unresolved requests to a fresh file, swaps it in and continues appending to it.
+     */
+    private void rewrite() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(capacity);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            raf.close();
+        }
+
+        position = 0;
+        rewriting = true;
+        try {
+            for(Entry entry : unresolved.values()) {
+                encodeBegin(entry);
+                append();
+            }
+        } catch(HpsException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            rewriting = false;
+        }
+        buffer.force();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void recover() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer existing;
+        try {
+            existing = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        byte[] payload = new byte[scratch.capacity()];
+        int offset = 0;
+        while(offset + 4 <= existing.limit()) {
+            int length = existing.getInt(offset);
+            if(length <= 0 || length > payload.length || offset + length + 8 > existing.limit())
+                break;
+
+            existing.position(offset + 4);
+            existing.get(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if(existing.getInt() != (int)crc.getValue())
+                break;
+
+            ByteBuffer record = ByteBuffer.wrap(payload, 0, length);
+            byte type = record.get();
+            long sequence = record.getLong();
+            long timestamp = record.getLong();
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if(type == BEGIN) {
+                unresolved.put(sequence, new Entry(sequence, timestamp, getString(record), getString(record),
+                        record.getLong(), getString(record)));
+            } else {
+                unresolved.remove(sequence);
+            }
+            offset += length + 8;
+        }
+    }
+
+    private void encodeBegin(Entry entry) {
+        scratch.clear();
+        scratch.put(BEGIN).putLong(entry.sequence).putLong(entry.timestamp);
+        putString(entry.transactionType);
+        putString(entry.clientTransactionId);
+        scratch.putLong(entry.amountCents);
+        putString(entry.maskedCardNumber);
+    }
+
+    private void putString(String value) {
+        if(value == null) {
+            scratch.putShort((short)-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        int length = Math.min(bytes.length, 255);
+        scratch.putShort((short)length);
+        scratch.put(bytes, 0, length);
+    }
+
+    private static String getString(ByteBuffer record) {
+        short length = record.getShort();
+        if(length < 0)
+            return null;
+        String value = new String(record.array(), record.arrayOffset() + record.position(), length, UTF8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    private static long toCents(String amount) {
+        try {
+            return new BigDecimal(amount).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue();
+        } catch(NumberFormatException e) {
+            return NO_AMOUNT;
+        }
+    }
+
+    /**
+     * Keeps the first six and last four digits of a card number, as allowed for display.
+     */
+    static String mask(String cardNumber) {
+        if(cardNumber == null)
+            return null;
+        int length = cardNumber.length();
+        int head = length >= 13 ? 6 : 0;
+        int tail = Math.min(4, length);
+
+        StringBuilder masked = new StringBuilder(length);
+        for(int i = 0; i < length; i++)
+            masked.append(i < head || i >= length - tail ? cardNumber.charAt(i) : '*');
+        return masked.toString();
+    }
+
+    /**
+     * A request recorded in the journal.
+     */
+    public static class Entry {
+        private final long sequence;
+        private final long timestamp;
+        private final String transactionType;
+        private final String clientTransactionId;
+        private final long amountCents;
+        private final String maskedCardNumber;
+
+        Entry(long sequence, long timestamp, String transactionType, String clientTransactionId, long amountCents,
+              String maskedCardNumber) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.transactionType = transactionType;
+            this.clientTransactionId = clientTransactionId;
+            this.amountCents = amountCents;
+            this.maskedCardNumber = maskedCardNumber;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Date getSentAt() {
+            return new Date(timestamp);
+        }
+
+        /**
+         * @return The request element name, e.g. <b>CreditSale</b>.
+         */
+        public String getTransactionType() {
+            return transactionType;
+        }
+
+        public String getClientTransactionId() {
+            return clientTransactionId;
+        }
+
+        /**
+         * @return The request amount, or null if it had none.
+         */
+        public BigDecimal getAmount() {
+            return amountCents == NO_AMOUNT ? null : BigDecimal.valueOf(amountCents, 2);
+        }
+
+        public String getMaskedCardNumber() {
+            return maskedCardNumber;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.hps.integrator.services;
+
+import com.hps.integrator.entities.HpsVelocityKey;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsInvalidRequestException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Limits how often a card, customer or client IP may be charged or verified, so a card-testing attack is cut off
+ * locally instead of costing a gateway call per attempt.
+ * <p>
+ * A service with a limiter counts every <b>CreditSale</b>, <b>CreditAuth</b> and <b>CreditAccountVerify</b> by
+ * its card number, token or track data and by its customer id, before it is sent. An attempt over a limit is
+ * rejected with an {@link HpsInvalidRequestException} and never reaches the network. Requests carry no client IP,
+ * so IP limits are applied by calling {@link #acquire(HpsVelocityKey, String)} with the IP before charging.
+ * A rejected attempt is not counted against any limit.
+ * <p>
+ * Attempts are counted in a count-min sketch per key type, one per slice of the window, and summed over the
+ * slices in the window. Memory is fixed by the expected number of keys, and a count can only be overestimated,
+ * by colliding keys, never under. Attempts for the same key are serialized by one of a fixed set of locks, so a
+ * limit holds under concurrent requests. The limiter can be shared by every service in the process.
+ */
+public class HpsVelocityLimiter {
+    private static final int SLICES = 4;
+    private static final int DEPTH = 4;
+    private static final int STRIPES = 64;
+
+    private final int width;
+    private final Object[] stripes = new Object[STRIPES];
+    private final AtomicReferenceArray<Sketch> sketches = new AtomicReferenceArray<Sketch>(HpsVelocityKey.values().length);
+    private final AtomicLong blockedCount = new AtomicLong();
+
+    /**
+     * @param expectedKeys The number of distinct cards, customers or IPs expected in a window; counts grow less
+     *                     accurate beyond it.
+     */
+    public HpsVelocityLimiter(int expectedKeys) {
+        int size = 64;
+        while(size < expectedKeys * 2L && size < (1 << 24))
+            size <<= 1;
+        this.width = size;
+        for(int i = 0; i < STRIPES; i++)
+            stripes[i] = new Object();
+    }
+
+    /**
+     * Limits the attempts for each key of a type, replacing its current limit and counts. Attempts are counted
+     * by quarter of the window, so one drops out of the count between three quarters of a window and a whole
+     * window after it was made; never later.
+     *
+     * @param maxAttempts The attempts allowed in any window.
+     */
+    public HpsVelocityLimiter setLimit(HpsVelocityKey type, int maxAttempts, long window, TimeUnit unit) {
+        if(maxAttempts < 0 || window <= 0)
+            throw new IllegalArgumentException("The attempts must not be negative and the window must be positive.");
+        sketches.set(type.ordinal(), new Sketch(maxAttempts, Math.max(1, unit.toMillis(window) / SLICES), width));
+        return this;
+    }
+
+    public HpsVelocityLimiter removeLimit(HpsVelocityKey type) {
+        sketches.set(type.ordinal(), null);
+        return this;
+    }
+
+    /**
+     * @return The number of attempts rejected.
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /**
+     * Counts an attempt for a key if its type's limit allows it.
+     *
+     * @param key The card number or token, customer id or IP; a null or empty key is not counted.
+     * @throws HpsInvalidRequestException If the key is over its limit.
+     */
+    public void acquire(HpsVelocityKey type, String key) throws HpsInvalidRequestException {
+        if(!tryAcquire(type, key))
+            throw exception(type);
+    }
+
+    /**
+     * @return False if the key is over its limit; the attempt is then not counted.
+     */
+    public boolean tryAcquire(HpsVelocityKey type, String key) {
+        Sketch sketch = sketch(type, key);
+        if(sketch == null)
+            return true;
+
+        long hash = hash(key);
+        synchronized(stripes[stripe(hash)]) {
+            if(sketch.allows(hash)) {
+                sketch.add(hash);
+                return true;
+            }
+        }
+        blockedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Counts an attempt for two keys if both their limits allow it; otherwise neither is counted.
+     *
+     * @throws HpsInvalidRequestException If either key is over its limit.
+     */
+    public void acquire(HpsVelocityKey firstType, String firstKey, HpsVelocityKey secondType, String secondKey)
+            throws HpsInvalidRequestException {
+        Sketch first = sketch(firstType, firstKey), second = sketch(secondType, secondKey);
+        if(first == null || second == null) {
+            acquire(firstType, firstKey);
+            acquire(secondType, secondKey);
+            return;
+        }
+
+        long firstHash = hash(firstKey), secondHash = hash(secondKey);
+        int a = stripe(firstHash), b = stripe(secondHash);
+        HpsVelocityKey rejected;
+        // stripes are always taken in index order, so two requests cannot wait on each other
+        synchronized(stripes[Math.min(a, b)]) {
+            synchronized(stripes[Math.max(a, b)]) {
+                rejected = !first.allows(firstHash) ? firstType : !second.allows(secondHash) ? secondType : null;
+                if(rejected == null) {
+                    first.add(firstHash);
+                    second.add(secondHash);
+                }
+            }
+        }
+        if(rejected != null) {
+            blockedCount.incrementAndGet();
+            throw exception(rejected);
+        }
+    }
+
+    /**
+     * @return The attempts counted for a key in its type's window; never less than the true count.
+     */
+    public int getAttempts(HpsVelocityKey type, String key) {
+        Sketch sketch = sketch(type, key);
+        return sketch == null ? 0 : sketch.estimate(hash(key));
+    }
+
+    /**
+     * Counts a request before it is sent. Called by the services.
+     *
+     * @throws HpsInvalidRequestException If the request's card or customer is over its limit; the request is then
+     *                                     counted against neither.
+     */
+    public void check(Element transaction) throws HpsException {
+        if(transaction == null)
+            return;
+        String type = transaction.tag();
+        if(!type.equals("CreditSale") && !type.equals("CreditAuth") && !type.equals("CreditAccountVerify"))
+            return;
+
+        String card = transaction.getString("CardNbr");
+        if(card == null)
+            card = transaction.getString("TokenValue");
+        if(card == null)
+            card = transaction.getString("TrackData");
+        acquire(HpsVelocityKey.Card, card, HpsVelocityKey.Customer, transaction.getString("CustomerID"));
+    }
+
+    /**
+     * @return The counts for a type, or null if it has no limit or the key is missing.
+     */
+    private Sketch sketch(HpsVelocityKey type, String key) {
+        return key == null || key.length() == 0 ? null : sketches.get(type.ordinal());
+    }
+
+    private static int stripe(long hash) {
+        return (int)(hash >>> 58);
+    }
+
+    private static HpsInvalidRequestException exception(HpsVelocityKey type) {
+        switch(type) {
+            case Card:
+                return new HpsInvalidRequestException(HpsExceptionCodes.VelocityLimitExceeded,
+                        "Too many attempts have been made with this card.", "card");
+            case Customer:
+                return new HpsInvalidRequestException(HpsExceptionCodes.VelocityLimitExceeded,
+                        "Too many attempts have been made by this customer.", "customerId");
+            default:
+                return new HpsInvalidRequestException(HpsExceptionCodes.VelocityLimitExceeded,
+                        "Too many attempts have been made from this address.", "ip");
+        }
+    }
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < key.length(); i++)
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * The counts for one key type: a ring of count-min sketches, one per slice of the window.
+     */
+    private static class Sketch {
+        final int limit;
+        final long sliceMillis;
+        final int mask;
+        final AtomicIntegerArray[] slices = new AtomicIntegerArray[SLICES + 1];
+        volatile long currentSlice;
+
+        Sketch(int limit, long sliceMillis, int width) {
+            this.limit = limit;
+            this.sliceMillis = sliceMillis;
+            this.mask = width - 1;
+            for(int i = 0; i < slices.length; i++)
+                slices[i] = new AtomicIntegerArray(DEPTH * width);
+            this.currentSlice = System.currentTimeMillis() / sliceMillis;
+        }
+
+        int estimate(long hash) {
+            long slice = rotate();
+            int estimate = Integer.MAX_VALUE;
+            for(int row = 0; row < DEPTH; row++)
+                estimate = Math.min(estimate, total(slice, index(hash, row)));
+            return estimate;
+        }
+
+        boolean allows(long hash) {
+            return estimate(hash) < limit;
+        }
+
+        /**
+         * Counts one attempt. Only the rows at the key's estimate are raised, which keeps collisions from
+         * inflating the other rows.
+         */
+        void add(long hash) {
+            long slice = rotate();
+            int estimate = Integer.MAX_VALUE;
+            for(int row = 0; row < DEPTH; row++)
+                estimate = Math.min(estimate, total(slice, index(hash, row)));
+
+            AtomicIntegerArray counts = slices[(int)(slice % slices.length)];
+            for(int row = 0; row < DEPTH; row++) {
+                int index = index(hash, row);
+                if(total(slice, index) == estimate)
+                    counts.incrementAndGet(index);
+            }
+        }
+
+        private int total(long slice, int index) {
+            int total = 0;
+            // the slot past the window is only kept so a slice can be cleared before it is reused
+            for(int age = 0; age < SLICES; age++)
+                total += slices[(int)((slice - age) % slices.length)].get(index);
+            return total;
+        }
+
+        private int index(long hash, int row) {
+            int h1 = (int)hash, h2 = (int)(hash >>> 32) | 1;
+            return row * (mask + 1) + ((h1 + row * h2) & mask);
+        }
+
+        private long rotate() {
+            long slice = System.currentTimeMillis() / sliceMillis;
+            if(slice <= currentSlice)
+                return currentSlice;
+
+            synchronized(this) {
+                long previous = currentSlice;
+                if(slice > previous) {
+                    for(long next = Math.max(previous + 1, slice - SLICES); next <= slice; next++) {
+                        AtomicIntegerArray counts = slices[(int)(next % slices.length)];
+                        for(int i = 0; i < counts.length(); i++)
+                            counts.set(i, 0);
+                    }
+                    currentSlice = slice;
+                }
+            }
+            return slice;
+        }
+    }
+}
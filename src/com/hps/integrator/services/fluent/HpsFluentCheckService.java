@@ -1,12 +1,13 @@
 package com.hps.integrator.services.fluent;
 
 import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.entities.HpsResponseFamily;
 import com.hps.integrator.entities.check.HpsCheck;
 import com.hps.integrator.entities.check.HpsCheckResponse;
 import com.hps.integrator.fluent.*;
 import com.hps.integrator.infrastructure.*;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
 import com.hps.integrator.infrastructure.validation.HpsInputValidation;
+import com.hps.integrator.infrastructure.validation.HpsResponseClassifier;
 import com.hps.integrator.services.HpsSoapGatewayService;
 
 import java.math.BigDecimal;
@@ -100,11 +101,12 @@ public class HpsFluentCheckService extends HpsSoapGatewayService {
 
     public HpsCheckResponse submitTransaction(Element transaction, String clientTransactionId) throws HpsException {
         ElementTree rsp = this.doTransaction(transaction, clientTransactionId);
-        HpsGatewayResponseValidation.checkGatewayResponse(rsp, transaction.tag());
+        this.checkGatewayResponse(rsp, transaction.tag());
 
         HpsCheckResponse response = new HpsCheckResponse().fromElementTree(rsp);
         Element item = rsp.get(transaction.tag());
-        if(item.getString("RspCode") == null || !item.getString("RspCode").equals("0"))
+        if(item.getString("RspCode") == null
+                || !HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Check, item.getString("RspCode")).isApproved())
             throw new HpsCheckException(
                     rsp.get("Header").getInt("GatewayTxnId"),
                     response.getDetails(),
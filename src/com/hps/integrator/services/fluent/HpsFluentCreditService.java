@@ -1,20 +1,40 @@
 package com.hps.integrator.services.fluent;
 
 import com.hps.integrator.abstractions.IHpsServicesConfig;
+import com.hps.integrator.abstractions.IHpsTransactionDetailsHandler;
+import com.hps.integrator.entities.HpsTrackData;
 import com.hps.integrator.entities.HpsTransaction;
 import com.hps.integrator.entities.HpsTransactionType;
+import com.hps.integrator.entities.credit.HpsCreditCard;
 import com.hps.integrator.entities.credit.HpsReportTransactionDetails;
 import com.hps.integrator.entities.credit.HpsReportTransactionSummary;
 import com.hps.integrator.fluent.*;
 import com.hps.integrator.infrastructure.*;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
-import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
+import com.hps.integrator.infrastructure.validation.HpsInputValidation;
+import com.hps.integrator.services.HpsBatchLedger;
+import com.hps.integrator.services.HpsBinRangeIndex;
+import com.hps.integrator.services.HpsLifecycleTracker;
+import com.hps.integrator.services.HpsReversalQueue;
 import com.hps.integrator.services.HpsSoapGatewayService;
+import com.hps.integrator.services.HpsTransactionDetailsLoader;
 
+import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
 
 public class HpsFluentCreditService extends HpsSoapGatewayService {
     HpsTransactionType filterBy;
+    private HpsTransactionDetailsLoader detailsLoader;
+    private HpsBatchLedger batchLedger;
+    private HpsReversalQueue reversalQueue;
+    private HpsLifecycleTracker lifecycleTracker;
+    private boolean cardValidation;
+    private HpsBinRangeIndex binRangeIndex;
+    private CreditAuthBuilder reusableAuth;
+    private CreditChargeBuilder reusableCharge;
+    private CreditCaptureBuilder reusableCapture;
+    private CreditVoidBuilder reusableVoid;
 
     public void setFilterBy(HpsTransactionType filter) { this.filterBy = filter; }
 
@@ -27,6 +47,7 @@ public class HpsFluentCreditService extends HpsSoapGatewayService {
 
     public HpsFluentCreditService withConfig(IHpsServicesConfig config) {
         this.servicesConfig = config;
+        this.detailsLoader = null;
         return this;
     }
 
@@ -76,6 +97,108 @@ public class HpsFluentCreditService extends HpsSoapGatewayService {
         return new CreditGetBuilder(this).withTransactionId(transactionId);
     }
 
+    /**
+     * Fetches the details of many transactions concurrently. See {@link HpsTransactionDetailsLoader}.
+     *
+     * @param transactionIds The gateway transaction ids.
+     * @return The details keyed by transaction id, in the order the ids were given.
+     * @throws HpsException
+     */
+    public Map<Integer, HpsReportTransactionDetails> getAll(Collection<Integer> transactionIds) throws HpsException {
+        return getDetailsLoader().getAll(transactionIds);
+    }
+
+    public void getAll(Collection<Integer> transactionIds, IHpsTransactionDetailsHandler handler) throws HpsException {
+        getDetailsLoader().getAll(transactionIds, handler);
+    }
+
+    public HpsTransactionDetailsLoader getDetailsLoader() {
+        if(detailsLoader == null)
+            detailsLoader = new HpsTransactionDetailsLoader(this.servicesConfig, this.isLoggingEnabled(),
+                    HpsTransactionDetailsLoader.DEFAULT_MAX_CONCURRENCY, HpsTransactionDetailsLoader.DEFAULT_CACHE_SIZE);
+        return detailsLoader;
+    }
+
+    public HpsFluentCreditService withDetailsLoader(HpsTransactionDetailsLoader detailsLoader) {
+        this.detailsLoader = detailsLoader;
+        return this;
+    }
+
+    public HpsBatchLedger getBatchLedger() {
+        return batchLedger;
+    }
+
+    /**
+     * @param batchLedger The ledger to record successful transactions in, or null to stop recording.
+     */
+    public HpsFluentCreditService withBatchLedger(HpsBatchLedger batchLedger) {
+        this.batchLedger = batchLedger;
+        return this;
+    }
+
+    public HpsReversalQueue getReversalQueue() {
+        return reversalQueue;
+    }
+
+    /**
+     * @param reversalQueue The queue to hand timeout reversals to instead of sending them before returning,
+     *                      or null to reverse synchronously.
+     */
+    public HpsFluentCreditService withReversalQueue(HpsReversalQueue reversalQueue) {
+        this.reversalQueue = reversalQueue;
+        return this;
+    }
+
+    public HpsLifecycleTracker getLifecycleTracker() {
+        return lifecycleTracker;
+    }
+
+    /**
+     * @param lifecycleTracker The tracker to record successful transactions in, or null to stop tracking.
+     */
+    public HpsFluentCreditService withLifecycleTracker(HpsLifecycleTracker lifecycleTracker) {
+        this.lifecycleTracker = lifecycleTracker;
+        return this;
+    }
+
+    public boolean isCardValidation() {
+        return cardValidation;
+    }
+
+    /**
+     * @param cardValidation True to check card numbers, expiry, security codes and track data locally before
+     *                       sending charges, authorizations and verifications.
+     */
+    public HpsFluentCreditService withCardValidation(boolean cardValidation) {
+        this.cardValidation = cardValidation;
+        return this;
+    }
+
+    /**
+     * Checks a builder's card data locally when card validation is on.
+     *
+     * @throws HpsInvalidRequestException If the card would be rejected.
+     */
+    public void validateCardData(HpsCreditCard card, HpsTrackData trackData) throws HpsException {
+        if(!cardValidation)
+            return;
+        HpsInputValidation.checkCard(card, binRangeIndex);
+        HpsInputValidation.checkTrackData(trackData, binRangeIndex);
+    }
+
+    public HpsBinRangeIndex getBinRangeIndex() {
+        return binRangeIndex;
+    }
+
+    /**
+     * @param binRangeIndex The BIN ranges to take card brands from, for card validation and for callers making
+     *                      routing decisions; null to take brands from the card number's leading digits.
+     */
+    public HpsFluentCreditService withBinRangeIndex(HpsBinRangeIndex binRangeIndex) {
+        this.binRangeIndex = binRangeIndex;
+        return this;
+    }
+
     public CreditListBuilder list() {
         return new CreditListBuilder(this);
     }
@@ -126,6 +249,36 @@ public class HpsFluentCreditService extends HpsSoapGatewayService {
         return new CreditVoidBuilder(this).withTransactionId(transactionId);
     }
 
+    /*
+     * The reusable builders below are reset and handed out again on every call instead of being allocated, for
+     * lanes sending many transactions. Each service has one of each, so a transaction must be executed before the
+     * next of the same kind is started, and, like the service, the builders must stay on one thread.
+     */
+
+    public CreditAuthBuilder reusableAuthorize(BigDecimal amount) {
+        if(reusableAuth == null)
+            reusableAuth = new CreditAuthBuilder(this);
+        return reusableAuth.reset().withAmount(amount).withCurrency("USD");
+    }
+
+    public CreditChargeBuilder reusableCharge(BigDecimal amount) {
+        if(reusableCharge == null)
+            reusableCharge = new CreditChargeBuilder(this);
+        return reusableCharge.reset().withAmount(amount).withCurrency("USD");
+    }
+
+    public CreditCaptureBuilder reusableCapture(Integer transactionId) {
+        if(reusableCapture == null)
+            reusableCapture = new CreditCaptureBuilder(this);
+        return reusableCapture.reset().withTransactionId(transactionId);
+    }
+
+    public CreditVoidBuilder reusableVoid(Integer transactionId) {
+        if(reusableVoid == null)
+            reusableVoid = new CreditVoidBuilder(this);
+        return reusableVoid.reset().withTransactionId(transactionId);
+    }
+
     public CreditBalanceInquiryBuilder prepaidBalanceInquiry() {
         return new CreditBalanceInquiryBuilder(this);
     }
@@ -151,6 +304,37 @@ public class HpsFluentCreditService extends HpsSoapGatewayService {
         this.processGatewayResponse(rsp, transaction.tag(), amount);
         this.processIssuerResponse(rsp, transaction.tag(), amount);
 
+        if(batchLedger != null)
+            batchLedger.record(transaction, rsp);
+        if(lifecycleTracker != null)
+            lifecycleTracker.record(transaction, rsp);
+        return rsp;
+    }
+
+    /**
+     * Sends a request rendered from a template, e.g. by {@link CreditChargeTemplate}, and
+     * handles the response as {@link #submitTransaction(Element, String)} does.
+     *
+     * @param transaction The element the template was serialized from, carrying the request's amount.
+     */
+    public ElementTree submitTransaction(byte[] request, Element transaction) throws HpsException {
+        if(isLoggingEnabled()) {
+            try {
+                System.out.println("Request: " + new String(request, "UTF-8"));
+            } catch(UnsupportedEncodingException e) {
+                throw new HpsException(e.getMessage(), e);
+            }
+        }
+        ElementTree rsp = this.doTransaction(request, transaction, null);
+
+        BigDecimal amount = new BigDecimal(transaction.getString("Amt"));
+        this.processGatewayResponse(rsp, transaction.tag(), amount);
+        this.processIssuerResponse(rsp, transaction.tag(), amount);
+
+        if(batchLedger != null)
+            batchLedger.record(transaction, rsp);
+        if(lifecycleTracker != null)
+            lifecycleTracker.record(transaction, rsp);
         return rsp;
     }
 
@@ -165,18 +349,20 @@ public class HpsFluentCreditService extends HpsSoapGatewayService {
             if(responseCode != null) {
                 if(responseCode.equals("91")){
                     try{
-                        this.reverse(amount).execute();
+                        if(reversalQueue != null && amount != null)
+                            reversalQueue.reverseCredit(transactionId, amount, "usd");
+                        else this.reverse(amount).execute();
                     }
                     catch(HpsGatewayException e) {
                         if(e.getDetails().getGatewayResponseCode() == 3)
-                            HpsIssuerResponseValidation.checkIssuerResponse(transactionId, responseCode, responseText);
+                            this.checkIssuerResponse(transactionId, responseCode, responseText);
                         throw new HpsCreditException(transactionId, HpsExceptionCodes.IssuerTimeoutReversal, "Error occurred while reversing a charge due to an issuer timeout.", e);
                     }
                     catch(HpsException e) {
                         throw new HpsCreditException(transactionId, HpsExceptionCodes.IssuerTimeoutReversal, "Error occurred while reversing a charge due to an issuer timeout.", e);
                     }
                 }
-                HpsIssuerResponseValidation.checkIssuerResponse(transactionId, responseCode, responseText);
+                this.checkIssuerResponse(transactionId, responseCode, responseText);
             }
         }
     }
@@ -189,12 +375,14 @@ public class HpsFluentCreditService extends HpsSoapGatewayService {
 
         if(responseCode.equals("30")){
             try{
-                this.reverse(amount).withTransactionId(transactionId).execute();
+                if(reversalQueue != null && amount != null)
+                    reversalQueue.reverseCredit(transactionId, amount, "usd");
+                else this.reverse(amount).withTransactionId(transactionId).execute();
             }
             catch(HpsException e) {
                 throw new HpsGatewayException(HpsExceptionCodes.GatewayTimeoutReversalError, "Error occurred while reversing a charge due to a gateway timeout.", e);
             }
         }
-        HpsGatewayResponseValidation.checkGatewayResponse(response, expectedType);
+        this.checkGatewayResponse(response, expectedType);
     }
 }
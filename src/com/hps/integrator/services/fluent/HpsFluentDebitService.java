@@ -6,13 +6,14 @@ import com.hps.integrator.fluent.DebitChargeBuilder;
 import com.hps.integrator.fluent.DebitReturnBuilder;
 import com.hps.integrator.fluent.DebitReverseBuilder;
 import com.hps.integrator.infrastructure.*;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
-import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
+import com.hps.integrator.services.HpsReversalQueue;
 import com.hps.integrator.services.HpsSoapGatewayService;
 
 import java.math.BigDecimal;
 
 public class HpsFluentDebitService extends HpsSoapGatewayService {
+    private HpsReversalQueue reversalQueue;
+
     public HpsFluentDebitService() throws HpsException { }
     public HpsFluentDebitService(IHpsServicesConfig config) throws HpsException {
         super(config);
@@ -26,6 +27,19 @@ public class HpsFluentDebitService extends HpsSoapGatewayService {
         return this;
     }
 
+    public HpsReversalQueue getReversalQueue() {
+        return reversalQueue;
+    }
+
+    /**
+     * @param reversalQueue The queue to hand timeout reversals to instead of sending them before returning,
+     *                      or null to reverse synchronously.
+     */
+    public HpsFluentDebitService withReversalQueue(HpsReversalQueue reversalQueue) {
+        this.reversalQueue = reversalQueue;
+        return this;
+    }
+
     public DebitChargeBuilder sale() {
         return sale(null);
     }
@@ -74,18 +88,20 @@ public class HpsFluentDebitService extends HpsSoapGatewayService {
             if(responseCode != null) {
                 if(responseCode.equals("91")){
                     try{
-                        this.reverse(amount).execute();
+                        if(reversalQueue != null && amount != null)
+                            reversalQueue.reverseDebit(transactionId, amount);
+                        else this.reverse(amount).execute();
                     }
                     catch(HpsGatewayException e) {
                         if(e.getDetails().getGatewayResponseCode() == 3)
-                            HpsIssuerResponseValidation.checkIssuerResponse(transactionId, responseCode, responseText);
+                            this.checkIssuerResponse(transactionId, responseCode, responseText);
                         throw new HpsCreditException(transactionId, HpsExceptionCodes.IssuerTimeoutReversal, "Error occurred while reversing a charge due to an issuer timeout.", e);
                     }
                     catch(HpsException e) {
                         throw new HpsCreditException(transactionId, HpsExceptionCodes.IssuerTimeoutReversal, "Error occurred while reversing a charge due to an issuer timeout.", e);
                     }
                 }
-                HpsIssuerResponseValidation.checkIssuerResponse(transactionId, responseCode, responseText);
+                this.checkIssuerResponse(transactionId, responseCode, responseText);
             }
         }
     }
@@ -98,12 +114,14 @@ public class HpsFluentDebitService extends HpsSoapGatewayService {
 
         if(responseCode.equals("30")){
             try{
-                this.reverse(amount).withTransactionId(transactionId).execute();
+                if(reversalQueue != null && amount != null)
+                    reversalQueue.reverseDebit(transactionId, amount);
+                else this.reverse(amount).withTransactionId(transactionId).execute();
             }
             catch(HpsException e) {
                 throw new HpsGatewayException(HpsExceptionCodes.GatewayTimeoutReversalError, "Error occurred while reversing a charge due to a gateway timeout.", e);
             }
         }
-        HpsGatewayResponseValidation.checkGatewayResponse(response, expectedType);
+        this.checkGatewayResponse(response, expectedType);
     }
 }
@@ -5,8 +5,6 @@ import com.hps.integrator.fluent.*;
 import com.hps.integrator.infrastructure.Element;
 import com.hps.integrator.infrastructure.ElementTree;
 import com.hps.integrator.infrastructure.HpsException;
-import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
-import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
 import com.hps.integrator.services.HpsSoapGatewayService;
 
 import java.math.BigDecimal;
@@ -88,8 +86,8 @@ public class HpsFluentGiftService extends HpsSoapGatewayService {
     }
     public ElementTree submitTransaction(Element transaction, String clientTransactionId) throws HpsException {
         ElementTree rsp = doTransaction(transaction, clientTransactionId);
-        HpsGatewayResponseValidation.checkGatewayResponse(rsp, transaction.tag());
-        HpsIssuerResponseValidation.checkIssuerResponse(
+        this.checkGatewayResponse(rsp, transaction.tag());
+        this.checkIssuerResponse(
                 rsp.get("Header").getInt("GatewayTxnId"),
                 rsp.get(transaction.tag()).getString("RspCode"),
                 rsp.get(transaction.tag()).getString("RspText")
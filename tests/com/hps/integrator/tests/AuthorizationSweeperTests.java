@@ -0,0 +1,215 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.abstractions.IHpsAuthorizationSweepListener;
+import com.hps.integrator.entities.HpsLifecycleState;
+import com.hps.integrator.entities.credit.HpsAuthorizationSweepResult;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsAuthorizationSweeper;
+import com.hps.integrator.services.HpsCreditService;
+import com.hps.integrator.services.HpsLifecycleTracker;
+import com.hps.integrator.services.HpsServicesConfig;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AuthorizationSweeperTests {
+    private static final long HOUR = 60 * 60 * 1000;
+
+    /**
+     * The gateway as seen by every service a sweeper creates: the activity report, and the gateway codes each
+     * release of a transaction answers with, in order, before it succeeds.
+     */
+    private static class Gateway {
+        final StringBuilder report = new StringBuilder();
+        final Map<Integer, List<String>> codes = new ConcurrentHashMap<Integer, List<String>>();
+        final List<String> releases = Collections.synchronizedList(new ArrayList<String>());
+        final List<Long> releaseTimes = Collections.synchronizedList(new ArrayList<Long>());
+
+        Gateway row(int transactionId, String serviceName, int originalTransactionId, long age, String issuerCode) {
+            report.append("<Details><GatewayTxnId>").append(transactionId).append("</GatewayTxnId>")
+                    .append("<ServiceName>").append(serviceName).append("</ServiceName>")
+                    .append("<GatewayRspCode>0</GatewayRspCode><TxnUtcDT>")
+                    .append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(new Date(System.currentTimeMillis() - age)))
+                    .append("</TxnUtcDT><MaskedCardNbr>411111******1111</MaskedCardNbr><Amt>10.00</Amt>")
+                    .append("<IssuerRspCode>").append(issuerCode).append("</IssuerRspCode><IssuerRspText></IssuerRspText>")
+                    .append("<OriginalGatewayTxnId>").append(originalTransactionId).append("</OriginalGatewayTxnId></Details>");
+            return this;
+        }
+
+        Gateway answer(int transactionId, String... gatewayCodes) {
+            codes.put(transactionId, Collections.synchronizedList(new ArrayList<String>(Arrays.asList(gatewayCodes))));
+            return this;
+        }
+
+        int count(String release) {
+            synchronized(releases) {
+                return Collections.frequency(releases, release);
+            }
+        }
+    }
+
+    private static class CannedService extends HpsCreditService {
+        private final Gateway gateway;
+
+        CannedService(Gateway gateway) throws HpsException {
+            super(config());
+            this.gateway = gateway;
+        }
+
+        private static HpsServicesConfig config() {
+            HpsServicesConfig config = new HpsServicesConfig();
+            config.setSecretAPIKey("skapi_cert_sweeper");
+            return config;
+        }
+
+        @Override
+        protected String send(byte[] data) throws HpsException {
+            ElementTree request = ElementTree.parse(new String(data));
+            if(request.get("ReportActivity") != null) {
+                return "<PosResponse><Ver1.0><Header><GatewayTxnId>1</GatewayTxnId><GatewayRspCode>0</GatewayRspCode>" +
+                        "</Header><Transaction><ReportActivity><Header><TxnCnt>0</TxnCnt></Header>" + gateway.report +
+                        "</ReportActivity></Transaction></Ver1.0></PosResponse>";
+            }
+
+            Element release = request.get("CreditVoid");
+            String tag = "CreditVoid";
+            if(release == null) {
+                release = request.get("CreditReversal");
+                tag = "CreditReversal";
+            }
+            int transactionId = release.getInt("GatewayTxnId");
+            gateway.releaseTimes.add(System.nanoTime());
+            gateway.releases.add(tag + " " + transactionId + (release.has("Amt") ? " " + release.getString("Amt") : ""));
+
+            String code = "0";
+            List<String> codes = gateway.codes.get(transactionId);
+            if(codes != null && !codes.isEmpty())
+                code = codes.size() > 1 ? codes.remove(0) : codes.get(0);
+            return "<PosResponse><Ver1.0><Header><GatewayTxnId>" + (transactionId + 1000) + "</GatewayTxnId>" +
+                    "<GatewayRspCode>" + code + "</GatewayRspCode><GatewayRspMsg>Canned</GatewayRspMsg></Header>" +
+                    "<Transaction><" + tag + "><RspCode>00</RspCode><RspText>APPROVAL</RspText></" + tag + ">" +
+                    "</Transaction></Ver1.0></PosResponse>";
+        }
+    }
+
+    private static HpsAuthorizationSweeper sweeper(final Gateway gateway) {
+        return sweeper(gateway, TimeUnit.DAYS.toMillis(1));
+    }
+
+    private static HpsAuthorizationSweeper sweeper(final Gateway gateway, long maxAgeMillis) {
+        return new HpsAuthorizationSweeper(CannedService.config(), maxAgeMillis, TimeUnit.MILLISECONDS) {
+            @Override
+            protected HpsCreditService createCreditService() throws HpsException {
+                return new CannedService(gateway);
+            }
+        }.withRetryDelay(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void Sweep_ShouldReleaseOnlyOldApprovedAuthorizationsThatNothingReleased() throws Exception {
+        Gateway gateway = new Gateway()
+                .row(101, "CreditAuth", 0, 72 * HOUR, "00")
+                .row(102, "CreditAuth", 0, 72 * HOUR, "00")
+                .row(201, "CreditAddToBatch", 102, 70 * HOUR, "00")
+                .row(103, "CreditAuth", 0, HOUR, "00")
+                .row(104, "CreditAuth", 0, 72 * HOUR, "05")
+                .row(105, "CreditAuth", 0, 72 * HOUR, "00")
+                .row(202, "CreditVoid", 105, 71 * HOUR, "00")
+                .row(106, "CreditSale", 0, 72 * HOUR, "00");
+
+        HpsAuthorizationSweepResult result = sweeper(gateway).sweep();
+        assertNull(result.getException());
+        assertEquals(1, result.getStaleCount());
+        assertEquals(Collections.singletonList(101), result.getReleasedTransactionIds());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals(Collections.singletonList("CreditVoid 101"), gateway.releases);
+
+        gateway.releases.clear();
+        result = sweeper(gateway).withReversal(true).sweep();
+        assertEquals(Collections.singletonList(101), result.getReleasedTransactionIds());
+        assertEquals(Collections.singletonList("CreditReversal 101 10.00"), gateway.releases);
+    }
+
+    @Test
+    public void Sweep_ShouldRetryFailedReleasesAndListWhatStaysOpen() throws Exception {
+        Gateway gateway = new Gateway()
+                .row(301, "CreditAuth", 0, 72 * HOUR, "00")
+                .row(302, "CreditAuth", 0, 72 * HOUR, "00")
+                .row(303, "CreditAuth", 0, 72 * HOUR, "00")
+                .answer(301, "1")
+                .answer(302, "3")
+                .answer(303, "1", "0");
+
+        HpsAuthorizationSweepResult result = sweeper(gateway).withMaxAttempts(3).sweep();
+        assertEquals(3, result.getStaleCount());
+        assertEquals(Arrays.asList(302, 303), result.getReleasedTransactionIds());
+        assertEquals(Collections.singleton(301), result.getFailures().keySet());
+        assertEquals(3, gateway.count("CreditVoid 301"));
+        assertEquals(1, gateway.count("CreditVoid 302"));
+        assertEquals(2, gateway.count("CreditVoid 303"));
+    }
+
+    @Test
+    public void Sweep_ShouldHoldTheRateLimitAcrossWorkers() throws Exception {
+        Gateway gateway = new Gateway();
+        for(int i = 0; i < 5; i++)
+            gateway.row(401 + i, "CreditAuth", 0, 72 * HOUR, "00");
+
+        HpsAuthorizationSweepResult result = sweeper(gateway).withConcurrency(4).withRateLimit(20).sweep();
+        assertEquals(5, result.getReleasedTransactionIds().size());
+
+        List<Long> times = new ArrayList<Long>(gateway.releaseTimes);
+        Collections.sort(times);
+        // five releases at 20 a second span at least four 50ms intervals, less the first release's own delay
+        assertTrue(times.get(4) - times.get(0) >= TimeUnit.MILLISECONDS.toNanos(180));
+    }
+
+    @Test
+    public void Sweep_ShouldCloseTrackedAuthorizationsWithNothingToRelease() throws Exception {
+        HpsLifecycleTracker tracker = new HpsLifecycleTracker();
+        ElementTree et = new ElementTree();
+        Element authorization = et.element("CreditAuth");
+        et.subElement(et.subElement(authorization, "Block1"), "Amt").text("10.00");
+        tracker.record(authorization, ElementTree.parse("<PosResponse><Ver1.0><Header><GatewayTxnId>501</GatewayTxnId>" +
+                "<GatewayRspCode>0</GatewayRspCode></Header><Transaction><CreditAuth><RspCode>00</RspCode>" +
+                "</CreditAuth></Transaction></Ver1.0></PosResponse>"));
+        Thread.sleep(5);
+
+        // voided by another process, so the void is answered with code 3 and no response is recorded
+        Gateway gateway = new Gateway().answer(501, "3");
+        HpsAuthorizationSweepResult result = sweeper(gateway, 1).withTracker(tracker).sweep();
+        assertEquals(Collections.singletonList(501), result.getReleasedTransactionIds());
+        assertEquals(HpsLifecycleState.Voided, tracker.getState(501));
+        assertEquals(0, tracker.getUncapturedCount());
+
+        result = sweeper(gateway, 1).withTracker(tracker).sweep();
+        assertEquals(0, result.getStaleCount());
+        assertEquals(1, gateway.count("CreditVoid 501"));
+    }
+
+    @Test
+    public void Start_ShouldKeepSweepingWhenTheListenerThrows() throws Exception {
+        final CountDownLatch sweeps = new CountDownLatch(3);
+        HpsAuthorizationSweeper sweeper = sweeper(new Gateway());
+        sweeper.setListener(new IHpsAuthorizationSweepListener() {
+            public void onSweepCompleted(HpsAuthorizationSweepResult result) {
+                sweeps.countDown();
+                throw new IllegalStateException("listener failed");
+            }
+        });
+        sweeper.start(10, TimeUnit.MILLISECONDS);
+        try {
+            assertTrue(sweeps.await(5, TimeUnit.SECONDS));
+        } finally {
+            sweeper.shutdown();
+        }
+    }
+}
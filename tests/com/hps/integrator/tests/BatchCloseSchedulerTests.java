@@ -0,0 +1,248 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.abstractions.IHpsBatchCloseListener;
+import com.hps.integrator.abstractions.IHpsBatchSweepSource;
+import com.hps.integrator.abstractions.IHpsBatchSweepTask;
+import com.hps.integrator.entities.batch.HpsBatchCloseResult;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsGatewayException;
+import com.hps.integrator.services.HpsBatchCloseSchedule;
+import com.hps.integrator.services.HpsBatchCloseScheduler;
+import com.hps.integrator.services.HpsBatchService;
+import com.hps.integrator.services.HpsCreditService;
+import com.hps.integrator.services.HpsServicesConfig;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchCloseSchedulerTests {
+    private static final String CLOSED = "<PosResponse><Ver1.0><Header><GatewayTxnId>1</GatewayTxnId>" +
+            "<GatewayRspCode>0</GatewayRspCode></Header><Transaction><BatchClose><BatchId>42</BatchId>" +
+            "<BatchSeqNbr>3</BatchSeqNbr><TotalAmount>10.00</TotalAmount><TxnCnt>1</TxnCnt></BatchClose>" +
+            "</Transaction></Ver1.0></PosResponse>";
+    private static final String NO_OPEN_BATCH = "<PosResponse><Ver1.0><Header><GatewayTxnId>2</GatewayTxnId>" +
+            "<GatewayRspCode>5</GatewayRspCode><GatewayRspMsg>No open batch</GatewayRspMsg></Header>" +
+            "</Ver1.0></PosResponse>";
+    private static final String SYSTEM_ERROR = "<PosResponse><Ver1.0><Header><GatewayTxnId>3</GatewayTxnId>" +
+            "<GatewayRspCode>1</GatewayRspCode><GatewayRspMsg>System error</GatewayRspMsg></Header>" +
+            "</Ver1.0></PosResponse>";
+
+    private final File directory = directory();
+
+    private static File directory() {
+        try {
+            File directory = File.createTempFile("batchclose", "");
+            directory.delete();
+            directory.mkdirs();
+            directory.deleteOnExit();
+            return directory;
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A scheduler whose batch closes are answered from a queue of responses instead of the gateway; an
+     * exception in the queue is thrown as a failed exchange.
+     */
+    private static class CannedScheduler extends HpsBatchCloseScheduler {
+        final Queue<Object> responses = new ConcurrentLinkedQueue<Object>();
+        final AtomicInteger sent = new AtomicInteger();
+
+        CannedScheduler(File directory, Object... responses) {
+            super(directory);
+            this.responses.addAll(Arrays.asList(responses));
+        }
+
+        @Override
+        protected HpsBatchService createBatchService(HpsBatchCloseSchedule schedule) throws HpsException {
+            return new HpsBatchService(schedule.getConfig()) {
+                @Override
+                protected String send(byte[] data) throws HpsException {
+                    sent.incrementAndGet();
+                    Object response = responses.poll();
+                    if(response instanceof HpsException)
+                        throw (HpsException)response;
+                    return (String)response;
+                }
+            };
+        }
+    }
+
+    private static HpsBatchCloseSchedule schedule(String merchantKey) {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_scheduler");
+        return new HpsBatchCloseSchedule(merchantKey, config, 0, 0);
+    }
+
+    private static String today() {
+        return new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+    }
+
+    private String lastClose(String merchantKey) throws Exception {
+        File file = new File(directory, merchantKey + ".lastclose");
+        return file.exists() ? new String(Files.readAllBytes(file.toPath()), "UTF-8") : null;
+    }
+
+    private static IHpsBatchCloseListener collect(final BlockingQueue<HpsBatchCloseResult> results) {
+        return new IHpsBatchCloseListener() {
+            public void onBatchClosed(HpsBatchCloseResult result) {
+                results.add(result);
+            }
+        };
+    }
+
+    @Test
+    public void Schedule_ShouldCatchUpOnACloseTimeAlreadyPassed() throws Exception {
+        CannedScheduler scheduler = new CannedScheduler(directory, CLOSED);
+        BlockingQueue<HpsBatchCloseResult> results = new LinkedBlockingQueue<HpsBatchCloseResult>();
+        scheduler.setListener(collect(results));
+        try {
+            scheduler.schedule(schedule("merchant-1"));
+
+            HpsBatchCloseResult result = results.poll(10, TimeUnit.SECONDS);
+            assertNotNull(result);
+            assertTrue(result.isClosed());
+            assertEquals(42, result.getBatch().getId());
+            assertEquals(today(), result.getBusinessDate());
+            assertEquals(today(), lastClose("merchant-1"));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void CloseNow_ShouldNotCloseADayAlreadyRecorded() throws Exception {
+        CannedScheduler first = new CannedScheduler(directory, CLOSED);
+        BlockingQueue<HpsBatchCloseResult> results = new LinkedBlockingQueue<HpsBatchCloseResult>();
+        first.setListener(collect(results));
+        first.schedule(schedule("merchant-1"));
+        assertNotNull(results.poll(10, TimeUnit.SECONDS));
+        first.shutdown();
+
+        // a restart reads the day back from the state directory
+        CannedScheduler second = new CannedScheduler(directory, CLOSED);
+        try {
+            second.schedule(schedule("merchant-1"));
+            assertNull(second.closeNow("merchant-1"));
+            assertEquals(0, second.sent.get());
+        } finally {
+            second.shutdown();
+        }
+    }
+
+    @Test
+    public void CloseNow_ShouldNotCloseADayOlderThanTheLastClose() throws Exception {
+        // a retry left over from yesterday's close runs after today's has gone through
+        Calendar tomorrow = Calendar.getInstance();
+        tomorrow.add(Calendar.DAY_OF_MONTH, 1);
+        Files.write(new File(directory, "merchant-1.lastclose").toPath(),
+                new SimpleDateFormat("yyyy-MM-dd").format(tomorrow.getTime()).getBytes("UTF-8"));
+
+        CannedScheduler scheduler = new CannedScheduler(directory, CLOSED);
+        try {
+            scheduler.schedule(schedule("merchant-1"));
+            assertNull(scheduler.closeNow("merchant-1"));
+            assertEquals(0, scheduler.sent.get());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void Close_ShouldNotRecordARejectedCloseAndShouldRetryIt() throws Exception {
+        File state = new File(directory, "merchant-1.lastclose");
+        Files.write(state.toPath(), "2000-01-01".getBytes("UTF-8"));
+
+        CannedScheduler scheduler = new CannedScheduler(directory, SYSTEM_ERROR, CLOSED);
+        scheduler.setRetryDelay(50, TimeUnit.MILLISECONDS);
+        BlockingQueue<HpsBatchCloseResult> results = new LinkedBlockingQueue<HpsBatchCloseResult>();
+        scheduler.setListener(collect(results));
+        try {
+            scheduler.schedule(schedule("merchant-1"));
+
+            HpsBatchCloseResult failed = results.poll(10, TimeUnit.SECONDS);
+            assertNotNull(failed);
+            assertFalse(failed.isClosed());
+            assertEquals("2000-01-01", lastClose("merchant-1"));
+
+            HpsBatchCloseResult retried = results.poll(10, TimeUnit.SECONDS);
+            assertNotNull(retried);
+            assertTrue(retried.isClosed());
+            assertEquals(today(), lastClose("merchant-1"));
+            assertEquals(2, scheduler.sent.get());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void Close_ShouldResolveAnUnknownOutcomeBySendingTheCloseAgain() throws Exception {
+        // the first close went through but its response was lost, so the gateway has no batch left open
+        CannedScheduler scheduler = new CannedScheduler(directory,
+                new HpsGatewayException(HpsExceptionCodes.UnknownGatewayError, "Read timed out"), NO_OPEN_BATCH);
+        BlockingQueue<HpsBatchCloseResult> results = new LinkedBlockingQueue<HpsBatchCloseResult>();
+        scheduler.setListener(collect(results));
+        try {
+            scheduler.schedule(schedule("merchant-1"));
+
+            HpsBatchCloseResult result = results.poll(10, TimeUnit.SECONDS);
+            assertNotNull(result);
+            assertTrue(result.isClosed());
+            assertNull(result.getBatch());
+            assertEquals(2, scheduler.sent.get());
+            assertEquals(today(), lastClose("merchant-1"));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void Close_ShouldHandFailedSweepTasksBackToTheirSource() throws Exception {
+        final IHpsBatchSweepTask succeeds = new IHpsBatchSweepTask() {
+            public void execute(HpsCreditService service) {
+                assertNotNull(service);
+            }
+        };
+        final IHpsBatchSweepTask fails = new IHpsBatchSweepTask() {
+            public void execute(HpsCreditService service) throws HpsException {
+                throw new HpsException("Capture declined.");
+            }
+        };
+        final List<IHpsBatchSweepTask> handedBack = new CopyOnWriteArrayList<IHpsBatchSweepTask>();
+        IHpsBatchSweepSource source = new IHpsBatchSweepSource() {
+            public List<IHpsBatchSweepTask> drainSweepTasks() {
+                return Arrays.asList(succeeds, fails);
+            }
+
+            public void onSweepFailure(IHpsBatchSweepTask task, HpsException exception) {
+                handedBack.add(task);
+            }
+        };
+
+        CannedScheduler scheduler = new CannedScheduler(directory, CLOSED);
+        BlockingQueue<HpsBatchCloseResult> results = new LinkedBlockingQueue<HpsBatchCloseResult>();
+        scheduler.setListener(collect(results));
+        try {
+            scheduler.schedule(schedule("merchant-1").withSweepSource(source));
+
+            HpsBatchCloseResult result = results.poll(10, TimeUnit.SECONDS);
+            assertNotNull(result);
+            assertEquals(1, result.getSweptCount());
+            assertEquals(1, result.getSweepFailureCount());
+            assertEquals(Collections.singletonList(fails), handedBack);
+            assertTrue(result.isClosed());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsGatewayException;
+import com.hps.integrator.services.HpsBatchLedger;
+import com.hps.integrator.services.HpsBatchService;
+import com.hps.integrator.services.HpsServicesConfig;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+public class BatchLedgerTests {
+
+    private static ElementTree response(int transactionId, String type, String body) throws HpsException {
+        return ElementTree.parse("<PosResponse><Ver1.0><Header><GatewayTxnId>" + transactionId + "</GatewayTxnId>" +
+                "<GatewayRspCode>0</GatewayRspCode></Header><Transaction><" + type + ">" + body + "</" + type + ">" +
+                "</Transaction></Ver1.0></PosResponse>");
+    }
+
+    private static Element request(String type, String... fields) {
+        ElementTree et = new ElementTree();
+        Element transaction = et.element(type);
+        Element parent = type.equals("CreditSale") || type.equals("CreditAuth") || type.equals("CreditReturn")
+                ? et.subElement(transaction, "Block1") : transaction;
+        for(int i = 0; i < fields.length; i += 2)
+            et.subElement(parent, fields[i]).text(fields[i + 1]);
+        return transaction;
+    }
+
+    @Test
+    public void Ledger_ShouldTrackOpenBatch() throws HpsException {
+        HpsBatchLedger ledger = new HpsBatchLedger();
+
+        ledger.record(request("CreditSale", "Amt", "10.00"), response(1, "CreditSale", "<RspCode>00</RspCode>"));
+        ledger.record(request("CreditSale", "Amt", "20.00"), response(2, "CreditSale", "<RspCode>10</RspCode><AuthAmt>15.00</AuthAmt>"));
+        ledger.record(request("CreditAuth", "Amt", "30.00"), response(3, "CreditAuth", "<RspCode>00</RspCode>"));
+        ledger.record(request("CreditReturn", "Amt", "5.00"), response(4, "CreditReturn", ""));
+        assertEquals(new BigDecimal("20.00"), ledger.getTotalAmount());
+        assertEquals(3, ledger.getTransactionCount());
+
+        ledger.record(request("CreditAddToBatch", "GatewayTxnId", "3", "GratuityAmtInfo", "2.00"), response(5, "CreditAddToBatch", ""));
+        ledger.record(request("CreditTxnEdit", "GatewayTxnId", "1", "Amt", "12.00"), response(6, "CreditTxnEdit", ""));
+        ledger.record(request("CreditVoid", "GatewayTxnId", "2"), response(7, "CreditVoid", ""));
+        assertEquals(new BigDecimal("39.00"), ledger.getTotalAmount());
+        assertEquals(3, ledger.getTransactionCount());
+    }
+
+    @Test
+    public void Ledger_ResetShouldKeepAuthorizations() throws HpsException {
+        HpsBatchLedger ledger = new HpsBatchLedger();
+        ledger.record(request("CreditSale", "Amt", "10.00"), response(1, "CreditSale", ""));
+        ledger.record(request("CreditAuth", "Amt", "30.00"), response(2, "CreditAuth", ""));
+
+        HpsBatchLedger.Snapshot closed = ledger.reset();
+        assertEquals(new BigDecimal("10.00"), closed.getTotalAmount());
+        assertEquals(Long.valueOf(1000), closed.getEntries().get(1));
+        assertEquals(0, ledger.getTransactionCount());
+
+        ledger.record(request("CreditAddToBatch", "GatewayTxnId", "2"), response(3, "CreditAddToBatch", ""));
+        assertEquals(new BigDecimal("30.00"), ledger.getTotalAmount());
+    }
+
+    @Test
+    public void CloseBatch_ShouldKeepTheBatchWhenTheCloseFails() throws HpsException {
+        final HpsBatchLedger ledger = new HpsBatchLedger();
+        ledger.record(request("CreditSale", "Amt", "10.00"), response(1, "CreditSale", ""));
+        ledger.record(request("CreditSale", "Amt", "20.00"), response(2, "CreditSale", ""));
+
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_ledger");
+        HpsBatchService service = new HpsBatchService(config) {
+            @Override
+            protected String send(byte[] data) throws HpsException {
+                // a sale completing while the close is in flight belongs to the batch that stays open
+                ledger.record(request("CreditSale", "Amt", "5.00"), response(3, "CreditSale", ""));
+                throw new HpsGatewayException(HpsExceptionCodes.UnknownGatewayError, "Read timed out");
+            }
+        };
+
+        try {
+            service.closeBatch(ledger);
+            fail("The close should have failed.");
+        } catch(HpsGatewayException e) {
+            assertEquals(HpsExceptionCodes.UnknownGatewayError, e.getCode());
+        }
+        assertEquals(new BigDecimal("35.00"), ledger.getTotalAmount());
+        assertEquals(3, ledger.getTransactionCount());
+
+        HpsBatchLedger.Snapshot open = ledger.reset();
+        assertEquals(Long.valueOf(1000), open.getEntries().get(1));
+        assertEquals(Long.valueOf(2000), open.getEntries().get(2));
+        assertEquals(Long.valueOf(500), open.getEntries().get(3));
+    }
+}
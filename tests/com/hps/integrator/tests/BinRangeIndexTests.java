@@ -0,0 +1,114 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.HpsBinRange;
+import com.hps.integrator.entities.HpsCardBrand;
+import com.hps.integrator.entities.HpsCardType;
+import com.hps.integrator.entities.HpsCardValidationResult;
+import com.hps.integrator.infrastructure.HpsArgumentException;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.validation.HpsCardValidation;
+import com.hps.integrator.services.HpsBinRangeIndex;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BinRangeIndexTests {
+
+    @Test
+    public void Lookup_ShouldFindRangesAndSwapTables() throws Exception {
+        File file = File.createTempFile("bins", ".bin");
+        file.deleteOnExit();
+        HpsBinRangeIndex.write(file, Arrays.asList(
+                new HpsBinRange("5", "5", HpsCardBrand.MasterCard, HpsCardType.Credit, "us"),
+                new HpsBinRange("411111", "411112", HpsCardBrand.Visa, HpsCardType.Debit, "US"),
+                new HpsBinRange("601100", "601100", HpsCardBrand.Discover, HpsCardType.Prepaid, null)));
+
+        HpsBinRangeIndex index = new HpsBinRangeIndex(file);
+        assertEquals(3, index.getRangeCount());
+
+        HpsBinRange range = new HpsBinRange();
+        assertTrue(index.find("4111121111111111", range));
+        assertEquals(HpsCardBrand.Visa, range.getBrand());
+        assertEquals(HpsCardType.Debit, range.getCardType());
+        assertEquals("US", range.getCountry());
+        assertEquals(411111000000L, range.getLow());
+        assertEquals(411112999999L, range.getHigh());
+
+        assertEquals(HpsCardBrand.MasterCard, index.getBrand("5999999999999999"));
+        assertNull(index.getCountry("6011000990139424"));
+        assertEquals(HpsCardType.Prepaid, index.getCardType("6011000990139424"));
+        assertNull(index.lookup("4111131111111111"));
+        assertNull(index.lookup("41111"));
+        assertEquals(HpsCardBrand.Visa, index.getBrand(";4111111111111111=2512", 1, 17));
+
+        // the index decides the brand, so the length is checked against it
+        HpsBinRangeIndex.write(file, Arrays.asList(
+                new HpsBinRange("4111", "4111", HpsCardBrand.Amex, HpsCardType.Credit, "GB")));
+        index.reload();
+        assertEquals(1, index.getRangeCount());
+        assertEquals(HpsCardBrand.Amex, index.getBrand("4111111111111111"));
+        assertEquals("GB", index.getCountry("4111111111111111"));
+        assertEquals(HpsCardBrand.Unknown, index.getBrand("5999999999999999"));
+        assertEquals(HpsCardValidationResult.InvalidLength,
+                HpsCardValidation.validateNumber("4111111111111111", 0, 16, index));
+        assertEquals(HpsCardValidationResult.Valid,
+                HpsCardValidation.validateNumber("4012888888881881", 0, 16, index));
+    }
+
+    @Test
+    public void Lookup_ShouldResolveBrandsByName() throws Exception {
+        File file = File.createTempFile("bins", ".bin");
+        file.deleteOnExit();
+        HpsBinRangeIndex.write(file, Arrays.asList(
+                new HpsBinRange("411111", "411111", HpsCardBrand.Visa, HpsCardType.Debit, "US"),
+                new HpsBinRange("601100", "601100", HpsCardBrand.Discover, HpsCardType.Credit, "US")));
+
+        // as if the file came from a build with a brand this one does not know
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String text = new String(bytes, StandardCharsets.ISO_8859_1);
+        bytes[text.indexOf("Discover")] = 'X';
+        Files.write(file.toPath(), bytes);
+
+        HpsBinRangeIndex index = new HpsBinRangeIndex(file);
+        assertEquals(HpsCardBrand.Visa, index.getBrand("4111111111111111"));
+        assertEquals(HpsCardBrand.Unknown, index.getBrand("6011000990139424"));
+        assertEquals(HpsCardType.Credit, index.getCardType("6011000990139424"));
+    }
+
+    @Test
+    public void Write_ShouldRemoveTheTemporaryFileWhenTheRenameFails() throws Exception {
+        File directory = Files.createTempDirectory("bins").toFile();
+        File target = new File(directory, "ranges.bin");
+        assertTrue(new File(target, "occupied").mkdirs());
+        try {
+            HpsBinRangeIndex.write(target, Arrays.asList(
+                    new HpsBinRange("4111", "4111", HpsCardBrand.Visa, HpsCardType.Credit, "US")));
+            fail("Expected the rename onto a directory to fail.");
+        } catch(HpsException e) {
+            assertFalse(new File(target.getPath() + ".tmp").exists());
+        } finally {
+            new File(target, "occupied").delete();
+            target.delete();
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void Write_ShouldRejectOverlappingRanges() throws Exception {
+        File file = File.createTempFile("bins", ".bin");
+        file.deleteOnExit();
+        try {
+            HpsBinRangeIndex.write(file, Arrays.asList(
+                    new HpsBinRange("4111", "4112", HpsCardBrand.Visa, HpsCardType.Credit, "US"),
+                    new HpsBinRange("411299", "4113", HpsCardBrand.Visa, HpsCardType.Debit, "US")));
+            fail("Expected the overlap to be rejected.");
+        } catch(HpsArgumentException e) {
+            assertEquals("BIN ranges cannot overlap.", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.fluent.CreditChargeBuilder;
+import com.hps.integrator.fluent.HpsBuilderValidation;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsArgumentException;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.fluent.HpsFluentCreditService;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class BuilderValidationTests {
+
+    @Test
+    public void Validate_ShouldReportEveryFailure() throws Exception {
+        HpsFluentCreditService service = new HpsFluentCreditService(new HpsServicesConfig());
+        try {
+            new CreditChargeBuilder(service).validate();
+            fail("Expected validation to fail.");
+        } catch(HpsArgumentException e) {
+            assertEquals("Amount is required. Only one payment method is required.", e.getMessage());
+        }
+
+        try {
+            new CreditChargeBuilder(service).withAmount(new BigDecimal("10")).withToken("token").withCard(null).validate();
+            new CreditChargeBuilder(service).withAmount(new BigDecimal("10")).validate();
+            fail("Expected validation to fail.");
+        } catch(HpsArgumentException e) {
+            assertEquals("Only one payment method is required.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void Reset_ShouldClearRequestAndKeepBuilder() throws Exception {
+        HpsFluentCreditService service = new HpsFluentCreditService(new HpsServicesConfig());
+        CreditChargeBuilder charge = service.reusableCharge(new BigDecimal("10")).withToken("token");
+        charge.validate();
+        charge.addValidation(new HpsBuilderValidation("Always fails.") {
+            @Override
+            public boolean test(Object builder) {
+                return false;
+            }
+        });
+        int shared = new CreditChargeBuilder(service).getValidations().size();
+        assertEquals(shared + 1, charge.getValidations().size());
+
+        CreditChargeBuilder reused = service.reusableCharge(null);
+        assertSame(charge, reused);
+        assertEquals(shared, reused.getValidations().size());
+        try {
+            reused.validate();
+            fail("Expected validation to fail.");
+        } catch(HpsArgumentException e) {
+            assertEquals("Amount is required. Only one payment method is required.", e.getMessage());
+        }
+    }
+
+    private static class ThrowingBuilder {
+        private boolean failsChecked() throws IOException {
+            throw new IOException("Disk unavailable.");
+        }
+    }
+
+    @Test
+    public void Test_ShouldKeepTheCallbacksException() throws Exception {
+        try {
+            new HpsBuilderValidation("failsChecked", "Never reported.").test(new ThrowingBuilder());
+            fail("Expected the callback's exception.");
+        } catch(HpsException e) {
+            assertEquals("Disk unavailable.", e.getMessage());
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test(expected = HpsArgumentException.class)
+    public void Constructor_ShouldRejectAMissingCallback() throws Exception {
+        new HpsBuilderValidation(null, "Never reported.");
+    }
+
+    /**
+     * Answers every charge with an approval, recording the token each request carried.
+     */
+    private static class CannedService extends HpsFluentCreditService {
+        final List<String> sentTokens = new ArrayList<String>();
+
+        CannedService() throws HpsException {
+            super(config());
+        }
+
+        private static HpsServicesConfig config() {
+            HpsServicesConfig config = new HpsServicesConfig();
+            config.setSecretAPIKey("skapi_cert_builder");
+            return config;
+        }
+
+        @Override
+        protected String send(byte[] data) throws HpsException {
+            sentTokens.add(ElementTree.parse(new String(data)).get("CreditSale").getString("TokenValue"));
+            return "<PosResponse><Ver1.0><Header><GatewayTxnId>1</GatewayTxnId><GatewayRspCode>0</GatewayRspCode>" +
+                    "</Header><Transaction><CreditSale><RspCode>00</RspCode><RspText>APPROVAL</RspText></CreditSale>" +
+                    "</Transaction></Ver1.0></PosResponse>";
+        }
+    }
+
+    @Test
+    public void Reset_ShouldKeepEachThreadsRequestsApart() throws Exception {
+        final int threads = 4, charges = 50;
+        final CannedService[] services = new CannedService[threads];
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for(int t = 0; t < threads; t++) {
+            final int thread = t;
+            services[t] = new CannedService();
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    for(int i = 0; i < charges; i++)
+                        services[thread].reusableCharge(new BigDecimal("1.00")).withToken(thread + "-" + i).execute();
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        try {
+            for(Future<Void> future : futures)
+                future.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for(int t = 0; t < threads; t++) {
+            assertEquals(charges, services[t].sentTokens.size());
+            for(int i = 0; i < charges; i++)
+                assertEquals(t + "-" + i, services[t].sentTokens.get(i));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.abstractions.IHpsBatchSweepTask;
+import com.hps.integrator.entities.HpsDirectMarketData;
+import com.hps.integrator.entities.HpsTransaction;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsCaptureQueue;
+import com.hps.integrator.services.HpsCreditService;
+import com.hps.integrator.services.HpsServicesConfig;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CaptureQueueTests {
+
+    private static class RecordingService extends HpsCreditService {
+        final Map<Integer, BigDecimal[]> captures = Collections.synchronizedMap(new HashMap<Integer, BigDecimal[]>());
+
+        RecordingService() throws HpsException {
+            super(new HpsServicesConfig());
+        }
+
+        @Override
+        public HpsTransaction captureTxn(Integer transactionId, BigDecimal amount, BigDecimal gratuity,
+                                         HpsDirectMarketData directMarketData) throws HpsException {
+            captures.put(transactionId, new BigDecimal[] { amount, gratuity });
+            return new HpsTransaction();
+        }
+    }
+
+    @Test
+    public void Queue_ShouldCoalesceCapturesPerAuthorization() throws Exception {
+        HpsCaptureQueue queue = new HpsCaptureQueue(new HpsServicesConfig(), 1, TimeUnit.HOURS);
+        queue.add(1, new BigDecimal("10.00"), null);
+        queue.add(1, new BigDecimal("5.50"), new BigDecimal("1.00"));
+        queue.add(2, new BigDecimal("3.00"), null);
+        queue.add(2);
+        queue.add(3, new BigDecimal("7.00"), null);
+        assertEquals(3, queue.getPendingCount());
+
+        List<IHpsBatchSweepTask> tasks = queue.drainSweepTasks();
+        assertEquals(3, tasks.size());
+        assertEquals(0, queue.getPendingCount());
+
+        RecordingService service = new RecordingService();
+        for(IHpsBatchSweepTask task : tasks)
+            task.execute(service);
+        assertEquals(new BigDecimal("15.50"), service.captures.get(1)[0]);
+        assertEquals(new BigDecimal("1.00"), service.captures.get(1)[1]);
+        assertNull(service.captures.get(2)[0]);
+        assertEquals(new BigDecimal("7.00"), service.captures.get(3)[0]);
+
+        // a failed capture is kept and combined with captures added since
+        queue.add(3, new BigDecimal("1.00"), null);
+        for(IHpsBatchSweepTask task : tasks)
+            queue.onSweepFailure(task, new HpsException("failed"));
+        assertEquals(3, queue.getPendingCount());
+
+        service = new RecordingService();
+        for(IHpsBatchSweepTask task : queue.drainSweepTasks())
+            task.execute(service);
+        assertEquals(new BigDecimal("8.00"), service.captures.get(3)[0]);
+        queue.shutdown();
+    }
+
+    @Test
+    public void Queue_ShouldSendTheRunningTotalOfASplitShipment() throws Exception {
+        final RecordingService service = new RecordingService();
+        HpsCaptureQueue queue = new HpsCaptureQueue(new HpsServicesConfig(), 1, TimeUnit.HOURS) {
+            @Override
+            protected HpsCreditService createCreditService() {
+                return service;
+            }
+        };
+        try {
+            queue.add(1, new BigDecimal("10.00"), null);
+            assertEquals(1, queue.flush());
+            assertEquals(new BigDecimal("10.00"), service.captures.get(1)[0]);
+
+            // the second shipment's capture replaces the first at the gateway, so it carries both
+            queue.add(1, new BigDecimal("4.00"), new BigDecimal("1.00"));
+            assertEquals(1, queue.flush());
+            assertEquals(new BigDecimal("14.00"), service.captures.get(1)[0]);
+            assertEquals(new BigDecimal("1.00"), service.captures.get(1)[1]);
+
+            // a drain before the batch closes ends the running totals
+            queue.add(1, new BigDecimal("2.00"), null);
+            for(IHpsBatchSweepTask task : queue.drainSweepTasks())
+                task.execute(service);
+            assertEquals(new BigDecimal("16.00"), service.captures.get(1)[0]);
+            queue.add(1, new BigDecimal("3.00"), null);
+            assertEquals(1, queue.flush());
+            assertEquals(new BigDecimal("3.00"), service.captures.get(1)[0]);
+        } finally {
+            queue.shutdown();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.HpsCardBrand;
+import com.hps.integrator.entities.HpsCardValidationResult;
+import com.hps.integrator.entities.credit.HpsCreditCard;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsInvalidRequestException;
+import com.hps.integrator.infrastructure.validation.HpsCardValidation;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.fluent.HpsFluentCreditService;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+public class CardValidationTests {
+
+    private static HpsCardValidationResult number(String number) {
+        return HpsCardValidation.validateNumber(number, 0, number.length());
+    }
+
+    @Test
+    public void Validation_ShouldCheckNumbersExpiryAndCvv() {
+        assertEquals(HpsCardValidationResult.Valid, number("4111111111111111"));
+        assertEquals(HpsCardValidationResult.Valid, number("378282246310005"));
+        assertEquals(HpsCardValidationResult.Valid, number("5555555555554444"));
+        assertEquals(HpsCardValidationResult.InvalidNumber, number("4111111111111112"));
+        assertEquals(HpsCardValidationResult.InvalidNumber, number("4111 1111 1111 1111"));
+        // passes Luhn, but Visa numbers are not 15 digits long
+        assertEquals(HpsCardValidationResult.InvalidLength, number("411111111111116"));
+
+        int october2026 = 2026 * 12 + 9;
+        assertEquals(HpsCardValidationResult.Valid, HpsCardValidation.validateExpiry(10, 26, october2026));
+        assertEquals(HpsCardValidationResult.Expired, HpsCardValidation.validateExpiry(9, 2026, october2026));
+        assertEquals(HpsCardValidationResult.InvalidExpiry, HpsCardValidation.validateExpiry(13, 2030, october2026));
+
+        assertEquals(HpsCardValidationResult.Valid, HpsCardValidation.validateCvv("1234", HpsCardBrand.Amex));
+        assertEquals(HpsCardValidationResult.InvalidCvv, HpsCardValidation.validateCvv("1234", HpsCardBrand.Visa));
+        assertEquals(HpsCardValidationResult.InvalidCvv, HpsCardValidation.validateCvv("12a", HpsCardBrand.Visa));
+        assertEquals(HpsCardValidationResult.Valid, HpsCardValidation.validateCvv(null, HpsCardBrand.Visa));
+    }
+
+    @Test
+    public void Validation_ShouldParseTrackData() {
+        assertEquals(HpsCardValidationResult.Valid,
+                HpsCardValidation.validateTrackData("%B4111111111111111^DOE/JOHN^4912101000000000000?"));
+        assertEquals(HpsCardValidationResult.Valid,
+                HpsCardValidation.validateTrackData(";4111111111111111=49121010000000000000?"));
+        assertEquals(HpsCardValidationResult.Valid, HpsCardValidation.validateTrackData("4111111111111111=4912101"));
+        assertEquals(HpsCardValidationResult.Expired,
+                HpsCardValidation.validateTrackData(";4111111111111111=10121010000000000000?"));
+        assertEquals(HpsCardValidationResult.InvalidNumber,
+                HpsCardValidation.validateTrackData("%B4111111111111112^DOE/JOHN^4912101?"));
+        assertEquals(HpsCardValidationResult.InvalidTrackData, HpsCardValidation.validateTrackData("%B4111111111111111"));
+        assertEquals(HpsCardValidationResult.InvalidTrackData, HpsCardValidation.validateTrackData(";4111111111111111=49"));
+    }
+
+    @Test
+    public void Builders_ShouldRejectExpiredCardsBeforeSending() throws Exception {
+        HpsCreditCard card = new HpsCreditCard();
+        card.setNumber("4111111111111111");
+        card.setExpMonth(1);
+        card.setExpYear(2015);
+        card.setCvv("123");
+
+        HpsFluentCreditService service = new HpsFluentCreditService(new HpsServicesConfig()).withCardValidation(true);
+        try {
+            service.charge(new BigDecimal("10.00")).withCard(card).execute();
+            fail("Expected the expired card to be rejected.");
+        } catch(HpsInvalidRequestException e) {
+            assertEquals(HpsExceptionCodes.ExpiredCard, e.getCode());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.HpsTransactionDetails;
+import com.hps.integrator.entities.HpsVelocityKey;
+import com.hps.integrator.fluent.CreditChargeTemplate;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsArgumentException;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.HpsVelocityLimiter;
+import com.hps.integrator.services.fluent.HpsFluentCreditService;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CreditChargeTemplateTests {
+
+    private static HpsFluentCreditService service() throws Exception {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_template");
+        return new HpsFluentCreditService(config);
+    }
+
+    private static class CannedService extends HpsFluentCreditService {
+        final List<String> sentTokens = new ArrayList<String>();
+
+        CannedService() throws HpsException {
+            super(config());
+        }
+
+        private static HpsServicesConfig config() {
+            HpsServicesConfig config = new HpsServicesConfig();
+            config.setSecretAPIKey("skapi_cert_template");
+            return config;
+        }
+
+        @Override
+        protected String send(byte[] data) throws HpsException {
+            sentTokens.add(ElementTree.parse(new String(data)).get("CreditSale").getString("TokenValue"));
+            return "<PosResponse><Ver1.0><Header><GatewayTxnId>1</GatewayTxnId><GatewayRspCode>0</GatewayRspCode>" +
+                    "</Header><Transaction><CreditSale><RspCode>00</RspCode><RspText>APPROVAL</RspText></CreditSale>" +
+                    "</Transaction></Ver1.0></PosResponse>";
+        }
+    }
+
+    @Test
+    public void Execute_ShouldShowEachChargesTokenToThePreSendChecks() throws Exception {
+        CannedService service = new CannedService();
+        HpsVelocityLimiter limiter = new HpsVelocityLimiter(100).setLimit(HpsVelocityKey.Card, 3, 1, TimeUnit.MINUTES);
+        service.setVelocityLimiter(limiter);
+        CreditChargeTemplate template = service.charge(new BigDecimal("1.00")).withToken("placeholder").toTemplate();
+
+        for(int i = 0; i < 10; i++)
+            template.execute(new BigDecimal("5.00"), "token-" + i);
+        assertEquals(10, service.sentTokens.size());
+        assertEquals("token-9", service.sentTokens.get(9));
+        assertEquals(1, limiter.getAttempts(HpsVelocityKey.Card, "token-9"));
+        assertEquals(0, limiter.getAttempts(HpsVelocityKey.Card, ""));
+    }
+
+    @Test
+    public void Render_ShouldSpliceEscapedAmountAndToken() throws Exception {
+        HpsFluentCreditService service = service();
+        CreditChargeTemplate template = service.charge(new BigDecimal("1.00"))
+                .withToken("placeholder")
+                .withRequestMultiUseToken(true)
+                .withTxnDescriptor("STORE 42")
+                .withDetails(new HpsTransactionDetails("memo", "invoice", "customer"))
+                .toTemplate();
+
+        String request = new String(template.render(new BigDecimal("12.34"), "a&b<c>'d\""), "UTF-8");
+        assertTrue(request.contains("<Amt>12.34</Amt>"));
+        assertTrue(request.contains("<TokenValue>a&amp;b&lt;c&gt;&apos;d&quot;</TokenValue>"));
+
+        Element sale = ElementTree.parse(request).get("CreditSale");
+        assertEquals("12.34", sale.getString("Amt"));
+        assertEquals("a&b<c>'d\"", sale.getString("TokenValue"));
+        assertEquals("N", sale.getString("AllowDup"));
+        assertEquals("STORE 42", sale.getString("TxnDescriptor"));
+        assertEquals("skapi_cert_template", ElementTree.parse(request).get("Header").getString("SecretAPIKey"));
+
+        String other = new String(template.render(new BigDecimal("5"), "té"), "UTF-8");
+        assertEquals("té", ElementTree.parse(other).get("CreditSale").getString("TokenValue"));
+        assertEquals("5", ElementTree.parse(other).get("CreditSale").getString("Amt"));
+    }
+
+    @Test
+    public void ToTemplate_ShouldRejectRequestsThatCannotBeReused() throws Exception {
+        HpsFluentCreditService service = service();
+        HpsTransactionDetails details = new HpsTransactionDetails(null, null, null);
+        details.setClientTransactionId("1");
+        try {
+            service.charge(new BigDecimal("1.00")).withToken("token").withDetails(details).toTemplate();
+            fail("Expected the client transaction id to be rejected.");
+        } catch(HpsArgumentException e) {
+            assertEquals("A charge template cannot carry a client transaction id.", e.getMessage());
+        }
+
+        try {
+            service.charge(new BigDecimal("1.00")).toTemplate();
+            fail("Expected validation to fail.");
+        } catch(HpsArgumentException e) {
+            assertEquals("Only one payment method is required.", e.getMessage());
+        }
+    }
+}
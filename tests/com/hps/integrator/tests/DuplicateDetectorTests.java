@@ -0,0 +1,108 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.fluent.CreditChargeTemplate;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsInvalidRequestException;
+import com.hps.integrator.services.HpsDuplicateDetector;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.fluent.HpsFluentCreditService;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DuplicateDetectorTests {
+
+    private static Element sale(ElementTree et, String allowDup, String amount, String token, String invoice) {
+        Element transaction = et.element("CreditSale");
+        Element block1 = et.subElement(transaction, "Block1");
+        et.subElement(block1, "AllowDup").text(allowDup);
+        et.subElement(block1, "Amt").text(amount);
+        et.subElement(et.subElement(et.subElement(block1, "CardData"), "TokenData"), "TokenValue").text(token);
+        Element fields = et.subElement(block1, "AdditionalTxnFields");
+        et.subElement(fields, "InvoiceNbr").text(invoice);
+        return transaction;
+    }
+
+    private static ElementTree response(String issuerCode) throws Exception {
+        return ElementTree.parse("<PosResponse><Ver1.0><Header><GatewayTxnId>1</GatewayTxnId><GatewayRspCode>0" +
+                "</GatewayRspCode></Header><Transaction><CreditSale><RspCode>" + issuerCode + "</RspCode>" +
+                "</CreditSale></Transaction></Ver1.0></PosResponse>");
+    }
+
+    @Test
+    public void Check_ShouldRejectApprovedRepeatsOnly() throws Exception {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_duplicates");
+        HpsDuplicateDetector detector = new HpsDuplicateDetector(10, TimeUnit.MINUTES, 10000, 0.0001);
+        ElementTree et = new ElementTree();
+
+        long fingerprint = detector.check(config, sale(et, "N", "10.00", "token", "INV-1"));
+        detector.record(fingerprint, response("51"));
+        fingerprint = detector.check(config, sale(et, "N", "10.00", "token", "INV-1"));
+        detector.record(fingerprint, response("00"));
+
+        try {
+            detector.check(config, sale(et, "N", "10.0", "token", "INV-1"));
+            fail("Expected the duplicate to be rejected.");
+        } catch(HpsInvalidRequestException e) {
+            assertEquals(HpsExceptionCodes.DuplicateTransaction, e.getCode());
+        }
+
+        assertEquals(HpsDuplicateDetector.NONE, detector.check(config, sale(et, "Y", "10.00", "token", "INV-1")));
+        assertTrue(detector.check(config, sale(et, "N", "10.01", "token", "INV-1")) != HpsDuplicateDetector.NONE);
+        detector.check(config, sale(et, "N", "10.00", "token", "INV-2"));
+
+        HpsServicesConfig other = new HpsServicesConfig();
+        other.setSecretAPIKey("skapi_cert_other");
+        detector.check(other, sale(et, "N", "10.00", "token", "INV-1"));
+
+        detector.setRejectDuplicates(false);
+        detector.check(config, sale(et, "N", "10.00", "token", "INV-1"));
+        assertEquals(2, detector.getDuplicateCount());
+    }
+
+    @Test
+    public void Check_ShouldTellTemplateChargesApartByToken() throws Exception {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_duplicates");
+        HpsFluentCreditService service = new HpsFluentCreditService(config) {
+            @Override
+            protected String send(byte[] data) throws HpsException {
+                return "<PosResponse><Ver1.0><Header><GatewayTxnId>1</GatewayTxnId><GatewayRspCode>0" +
+                        "</GatewayRspCode></Header><Transaction><CreditSale><RspCode>00</RspCode></CreditSale>" +
+                        "</Transaction></Ver1.0></PosResponse>";
+            }
+        };
+        HpsDuplicateDetector detector = new HpsDuplicateDetector(10, TimeUnit.MINUTES, 10000, 0.0001);
+        service.setDuplicateDetector(detector);
+        CreditChargeTemplate template = service.charge(new BigDecimal("1.00")).withToken("placeholder").toTemplate();
+
+        template.execute(new BigDecimal("10.00"), "token-1");
+        template.execute(new BigDecimal("10.00"), "token-2");
+        template.execute(new BigDecimal("12.00"), "token-1");
+        try {
+            template.execute(new BigDecimal("10.00"), "token-2");
+            fail("Expected the repeated charge to be rejected.");
+        } catch(HpsInvalidRequestException e) {
+            assertEquals(HpsExceptionCodes.DuplicateTransaction, e.getCode());
+        }
+        assertEquals(1, detector.getDuplicateCount());
+    }
+
+    @Test
+    public void MightContain_ShouldForgetFingerprintsAfterTheWindow() throws Exception {
+        HpsDuplicateDetector detector = new HpsDuplicateDetector(40, TimeUnit.MILLISECONDS, 1000, 0.001);
+        long fingerprint = HpsDuplicateDetector.fingerprint(1, "4111111111111111", new BigDecimal("5"), null);
+        detector.add(fingerprint);
+        assertTrue(detector.mightContain(fingerprint));
+
+        Thread.sleep(120);
+        assertFalse(detector.mightContain(fingerprint));
+    }
+}
@@ -0,0 +1,81 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.HpsLifecycleState;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsLifecycleTracker;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LifecycleTrackerTests {
+
+    private static Element request(String type, Integer referencedId, String amount) {
+        ElementTree et = new ElementTree();
+        Element transaction = et.element(type);
+        if(referencedId != null)
+            et.subElement(transaction, "GatewayTxnId").text(referencedId.toString());
+        if(amount != null)
+            et.subElement(transaction, "Amt").text(amount);
+        return transaction;
+    }
+
+    private static ElementTree response(int transactionId, String type, String authorizedAmount) throws HpsException {
+        return ElementTree.parse("<PosResponse><Ver1.0><Header><GatewayTxnId>" + transactionId + "</GatewayTxnId>" +
+                "<GatewayRspCode>0</GatewayRspCode></Header><Transaction><" + type + ">" +
+                (authorizedAmount != null ? "<AuthAmt>" + authorizedAmount + "</AuthAmt>" : "") +
+                "</" + type + "></Transaction></Ver1.0></PosResponse>");
+    }
+
+    private static void record(HpsLifecycleTracker tracker, String type, int transactionId, Integer referencedId,
+                               String amount, String authorizedAmount) throws HpsException {
+        tracker.record(request(type, referencedId, amount), response(transactionId, type, authorizedAmount));
+    }
+
+    @Test
+    public void Tracker_ShouldFollowAuthorizationsThroughSettlement() throws Exception {
+        HpsLifecycleTracker tracker = new HpsLifecycleTracker();
+        record(tracker, "CreditAuth", 1, null, "50.00", null);
+        record(tracker, "CreditAuth", 2, null, "20.00", "15.00");
+        record(tracker, "CreditAuth", 3, null, "80.00", null);
+        record(tracker, "CreditSale", 4, null, "10.00", null);
+
+        record(tracker, "CreditTxnEdit", 5, 1, "45.00", null);
+        record(tracker, "CreditReversal", 6, 3, "30.00", "50.00");
+        assertEquals(HpsLifecycleState.Authorized, tracker.getState(3));
+        assertEquals(new BigDecimal("50.00"), tracker.get(3).getAmount());
+
+        List<HpsLifecycleTracker.Entry> midRange = tracker.getUncapturedAuthorizations(new BigDecimal("15.00"), new BigDecimal("45.00"));
+        assertEquals(2, midRange.size());
+        assertEquals(2, midRange.get(0).getTransactionId());
+        assertEquals(1, midRange.get(1).getTransactionId());
+
+        record(tracker, "CreditAddToBatch", 7, 1, null, null);
+        record(tracker, "CreditVoid", 8, 2, null, null);
+        assertEquals(HpsLifecycleState.Captured, tracker.getState(1));
+        assertEquals(1, tracker.getUncapturedCount());
+        assertTrue(tracker.getUncapturedAuthorizations(1, TimeUnit.HOURS).isEmpty());
+        assertEquals(1, tracker.getUncapturedAuthorizations(-1, TimeUnit.HOURS).size());
+
+        // a voided authorization cannot be captured
+        assertFalse(tracker.canMoveTo(2, HpsLifecycleState.Captured));
+        record(tracker, "CreditAddToBatch", 9, 2, null, null);
+        assertEquals(HpsLifecycleState.Voided, tracker.getState(2));
+        assertEquals(1, tracker.getRejectedCount());
+
+        tracker.onBatchClosed();
+        assertEquals(HpsLifecycleState.Settled, tracker.getState(1));
+        assertEquals(HpsLifecycleState.Settled, tracker.getState(4));
+        assertNull(tracker.getState(2));
+        assertEquals(HpsLifecycleState.Authorized, tracker.getState(3));
+
+        tracker.onBatchClosed();
+        assertNull(tracker.getState(1));
+        assertEquals(HpsLifecycleState.Authorized, tracker.getState(3));
+    }
+}
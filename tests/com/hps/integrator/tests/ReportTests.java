@@ -0,0 +1,382 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.HpsCardBrand;
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsTransactionType;
+import com.hps.integrator.entities.credit.HpsCreditExceptions;
+import com.hps.integrator.entities.credit.HpsReportTransactionFilter;
+import com.hps.integrator.entities.credit.HpsReportTransactionSummary;
+import com.hps.integrator.entities.report.HpsReportAggregate;
+import com.hps.integrator.entities.report.HpsReportAggregator;
+import com.hps.integrator.entities.report.HpsReportTransactionStore;
+import com.hps.integrator.entities.report.HpsReportTransactionView;
+import com.hps.integrator.infrastructure.*;
+import com.hps.integrator.services.HpsCreditService;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.fluent.HpsFluentCreditService;
+import com.hps.integrator.tests.testdata.TestReports;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ReportTests {
+    private static final String REPORT_DAY = "2016-11-02T";
+
+    /**
+     * Answers <b>ReportActivity</b> with the rows dated within the requested range, ends included and newest
+     * first, and hands out copies of itself for the sub-ranges of a sliced listing.
+     */
+    private static class CannedReportService extends HpsCreditService {
+        final String[][] rows;
+        final List<String> requests;
+        final String failingStart;
+
+        CannedReportService(String[][] rows, List<String> requests, String failingStart) throws HpsException {
+            super(config());
+            this.rows = rows;
+            this.requests = requests;
+            this.failingStart = failingStart;
+        }
+
+        private static HpsServicesConfig config() {
+            HpsServicesConfig config = new HpsServicesConfig();
+            config.setSecretAPIKey("skapi_cert_report");
+            return config;
+        }
+
+        @Override
+        protected HpsCreditService createSliceService() throws HpsException {
+            return new CannedReportService(rows, requests, failingStart);
+        }
+
+        @Override
+        protected String send(byte[] data) throws HpsException {
+            Element request = ElementTree.parse(new String(data)).get("ReportActivity");
+            String start = request.getString("RptStartUtcDT"), end = request.getString("RptEndUtcDT");
+            requests.add(start);
+            if(start.equals(failingStart))
+                throw new HpsGatewayException(HpsExceptionCodes.GatewayTimeout, "Timed out.");
+
+            StringBuilder details = new StringBuilder();
+            for(int i = rows.length - 1; i >= 0; i--) {
+                if(rows[i][1].compareTo(start) < 0 || rows[i][1].compareTo(end) > 0)
+                    continue;
+                details.append("<Details><GatewayTxnId>").append(rows[i][0]).append("</GatewayTxnId>")
+                        .append("<ServiceName>CreditSale</ServiceName><GatewayRspCode>0</GatewayRspCode>")
+                        .append("<TxnUtcDT>").append(rows[i][1]).append("</TxnUtcDT>")
+                        .append("<MaskedCardNbr>411111******1111</MaskedCardNbr><Amt>").append(rows[i][2])
+                        .append("</Amt><IssuerRspCode>00</IssuerRspCode><IssuerRspText>APPROVAL</IssuerRspText>")
+                        .append("<OriginalGatewayTxnId>0</OriginalGatewayTxnId></Details>");
+            }
+            return "<PosResponse><Ver1.0><Header><GatewayTxnId>1</GatewayTxnId><GatewayRspCode>0</GatewayRspCode>" +
+                    "</Header><Transaction><ReportActivity><Header><TxnCnt>0</TxnCnt></Header>" + details +
+                    "</ReportActivity></Transaction></Ver1.0></PosResponse>";
+        }
+    }
+
+    /**
+     * Five rows between 08:00 and 12:00, one of them on the 09:00 boundary between the first two of four slices.
+     */
+    private static String[][] reportRows() {
+        return new String[][] {
+                { "1", REPORT_DAY + "08:30:00.000", "1.00" },
+                { "2", REPORT_DAY + "09:00:00.000", "2.00" },
+                { "4", REPORT_DAY + "09:45:00.000", "4.00" },
+                { "3", REPORT_DAY + "10:15:00.000", "3.00" },
+                { "5", REPORT_DAY + "11:59:00.000", "5.00" }
+        };
+    }
+
+    private static Date reportTime(String time) throws Exception {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").parse(REPORT_DAY + time);
+    }
+
+    private HpsReportTransactionSummary[] decode(HpsTransactionType filterBy) throws HpsException {
+        ElementTree rsp = ElementTree.parse(TestReports.REPORT_ACTIVITY_RESPONSE);
+        return new HpsReportTransactionSummary().fromElementTree(rsp, filterBy);
+    }
+
+    @Test
+    public void Summary_ShouldDecodeRowLocalFields() throws HpsException {
+        HpsReportTransactionSummary[] items = decode(null);
+        assertEquals(3, items.length);
+
+        assertEquals(1000000101, items[0].getTransactionID());
+        assertEquals(HpsTransactionType.Charge, items[0].getTransactionType());
+        assertEquals(new BigDecimal("10.00"), items[0].getAmount());
+        assertEquals("411111******1111", items[0].getMaskedCardNumber());
+        assertEquals("630709460821", items[0].getReferenceNumber());
+        assertNotNull(items[0].getTransactionDate());
+        assertNull(items[0].getExceptions());
+
+        assertEquals(HpsTransactionType.Authorize, items[1].getTransactionType());
+        assertNotNull(items[1].getTransactionDate());
+        assertEquals(1000000101, items[2].getOriginalTransactionId());
+    }
+
+    @Test
+    public void Summary_ShouldApplyFilter() throws HpsException {
+        HpsReportTransactionSummary[] items = decode(HpsTransactionType.Authorize);
+        assertEquals(1, items.length);
+        assertEquals(1000000102, items[0].getTransactionID());
+    }
+
+    @Test
+    public void Summary_ShouldExposeRowErrorsAsExceptions() throws HpsException {
+        HpsReportTransactionSummary[] items = decode(null);
+
+        HpsCreditExceptions declined = items[1].getExceptions();
+        assertNotNull(declined);
+        assertEquals("05", declined.getIssuerResponseCode());
+        assertNull(declined.getHpsException());
+        HpsIssuerException issuerException = declined.getHpsIssuerException();
+        assertEquals(HpsIssuerExceptionCodes.CardDeclined, issuerException.getCode());
+        assertEquals(1000000102, issuerException.getTransactionId());
+        assertSame(issuerException, declined.getHpsIssuerException());
+        assertEquals(0, issuerException.getStackTrace().length);
+
+        HpsGatewayException gatewayException = (HpsGatewayException)items[2].getExceptions().getHpsException();
+        assertEquals(HpsExceptionCodes.InvalidOriginalTransaction, gatewayException.getCode());
+        assertEquals(3, gatewayException.getDetails().getGatewayResponseCode());
+        assertNull(items[2].getExceptions().getHpsIssuerException());
+    }
+
+    @Test
+    public void Summary_ShouldApplyCompositeFilter() throws HpsException {
+        ElementTree rsp = ElementTree.parse(TestReports.REPORT_ACTIVITY_RESPONSE);
+
+        HpsReportTransactionSummary[] items = new HpsReportTransactionSummary().fromElementTree(rsp,
+                new HpsReportTransactionFilter()
+                        .withTransactionTypes(HpsTransactionType.Charge, HpsTransactionType.Authorize)
+                        .withAmountRange(new BigDecimal("20"), null));
+        assertEquals(1, items.length);
+        assertEquals(1000000102, items[0].getTransactionID());
+
+        items = new HpsReportTransactionSummary().fromElementTree(rsp,
+                new HpsReportTransactionFilter().withResponseCodeClasses(HpsResponseCodeClass.Declined, HpsResponseCodeClass.GatewayError));
+        assertEquals(2, items.length);
+
+        items = new HpsReportTransactionSummary().fromElementTree(rsp,
+                new HpsReportTransactionFilter().withMaskedCardSuffix("1000"));
+        assertEquals(1, items.length);
+        assertEquals(HpsTransactionType.Refund, items[0].getTransactionType());
+    }
+
+    @Test
+    public void Summary_ShouldStopAtLimit() throws HpsException {
+        ElementTree rsp = ElementTree.parse(TestReports.REPORT_ACTIVITY_RESPONSE);
+
+        HpsReportTransactionSummary[] items = new HpsReportTransactionSummary().fromElementTree(rsp,
+                new HpsReportTransactionFilter().withLimit(2));
+        assertEquals(2, items.length);
+        assertEquals(1000000102, items[1].getTransactionID());
+    }
+
+    @Test
+    public void Store_ShouldFilterAndAggregateColumns() throws HpsException {
+        HpsReportTransactionStore store = new HpsReportTransactionStore(1);
+        store.addAll(decode(null));
+        assertEquals(3, store.size());
+        assertEquals(HpsCardBrand.Amex, store.getCardBrand(2));
+        assertEquals("05", store.getIssuerResponseCode(1));
+
+        HpsReportTransactionView all = store.all();
+        assertEquals(4050, all.sumAmountCents());
+        assertEquals(500, all.minAmountCents());
+        assertEquals(2550, all.maxAmountCents());
+        assertEquals(1, all.countByTransactionType()[HpsTransactionType.Refund.ordinal()]);
+        assertEquals(1, all.countByResponseCodeClass()[HpsResponseCodeClass.Declined.ordinal()]);
+        assertEquals(1, all.countByCardBrand()[HpsCardBrand.MasterCard.ordinal()]);
+
+        HpsReportTransactionView approved = all.whereResponseCodeClass(HpsResponseCodeClass.Approved);
+        assertArrayEquals(new int[] { 1000000101 }, approved.getTransactionIds());
+        assertEquals(1, all.whereCardSuffix(1114).whereAmountBetween(2000, 3000).size());
+
+        assertEquals(1, store.removeBefore(store.getTimestamp(1)));
+        assertEquals(1000000102, store.getTransactionId(0));
+        assertEquals(2, store.all().size());
+    }
+
+    @Test
+    public void Aggregator_ShouldTotalAndMergeSlices() throws HpsException {
+        HpsReportTransactionSummary[] items = decode(null);
+        HpsReportAggregator first = new HpsReportAggregator();
+        first.onTransaction(items[0]);
+        HpsReportAggregator second = new HpsReportAggregator();
+        ElementTree rsp = ElementTree.parse(TestReports.REPORT_ACTIVITY_RESPONSE);
+        int handled = new HpsReportTransactionSummary().fromElementTree(rsp,
+                new HpsReportTransactionFilter().withTransactionTypes(HpsTransactionType.Authorize, HpsTransactionType.Refund), second);
+        assertEquals(2, handled);
+
+        HpsReportAggregator merged = first.merge(second);
+        assertEquals(3, merged.getTotal().getCount());
+        assertEquals(4050, merged.getTotal().getSumCents());
+        assertEquals(500, merged.getTotal().getMinCents());
+        assertEquals(2550, merged.getTotal().getMaxCents());
+        assertEquals(1, merged.getByTransactionType(HpsTransactionType.Refund).getCount());
+        assertEquals(2, merged.getByHour(9).getCount());
+        assertEquals(1, merged.getByResponseCodeClass(HpsResponseCodeClass.GatewayError).getCount());
+        assertEquals(2550, merged.getByCardBrand(HpsCardBrand.MasterCard).getSumCents());
+    }
+
+    @Test
+    public void Aggregate_ShouldEstimatePercentiles() {
+        HpsReportAggregate aggregate = new HpsReportAggregate();
+        for(int cents = 1; cents <= 10000; cents++)
+            aggregate.add(cents);
+
+        assertEquals(1, aggregate.getPercentileCents(0));
+        assertEquals(10000, aggregate.getPercentileCents(100));
+        assertEquals(5000, aggregate.getPercentileCents(50), 5000 * 0.07);
+        assertEquals(9900, aggregate.getPercentileCents(99), 9900 * 0.07);
+    }
+
+    @Test
+    public void ListBuilder_ShouldNarrowACopyOfTheCallersFilter() throws Exception {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_report");
+        HpsFluentCreditService service = new HpsFluentCreditService(config) {
+            @Override
+            protected String send(byte[] data) {
+                return TestReports.REPORT_ACTIVITY_RESPONSE;
+            }
+        };
+        HpsReportTransactionFilter filter = new HpsReportTransactionFilter()
+                .withTransactionTypes(HpsTransactionType.Charge, HpsTransactionType.Authorize);
+        Date end = new Date(), start = new Date(end.getTime() - 86400000L);
+
+        HpsReportTransactionSummary[] items = service.list().withUtcStartDate(start).withUtcEndDate(end)
+                .withFilter(filter).withFilterBy(HpsTransactionType.Authorize).execute();
+        assertEquals(1, items.length);
+        assertEquals(1000000102, items[0].getTransactionID());
+
+        // a type the caller's filter excludes stays excluded
+        items = service.list().withUtcStartDate(start).withUtcEndDate(end)
+                .withFilter(filter).withFilterBy(HpsTransactionType.Refund).execute();
+        assertEquals(0, items.length);
+
+        assertEquals(2, new HpsReportTransactionSummary().fromElementTree(
+                ElementTree.parse(TestReports.REPORT_ACTIVITY_RESPONSE), filter).length);
+    }
+
+    @Test
+    public void ListBuilder_ShouldNotChangeTheCallersFilter() throws Exception {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_report");
+        HpsFluentCreditService service = new HpsFluentCreditService(config) {
+            @Override
+            protected String send(byte[] data) {
+                return TestReports.REPORT_ACTIVITY_RESPONSE;
+            }
+        };
+        HpsReportTransactionFilter filter = new HpsReportTransactionFilter()
+                .withTransactionTypes(HpsTransactionType.Charge, HpsTransactionType.Authorize);
+        Date end = new Date(), start = new Date(end.getTime() - 86400000L);
+
+        HpsReportTransactionSummary[] items = service.list().withUtcStartDate(start).withUtcEndDate(end)
+                .withFilter(filter).withTransactionTypes(HpsTransactionType.Authorize).withLimit(5).execute();
+        assertEquals(1, items.length);
+
+        assertEquals(0, filter.getLimit());
+        assertEquals(2, new HpsReportTransactionSummary().fromElementTree(
+                ElementTree.parse(TestReports.REPORT_ACTIVITY_RESPONSE), filter).length);
+    }
+
+    @Test
+    public void SlicedList_ShouldRequestEachSliceAndMergeRowsOnceInDateOrder() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        CannedReportService service = new CannedReportService(reportRows(), requests, null);
+
+        HpsReportTransactionSummary[] items = service.list(reportTime("08:00:00.000"), reportTime("12:00:00.000"),
+                null, 4, 2);
+        assertEquals(4, requests.size());
+        assertEquals(5, items.length);
+        int[] expected = { 1, 2, 4, 3, 5 };
+        for(int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], items[i].getTransactionID());
+
+        // the limit applies to the merged rows, so it keeps the oldest
+        items = service.list(reportTime("08:00:00.000"), reportTime("12:00:00.000"),
+                new HpsReportTransactionFilter().withLimit(2), 4, 4);
+        assertEquals(2, items.length);
+        assertEquals(1, items[0].getTransactionID());
+        assertEquals(2, items[1].getTransactionID());
+    }
+
+    @Test
+    public void SlicedList_ShouldApplyTheLimitAfterSorting() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        CannedReportService service = new CannedReportService(reportRows(), requests, null);
+        HpsReportTransactionFilter filter = new HpsReportTransactionFilter().withLimit(1);
+        Date start = reportTime("08:00:00.000"), end = reportTime("12:00:00.000");
+
+        // the gateway answers newest first, so a limit applied while decoding would keep the wrong row
+        HpsReportTransactionSummary[] items = service.list(start, end, filter, 4, 4);
+        assertEquals(1, items.length);
+        assertEquals(1, items[0].getTransactionID());
+
+        items = service.list(start, end, filter, 1, 4);
+        assertEquals(1, items.length);
+        assertEquals(1, items[0].getTransactionID());
+        assertEquals(1, filter.getLimit());
+    }
+
+    @Test
+    public void SlicedList_ShouldMatchAnUnslicedListing() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        CannedReportService service = new CannedReportService(reportRows(), requests, null);
+        Date start = reportTime("08:00:00.000"), end = reportTime("12:00:00.000");
+
+        HpsReportTransactionSummary[] single = service.list(start, end, null, 1, 4);
+        assertEquals(1, requests.size());
+        HpsReportTransactionSummary[] sliced = service.list(start, end, null, 3, 4);
+        assertEquals(4, requests.size());
+
+        assertEquals(single.length, sliced.length);
+        for(int i = 0; i < single.length; i++)
+            assertEquals(single[i].getTransactionID(), sliced[i].getTransactionID());
+    }
+
+    @Test
+    public void SlicedAggregate_ShouldCountBoundaryRowsOnce() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        CannedReportService service = new CannedReportService(reportRows(), requests, null);
+
+        HpsReportAggregator aggregator = service.aggregate(reportTime("08:00:00.000"), reportTime("12:00:00.000"),
+                null, 4, 4);
+        assertEquals(4, requests.size());
+        assertEquals(5, aggregator.getTotal().getCount());
+        assertEquals(1500, aggregator.getTotal().getSumCents());
+    }
+
+    @Test
+    public void SlicedAggregate_ShouldRejectALimit() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        CannedReportService service = new CannedReportService(reportRows(), requests, null);
+
+        try {
+            service.aggregate(reportTime("08:00:00.000"), reportTime("12:00:00.000"),
+                    new HpsReportTransactionFilter().withLimit(2), 4, 4);
+            fail("Expected the limit to be rejected.");
+        } catch(HpsInvalidRequestException e) {
+            assertEquals(0, requests.size());
+        }
+    }
+
+    @Test
+    public void SlicedList_ShouldRethrowAFailedSlicesException() throws Exception {
+        List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        CannedReportService service = new CannedReportService(reportRows(), requests, REPORT_DAY + "10:00:00.000");
+
+        try {
+            service.list(reportTime("08:00:00.000"), reportTime("12:00:00.000"), null, 4, 4);
+            fail("Expected the failed slice's exception.");
+        } catch(HpsGatewayException e) {
+            assertEquals(HpsExceptionCodes.GatewayTimeout, e.getCode());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsResponseFamily;
+import com.hps.integrator.infrastructure.*;
+import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
+import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
+import com.hps.integrator.infrastructure.validation.HpsResponseClassifier;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResponseClassifierTests {
+
+    @Test
+    public void Classifier_ShouldShareClassificationsAcrossCodes() {
+        HpsResponseClassification declined = HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "51");
+        assertEquals(HpsResponseCodeClass.Declined, declined.getResponseCodeClass());
+        assertEquals(HpsIssuerExceptionCodes.CardDeclined, declined.getIssuerCode());
+        assertSame(declined, HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "05"));
+
+        assertTrue(HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "00").isApproved());
+        assertTrue(HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "85").isApproved());
+        assertEquals(HpsIssuerExceptionCodes.IncorrectCvc,
+                HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "N7").getIssuerCode());
+        assertEquals(HpsIssuerExceptionCodes.UnknownCreditError,
+                HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "ZZ").getIssuerCode());
+        assertEquals(HpsIssuerExceptionCodes.UnknownCreditError,
+                HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "100").getIssuerCode());
+
+        assertTrue(HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Check, "0").isApproved());
+        assertFalse(HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Check, null).isApproved());
+        assertFalse(HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Check, "00").isApproved());
+
+        assertEquals(HpsExceptionCodes.InvalidNumber, HpsResponseClassifier.classifyGateway(14).getGatewayCode());
+        assertEquals(HpsExceptionCodes.UnknownGatewayError, HpsResponseClassifier.classifyGateway(9999).getGatewayCode());
+        assertEquals(HpsResponseCodeClass.GatewayError,
+                HpsResponseClassifier.classify(HpsResponseFamily.Credit, 30, "00").getResponseCodeClass());
+    }
+
+    @Test
+    public void Validation_ShouldBuildExceptionsFromClassifications() {
+        HpsIssuerException issuer = HpsIssuerResponseValidation.getException(5, "54", "EXPIRED");
+        assertEquals(HpsIssuerExceptionCodes.ExpiredCard, issuer.getCode());
+        assertEquals("The card has expired.", issuer.getMessage());
+        assertEquals("EXPIRED", issuer.getDetails().getIssuerResponseText());
+        assertNull(HpsIssuerResponseValidation.getException(5, "10", null));
+        assertSame(HpsIssuerResponseValidation.getSharedException("54"), HpsIssuerResponseValidation.getSharedException("54"));
+
+        HpsException gateway = HpsGatewayResponseValidation.getException(3, "No such transaction");
+        assertEquals(HpsExceptionCodes.InvalidOriginalTransaction, ((HpsGatewayException)gateway).getCode());
+        assertEquals("No such transaction", gateway.getMessage());
+        assertTrue(HpsGatewayResponseValidation.getException(-2, null) instanceof HpsAuthenticationException);
+        assertNull(HpsGatewayResponseValidation.getSharedException(0));
+        assertSame(HpsGatewayResponseValidation.getSharedException(30), HpsGatewayResponseValidation.getSharedException(30));
+    }
+
+    @Test
+    public void Classifier_ShouldMatchCodesExactlyAndNotApproveMissingCodes() {
+        // as before the lookup tables: a missing code is an unknown error, and codes are case-sensitive
+        assertEquals(HpsIssuerExceptionCodes.UnknownCreditError,
+                HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, null).getIssuerCode());
+        assertEquals(HpsIssuerExceptionCodes.UnknownCreditError,
+                HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "").getIssuerCode());
+        assertEquals(HpsIssuerExceptionCodes.UnknownCreditError,
+                HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "n7").getIssuerCode());
+        assertEquals(HpsIssuerExceptionCodes.UnknownCreditError,
+                HpsResponseClassifier.classifyIssuer(HpsResponseFamily.Credit, "ec").getIssuerCode());
+
+        HpsIssuerException missing = HpsIssuerResponseValidation.getException(7, "", "");
+        assertEquals(HpsIssuerExceptionCodes.UnknownCreditError, missing.getCode());
+        assertEquals("An unknown issuer error has occurred.", missing.getMessage());
+        assertEquals(HpsIssuerExceptionCodes.UnknownCreditError, HpsIssuerResponseValidation.getException(7, null, null).getCode());
+        assertEquals(HpsIssuerExceptionCodes.UnknownCreditError, HpsIssuerResponseValidation.getSharedException(null).getCode());
+    }
+}
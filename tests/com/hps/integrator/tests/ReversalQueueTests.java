@@ -0,0 +1,250 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.abstractions.IHpsReversalListener;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsGatewayException;
+import com.hps.integrator.services.HpsReversalQueue;
+import com.hps.integrator.services.HpsServicesConfig;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReversalQueueTests {
+    private final File journal = new File(directory(), "reversals.journal");
+
+    private static File directory() {
+        try {
+            File directory = File.createTempFile("reversals", "");
+            directory.delete();
+            directory.mkdirs();
+            directory.deleteOnExit();
+            return directory;
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static HpsServicesConfig config() {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_reversals");
+        return config;
+    }
+
+    /**
+     * Reports each finished reversal as its id, negated if it was given up on.
+     */
+    private static IHpsReversalListener listener(final BlockingQueue<Integer> finished) {
+        return new IHpsReversalListener() {
+            public void onReversed(int transactionId) {
+                finished.add(transactionId);
+            }
+
+            public void onReversalFailed(int transactionId, HpsException exception) {
+                finished.add(-transactionId);
+            }
+        };
+    }
+
+    private static void awaitEmpty(HpsReversalQueue queue) throws InterruptedException {
+        for(int i = 0; i < 500 && queue.getPendingCount() > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void Open_ShouldSendOnlyTheReversalsLeftPendingInTheJournal() throws Exception {
+        FileOutputStream out = new FileOutputStream(journal);
+        out.write(("A 5 credit 10.00 USD\nA 6 debit 4.50 -\nD 5\nA 7 cre").getBytes("UTF-8"));
+        out.close();
+
+        final BlockingQueue<String> sent = new LinkedBlockingQueue<String>();
+        HpsReversalQueue queue = new HpsReversalQueue(config(), journal, false, 2, 3) {
+            @Override
+            protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency) {
+                sent.add(transactionId + " " + debit + " " + amount + " " + currency);
+            }
+        };
+        assertEquals("6 true 4.50 null", sent.poll(5, TimeUnit.SECONDS));
+        awaitEmpty(queue);
+        queue.shutdown();
+        assertTrue(sent.isEmpty());
+
+        // the completed reversal is recorded, so opening the journal again sends nothing
+        HpsReversalQueue reopened = new HpsReversalQueue(config(), journal, false, 2, 3) {
+            @Override
+            protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency) {
+                sent.add(transactionId + " " + debit + " " + amount + " " + currency);
+            }
+        };
+        assertEquals(0, reopened.getPendingCount());
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        reopened.shutdown();
+    }
+
+    @Test
+    public void Complete_ShouldCompactTheJournalWhileRunning() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        HpsReversalQueue queue = new HpsReversalQueue(config(), journal, false, 4, 3) {
+            @Override
+            protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency)
+                    throws HpsException {
+                if(transactionId != 1)
+                    return;
+                try {
+                    release.await();
+                } catch(InterruptedException e) {
+                    throw new HpsException("Interrupted.", e);
+                }
+            }
+        };
+        queue.reverseCredit(1, new BigDecimal("1.00"), "USD");
+        for(int i = 2; i <= 1500; i++)
+            queue.reverseCredit(i, new BigDecimal("1.00"), "USD");
+        for(int i = 0; i < 500 && queue.getPendingCount() > 1; i++)
+            Thread.sleep(10);
+        assertEquals(1, queue.getPendingCount());
+
+        // 1,500 additions and 1,499 completions were written; a compaction dropped most of them
+        assertTrue(journal.length() < 1000 * "A 1000 credit 1.00 USD\n".length());
+        queue.shutdown();
+
+        final BlockingQueue<String> sent = new LinkedBlockingQueue<String>();
+        HpsReversalQueue reopened = new HpsReversalQueue(config(), journal, false, 1, 3) {
+            @Override
+            protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency) {
+                sent.add(transactionId + " " + debit + " " + amount + " " + currency);
+            }
+        };
+        assertEquals("1 false 1.00 USD", sent.poll(5, TimeUnit.SECONDS));
+        awaitEmpty(reopened);
+        assertTrue(sent.isEmpty());
+        reopened.shutdown();
+    }
+
+    @Test
+    public void Shutdown_ShouldLeaveUnsentReversalsForTheNextOpen() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        HpsReversalQueue queue = new HpsReversalQueue(config(), journal, false, 1, 3) {
+            @Override
+            protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency)
+                    throws HpsException {
+                try {
+                    release.await();
+                } catch(InterruptedException e) {
+                    throw new HpsException("Interrupted.", e);
+                }
+            }
+        };
+        queue.reverseCredit(11, new BigDecimal("12.00"), "USD");
+        queue.shutdown();
+
+        final BlockingQueue<String> sent = new LinkedBlockingQueue<String>();
+        HpsReversalQueue reopened = new HpsReversalQueue(config(), journal, false, 1, 3) {
+            @Override
+            protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency) {
+                sent.add(transactionId + " " + debit + " " + amount + " " + currency);
+            }
+        };
+        assertEquals("11 false 12.00 USD", sent.poll(5, TimeUnit.SECONDS));
+        awaitEmpty(reopened);
+        reopened.shutdown();
+    }
+
+    @Test
+    public void Reverse_ShouldIgnoreATransactionAlreadyPendingOrDone() throws Exception {
+        final AtomicInteger sent = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        HpsReversalQueue queue = new HpsReversalQueue(config(), journal, false, 2, 3) {
+            @Override
+            protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency)
+                    throws HpsException {
+                sent.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch(InterruptedException e) {
+                    throw new HpsException("Interrupted.", e);
+                }
+            }
+        };
+        BlockingQueue<Integer> finished = new LinkedBlockingQueue<Integer>();
+        queue.setListener(listener(finished));
+
+        assertTrue(queue.reverseCredit(21, new BigDecimal("5.00"), "USD"));
+        assertFalse(queue.reverseCredit(21, new BigDecimal("5.00"), "USD"));
+        assertFalse(queue.reverseDebit(21, new BigDecimal("5.00")));
+        assertTrue(queue.isPending(21));
+
+        release.countDown();
+        assertEquals(Integer.valueOf(21), finished.poll(5, TimeUnit.SECONDS));
+        assertFalse(queue.reverseCredit(21, new BigDecimal("5.00"), "USD"));
+        assertFalse(queue.isPending(21));
+        assertEquals(1, sent.get());
+        queue.shutdown();
+    }
+
+    @Test
+    public void Reverse_ShouldRetryWithGrowingDelaysUntilItSucceeds() throws Exception {
+        final List<Long> attempts = Collections.synchronizedList(new ArrayList<Long>());
+        HpsReversalQueue queue = new HpsReversalQueue(config(), journal, false, 1, 5) {
+            @Override
+            protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency)
+                    throws HpsException {
+                attempts.add(System.nanoTime());
+                if(attempts.size() < 3)
+                    throw new HpsGatewayException(HpsExceptionCodes.GatewayTimeout, "Timed out.");
+            }
+        };
+        queue.setRetryDelay(50, TimeUnit.MILLISECONDS);
+        BlockingQueue<Integer> finished = new LinkedBlockingQueue<Integer>();
+        queue.setListener(listener(finished));
+
+        queue.reverseCredit(31, new BigDecimal("1.00"), "USD");
+        assertEquals(Integer.valueOf(31), finished.poll(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.size());
+        assertTrue(attempts.get(1) - attempts.get(0) >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(attempts.get(2) - attempts.get(1) >= TimeUnit.MILLISECONDS.toNanos(100));
+        queue.shutdown();
+    }
+
+    @Test
+    public void Reverse_ShouldGiveUpAfterTheLastAttemptButTreatNothingToReverseAsDone() throws Exception {
+        final AtomicInteger sent = new AtomicInteger();
+        HpsReversalQueue queue = new HpsReversalQueue(config(), journal, false, 1, 3) {
+            @Override
+            protected void reverse(int transactionId, boolean debit, BigDecimal amount, String currency)
+                    throws HpsException {
+                sent.incrementAndGet();
+                if(transactionId == 41)
+                    throw new HpsGatewayException(HpsExceptionCodes.UnknownGatewayError, "Failed.", 1, "Failed.");
+                throw new HpsGatewayException(HpsExceptionCodes.UnknownGatewayError, "Nothing to reverse.", 3,
+                        "Nothing to reverse.");
+            }
+        };
+        queue.setRetryDelay(1, TimeUnit.MILLISECONDS);
+        BlockingQueue<Integer> finished = new LinkedBlockingQueue<Integer>();
+        queue.setListener(listener(finished));
+
+        queue.reverseCredit(41, new BigDecimal("1.00"), "USD");
+        assertEquals(Integer.valueOf(-41), finished.poll(5, TimeUnit.SECONDS));
+        assertEquals(3, sent.get());
+
+        queue.reverseDebit(42, new BigDecimal("1.00"));
+        assertEquals(Integer.valueOf(42), finished.poll(5, TimeUnit.SECONDS));
+        assertEquals(4, sent.get());
+        queue.shutdown();
+    }
+}
@@ -0,0 +1,84 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.infrastructure.*;
+import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
+import com.hps.integrator.infrastructure.validation.HpsInputValidation;
+import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.fluent.HpsFluentCreditService;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+public class StacklessExceptionTests {
+
+    @Test
+    public void CaptureStackTracesOff_ShouldSkipStackTracesAndShareDetails() throws Exception {
+        HpsException.setCaptureStackTraces(false);
+        try {
+            try {
+                HpsInputValidation.checkAmount(new BigDecimal("-1"));
+                fail("Expected the amount to be rejected.");
+            } catch(HpsInvalidRequestException e) {
+                assertEquals(0, e.getStackTrace().length);
+            }
+
+            HpsIssuerException first = HpsIssuerResponseValidation.getException(1, "51", "DECLINE");
+            HpsIssuerException second = HpsIssuerResponseValidation.getException(2, "51", "DECLINE");
+            assertNotSame(first, second);
+            assertEquals(2, second.getTransactionId());
+            assertEquals(0, second.getStackTrace().length);
+            assertSame(first.getDetails(), second.getDetails());
+            assertEquals("DECLINE", second.getDetails().getIssuerResponseText());
+            assertEquals("INSUF FUNDS",
+                    HpsIssuerResponseValidation.getException(3, "51", "INSUF FUNDS").getDetails().getIssuerResponseText());
+
+            HpsGatewayException gateway = (HpsGatewayException)HpsGatewayResponseValidation.getException(14, "Invalid card");
+            assertEquals(0, gateway.getStackTrace().length);
+            assertEquals(14, gateway.getDetails().getGatewayResponseCode());
+            assertSame(gateway.getDetails(),
+                    ((HpsGatewayException)HpsGatewayResponseValidation.getException(14, "Invalid card")).getDetails());
+        } finally {
+            HpsException.setCaptureStackTraces(true);
+        }
+
+        HpsIssuerException e = HpsIssuerResponseValidation.getException(1, "51", "DECLINE");
+        assertTrue(e.getStackTrace().length > 0);
+        assertNotSame(e.getDetails(), HpsIssuerResponseValidation.getException(1, "51", "DECLINE").getDetails());
+    }
+
+    @Test
+    public void NewService_ShouldLeaveStackTraceCaptureAlone() throws Exception {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_stackless");
+        new HpsFluentCreditService(config);
+
+        assertTrue(HpsException.isCaptureStackTraces());
+        assertTrue(new HpsInvalidRequestException(HpsExceptionCodes.InvalidAmount, "Bad amount.", "amount")
+                .getStackTrace().length > 0);
+    }
+
+    @Test
+    public void StacklessExceptionsProperty_ShouldTurnCaptureOffForTheProcess() throws Exception {
+        File file = File.createTempFile("config", ".properties");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("HpsStacklessExceptions=true\n");
+        } finally {
+            writer.close();
+        }
+
+        new HpsConfiguration(file.getPath());
+        try {
+            assertFalse(HpsException.isCaptureStackTraces());
+            assertEquals(0, new HpsException("Declined.").getStackTrace().length);
+        } finally {
+            HpsException.setCaptureStackTraces(true);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.credit.HpsCharge;
+import com.hps.integrator.entities.credit.HpsReportTransactionDetails;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsCreditService;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.HpsTransactionArchive;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TransactionArchiveTests {
+
+    private static Element sale(String amount, String invoiceNumber) {
+        ElementTree et = new ElementTree();
+        Element transaction = et.element("CreditSale");
+        Element block1 = et.subElement(transaction, "Block1");
+        et.subElement(block1, "Amt").text(amount);
+        Element manualEntry = et.subElement(et.subElement(block1, "CardData"), "ManualEntry");
+        et.subElement(manualEntry, "CardNbr").text("4012002000060016");
+        et.subElement(et.subElement(block1, "AdditionalTxnFields"), "InvoiceNbr").text(invoiceNumber);
+        return transaction;
+    }
+
+    private static Element voidTransaction(int transactionId) {
+        ElementTree et = new ElementTree();
+        Element transaction = et.element("CreditVoid");
+        et.subElement(transaction, "GatewayTxnId").text(String.valueOf(transactionId));
+        return transaction;
+    }
+
+    private static String response(int transactionId, String type) {
+        return "<PosResponse><Ver1.0><Header><GatewayTxnId>" + transactionId + "</GatewayTxnId>" +
+                "<GatewayRspCode>0</GatewayRspCode></Header><Transaction><" + type + "><RspCode>00</RspCode>" +
+                "<RspText>APPROVAL</RspText><AuthCode>12345A</AuthCode></" + type + "></Transaction></Ver1.0></PosResponse>";
+    }
+
+    private static void record(HpsTransactionArchive archive, Element transaction, String clientTransactionId,
+                               int transactionId) throws Exception {
+        String raw = response(transactionId, transaction.tag());
+        assertTrue(archive.record(transaction, clientTransactionId, ElementTree.parse(raw), raw));
+    }
+
+    private static File tempDirectory() throws IOException {
+        File directory = File.createTempFile("archive", "");
+        directory.delete();
+        directory.mkdirs();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    @Test
+    public void Archive_ShouldIndexAndReopen() throws Exception {
+        File directory = tempDirectory();
+        HpsTransactionArchive archive = new HpsTransactionArchive(directory);
+        Date start = new Date();
+        record(archive, sale("10.00", "INV-1"), "order-1", 1000000101);
+        record(archive, sale("25.50", "INV-2"), "order-2", 1000000102);
+        record(archive, voidTransaction(1000000101), null, 1000000103);
+        archive.close();
+
+        // a record torn by a crash is dropped
+        File segment = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(raf.length());
+        raf.writeInt(5000);
+        raf.close();
+
+        archive = new HpsTransactionArchive(directory);
+        assertEquals(3, archive.getRecordCount());
+
+        HpsTransactionArchive.Record record = archive.getByClientTransactionId("order-2");
+        assertEquals(1000000102, record.getTransactionId());
+        assertEquals(new BigDecimal("25.50"), record.getAmount());
+        assertEquals("401200******0016", record.getMaskedCardNumber());
+        assertEquals("INV-2", record.getInvoiceNumber());
+        assertEquals("12345A", new HpsCharge().fromElementTree(record.getResponse()).getAuthorizationCode());
+
+        assertTrue(archive.isModified(1000000101));
+        assertFalse(archive.isModified(1000000102));
+        assertEquals(Integer.valueOf(1000000101), archive.get(1000000103).getReferencedTransactionId());
+        assertNull(archive.get(42));
+        assertEquals(3, archive.list(start, new Date(System.currentTimeMillis() + 1)).size());
+
+        record(archive, sale("1.00", "INV-3"), "order-3", 1000000104);
+        assertEquals("INV-3", archive.get(1000000104).getInvoiceNumber());
+        archive.close();
+    }
+
+    @Test
+    public void Archive_ShouldCompactOldSegments() throws Exception {
+        File directory = tempDirectory();
+        HpsTransactionArchive archive = new HpsTransactionArchive(directory, 1024);
+        for(int i = 0; i < 20; i++)
+            record(archive, sale("1.00", "INV-" + i), "order-" + i, i + 1);
+        int segments = directory.listFiles().length;
+        assertTrue(segments > 1);
+
+        archive.compact(new Date(System.currentTimeMillis() + 1));
+        assertEquals(1, directory.listFiles().length);
+        assertNull(archive.get(1));
+        assertNotNull(archive.get(20));
+        assertEquals(archive.getRecordCount(), archive.list(new Date(0), new Date(Long.MAX_VALUE)).size());
+        archive.close();
+    }
+
+    @Test
+    public void Get_ShouldAskTheGatewayOnceABatchHasClosedSinceTheTransaction() throws Exception {
+        File directory = tempDirectory();
+        HpsTransactionArchive archive = new HpsTransactionArchive(directory);
+        record(archive, sale("10.00", "INV-1"), null, 1);
+
+        final AtomicInteger sent = new AtomicInteger();
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_archive");
+        HpsCreditService service = new HpsCreditService(config) {
+            @Override
+            protected String send(byte[] data) throws HpsException {
+                sent.incrementAndGet();
+                return "<PosResponse><Ver1.0><Header><GatewayTxnId>9</GatewayTxnId><GatewayRspCode>0</GatewayRspCode>" +
+                        "</Header><Transaction><ReportTxnDetail><GatewayTxnId>1</GatewayTxnId>" +
+                        "<OriginalGatewayTxnId>0</OriginalGatewayTxnId>" +
+                        "<ServiceName>CreditSale</ServiceName><Data><TxnStatus>C</TxnStatus><RspCode>00</RspCode>" +
+                        "<RspText>APPROVAL</RspText></Data></ReportTxnDetail></Transaction></Ver1.0></PosResponse>";
+            }
+        };
+        service.setTransactionArchive(archive);
+
+        HpsReportTransactionDetails archived = service.get(1);
+        assertEquals(0, sent.get());
+        assertNull(archived.getExceptions());
+        assertFalse(archived.isSettled());
+
+        ElementTree et = new ElementTree();
+        String closed = "<PosResponse><Ver1.0><Header><GatewayTxnId>2</GatewayTxnId><GatewayRspCode>0</GatewayRspCode>" +
+                "</Header><Transaction><BatchClose><BatchId>42</BatchId></BatchClose></Transaction></Ver1.0></PosResponse>";
+        assertTrue(archive.record(et.element("BatchClose"), null, ElementTree.parse(closed), closed));
+        archive.close();
+
+        // the close is read back with the rest of the archive
+        archive = new HpsTransactionArchive(directory);
+        assertNotNull(archive.getLastBatchClose());
+        service.setTransactionArchive(archive);
+
+        HpsReportTransactionDetails reported = service.get(1);
+        assertEquals(1, sent.get());
+        assertEquals(1, reported.getTransactionID());
+        assertTrue(reported.isSettled());
+        archive.close();
+    }
+}
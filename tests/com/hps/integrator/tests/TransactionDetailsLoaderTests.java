@@ -0,0 +1,125 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.credit.HpsReportTransactionDetails;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.HpsTransactionDetailsLoader;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TransactionDetailsLoaderTests {
+
+    /**
+     * Answers every <b>ReportTxnDetail</b> with a canned response for the requested id, counting the requests.
+     */
+    private static class CannedLoader extends HpsTransactionDetailsLoader {
+        final AtomicInteger sent = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile CountDownLatch release;
+        volatile String status = "C";
+
+        CannedLoader() {
+            super(config(), false, 4, 10);
+        }
+
+        private static HpsServicesConfig config() {
+            HpsServicesConfig config = new HpsServicesConfig();
+            config.setSecretAPIKey("skapi_cert_details");
+            return config;
+        }
+
+        @Override
+        protected String send(byte[] data) throws HpsException {
+            sent.incrementAndGet();
+            entered.countDown();
+            CountDownLatch latch = release;
+            if(latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch(InterruptedException e) {
+                    throw new HpsException("Interrupted.", e);
+                }
+            }
+
+            String transactionId = ElementTree.parse(new String(data)).get("ReportTxnDetail").getString("TxnId");
+            return "<PosResponse><Ver1.0><Header><GatewayTxnId>99</GatewayTxnId><GatewayRspCode>0</GatewayRspCode>" +
+                    "</Header><Transaction><ReportTxnDetail><GatewayTxnId>" + transactionId + "</GatewayTxnId>" +
+                    "<OriginalGatewayTxnId>0</OriginalGatewayTxnId>" +
+                    "<ServiceName>CreditSale</ServiceName><Data><TxnStatus>" + status + "</TxnStatus>" +
+                    "<AuthAmt>10.00</AuthAmt><RspCode>0</RspCode><RspText>APPROVAL</RspText></Data>" +
+                    "</ReportTxnDetail></Transaction></Ver1.0></PosResponse>";
+        }
+    }
+
+    @Test
+    public void GetAll_ShouldSendOneRequestForAnIdAlreadyInFlight() throws Exception {
+        final CannedLoader loader = new CannedLoader();
+        loader.status = "A";
+        loader.release = new CountDownLatch(1);
+
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Map<Integer, HpsReportTransactionDetails>> call = new Callable<Map<Integer, HpsReportTransactionDetails>>() {
+                public Map<Integer, HpsReportTransactionDetails> call() throws Exception {
+                    return loader.getAll(Collections.singletonList(7));
+                }
+            };
+            Future<Map<Integer, HpsReportTransactionDetails>> first = callers.submit(call);
+            assertTrue(loader.entered.await(10, TimeUnit.SECONDS));
+            Future<Map<Integer, HpsReportTransactionDetails>> second = callers.submit(call);
+            // give the second call time to join the request held open in send
+            Thread.sleep(200);
+            loader.release.countDown();
+
+            HpsReportTransactionDetails a = first.get(10, TimeUnit.SECONDS).get(7);
+            HpsReportTransactionDetails b = second.get(10, TimeUnit.SECONDS).get(7);
+            assertEquals(1, loader.sent.get());
+            assertEquals(7, a.getTransactionID());
+            assertEquals(7, b.getTransactionID());
+            assertNotSame(a, b);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void GetAll_ShouldCacheSettledDetailsAndGiveEachCallerItsOwnCopy() throws Exception {
+        CannedLoader loader = new CannedLoader();
+
+        HpsReportTransactionDetails first = loader.getAll(Arrays.asList(1, 2)).get(1);
+        first.setTransactionStatus("changed");
+        HpsReportTransactionDetails second = loader.getAll(Collections.singletonList(1)).get(1);
+
+        assertEquals(2, loader.sent.get());
+        assertNotSame(first, second);
+        assertEquals("C", second.getTransactionStatus());
+        assertTrue(second.isSettled());
+    }
+
+    @Test
+    public void GetAll_ShouldFetchUnsettledDetailsAgain() throws Exception {
+        CannedLoader loader = new CannedLoader();
+        loader.status = "A";
+
+        loader.getAll(Collections.singletonList(3));
+        loader.getAll(Collections.singletonList(3));
+        assertEquals(2, loader.sent.get());
+
+        loader.status = "C";
+        loader.getAll(Collections.singletonList(3));
+        loader.getAll(Collections.singletonList(3));
+        assertEquals(3, loader.sent.get());
+
+        loader.clearCache();
+        loader.getAll(Collections.singletonList(3));
+        assertEquals(4, loader.sent.get());
+    }
+}
@@ -0,0 +1,78 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.services.HpsTransactionJournal;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TransactionJournalTests {
+
+    private static Element sale(String amount, String cardNumber) {
+        ElementTree et = new ElementTree();
+        Element transaction = et.element("CreditSale");
+        Element block1 = et.subElement(transaction, "Block1");
+        et.subElement(block1, "Amt").text(amount);
+        Element manualEntry = et.subElement(et.subElement(block1, "CardData"), "ManualEntry");
+        et.subElement(manualEntry, "CardNbr").text(cardNumber);
+        return transaction;
+    }
+
+    private static ElementTree response(int transactionId) throws HpsException {
+        return ElementTree.parse("<PosResponse><Ver1.0><Header><GatewayTxnId>" + transactionId + "</GatewayTxnId>" +
+                "<GatewayRspCode>0</GatewayRspCode></Header></Ver1.0></PosResponse>");
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("journal", ".bin");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void Journal_ShouldRecoverUnresolvedRequests() throws Exception {
+        File file = tempFile();
+        HpsTransactionJournal journal = new HpsTransactionJournal(file);
+        long completed = journal.begin(sale("10.00", "4012002000060016"), "order-1");
+        journal.complete(completed, response(1000000101));
+        journal.begin(sale("25.50", "5473500000000014"), "order-2");
+        journal.close();
+
+        journal = new HpsTransactionJournal(file);
+        List<HpsTransactionJournal.Entry> unresolved = journal.getUnresolved();
+        assertEquals(1, unresolved.size());
+        assertEquals("CreditSale", unresolved.get(0).getTransactionType());
+        assertEquals("order-2", unresolved.get(0).getClientTransactionId());
+        assertEquals(new BigDecimal("25.50"), unresolved.get(0).getAmount());
+        assertEquals("547350******0014", unresolved.get(0).getMaskedCardNumber());
+
+        assertEquals(1, journal.resolve("order-2"));
+        assertTrue(journal.begin(sale("1.00", "4012002000060016"), null) > unresolved.get(0).getSequence());
+        journal.close();
+    }
+
+    @Test
+    public void Journal_ShouldCompactWhenFull() throws Exception {
+        File file = tempFile();
+        HpsTransactionJournal journal = new HpsTransactionJournal(file, 1024, 1000);
+        long open = journal.begin(sale("5.00", "4012002000060016"), "open");
+        for(int i = 0; i < 100; i++)
+            journal.complete(journal.begin(sale("1.00", "4012002000060016"), "done-" + i), response(i + 1));
+
+        assertEquals(1, journal.getUnresolved().size());
+        assertEquals(open, journal.getUnresolved().get(0).getSequence());
+        journal.close();
+
+        journal = new HpsTransactionJournal(file, 1024, 1000);
+        assertEquals(1, journal.getUnresolved().size());
+        journal.close();
+    }
+}
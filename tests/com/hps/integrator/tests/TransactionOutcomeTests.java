@@ -0,0 +1,125 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.HpsResponseCodeClass;
+import com.hps.integrator.entities.HpsTransactionOutcome;
+import com.hps.integrator.entities.credit.HpsCharge;
+import com.hps.integrator.infrastructure.*;
+import com.hps.integrator.infrastructure.validation.HpsGatewayResponseValidation;
+import com.hps.integrator.infrastructure.validation.HpsIssuerResponseValidation;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.fluent.HpsFluentCreditService;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+public class TransactionOutcomeTests {
+
+    private static class CannedService extends HpsFluentCreditService {
+        String response;
+
+        CannedService() throws HpsException {
+            super(config());
+        }
+
+        private static HpsServicesConfig config() {
+            HpsServicesConfig config = new HpsServicesConfig();
+            config.setSecretAPIKey("skapi_cert_outcome");
+            return config;
+        }
+
+        @Override
+        protected ElementTree doTransaction(byte[] data, Element transaction, String clientTransactionId) throws HpsException {
+            return ElementTree.parse(response);
+        }
+
+        void respond(int gatewayCode, String issuerCode) {
+            response = "<PosResponse><Ver1.0><Header><GatewayTxnId>77</GatewayTxnId><GatewayRspCode>" + gatewayCode +
+                    "</GatewayRspCode><GatewayRspMsg>Message</GatewayRspMsg></Header><Transaction><CreditSale>" +
+                    "<RspCode>" + issuerCode + "</RspCode><RspText>Text</RspText></CreditSale></Transaction>" +
+                    "</Ver1.0></PosResponse>";
+        }
+
+        HpsTransactionOutcome<HpsCharge> charge(int gatewayCode, String issuerCode) throws HpsException {
+            respond(gatewayCode, issuerCode);
+            return charge(new BigDecimal("10.00")).withToken("token").tryExecute();
+        }
+    }
+
+    @Test
+    public void TryExecute_ShouldReturnDeclinesAndErrors() throws Exception {
+        CannedService service = new CannedService();
+
+        HpsTransactionOutcome<HpsCharge> approved = service.charge(0, "00");
+        assertTrue(approved.isApproved());
+        assertNotNull(approved.getResult());
+        assertNull(approved.getException());
+
+        HpsTransactionOutcome<HpsCharge> declined = service.charge(0, "51");
+        assertEquals(HpsResponseCodeClass.Declined, declined.getStatus());
+        assertEquals(HpsIssuerExceptionCodes.CardDeclined, declined.getIssuerCode());
+        assertEquals(Integer.valueOf(77), declined.getTransactionId());
+        assertEquals("51", declined.getResponseCode());
+        assertEquals("Text", declined.getResponseText());
+        assertEquals(0, declined.getException().getStackTrace().length);
+        assertSame(declined.getException(), service.charge(0, "51").getException());
+
+        HpsTransactionOutcome<HpsCharge> error = service.charge(14, "00");
+        assertEquals(HpsResponseCodeClass.GatewayError, error.getStatus());
+        assertEquals(HpsExceptionCodes.InvalidNumber, error.getGatewayCode());
+        assertEquals("14", error.getResponseCode());
+        try {
+            error.getResultOrThrow();
+            fail("Expected the gateway error to be thrown.");
+        } catch(HpsGatewayException e) {
+            assertEquals(14, e.getDetails().getGatewayResponseCode());
+        }
+
+        // outside tryExecute, declines are still thrown with their own details
+        service.respond(0, "51");
+        try {
+            service.charge(new BigDecimal("10.00")).withToken("token").execute();
+            fail("Expected the decline to be thrown.");
+        } catch(HpsIssuerException e) {
+            assertEquals(77, e.getTransactionId());
+            assertEquals("Text", e.getDetails().getIssuerResponseText());
+            assertTrue(e.getStackTrace().length > 0);
+        }
+    }
+
+    @Test
+    public void SharedExceptions_ShouldBeReadOnlyAndNotCollectSuppressedExceptions() {
+        HpsIssuerException declined = HpsIssuerResponseValidation.getSharedException("51");
+        declined.addSuppressed(new IllegalStateException("one caller's cleanup failure"));
+        assertEquals(0, HpsIssuerResponseValidation.getSharedException("51").getSuppressed().length);
+        try {
+            declined.setTransactionId(77);
+            fail("Expected the shared exception to refuse changes.");
+        } catch(UnsupportedOperationException e) {
+            assertEquals(0, declined.getTransactionId());
+        }
+        try {
+            declined.getDetails().setIssuerResponseText("Text");
+            fail("Expected the shared details to refuse changes.");
+        } catch(UnsupportedOperationException e) {
+            assertNull(declined.getDetails().getIssuerResponseText());
+        }
+
+        HpsGatewayException error = (HpsGatewayException)HpsGatewayResponseValidation.getSharedException(14);
+        error.addSuppressed(new IllegalStateException("one caller's cleanup failure"));
+        assertEquals(0, error.getSuppressed().length);
+        try {
+            error.setCode(HpsExceptionCodes.UnknownGatewayError);
+            fail("Expected the shared exception to refuse changes.");
+        } catch(UnsupportedOperationException e) {
+            assertEquals(HpsExceptionCodes.InvalidNumber, error.getCode());
+        }
+        try {
+            error.getDetails().setGatewayResponseCode(1);
+            fail("Expected the shared details to refuse changes.");
+        } catch(UnsupportedOperationException e) {
+            assertEquals(14, error.getDetails().getGatewayResponseCode());
+        }
+    }
+}
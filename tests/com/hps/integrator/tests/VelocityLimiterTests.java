@@ -0,0 +1,136 @@
+package com.hps.integrator.tests;
+
+import com.hps.integrator.entities.HpsVelocityKey;
+import com.hps.integrator.fluent.CreditChargeTemplate;
+import com.hps.integrator.infrastructure.Element;
+import com.hps.integrator.infrastructure.ElementTree;
+import com.hps.integrator.infrastructure.HpsException;
+import com.hps.integrator.infrastructure.HpsExceptionCodes;
+import com.hps.integrator.infrastructure.HpsInvalidRequestException;
+import com.hps.integrator.services.HpsDuplicateDetector;
+import com.hps.integrator.services.HpsServicesConfig;
+import com.hps.integrator.services.HpsVelocityLimiter;
+import com.hps.integrator.services.fluent.HpsFluentCreditService;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class VelocityLimiterTests {
+
+    private static Element verify(ElementTree et, String card, String customerId) {
+        Element transaction = et.element("CreditAccountVerify");
+        Element block1 = et.subElement(transaction, "Block1");
+        et.subElement(et.subElement(et.subElement(block1, "CardData"), "ManualEntry"), "CardNbr").text(card);
+        if(customerId != null)
+            et.subElement(et.subElement(block1, "AdditionalTxnFields"), "CustomerID").text(customerId);
+        return transaction;
+    }
+
+    @Test
+    public void Check_ShouldBlockCardsAndCustomersOverTheirLimits() throws Exception {
+        HpsVelocityLimiter limiter = new HpsVelocityLimiter(1000)
+                .setLimit(HpsVelocityKey.Card, 3, 1, TimeUnit.MINUTES)
+                .setLimit(HpsVelocityKey.Customer, 4, 1, TimeUnit.MINUTES);
+        ElementTree et = new ElementTree();
+
+        for(int i = 0; i < 3; i++)
+            limiter.check(verify(et, "4111111111111111", "customer"));
+        try {
+            limiter.check(verify(et, "4111111111111111", "customer"));
+            fail("Expected the card to be blocked.");
+        } catch(HpsInvalidRequestException e) {
+            assertEquals(HpsExceptionCodes.VelocityLimitExceeded, e.getCode());
+            assertEquals("card", e.getParamName());
+        }
+        assertEquals(3, limiter.getAttempts(HpsVelocityKey.Card, "4111111111111111"));
+
+        limiter.check(verify(et, "5454545454545454", "customer"));
+        try {
+            limiter.check(verify(et, "6011000990139424", "customer"));
+            fail("Expected the customer to be blocked.");
+        } catch(HpsInvalidRequestException e) {
+            assertEquals("customerId", e.getParamName());
+        }
+
+        // the customer's rejection did not count against the card
+        assertEquals(0, limiter.getAttempts(HpsVelocityKey.Card, "6011000990139424"));
+        limiter.check(verify(et, "6011000990139424", null));
+        limiter.check(et.element("CreditVoid"));
+        assertEquals(2, limiter.getBlockedCount());
+
+        for(int i = 0; i < 100; i++)
+            limiter.acquire(HpsVelocityKey.Ip, "10.0.0." + i);
+        assertFalse(limiter.tryAcquire(HpsVelocityKey.Card, "4111111111111111"));
+        assertTrue(limiter.removeLimit(HpsVelocityKey.Card).tryAcquire(HpsVelocityKey.Card, "4111111111111111"));
+    }
+
+    @Test
+    public void Check_ShouldCountTemplateChargesByTheirOwnToken() throws Exception {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_velocity");
+        HpsFluentCreditService service = new HpsFluentCreditService(config) {
+            @Override
+            protected String send(byte[] data) throws HpsException {
+                return "<PosResponse><Ver1.0><Header><GatewayTxnId>1</GatewayTxnId><GatewayRspCode>0" +
+                        "</GatewayRspCode></Header><Transaction><CreditSale><RspCode>00</RspCode></CreditSale>" +
+                        "</Transaction></Ver1.0></PosResponse>";
+            }
+        };
+        HpsVelocityLimiter limiter = new HpsVelocityLimiter(100).setLimit(HpsVelocityKey.Card, 2, 1, TimeUnit.MINUTES);
+        service.setVelocityLimiter(limiter);
+        CreditChargeTemplate template = service.charge(new BigDecimal("1.00")).withToken("placeholder").toTemplate();
+
+        for(int i = 0; i < 10; i++)
+            template.execute(new BigDecimal("1.00"), "token-" + i);
+        template.execute(new BigDecimal("1.00"), "token-0");
+        try {
+            template.execute(new BigDecimal("1.00"), "token-0");
+            fail("Expected the card to be blocked.");
+        } catch(HpsInvalidRequestException e) {
+            assertEquals("card", e.getParamName());
+        }
+    }
+
+    @Test
+    public void Check_ShouldNotCountChargesRejectedAsDuplicates() throws Exception {
+        HpsServicesConfig config = new HpsServicesConfig();
+        config.setSecretAPIKey("skapi_cert_velocity");
+        HpsFluentCreditService service = new HpsFluentCreditService(config) {
+            @Override
+            protected String send(byte[] data) throws HpsException {
+                return "<PosResponse><Ver1.0><Header><GatewayTxnId>1</GatewayTxnId><GatewayRspCode>0" +
+                        "</GatewayRspCode></Header><Transaction><CreditSale><RspCode>00</RspCode></CreditSale>" +
+                        "</Transaction></Ver1.0></PosResponse>";
+            }
+        };
+        HpsVelocityLimiter limiter = new HpsVelocityLimiter(100).setLimit(HpsVelocityKey.Card, 2, 1, TimeUnit.MINUTES);
+        service.setVelocityLimiter(limiter);
+        service.setDuplicateDetector(new HpsDuplicateDetector(10, TimeUnit.MINUTES, 1000, 0.0001));
+        CreditChargeTemplate template = service.charge(new BigDecimal("1.00")).withToken("placeholder").toTemplate();
+
+        // a double click: the repeat is caught as a duplicate and leaves the card's second attempt unused
+        template.execute(new BigDecimal("10.00"), "token");
+        try {
+            template.execute(new BigDecimal("10.00"), "token");
+            fail("Expected the repeated charge to be rejected.");
+        } catch(HpsInvalidRequestException e) {
+            assertEquals(HpsExceptionCodes.DuplicateTransaction, e.getCode());
+        }
+        template.execute(new BigDecimal("12.00"), "token");
+        assertEquals(0, limiter.getBlockedCount());
+    }
+
+    @Test
+    public void TryAcquire_ShouldAllowAttemptsAgainAfterTheWindow() throws Exception {
+        HpsVelocityLimiter limiter = new HpsVelocityLimiter(100).setLimit(HpsVelocityKey.Ip, 2, 40, TimeUnit.MILLISECONDS);
+        assertTrue(limiter.tryAcquire(HpsVelocityKey.Ip, "10.0.0.1"));
+        assertTrue(limiter.tryAcquire(HpsVelocityKey.Ip, "10.0.0.1"));
+        assertFalse(limiter.tryAcquire(HpsVelocityKey.Ip, "10.0.0.1"));
+
+        Thread.sleep(120);
+        assertTrue(limiter.tryAcquire(HpsVelocityKey.Ip, "10.0.0.1"));
+    }
+}
@@ -0,0 +1,41 @@
+package com.hps.integrator.tests.testdata;
+
+public class TestReports {
+    public static final String REPORT_ACTIVITY_RESPONSE = "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+            "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+            "<soap:Body><PosResponse rootUrl=\"https://cert.api2.heartlandportico.com/Hps.Exchange.PosGateway\" xmlns=\"http://Hps.Exchange.PosGateway\">" +
+            "<Ver1.0>" +
+            "<Header>" +
+            "<LicenseId>20903</LicenseId><SiteId>20904</SiteId><DeviceId>90911395</DeviceId>" +
+            "<GatewayTxnId>1000000001</GatewayTxnId><GatewayRspCode>0</GatewayRspCode><GatewayRspMsg>Success</GatewayRspMsg>" +
+            "<RspDT>2016-11-02T10:15:00.000</RspDT>" +
+            "</Header>" +
+            "<Transaction><ReportActivity>" +
+            "<Header><SiteId>20904</SiteId><TxnCnt>3</TxnCnt></Header>" +
+            "<Details>" +
+            "<GatewayTxnId>1000000101</GatewayTxnId><ServiceName>CreditSale</ServiceName>" +
+            "<GatewayRspCode>0</GatewayRspCode><GatewayRspMsg>Success</GatewayRspMsg>" +
+            "<TxnUtcDT>2016-11-02T09:00:01.250</TxnUtcDT><MaskedCardNbr>411111******1111</MaskedCardNbr>" +
+            "<Amt>10.00</Amt><SettlementAmt>10.00</SettlementAmt>" +
+            "<IssuerRspCode>00</IssuerRspCode><IssuerRspText>APPROVAL</IssuerRspText>" +
+            "<RefNbr>630709460821</RefNbr><OriginalGatewayTxnId>0</OriginalGatewayTxnId>" +
+            "</Details>" +
+            "<Details>" +
+            "<GatewayTxnId>1000000102</GatewayTxnId><ServiceName>CreditAuth</ServiceName>" +
+            "<GatewayRspCode>0</GatewayRspCode><GatewayRspMsg>Success</GatewayRspMsg>" +
+            "<TxnUtcDT>2016-11-02T09:30:00</TxnUtcDT><MaskedCardNbr>542418******1114</MaskedCardNbr>" +
+            "<Amt>25.50</Amt><SettlementAmt>0.00</SettlementAmt>" +
+            "<IssuerRspCode>05</IssuerRspCode><IssuerRspText>DECLINE</IssuerRspText>" +
+            "<RefNbr>630709460822</RefNbr><OriginalGatewayTxnId>0</OriginalGatewayTxnId>" +
+            "</Details>" +
+            "<Details>" +
+            "<GatewayTxnId>1000000103</GatewayTxnId><ServiceName>CreditReturn</ServiceName>" +
+            "<GatewayRspCode>3</GatewayRspCode><GatewayRspMsg>Invalid original transaction</GatewayRspMsg>" +
+            "<TxnUtcDT>2016-11-02T10:00:00.000</TxnUtcDT><MaskedCardNbr>372700******1000</MaskedCardNbr>" +
+            "<Amt>5.00</Amt><SettlementAmt>0.00</SettlementAmt>" +
+            "<IssuerRspCode>00</IssuerRspCode><IssuerRspText></IssuerRspText>" +
+            "<OriginalGatewayTxnId>1000000101</OriginalGatewayTxnId>" +
+            "</Details>" +
+            "</ReportActivity></Transaction>" +
+            "</Ver1.0></PosResponse></soap:Body></soap:Envelope>";
+}